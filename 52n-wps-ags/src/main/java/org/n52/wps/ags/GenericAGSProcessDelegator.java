@@ -53,7 +53,7 @@ import org.n52.wps.io.data.binding.literal.LiteralDoubleBinding;
 import org.n52.wps.io.data.binding.literal.LiteralFloatBinding;
 import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
 import org.n52.wps.io.data.binding.literal.LiteralStringBinding;
-import org.n52.wps.server.IAlgorithm;
+import org.n52.wps.server.IDelegatingAlgorithm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,7 +61,7 @@ import org.slf4j.LoggerFactory;
  * @author Matthias Mueller, TU Dresden
  *
  */
-public class GenericAGSProcessDelegator implements IAlgorithm{
+public class GenericAGSProcessDelegator implements IDelegatingAlgorithm{
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(GenericAGSProcessDelegator.class);
 	private final String processID;
@@ -48,7 +48,6 @@
 package org.n52.wps.server.algorithm;
 
 import java.util.Iterator;
-import java.util.UUID;
 
 import javax.xml.namespace.QName;
 
@@ -106,7 +105,6 @@ public class SimpleBufferAlgorithm extends AbstractAnnotatedAlgorithm {
         //Collection resultColl = new ArrayList();
         double i = 0;
         int totalNumberOfFeatures = data.size();
-        String uuid = UUID.randomUUID().toString();
         result = DefaultFeatureCollections.newCollection();
         SimpleFeatureType featureType = null;
         LOGGER.debug("");
@@ -130,7 +128,7 @@ public class SimpleBufferAlgorithm extends AbstractAnnotatedAlgorithm {
                 if (geometry.getUserData() instanceof CoordinateReferenceSystem) {
                     crs = ((CoordinateReferenceSystem) geometry.getUserData());
                 }
-                featureType = GTHelper.createFeatureType(feature.getProperties(), geometryBuffered, uuid, crs);
+                featureType = GTHelper.createFeatureType(feature.getProperties(), geometryBuffered, crs);
                 QName qname = GTHelper.createGML3SchemaForFeatureType(featureType);
                 SchemaRepository.registerSchemaLocation(qname.getNamespaceURI(), qname.getLocalPart());
 
@@ -52,7 +52,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -250,11 +249,9 @@ public class CoordinateTransformAlgorithm extends
 
 	private Feature createFeature(String id, Geometry geometry,
 			CoordinateReferenceSystem crs, Collection<Property> properties) {
-		String uuid = UUID.randomUUID().toString();
-		
 		if(featureType == null){
 		featureType = GTHelper.createFeatureType(properties,
-				geometry, uuid, crs);
+				geometry, crs);
 		GTHelper.createGML3SchemaForFeatureType(featureType);
 		}
 
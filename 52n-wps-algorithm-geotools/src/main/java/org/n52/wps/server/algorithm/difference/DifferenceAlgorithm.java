@@ -52,7 +52,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 import javax.xml.namespace.QName;
 
@@ -124,7 +123,6 @@ public class DifferenceAlgorithm extends AbstractSelfDescribingAlgorithm {
 		Iterator polygonIterator = polygons.iterator();
 		int j = 1;
 		
-		String uuid = UUID.randomUUID().toString();
 		while(polygonIterator.hasNext()){
 			SimpleFeature polygon = (SimpleFeature) polygonIterator.next();
 
@@ -142,7 +140,7 @@ public class DifferenceAlgorithm extends AbstractSelfDescribingAlgorithm {
 					Geometry polygonGeometry = (Geometry) polygon.getDefaultGeometry();
 					Geometry intersection = polygonGeometry.difference(lineStringGeometry);
 					if(i==1){
-						 featureType = GTHelper.createFeatureType(polygon.getProperties(), intersection, uuid, polygon.getFeatureType().getCoordinateReferenceSystem());
+						 featureType = GTHelper.createFeatureType(polygon.getProperties(), intersection, polygon.getFeatureType().getCoordinateReferenceSystem());
 						 QName qname = GTHelper.createGML3SchemaForFeatureType(featureType);
 						 SchemaRepository.registerSchemaLocation(qname.getNamespaceURI(), qname.getLocalPart());
 					}
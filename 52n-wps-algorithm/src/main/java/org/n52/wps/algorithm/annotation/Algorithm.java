@@ -34,4 +34,5 @@ public @interface Algorithm {
     String version();
     boolean storeSupported() default true;
     boolean statusSupported() default true;
+    boolean deterministic() default false;
 }
@@ -155,7 +155,8 @@ public class AnnotatedAlgorithmIntrospector {
                 abstrakt(algorithm.abstrakt()).
                 version(algorithm.version()).
                 storeSupported(algorithm.storeSupported()).
-                statusSupported(algorithm.statusSupported());
+                statusSupported(algorithm.statusSupported()).
+                deterministic(algorithm.deterministic());
         
         parseElements(algorithmClass.getDeclaredMethods(),
                 INPUT_METHOD_PARSERS,
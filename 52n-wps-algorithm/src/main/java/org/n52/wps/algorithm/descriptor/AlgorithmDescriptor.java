@@ -33,6 +33,7 @@ public class AlgorithmDescriptor extends Descriptor {
     private final String version;
     private final boolean storeSupported;
     private final boolean statusSupported;
+    private final boolean deterministic;
     private final Map<String, InputDescriptor> inputDescriptorMap;
     private final Map<String, OutputDescriptor> outputDescriptorMap;
 
@@ -41,6 +42,7 @@ public class AlgorithmDescriptor extends Descriptor {
         this.version = builder.version;
         this.storeSupported = builder.storeSupported;
         this.statusSupported = builder.statusSupported;
+        this.deterministic = builder.deterministic;
 
         Preconditions.checkState(
                 builder.outputDescriptors.size() > 0,
@@ -72,6 +74,15 @@ public class AlgorithmDescriptor extends Descriptor {
         return statusSupported;
     }
 
+    /**
+     * @return <code>true</code> if the algorithm always produces the same
+     *         outputs for the same inputs and has no side effects, so that
+     *         identical executions may share their results.
+     */
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
     public List<String> getInputIdentifiers() {
         return Collections.unmodifiableList(new ArrayList<String>(inputDescriptorMap.keySet()));
     }
@@ -120,6 +131,7 @@ public class AlgorithmDescriptor extends Descriptor {
         private String version = "1.0.0";
         private boolean storeSupported = true;
         private boolean statusSupported = true;
+        private boolean deterministic = false;
         private List<InputDescriptor> inputDescriptors;
         private List<OutputDescriptor> outputDescriptors;
 
@@ -145,6 +157,11 @@ public class AlgorithmDescriptor extends Descriptor {
             return self();
         }
 
+        public B deterministic(boolean deterministic) {
+            this.deterministic = deterministic;
+            return self();
+        }
+
         public B addInputDescriptor(InputDescriptor.Builder inputDescriptorBuilder) {
             return addInputDescriptor(inputDescriptorBuilder.build());
         }
@@ -332,6 +332,16 @@ public abstract class AbstractDescriptorAlgorithm implements IAlgorithm, ISubjec
     
     protected abstract AlgorithmDescriptor createAlgorithmDescriptor();
 
+    /**
+     * @return <code>true</code> if the algorithm descriptor declares this
+     *         algorithm as deterministic, i.e. identical executions may share
+     *         their results.
+     */
+    public boolean isDeterministic() {
+        AlgorithmDescriptor algorithmDescriptor = getAlgorithmDescriptor();
+        return algorithmDescriptor != null && algorithmDescriptor.isDeterministic();
+    }
+
     @Override
     public Class<? extends IData> getInputDataType(String identifier) {
         AlgorithmDescriptor algorithmDescriptor = getAlgorithmDescriptor();
@@ -0,0 +1,28 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.server;
+
+/**
+ * Marker for algorithms that delegate their work to a remote service or an
+ * external process and spend most of their execution time waiting for it.
+ * Such algorithms are executed separately from the algorithms computing within
+ * the JVM, so they neither occupy nor wait for the threads reserved for the
+ * latter.
+ */
+public interface IDelegatingAlgorithm extends IAlgorithm {
+
+}
@@ -16,6 +16,7 @@
  */
 package org.n52.wps.commons.context;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -27,6 +28,7 @@ public class ExecutionContext {
 
     private String tempFolderName;
     private List<OutputDefinitionType> outputDefinitionTypes;
+    private TempFileManager tempFileManager;
 
     public ExecutionContext() {
         this(Arrays.asList(new OutputDefinitionType[0]));
@@ -40,6 +42,9 @@ public class ExecutionContext {
         this.tempFolderName = UUID.randomUUID().toString();
         this.outputDefinitionTypes = Collections.unmodifiableList(outputs != null ? outputs
                                                                                  : Arrays.asList(new OutputDefinitionType[0]));
+        this.tempFileManager = new TempFileManager();
+        // the temporary directory is created on demand by the processes
+        this.tempFileManager.register(new File(getTempDirectoryPath()));
     }
 
     public String getTempDirectoryPath() {
@@ -50,4 +55,12 @@ public class ExecutionContext {
     public List<OutputDefinitionType> getOutputs() {
         return this.outputDefinitionTypes;
     }
+
+    /**
+     * @return the manager of the temporary files written while executing the
+     *         request of this context
+     */
+    public TempFileManager getTempFileManager() {
+        return this.tempFileManager;
+    }
 }
@@ -0,0 +1,213 @@
+/**
+ * ﻿Copyright (C) 2006 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.commons.context;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the temporary files and directories written while a request is
+ * parsed, executed and its outputs are generated, and removes them once the
+ * request completed. The number of files and bytes removed are kept as disk
+ * usage metrics of the request.
+ */
+public class TempFileManager {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(TempFileManager.class);
+
+    private final Set<File> files = new LinkedHashSet<File>();
+    private boolean closed;
+    private int registeredFiles;
+    private long deletedFiles;
+    private long deletedBytes;
+    private long failedFiles;
+
+    /**
+     * Registers a temporary file or directory for deletion. Directories are
+     * deleted including their content.
+     * 
+     * @param file
+     *        the file or directory
+     * @return the file
+     */
+    public File register(File file) {
+        if (file == null) {
+            return null;
+        }
+        boolean late;
+        synchronized (this) {
+            late = closed;
+            if ( !late && files.add(file.getAbsoluteFile())) {
+                registeredFiles++;
+            }
+        }
+        if (late) {
+            // the request already completed, do not leak it at least beyond the lifetime of the VM
+            LOGGER.warn("Temporary file {} registered after cleanup, deleting it on exit", file);
+            file.deleteOnExit();
+        }
+        return file;
+    }
+
+    /**
+     * Creates a temporary file in the default temporary-file directory and
+     * registers it for deletion.
+     * 
+     * @see File#createTempFile(String, String)
+     */
+    public File createTempFile(String prefix, String suffix) throws IOException {
+        return register(File.createTempFile(prefix, suffix));
+    }
+
+    /**
+     * Creates a temporary directory in the default temporary-file directory
+     * and registers it for deletion including its content.
+     */
+    public File createTempDirectory(String prefix) throws IOException {
+        return register(Files.createTempDirectory(prefix).toFile());
+    }
+
+    /**
+     * Deletes all registered files and directories, files registered
+     * afterwards are deleted on exit of the VM.
+     * 
+     * @return <code>false</code> if the files were already deleted by a
+     *         previous call
+     */
+    public boolean cleanup() {
+        List<File> toDelete;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            toDelete = new ArrayList<File>(files);
+            files.clear();
+        }
+        // files created in registered directories are usually registered later
+        Collections.reverse(toDelete);
+        for (File file : toDelete) {
+            delete(file.toPath());
+        }
+        return true;
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    long size = attrs.size();
+                    if (deleteEntry(file)) {
+                        synchronized (TempFileManager.this) {
+                            deletedBytes += size;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    deleteEntry(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    if ( !(e instanceof NoSuchFileException)) {
+                        failed(file, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e) {
+            failed(path, e);
+        }
+    }
+
+    private boolean deleteEntry(Path path) {
+        try {
+            if (Files.deleteIfExists(path)) {
+                synchronized (this) {
+                    deletedFiles++;
+                }
+                return true;
+            }
+        }
+        catch (IOException e) {
+            failed(path, e);
+        }
+        return false;
+    }
+
+    private void failed(Path path, IOException e) {
+        synchronized (this) {
+            failedFiles++;
+        }
+        LOGGER.warn("Could not delete temporary file " + path + ", deleting it on exit", e);
+        path.toFile().deleteOnExit();
+    }
+
+    /**
+     * @return the number of files and directories registered
+     */
+    public synchronized int getRegisteredFiles() {
+        return registeredFiles;
+    }
+
+    /**
+     * @return the number of files and directories deleted by
+     *         {@link #cleanup()}, including the content of registered
+     *         directories
+     */
+    public synchronized long getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    /**
+     * @return the size of the files deleted by {@link #cleanup()} in bytes
+     */
+    public synchronized long getDeletedBytes() {
+        return deletedBytes;
+    }
+
+    /**
+     * @return the number of files and directories that could not be deleted
+     */
+    public synchronized long getFailedFiles() {
+        return failedFiles;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
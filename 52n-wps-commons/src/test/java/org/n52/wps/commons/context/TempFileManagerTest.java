@@ -0,0 +1,77 @@
+/**
+ * ﻿Copyright (C) 2006 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.n52.wps.commons.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TempFileManagerTest {
+
+    @Test
+    public void testCleanup() throws IOException {
+        TempFileManager manager = new TempFileManager();
+
+        File file = manager.createTempFile("wps", ".tmp");
+        write(file, 10);
+        File directory = manager.createTempDirectory("wps");
+        File nested = new File(directory, "nested");
+        assertTrue(nested.mkdir());
+        write(new File(nested, "content"), 5);
+        // registered again, e.g. by a parser and a generator
+        manager.register(file);
+
+        assertEquals(2, manager.getRegisteredFiles());
+        assertTrue(manager.cleanup());
+        assertFalse(file.exists());
+        assertFalse(directory.exists());
+        assertEquals(4, manager.getDeletedFiles());
+        assertEquals(15, manager.getDeletedBytes());
+        assertEquals(0, manager.getFailedFiles());
+        assertFalse(manager.cleanup());
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        TempFileManager manager = new TempFileManager();
+        File file = manager.createTempFile("wps", ".tmp");
+        assertTrue(file.delete());
+        assertTrue(manager.cleanup());
+        assertEquals(0, manager.getDeletedFiles());
+        assertEquals(0, manager.getFailedFiles());
+    }
+
+    private static void write(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
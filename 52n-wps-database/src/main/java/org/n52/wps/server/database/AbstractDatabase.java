@@ -28,20 +28,38 @@
  */
 package org.n52.wps.server.database;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import com.google.common.util.concurrent.Striped;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.n52.wps.DatabaseDocument.Database;
 import org.n52.wps.PropertyDocument.Property;
 import org.n52.wps.commons.WPSConfig;
+import org.n52.wps.server.ExceptionReport;
 
 /**
 * An anstract-layer to the databases. 
@@ -65,10 +83,14 @@ public abstract class AbstractDatabase implements IDatabase{
 	"REQUEST_DATE TIMESTAMP, " +
 	"RESPONSE_TYPE VARCHAR(100), " +
 	"RESPONSE CLOB, " +
-	"RESPONSE_MIMETYPE VARCHAR(100))";
+	"RESPONSE_MIMETYPE VARCHAR(100), " +
+	"RESPONSE_LENGTH BIGINT, " +
+	"RESPONSE_CONTENT_LENGTH BIGINT, " +
+	"RESPONSE_CHECKSUM VARCHAR(64))";
 	
 	/** SQL to insert a response into the database */
-	public static final String insertionString = "INSERT INTO RESULTS VALUES (?, ?, ?, ?, ?)";
+	public static final String insertionString = "INSERT INTO RESULTS "
+			+ "(REQUEST_ID, REQUEST_DATE, RESPONSE_TYPE, RESPONSE, RESPONSE_MIMETYPE) VALUES (?, ?, ?, ?, ?)";
 
 	/** SQL to update a response, that was already stored in the database */
 	public static final String updateString = "UPDATE RESULTS SET RESPONSE = (?) WHERE REQUEST_ID = (?)";
@@ -99,12 +121,43 @@ public abstract class AbstractDatabase implements IDatabase{
 
 	protected static final int INSERT_COLUMN_MIME_TYPE = 5;
 	
+	/** SQL to check whether a response is stored in the database */
+	public static final String existsString = "SELECT 1 FROM RESULTS WHERE REQUEST_ID = (?)";
+
+	/** SQL to retrieve the mime type of a response from the database */
+	public static final String selectMimeTypeString = "SELECT RESPONSE_MIMETYPE FROM RESULTS WHERE REQUEST_ID = (?)";
+
+	/** SQL to retrieve the metadata of a response from the database */
+	public static final String selectMetadataString = "SELECT RESPONSE_MIMETYPE, REQUEST_DATE, RESPONSE_LENGTH, "
+			+ "RESPONSE_CONTENT_LENGTH, RESPONSE_CHECKSUM FROM RESULTS WHERE REQUEST_ID = (?)";
+
+	/** SQL to store the metadata of a response, after its content was written */
+	public static final String updateMetadataString = "UPDATE RESULTS SET RESPONSE_LENGTH = (?), "
+			+ "RESPONSE_CONTENT_LENGTH = (?), RESPONSE_CHECKSUM = (?) WHERE REQUEST_ID = (?)";
+
+	/** SQL to add a column to tables created by previous versions */
+	public static final String addColumnString = "ALTER TABLE RESULTS ADD COLUMN %s %s";
+
+	/** The metadata columns and their types, missing in tables created by previous versions */
+	private static final String[][] METADATA_COLUMNS = {
+		{ "RESPONSE_LENGTH", "BIGINT" },
+		{ "RESPONSE_CONTENT_LENGTH", "BIGINT" },
+		{ "RESPONSE_CHECKSUM", "VARCHAR(64)" } };
+
+	/** Property of the maximum number of connections used at a time */
+	public static final String PROPERTY_NAME_CONNECTION_POOL_SIZE = "connectionPoolSize";
+
+	/** Default of the maximum number of connections used at a time */
+	public static final int DEFAULT_CONNECTION_POOL_SIZE = 10;
+
+	/** Size up to which looked up content is copied, so the connection is released at once */
+	protected static final int LOOKUP_COPY_THRESHOLD = 64 * 1024;
+
 	/** get access to the global logger. */
 	private static Logger LOGGER = LoggerFactory.getLogger(AbstractDatabase.class);
-	
-	protected static PreparedStatement insertSQL = null;
-	protected static PreparedStatement updateSQL = null;
-	protected static PreparedStatement selectSQL = null;
+
+	/** Locks of the stored responses, so only one store of an identifier inserts it */
+	protected final Striped<Lock> responseLocks = Striped.lock(256);
 	
 	/**
 	 * Get an instance of the Database object. Only one instance is required. If
@@ -124,7 +177,7 @@ public abstract class AbstractDatabase implements IDatabase{
 	
     
     @Override
-	public synchronized void insertRequest(String id, InputStream inputStream, boolean xml) {			
+	public void insertRequest(String id, InputStream inputStream, boolean xml) {			
         insertResultEntity(inputStream, "REQ_" + id, "ExecuteRequest", xml ? "text/xml" : "text/plain");
 	}
     
@@ -136,7 +189,7 @@ public abstract class AbstractDatabase implements IDatabase{
 	 * 
 	 */
     @Override
-	public synchronized String insertResponse(String id, InputStream inputStream) {			
+	public String insertResponse(String id, InputStream inputStream) {			
         return insertResultEntity(inputStream, id, "ExecuteResponse", "text/xml");
 	}
 	
@@ -146,29 +199,99 @@ public abstract class AbstractDatabase implements IDatabase{
 	 * @param id
 	 * @param type
 	 */
-	protected synchronized String insertResultEntity(InputStream stream, String id, String type, String mimeType) {
-		// Use Calendar to get the current timestamp.
-		// Uses java.sql.Date !
-		Timestamp timestamp = new Timestamp(Calendar.getInstance().getTimeInMillis());
-
+	protected String insertResultEntity(InputStream stream, String id, String type, String mimeType) {
 		// try to insert a row of data into the database.
+		Connection connection = null;
 		try {
-			AbstractDatabase.insertSQL.setString(INSERT_COLUMN_REQUEST_ID, id);
-			AbstractDatabase.insertSQL.setTimestamp(INSERT_COLUMN_REQUEST_DATE, timestamp);
-			AbstractDatabase.insertSQL.setString(INSERT_COLUMN_RESPONSE_TYPE, type);
-			AbstractDatabase.insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, stream);
-			AbstractDatabase.insertSQL.setString(INSERT_COLUMN_MIME_TYPE, mimeType);
-			// AbstractDatabase.insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, bais, b.length);
-		
-			AbstractDatabase.insertSQL.executeUpdate();
-			getConnection().commit();
+			connection = getConnectionPool().acquire();
+			insertMeasuredEntity(connection, stream, id, type, mimeType);
+			connection.commit();
 		} catch (SQLException e) {
 			LOGGER.error("Could not insert Response into database: "
 					+ e.getMessage());
-		} 
+		} finally {
+			getConnectionPool().release(connection);
+		}
 		return generateRetrieveResultURL(id);
 	}
 
+	/**
+	 * Inserts a result with the given connection, the caller commits. Content
+	 * written outside of the database is removed by
+	 * {@link #discardResultEntity(String)} if the insert is rolled back.
+	 */
+	protected void insertResultEntity(Connection connection, InputStream stream, String id, String type, String mimeType) throws SQLException {
+		// Use Calendar to get the current timestamp.
+		// Uses java.sql.Date !
+		Timestamp timestamp = new Timestamp(Calendar.getInstance().getTimeInMillis());
+
+		PreparedStatement insertSQL = null;
+		try {
+			insertSQL = connection.prepareStatement(insertionString);
+			insertSQL.setString(INSERT_COLUMN_REQUEST_ID, id);
+			insertSQL.setTimestamp(INSERT_COLUMN_REQUEST_DATE, timestamp);
+			insertSQL.setString(INSERT_COLUMN_RESPONSE_TYPE, type);
+			insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, stream);
+			insertSQL.setString(INSERT_COLUMN_MIME_TYPE, mimeType);
+		
+			insertSQL.executeUpdate();
+		} finally {
+			closeQuietly(insertSQL);
+		}
+	}
+
+	/**
+	 * Inserts a result by
+	 * {@link #insertResultEntity(Connection, InputStream, String, String, String)}
+	 * and stores the length and checksum of its content, the caller commits.
+	 */
+	private void insertMeasuredEntity(Connection connection, InputStream stream, String id, String type, String mimeType) throws SQLException {
+		CountingInputStream counter = new CountingInputStream(stream);
+		MessageDigest digest = ResultMetadata.newChecksumDigest();
+		insertResultEntity(connection, new DigestInputStream(counter, digest), id, type, mimeType);
+		updateMetadata(connection, id, counter.getByteCount(), ResultMetadata.toHex(digest.digest()));
+	}
+
+	/**
+	 * Updates a response by {@link #updateResponse(Connection, String, InputStream)}
+	 * and stores the length and checksum of its content, the caller commits.
+	 */
+	private void updateMeasuredResponse(Connection connection, String id, InputStream stream) throws SQLException {
+		CountingInputStream counter = new CountingInputStream(stream);
+		MessageDigest digest = ResultMetadata.newChecksumDigest();
+		updateResponse(connection, id, new DigestInputStream(counter, digest));
+		updateMetadata(connection, id, counter.getByteCount(), ResultMetadata.toHex(digest.digest()));
+	}
+
+	/**
+	 * Stores the metadata of the written content, which is stored
+	 * uncompressed.
+	 */
+	protected void updateMetadata(Connection connection, String id, long length, String checksum) throws SQLException {
+		PreparedStatement updateSQL = null;
+		try {
+			updateSQL = connection.prepareStatement(updateMetadataString);
+			updateSQL.setLong(1, length);
+			updateSQL.setLong(2, length);
+			updateSQL.setString(3, checksum);
+			updateSQL.setString(4, id);
+			updateSQL.executeUpdate();
+		} finally {
+			closeQuietly(updateSQL);
+		}
+	}
+
+	/**
+	 * Removes the content written outside of the database by an insert of
+	 * {@link #insertResultEntity(Connection, InputStream, String, String, String)}
+	 * that was rolled back. Nothing is written outside by default.
+	 * 
+	 * @param id the identifier of the entity
+	 */
+	protected void discardResultEntity(String id) {
+		// everything is stored in the database
+	}
+
 	/**
 	 * Update the Response in the Database, based on the Identifier.
 	 * 
@@ -177,19 +300,34 @@ public abstract class AbstractDatabase implements IDatabase{
 	 * @see #storeResponse(Response)
 	 */
     @Override
-	public synchronized void updateResponse(String id, InputStream inputStream) {
+	public void updateResponse(String id, InputStream inputStream) {
 
 		// Try to update the row of data into the database.
+		Connection connection = null;
 		try {
-			AbstractDatabase.updateSQL.setString(
-					UPDATE_COLUMN_REQUEST_ID, id);
-			AbstractDatabase.updateSQL.setAsciiStream(
-					UPDATE_COLUMN_RESPONSE, inputStream);
-			AbstractDatabase.updateSQL.executeUpdate();
-			getConnection().commit();
+			connection = getConnectionPool().acquire();
+			updateMeasuredResponse(connection, id, inputStream);
+			connection.commit();
 		} catch (SQLException e) {
 			LOGGER.error("Could not insert Response into database: "
 					+ e.getMessage());
+		} finally {
+			getConnectionPool().release(connection);
+		}
+	}
+
+	/**
+	 * Updates a response with the given connection, the caller commits.
+	 */
+	protected void updateResponse(Connection connection, String id, InputStream inputStream) throws SQLException {
+		PreparedStatement updateSQL = null;
+		try {
+			updateSQL = connection.prepareStatement(updateString);
+			updateSQL.setString(UPDATE_COLUMN_REQUEST_ID, id);
+			updateSQL.setAsciiStream(UPDATE_COLUMN_RESPONSE, inputStream);
+			updateSQL.executeUpdate();
+		} finally {
+			closeQuietly(updateSQL);
 		}
 	}
 
@@ -201,35 +339,77 @@ public abstract class AbstractDatabase implements IDatabase{
 	 *            The Response to store.
 	 */ 
     @Override
-	public synchronized String storeResponse(String id, InputStream inputStream) {
-		if (lookupResponse(id) == null) {
-			return insertResponse(id, inputStream);
-		} else {
-			updateResponse(id, inputStream);
+	public String storeResponse(String id, InputStream inputStream) {
+		Connection connection = null;
+		try {
+			connection = getConnectionPool().acquire();
+			// taken after the connection, so lock holders never wait for one
+			Lock lock = responseLocks.get(id);
+			lock.lock();
+			try {
+				if (!exists(connection, id)) {
+					insertMeasuredEntity(connection, inputStream, id, "ExecuteResponse", "text/xml");
+					connection.commit();
+					return generateRetrieveResultURL(id);
+				} else {
+					updateMeasuredResponse(connection, id, inputStream);
+					connection.commit();
+					return null;
+				}
+			} finally {
+				lock.unlock();
+			}
+		} catch (SQLException e) {
+			LOGGER.error("Could not store Response into database: "
+					+ e.getMessage());
 			return null;
+		} finally {
+			getConnectionPool().release(connection);
 		}
 	}
 
-    @Override
-	public synchronized InputStream lookupRequest(String request_id) {
-        request_id = "REQ_" + request_id;
+	/**
+	 * @param id the identifier of the stored entity
+	 * @return <code>true</code> if an entity is stored for the identifier
+	 */
+	protected boolean exists(String id) {
+		Connection connection = null;
 		try {
-			AbstractDatabase.selectSQL.setString(SELECT_COLUMN_RESPONSE, request_id);
-			ResultSet res = AbstractDatabase.selectSQL.executeQuery();
-			if (res == null || !res.next()) {
-				LOGGER.warn("Query did not return a valid result.");
-				return null;
-			} else {
-				LOGGER.info("Successfully retrieved the Request: "
-						+ request_id);
-				return res.getAsciiStream(1);
-			}
+			connection = getConnectionPool().acquire();
+			return exists(connection, id);
 		} catch (SQLException e) {
-			LOGGER.error("SQLException with request_id: " + request_id
+			LOGGER.error("SQLException with request_id: " + id
 					+ "and message: " + e.getMessage());
-			return null;
+			return false;
+		} finally {
+			getConnectionPool().release(connection);
 		}
 	}
+
+	protected boolean exists(Connection connection, String id) throws SQLException {
+		PreparedStatement existsSQL = null;
+		ResultSet res = null;
+		try {
+			existsSQL = connection.prepareStatement(existsString);
+			existsSQL.setString(1, id);
+			res = existsSQL.executeQuery();
+			return res.next();
+		} finally {
+			closeQuietly(res);
+			closeQuietly(existsSQL);
+		}
+	}
+
+    @Override
+	public InputStream lookupRequest(String request_id) {
+        request_id = "REQ_" + request_id;
+		InputStream request = selectResponse(request_id);
+		if (request != null) {
+			LOGGER.info("Successfully retrieved the Request: "
+					+ request_id);
+		}
+		return request;
+	}
     
 	/**
 	 * Retrieve the Response on a previous Request, based on an unique
@@ -241,29 +421,100 @@ public abstract class AbstractDatabase implements IDatabase{
 	 *         Response
 	 */
     @Override
-	public synchronized InputStream lookupResponse(String request_id) {
+	public InputStream lookupResponse(String request_id) {
+		InputStream response = selectResponse(request_id);
+		if (response != null) {
+			LOGGER.info("Successfully retrieved the Response of Request: "
+					+ request_id);
+		}
+		return response;
+	}
+
+	/**
+	 * Selects the stored response column. Content up to
+	 * {@link #LOOKUP_COPY_THRESHOLD} bytes is copied, for larger content the
+	 * connection is held until the returned stream is closed.
+	 * 
+	 * @param id the identifier of the stored entity
+	 * @return null, if not found or an SQLException occurred, else an
+	 *         InputStream with the stored content
+	 */
+	protected InputStream selectResponse(String id) {
+		Connection connection = null;
+		PreparedStatement selectSQL = null;
+		ResultSet res = null;
 		try {
-			AbstractDatabase.selectSQL.setString(SELECT_COLUMN_RESPONSE, request_id);
-			ResultSet res = AbstractDatabase.selectSQL.executeQuery();
+			connection = getConnectionPool().acquire();
+			selectSQL = connection.prepareStatement(getSelectionString());
+			selectSQL.setString(SELECT_COLUMN_RESPONSE, id);
+			res = selectSQL.executeQuery();
 			if (res == null || !res.next()) {
 				LOGGER.warn("Query did not return a valid result.");
-				return null;
 			} else {
-				LOGGER.info("Successfully retrieved the Response of Request: "
-						+ request_id);
-				return res.getAsciiStream(1);
+				InputStream stream = getResponseStream(res);
+				if (stream != null) {
+					ByteArrayOutputStream head = new ByteArrayOutputStream();
+					byte[] buffer = new byte[4096];
+					while (head.size() <= LOOKUP_COPY_THRESHOLD) {
+						int read = stream.read(buffer);
+						if (read == -1) {
+							stream.close();
+							return new ByteArrayInputStream(head.toByteArray());
+						}
+						head.write(buffer, 0, read);
+					}
+					InputStream response = new ResultSetInputStream(new SequenceInputStream(
+							new ByteArrayInputStream(head.toByteArray()), stream), res, selectSQL, connection);
+					// released when the stream is closed
+					connection = null;
+					return response;
+				}
 			}
 		} catch (SQLException e) {
-			LOGGER.error("SQLException with request_id: " + request_id
+			LOGGER.error("SQLException with request_id: " + id
 					+ "and message: " + e.getMessage());
-			return null;
+		} catch (IOException e) {
+			LOGGER.error("Could not read the content of request_id: " + id, e);
+		} finally {
+			if (connection != null) {
+				closeQuietly(res);
+				closeQuietly(selectSQL);
+				getConnectionPool().release(connection);
+			}
 		}
+		return null;
+	}
+	
+	/**
+	 * @return the SQL to select the stored content of an entity, with the
+	 *         identifier as the only parameter
+	 */
+	protected String getSelectionString() {
+		return selectionString;
+	}
+
+	/**
+	 * Opens the stored content of the selected row.
+	 * 
+	 * @param resultSet the result of {@link #getSelectionString()}, positioned on the row
+	 * @return the stored content, may be <code>null</code>
+	 */
+	protected InputStream getResponseStream(ResultSet resultSet) throws SQLException {
+		return resultSet.getAsciiStream(1);
 	}
 	
     @Override
-	public synchronized String storeComplexValue(String id, InputStream stream, String type, String mimeType) {
+	public String storeComplexValue(String id, InputStream stream, String type, String mimeType) {
 		return insertResultEntity(stream, id, type, mimeType);
 	}
+
+	/**
+	 * The writes of the batch are streamed into one transaction.
+	 */
+    @Override
+	public DatabaseBatch beginBatch() {
+		return new TransactionBatch();
+	}
 	
 	/**
 	 * The URL referencing the location from which the ExecuteResponse can be retrieved. 
@@ -289,8 +540,81 @@ public abstract class AbstractDatabase implements IDatabase{
                 + "RetrieveResultServlet?id=";   // TODO:  Parameterize this... Execution Context..?
 	}
 	
-	public abstract Connection getConnection();
+	/**
+	 * @return the pool providing the connections of the database operations
+	 */
+	protected abstract ConnectionPool getConnectionPool();
 	public abstract String getConnectionURL();
+
+	/**
+	 * @return the maximum number of connections used at a time
+	 */
+	protected static int getConnectionPoolSize() {
+		String poolSize = getDatabaseProperties(PROPERTY_NAME_CONNECTION_POOL_SIZE);
+		if (poolSize != null && !poolSize.equals("")) {
+			try {
+				return Integer.parseInt(poolSize.trim());
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Invalid connection pool size \"{}\", using default", poolSize);
+			}
+		}
+		return DEFAULT_CONNECTION_POOL_SIZE;
+	}
+
+	/**
+	 * Adds the metadata columns missing in a table created by a previous
+	 * version.
+	 * 
+	 * @param connection the connection, committed if columns are added
+	 * @param tableName the name of the RESULTS table as stored in the catalog
+	 */
+	protected static void addMetadataColumns(Connection connection, String tableName) throws SQLException {
+		Set<String> columns = new HashSet<String>();
+		ResultSet rs = connection.getMetaData().getColumns(null, null, tableName, null);
+		try {
+			while (rs.next()) {
+				columns.add(rs.getString("COLUMN_NAME").toUpperCase());
+			}
+		} finally {
+			rs.close();
+		}
+		boolean added = false;
+		for (String[] column : METADATA_COLUMNS) {
+			if (!columns.contains(column[0])) {
+				LOGGER.info("Adding column " + column[0] + " to table RESULTS.");
+				Statement st = connection.createStatement();
+				try {
+					st.executeUpdate(String.format(addColumnString, column[0], column[1]));
+				} finally {
+					st.close();
+				}
+				added = true;
+			}
+		}
+		if (added) {
+			connection.commit();
+		}
+	}
+
+	protected static void closeQuietly(ResultSet resultSet) {
+		if (resultSet != null) {
+			try {
+				resultSet.close();
+			} catch (SQLException e) {
+				LOGGER.debug("Unable to close result set", e);
+			}
+		}
+	}
+
+	protected static void closeQuietly(Statement statement) {
+		if (statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				LOGGER.debug("Unable to close statement", e);
+			}
+		}
+	}
 	
 	/**
 	 * Returns the name of the database.
@@ -345,38 +669,81 @@ public abstract class AbstractDatabase implements IDatabase{
 	 */
     @Override
 	public void shutdown() {
-		try {
-			getConnection().close();
-		} catch (SQLException e) {
-			
-			LOGGER.error("Problem encountered when closing the SQL connection", e);
-		}
+		getConnectionPool().close();
 	}
 	
     @Override
 	public String getMimeTypeForStoreResponse(String id) {
+		Connection connection = null;
+		PreparedStatement selectSQL = null;
+		ResultSet res = null;
 		try {
-			AbstractDatabase.selectSQL.setString(SELECT_COLUMN_RESPONSE, id);
-		
-			ResultSet res = AbstractDatabase.selectSQL.executeQuery();
+			connection = getConnectionPool().acquire();
+			selectSQL = connection.prepareStatement(selectMimeTypeString);
+			selectSQL.setString(1, id);
+			res = selectSQL.executeQuery();
 			if (res == null || !res.next()) {
 				LOGGER.warn("Query did not return a valid result.");
 				return null;
 			} else {
 				LOGGER.info("Successfully retrieved the Mimetyoe of the response: "
 						+ id);
-				return res.getString(2);
+				return res.getString(1);
 			}
 		} catch (SQLException e) {
 			LOGGER.error("SQLException with request_id: " + id
 					+ "and message: " + e.getMessage());
 			return null;
+		} finally {
+			closeQuietly(res);
+			closeQuietly(selectSQL);
+			getConnectionPool().release(connection);
 		}
 	}
 	
 	@Override
 	public long getContentLengthForStoreResponse(String id) {
-		return -1;
+		ResultMetadata metadata = getMetadataForStoreResponse(id);
+		return metadata == null ? -1 : metadata.getContentLength();
+	}
+
+	/**
+	 * The length and checksum are stored with the content, they are unknown
+	 * for entities stored by previous versions.
+	 */
+	@Override
+	public ResultMetadata getMetadataForStoreResponse(String id) {
+		Connection connection = null;
+		PreparedStatement selectSQL = null;
+		ResultSet res = null;
+		try {
+			connection = getConnectionPool().acquire();
+			selectSQL = connection.prepareStatement(selectMetadataString);
+			selectSQL.setString(1, id);
+			res = selectSQL.executeQuery();
+			if (res == null || !res.next()) {
+				return null;
+			}
+			Timestamp created = res.getTimestamp(2);
+			long length = res.getLong(3);
+			if (res.wasNull()) {
+				length = -1;
+			}
+			long contentLength = res.getLong(4);
+			if (res.wasNull()) {
+				contentLength = -1;
+			}
+			return new ResultMetadata(res.getString(1), length, contentLength, null,
+					created == null ? -1 : created.getTime(), res.getString(5));
+		} catch (SQLException e) {
+			LOGGER.error("SQLException with request_id: " + id
+					+ "and message: " + e.getMessage());
+			return null;
+		} finally {
+			closeQuietly(res);
+			closeQuietly(selectSQL);
+			getConnectionPool().release(connection);
+		}
 	}
 	
     @Override
@@ -397,4 +764,123 @@ public abstract class AbstractDatabase implements IDatabase{
 		return null;
 	}
 	
+	/**
+	 * Stream of a selected column, closes the result set and the statement and
+	 * releases the connection when closed.
+	 */
+	private class ResultSetInputStream extends FilterInputStream {
+
+		private final ResultSet resultSet;
+		private final Statement statement;
+		private Connection connection;
+
+		ResultSetInputStream(InputStream in, ResultSet resultSet, Statement statement, Connection connection) {
+			super(in);
+			this.resultSet = resultSet;
+			this.statement = statement;
+			this.connection = connection;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (connection == null) {
+				return;
+			}
+			try {
+				super.close();
+			} finally {
+				closeQuietly(resultSet);
+				closeQuietly(statement);
+				getConnectionPool().release(connection);
+				connection = null;
+			}
+		}
+	}
+
+	/**
+	 * Batch writing in a single transaction. A connection is acquired by the
+	 * first write, the values are streamed into the transaction as they are
+	 * stored.
+	 */
+	private class TransactionBatch implements DatabaseBatch {
+
+		private Connection connection;
+
+		private final List<String> inserted = new ArrayList<String>();
+
+		private final List<Lock> locks = new ArrayList<Lock>();
+
+		@Override
+		public String storeComplexValue(String id, InputStream stream, String type, String mimeType) throws ExceptionReport {
+			try {
+				Connection connection = getConnection();
+				inserted.add(id);
+				insertMeasuredEntity(connection, stream, id, type, mimeType);
+			} catch (SQLException e) {
+				LOGGER.error("Could not store " + id + " in batch", e);
+				throw new ExceptionReport("Could not store " + id, ExceptionReport.NO_APPLICABLE_CODE, e);
+			}
+			return generateRetrieveResultURL(id);
+		}
+
+		@Override
+		public String storeResponse(String id, InputStream response) throws ExceptionReport {
+			try {
+				Connection connection = getConnection();
+				// held until the batch ends, like in storeResponse(..)
+				Lock lock = responseLocks.get(id);
+				lock.lock();
+				locks.add(lock);
+				if (exists(connection, id)) {
+					updateMeasuredResponse(connection, id, response);
+					return null;
+				}
+				inserted.add(id);
+				insertMeasuredEntity(connection, response, id, "ExecuteResponse", "text/xml");
+				return generateRetrieveResultURL(id);
+			} catch (SQLException e) {
+				LOGGER.error("Could not store response " + id + " in batch", e);
+				throw new ExceptionReport("Could not store the response", ExceptionReport.NO_APPLICABLE_CODE, e);
+			}
+		}
+
+		@Override
+		public void commit() throws ExceptionReport {
+			try {
+				if (connection != null) {
+					connection.commit();
+					inserted.clear();
+				}
+			} catch (SQLException e) {
+				LOGGER.error("Could not commit batch into database", e);
+				throw new ExceptionReport("Could not store the results", ExceptionReport.NO_APPLICABLE_CODE, e);
+			} finally {
+				close();
+			}
+		}
+
+		@Override
+		public void close() {
+			if (connection != null) {
+				// the pool rolls back uncommitted writes
+				getConnectionPool().release(connection);
+				connection = null;
+			}
+			for (String id : inserted) {
+				discardResultEntity(id);
+			}
+			inserted.clear();
+			for (Lock lock : locks) {
+				lock.unlock();
+			}
+			locks.clear();
+		}
+
+		private Connection getConnection() throws SQLException {
+			if (connection == null) {
+				connection = getConnectionPool().acquire();
+			}
+			return connection;
+		}
+	}
 }
@@ -0,0 +1,68 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Storage for complex values migrated out of the local disk of a
+ * {@link TieredDatabase}, e.g. an object store. Implementations are created
+ * with a public constructor taking the {@link org.n52.wps.commons.PropertyUtil}
+ * of the database properties.
+ */
+public interface ColdStorage {
+
+    /**
+     * Stores the content of a file, replacing a value stored with the same key.
+     */
+    void put(String key, File file, ResultMetadata metadata) throws IOException;
+
+    /**
+     * @return the metadata of a stored value or <code>null</code> if not stored
+     */
+    ResultMetadata getMetadata(String key) throws IOException;
+
+    /**
+     * @return the content of a stored value or <code>null</code> if not stored
+     */
+    InputStream get(String key) throws IOException;
+
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Deletes all values created before the given time.
+     * 
+     * @return the number of deleted values
+     */
+    int deleteCreatedBefore(long createdMillis) throws IOException;
+
+    void close();
+}
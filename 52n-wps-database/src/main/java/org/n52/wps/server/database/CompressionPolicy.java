@@ -0,0 +1,246 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.n52.wps.commons.PropertyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+
+/**
+ * Selects the {@link CompressionCodec} and level of stored complex values by
+ * MIME type. Values of MIME types that are compressed already are stored as
+ * is, as are values whose head does not compress.
+ * <p>
+ * Codecs are configured by name, <code>gzip</code>, <code>none</code> or the
+ * class name of a {@link CompressionCodec}, optionally followed by a colon and
+ * the level, e.g. <code>gzip:1</code>.
+ */
+public final class CompressionPolicy {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CompressionPolicy.class);
+
+    private final static String KEY_CODEC = "complex.codec";
+    private final static String KEY_CODEC_MIME_TYPES = "complex.codec.mimeTypes";
+    private final static String KEY_CODEC_SKIP = "complex.codec.skip";
+    private final static String KEY_CODEC_MIN_SAVING = "complex.codec.minSaving";
+
+    private final static String NAME_GZIP = "gzip";
+    private final static String NAME_NONE = "none";
+
+    private final static String DEFAULT_CODEC_SKIP = "image/tiff, image/geotiff, application/geotiff, application/x-geotiff, "
+            + "application/img, image/png, image/jpeg, image/gif, application/zip, application/x-zipped-shp, "
+            + "application/x-zipped-wkt, application/x-zipped-gtiff, application/gzip, application/x-gzip, "
+            + "application/x-compressed, application/x-netcdf4";
+    private final static double DEFAULT_CODEC_MIN_SAVING = 0.1;
+
+    // length of the head of a value compressed to estimate the saving
+    private final static int SAMPLE_LENGTH = 64 * 1024;
+
+    private final static Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final Selection defaultSelection;
+
+    private final Map<String, Selection> mimeTypeSelections = new HashMap<String, Selection>();
+
+    private final Set<String> skippedMimeTypes = new HashSet<String>();
+
+    private final Map<String, CompressionCodec> codecsByEncoding = new HashMap<String, CompressionCodec>();
+
+    private final double minSaving;
+
+    /**
+     * @param propertyUtil the database properties
+     * @param defaultCodec the codec name used if none is configured
+     */
+    public CompressionPolicy(PropertyUtil propertyUtil, String defaultCodec) {
+        register(new GzipCompressionCodec());
+        defaultSelection = parseSelection(propertyUtil.extractString(KEY_CODEC, defaultCodec));
+        for (String entry : LIST_SPLITTER.split(propertyUtil.extractString(KEY_CODEC_MIME_TYPES, ""))) {
+            // MIME type parameters may contain '=' as well
+            int separator = entry.lastIndexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Invalid MIME type codec " + entry + ", expected <mimeType>=<codec>");
+            }
+            mimeTypeSelections.put(normalize(entry.substring(0, separator)), parseSelection(entry.substring(separator + 1)));
+        }
+        for (String mimeType : LIST_SPLITTER.split(propertyUtil.extractString(KEY_CODEC_SKIP, DEFAULT_CODEC_SKIP))) {
+            skippedMimeTypes.add(normalize(mimeType));
+        }
+        minSaving = propertyUtil.extractDouble(KEY_CODEC_MIN_SAVING, DEFAULT_CODEC_MIN_SAVING);
+        LOGGER.info("Compressing complex values with {}, {} MIME type specific codecs, {} MIME types stored as is",
+                    new Object[] {defaultSelection, mimeTypeSelections.size(), skippedMimeTypes.size()});
+    }
+
+    /**
+     * @return the codec for values of the MIME type or <code>null</code> if
+     *         they are stored as is
+     */
+    public CompressionCodec getCodec(String mimeType) {
+        Selection selection = select(mimeType);
+        return selection == null ? null : selection.codec;
+    }
+
+    public int getLevel(String mimeType) {
+        Selection selection = select(mimeType);
+        return selection == null ? CompressionCodec.DEFAULT_LEVEL : selection.level;
+    }
+
+    /**
+     * @return the codec decoding content of the encoding or <code>null</code>
+     *         if unknown
+     */
+    public CompressionCodec getCodecForEncoding(String encoding) {
+        return encoding == null ? null : codecsByEncoding.get(encoding);
+    }
+
+    /**
+     * Compresses the head of a value to estimate if compression is worth its
+     * cost. The stream is reset to the start of the value. Values of MIME
+     * types stored as is are not read.
+     * 
+     * @param mimeType the MIME type of the value
+     * @param inputStream a stream supporting mark and reset
+     */
+    public boolean isCompressible(String mimeType, InputStream inputStream) throws IOException {
+        if (select(mimeType) == null) {
+            return false;
+        }
+        if (minSaving <= 0) {
+            return true;
+        }
+        byte[] sample = new byte[SAMPLE_LENGTH];
+        inputStream.mark(SAMPLE_LENGTH);
+        int sampleLength = 0;
+        int read;
+        while (sampleLength < sample.length && (read = inputStream.read(sample, sampleLength, sample.length - sampleLength)) != -1) {
+            sampleLength += read;
+        }
+        inputStream.reset();
+        if (sampleLength == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, sampleLength);
+            deflater.finish();
+            byte[] buffer = new byte[SAMPLE_LENGTH];
+            while ( !deflater.finished()) {
+                deflater.deflate(buffer);
+            }
+            return deflater.getBytesWritten() <= sampleLength * (1 - minSaving);
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private Selection select(String mimeType) {
+        if (mimeType == null) {
+            return defaultSelection;
+        }
+        String normalizedMimeType = normalize(mimeType);
+        Selection selection = mimeTypeSelections.get(normalizedMimeType);
+        if (selection != null) {
+            return selection.codec == null ? null : selection;
+        }
+        return skippedMimeTypes.contains(normalizedMimeType) || defaultSelection.codec == null ? null : defaultSelection;
+    }
+
+    private Selection parseSelection(String value) {
+        String name = value.trim();
+        int level = CompressionCodec.DEFAULT_LEVEL;
+        int separator = name.lastIndexOf(':');
+        if (separator > -1) {
+            try {
+                level = Integer.parseInt(name.substring(separator + 1).trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid compression level in " + value, e);
+            }
+            name = name.substring(0, separator).trim();
+        }
+        if (NAME_NONE.equalsIgnoreCase(name)) {
+            return new Selection(null, level);
+        }
+        if (NAME_GZIP.equalsIgnoreCase(name)) {
+            return new Selection(codecsByEncoding.get(GzipCompressionCodec.ENCODING), level);
+        }
+        try {
+            Class<?> cls = Class.forName(name, true, CompressionPolicy.class.getClassLoader());
+            CompressionCodec codec = (CompressionCodec) cls.newInstance();
+            CompressionCodec registered = codecsByEncoding.get(codec.getEncoding());
+            if (registered != null && registered.getClass() == cls) {
+                codec = registered;
+            }
+            register(codec);
+            return new Selection(codec, level);
+        }
+        catch (Exception e) {
+            throw new IllegalArgumentException("Error creating compression codec " + name, e);
+        }
+    }
+
+    private void register(CompressionCodec codec) {
+        codecsByEncoding.put(codec.getEncoding(), codec);
+    }
+
+    private static String normalize(String mimeType) {
+        int parameters = mimeType.indexOf(';');
+        return (parameters < 0 ? mimeType : mimeType.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Selection {
+
+        // null if values are stored as is
+        final CompressionCodec codec;
+
+        final int level;
+
+        Selection(CompressionCodec codec, int level) {
+            this.codec = codec;
+            this.level = level;
+        }
+
+        @Override
+        public String toString() {
+            return codec == null ? NAME_NONE : codec.getEncoding() + ":" + level;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of JDBC connections used by the {@link AbstractDatabase}
+ * implementations. Every database operation acquires its own connection, so
+ * concurrent operations do not wait for each other as long as connections are
+ * available.
+ * 
+ * Connections obtained from a {@link DataSource} (e.g. by JNDI) are returned
+ * to the data source when released, as it usually pools them itself.
+ * Connections obtained from the {@link DriverManager} are kept open and reused.
+ * All connections are handed out with auto commit disabled.
+ */
+public class ConnectionPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+	private final DataSource dataSource;
+	private final String url;
+	private final Properties properties;
+	private final Semaphore permits;
+	private final BlockingQueue<Connection> idleConnections;
+	private volatile boolean closed;
+
+	private ConnectionPool(DataSource dataSource, String url, Properties properties, int maxConnections) {
+		this.dataSource = dataSource;
+		this.url = url;
+		this.properties = properties;
+		this.permits = new Semaphore(maxConnections, true);
+		this.idleConnections = new LinkedBlockingQueue<Connection>();
+	}
+
+	/**
+	 * @param dataSource the data source to obtain connections from
+	 * @param maxConnections the maximum number of connections in use at a time
+	 */
+	public static ConnectionPool forDataSource(DataSource dataSource, int maxConnections) {
+		return new ConnectionPool(dataSource, null, null, maxConnections);
+	}
+
+	/**
+	 * @param url the JDBC URL to connect to
+	 * @param properties the connection properties
+	 * @param maxConnections the maximum number of connections in use at a time
+	 */
+	public static ConnectionPool forDriverManager(String url, Properties properties, int maxConnections) {
+		return new ConnectionPool(null, url, properties, maxConnections);
+	}
+
+	/**
+	 * Acquires a connection, waits if all connections are in use. The
+	 * connection has to be given back by {@link #release(Connection)}.
+	 * 
+	 * @return a connection with auto commit disabled
+	 * @throws SQLException if no connection could be obtained
+	 */
+	public Connection acquire() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		}
+		try {
+			Connection connection;
+			while ((connection = idleConnections.poll()) != null) {
+				if (!connection.isClosed()) {
+					return connection;
+				}
+			}
+			connection = dataSource != null ?
+					dataSource.getConnection() :
+					DriverManager.getConnection(url, properties);
+			connection.setAutoCommit(false);
+			return connection;
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a connection acquired by {@link #acquire()}. Uncommitted
+	 * changes are rolled back.
+	 * 
+	 * @param connection the connection, may be <code>null</code>
+	 */
+	public void release(Connection connection) {
+		if (connection == null) {
+			return;
+		}
+		try {
+			if (connection.isClosed()) {
+				return;
+			}
+			connection.rollback();
+			if (dataSource != null || closed) {
+				connection.close();
+			} else {
+				idleConnections.offer(connection);
+			}
+		} catch (SQLException e) {
+			LOGGER.warn("Discarding database connection", e);
+			closeQuietly(connection);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes the idle connections, connections in use are closed once they are
+	 * released.
+	 */
+	public void close() {
+		closed = true;
+		Connection connection;
+		while ((connection = idleConnections.poll()) != null) {
+			closeQuietly(connection);
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			LOGGER.debug("Unable to close database connection", e);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.InputStream;
+
+import org.n52.wps.server.ExceptionReport;
+
+/**
+ * Unit of work storing the complex values and the response of an execution
+ * together, obtained by {@link IDatabase#beginBatch()}. Databases supporting
+ * transactions make the writes of a batch visible on {@link #commit()} only
+ * and hold a connection from the first write until the batch ends, others
+ * write them immediately. A batch is used by a single thread and must be
+ * closed.
+ * 
+ * <pre>
+ * DatabaseBatch batch = database.beginBatch();
+ * try {
+ *     String url = batch.storeComplexValue(...);
+ *     batch.storeResponse(id, response);
+ *     batch.commit();
+ * } finally {
+ *     batch.close();
+ * }
+ * </pre>
+ */
+public interface DatabaseBatch {
+
+    /**
+     * @see IDatabase#storeComplexValue(String, InputStream, String, String)
+     * @return the URL of the stored value, valid once the batch is committed
+     * @throws ExceptionReport if the value could not be added to the batch
+     */
+    String storeComplexValue(String id, InputStream stream, String type, String mimeType) throws ExceptionReport;
+
+    /**
+     * @see IDatabase#storeResponse(String, InputStream)
+     * @throws ExceptionReport if the response could not be added to the batch
+     */
+    String storeResponse(String id, InputStream response) throws ExceptionReport;
+
+    /**
+     * Makes the writes of the batch visible.
+     * 
+     * @throws ExceptionReport if the writes could not be committed, the
+     *         batch is rolled back
+     */
+    void commit() throws ExceptionReport;
+
+    /**
+     * Ends the batch, writes not committed are rolled back where supported.
+     */
+    void close();
+}
@@ -46,7 +46,7 @@ public class DatabaseFactory implements IDatabase
 	private static Logger LOGGER = LoggerFactory.getLogger(DatabaseFactory.class);
 	// Property of the name of the database. Used to define the database implementation.
 	public static final String PROPERTY_NAME_DATABASE_CLASS_NAME = "databaseClass";
-	private static IDatabase database;
+	private static volatile IDatabase database;
 
     private static PropertyChangeListener propertyChangeListener;
 	
@@ -125,7 +125,7 @@ public class DatabaseFactory implements IDatabase
 	 * @see #storeResponse(Response)
 	 */
     @Override
-    public synchronized void insertRequest(String id, InputStream inputStream, boolean xml) {
+    public void insertRequest(String id, InputStream inputStream, boolean xml) {
 		DatabaseFactory.database.insertRequest(id, inputStream, xml);
 	}
 
@@ -136,7 +136,7 @@ public class DatabaseFactory implements IDatabase
 	 * @see #storeResponse(Response)
 	 */
     @Override
-    public synchronized String insertResponse(String id, InputStream outputStream) {
+    public String insertResponse(String id, InputStream outputStream) {
 		return DatabaseFactory.database.insertResponse(id, outputStream);
 	}
 
@@ -147,7 +147,7 @@ public class DatabaseFactory implements IDatabase
 	 * @see #storeResponse(Response)
 	 */
     @Override
-    public synchronized void updateResponse(String id, InputStream outputStream) {
+    public void updateResponse(String id, InputStream outputStream) {
 		DatabaseFactory.database.updateResponse(id, outputStream);
 	}
 
@@ -158,12 +158,12 @@ public class DatabaseFactory implements IDatabase
 	 * @param response  The Response to store.
 	 */
     @Override
-    public synchronized String storeResponse(String id, InputStream outputStream) {
+    public String storeResponse(String id, InputStream outputStream) {
 		return DatabaseFactory.database.storeResponse(id, outputStream);
 	}
 
     @Override
-    public synchronized InputStream lookupRequest(String request_id) {
+    public InputStream lookupRequest(String request_id) {
 		return DatabaseFactory.database.lookupRequest(request_id);
 	}
     
@@ -176,14 +176,19 @@ public class DatabaseFactory implements IDatabase
 	 *         Response
 	 */
 	@Override
-    public synchronized InputStream lookupResponse(String request_id) {
+    public InputStream lookupResponse(String request_id) {
 		return DatabaseFactory.database.lookupResponse(request_id);
 	}
 	
 	@Override
-    public synchronized String storeComplexValue(String id, InputStream stream, String type, String mimeType) {
+    public String storeComplexValue(String id, InputStream stream, String type, String mimeType) {
 		return DatabaseFactory.database.storeComplexValue(id, stream, type, mimeType);
 	}
+
+	@Override
+    public DatabaseBatch beginBatch() {
+		return DatabaseFactory.database.beginBatch();
+	}
 	
 	/**
 	 * The URL referencing the location from which the ExecuteResponse can be retrieved. 
@@ -221,6 +226,11 @@ public class DatabaseFactory implements IDatabase
 		return DatabaseFactory.database.getContentLengthForStoreResponse(id);
 	}
 
+    @Override
+	public ResultMetadata getMetadataForStoreResponse(String id) {
+		return DatabaseFactory.database.getMetadataForStoreResponse(id);
+	}
+
     @Override
 	public boolean deleteStoredResponse(String id) {
 		return DatabaseFactory.database.deleteStoredResponse(id);
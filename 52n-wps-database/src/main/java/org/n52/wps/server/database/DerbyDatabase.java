@@ -47,7 +47,7 @@ public class DerbyDatabase extends AbstractDatabase {
 
 	private static Logger LOGGER = LoggerFactory.getLogger(DerbyDatabase.class); // Get access to the global logger.
 	private static String connectionURL = null;
-	private static Connection conn = null;
+	private static volatile ConnectionPool pool = null;
 	private static DerbyDatabase db = new DerbyDatabase(); // Static loading.
 	
 	/**
@@ -63,61 +63,59 @@ public class DerbyDatabase extends AbstractDatabase {
 			LOGGER.error("Database cannot be loaded: " + connectionURL);
 			throw new UnsupportedDatabaseException("The database class could not be loaded.");
 		}
-		if(!DerbyDatabase.createConnection()) {
+		if(!DerbyDatabase.createConnectionPool()) {
 				throw new RuntimeException("Creating database connection failed.");
         }
 		if(!DerbyDatabase.createResultTable()) {
 				throw new RuntimeException("Creating result table failed.");
-        }
-		if(!DerbyDatabase.createPreparedStatements()) {
-				throw new RuntimeException("Creating prepared statements failed.");
         }
 	}
 	
 	public static synchronized DerbyDatabase getInstance() { 
-		if (DerbyDatabase.conn == null) {
-			if(!DerbyDatabase.createConnection()) {
+		if (DerbyDatabase.pool == null) {
+			if(!DerbyDatabase.createConnectionPool()) {
 					throw new RuntimeException("Creating database connection failed.");
             }
 			if(!DerbyDatabase.createResultTable()) {
 					throw new RuntimeException("Creating result table failed.");
-            }
-			if(!DerbyDatabase.createPreparedStatements()) {
-					throw new RuntimeException("Creating prepared statements failed.");
             }
 		}
 		return DerbyDatabase.db;
 	}
 	
-	private static boolean createConnection() {
+	private static boolean createConnectionPool() {
 		Properties props = new Properties();
-		DerbyDatabase.conn = null;
 		// Try to connect to an existing database. Note that create is set to true.
+		ConnectionPool connectionPool = ConnectionPool.forDriverManager(
+				DerbyDatabase.connectionURL + ";create=true", props, getConnectionPoolSize());
 		try {
-			DerbyDatabase.conn = DriverManager.getConnection(
-					DerbyDatabase.connectionURL + ";create=true", props);
+			connectionPool.release(connectionPool.acquire());
 			LOGGER.info("Connected to WPS database.");
 		} catch (SQLException e) {
 			LOGGER.error("Could not connect to or create the database.");
 			return false;
 		}
+		DerbyDatabase.pool = connectionPool;
 		return true;
 	}
 	
 	private static boolean createResultTable() {
+		Connection conn = null;
 		try {
+			conn = DerbyDatabase.pool.acquire();
 			ResultSet rs = null;
-			DatabaseMetaData meta = DerbyDatabase.conn.getMetaData();
+			DatabaseMetaData meta = conn.getMetaData();
 			rs = meta.getTables(null, null, "RESULTS",
 					new String[] { "TABLE" });
 			if (!rs.next()) {
 				LOGGER.info("Table RESULTS does not yet exist.");
-				Statement st = DerbyDatabase.conn.createStatement();
+				Statement st = conn.createStatement();
 				st.executeUpdate(DerbyDatabase.creationString);
-				DerbyDatabase.conn.commit();
+				st.close();
+				conn.commit();
 				
 				rs = null;
-				meta = DerbyDatabase.conn.getMetaData();
+				meta = conn.getMetaData();
 				rs = meta.getTables(null, null, "RESULTS",
 						new String[] { "TABLE" });
 				if (rs.next()) {
@@ -126,34 +124,21 @@ public class DerbyDatabase extends AbstractDatabase {
 					LOGGER.error("Could not create table RESULTS.");
 					return false;
 				}
-				// Set upcoming statements to autocommit.
-				DerbyDatabase.conn.setAutoCommit(false);
 			}
+			addMetadataColumns(conn, "RESULTS");
 		} catch (SQLException e) {
 			LOGGER.error("Connection to the HSQL database failed: "
 					+ e.getMessage());
 			return false;
+		} finally {
+			DerbyDatabase.pool.release(conn);
 		}
 		return true;	
 	}
 	
-	private static boolean createPreparedStatements() {
-		// Create prepared staments (more efficient).
-		try {
-			DerbyDatabase.closePreparedStatements();
-			DerbyDatabase.insertSQL = DerbyDatabase.conn.prepareStatement(insertionString);
-			DerbyDatabase.selectSQL = DerbyDatabase.conn.prepareStatement(selectionString);
-			DerbyDatabase.updateSQL = DerbyDatabase.conn.prepareStatement(updateString);
-		} catch (SQLException e) {
-			LOGGER.error("Could not create the prepared statements.");
-			return false;
-		}
-		return true;
-	}
-	
     @Override
-	public Connection getConnection() {
-		return DerbyDatabase.conn;
+	protected ConnectionPool getConnectionPool() {
+		return DerbyDatabase.pool;
 	}
     
     @Override
@@ -161,95 +146,28 @@ public class DerbyDatabase extends AbstractDatabase {
 		return DerbyDatabase.connectionURL;
 	}
 	
-	/**
-	 * Shutdown the database in a clean, safe way.
-	 */
-	/*
-	 
-	 public void shutdown() {
-		boolean gotSQLExc = false;
-		try {
-			HSQLDatabase.conn.close();
-			DriverManager.getConnection(HSQLDatabase.connectionURL);
-			HSQLDatabase.db = null;
-			System.gc();
-		} catch (SQLException se) {
-			if (se.getSQLState().equals("XJ015")) {
-				gotSQLExc = true;
-			}
-		}
-		if (!gotSQLExc) {
-			LOGGER.error("Database did not shut down normally");
-		} else {
-			LOGGER.info("Database shut down normally");
-		}
-	}
-	*/
-	
 	/**
 	 * Shutdown the database in a clean, safe way.
 	 */
     @Override
 	public void shutdown() {
-   		boolean flag0 = false, flag1 = false;
-   		try {
-           if (DerbyDatabase.conn != null) {
-        	   // Close PreparedStatements if needed.
-        	   flag0 = closePreparedStatements();
-        	   DerbyDatabase.conn = DriverManager.getConnection(DerbyDatabase.connectionURL + ";shutdown=true");
-        	   // Return to connection pool.
-        	   DerbyDatabase.conn.close();
-        	   DerbyDatabase.conn = null;
-               flag1 = true;
-               // Force garbage collection. 
-               System.gc();
-               // Setting the database to null;
-               DerbyDatabase.db = null;
-           }
-       } catch (SQLException sql_ex) {
-       		LOGGER.error("Error occured while closing connection: " + 
-       				sql_ex.getMessage() + "::" 
-       				+ "closed prepared statements?" + flag0
-       				+ ";closed connection?" + flag1);
-       		return;
-       } catch(Exception exception) {
-       		LOGGER.error("Error occured while closing connection: " + 
-       				exception.getMessage() + "::" 
-       				+ "closed prepared statements?" + flag0
-       				+ ";closed connection?" + flag1);
-       		return;
-       } finally {
-   	    	// Make sure the connection is returned to the pool.
-   	    	if (DerbyDatabase.conn!= null) {
-   	    		try { DerbyDatabase.conn.close(); } catch (SQLException e) { ; }
-   	    		DerbyDatabase.conn = null;
-   	    	}
-   	  }
-       LOGGER.info("Derby database connection is closed succesfully");
-	}
-	
-	/**
-	 * Always make sure the statements are closed, when you exit.
-	 */
-	private static boolean closePreparedStatements() {
-		try {
-		if(DerbyDatabase.insertSQL != null) {
-			DerbyDatabase.insertSQL.close();
-			DerbyDatabase.insertSQL = null;
-		} 
-		if(DerbyDatabase.selectSQL != null) {
-			DerbyDatabase.selectSQL.close();
-			DerbyDatabase.selectSQL = null;
+		ConnectionPool connectionPool = DerbyDatabase.pool;
+		if (connectionPool == null) {
+			return;
 		}
-		if(DerbyDatabase.updateSQL != null) {
-			DerbyDatabase.updateSQL.close();
-			DerbyDatabase.updateSQL = null;
-		}
-		} catch(SQLException sql_ex) {
-			LOGGER.error("Prepared statements could not be closed.");
-			return false;
+		DerbyDatabase.pool = null;
+		connectionPool.close();
+		try {
+			DriverManager.getConnection(DerbyDatabase.connectionURL + ";shutdown=true");
+		} catch (SQLException sql_ex) {
+			// Derby signals a successful shutdown of a single database with 08006
+			if (!"08006".equals(sql_ex.getSQLState())) {
+				LOGGER.error("Error occured while shutting down the database: " + 
+						sql_ex.getMessage());
+				return;
+			}
 		}
-		return true;
+		LOGGER.info("Derby database connection is closed succesfully");
 	}
 
 	
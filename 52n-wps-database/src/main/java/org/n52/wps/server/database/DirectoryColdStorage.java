@@ -0,0 +1,177 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.n52.wps.commons.PropertyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+
+/**
+ * {@link ColdStorage} keeping values as files in a directory, e.g. on a
+ * network share, and standing in for object stores. Every value is a file
+ * named by its key next to a metadata file, values become visible once the
+ * metadata file is renamed into place.
+ */
+public class DirectoryColdStorage implements ColdStorage {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(DirectoryColdStorage.class);
+
+    private final static String KEY_COLD_PATH = "cold.path";
+
+    private final static String DEFAULT_COLD_PATH =
+            Joiner.on(File.separator).join(
+                System.getProperty("java.io.tmpdir", "."),
+                "Database",
+                "Cold");
+
+    private final static String SUFFIX_METADATA = "metadata";
+    private final static String SUFFIX_TEMP = "tmp";
+
+    private final static Joiner JOINER = Joiner.on(".");
+
+    private final File directory;
+
+    public DirectoryColdStorage(PropertyUtil propertyUtil) throws IOException {
+        this(new File(propertyUtil.extractString(KEY_COLD_PATH, DEFAULT_COLD_PATH)));
+    }
+
+    public DirectoryColdStorage(File directory) throws IOException {
+        this.directory = directory;
+        FileUtils.forceMkdir(directory);
+        LOGGER.info("Using \"{}\" as cold storage directory", directory.getAbsolutePath());
+    }
+
+    @Override
+    public void put(String key, File file, ResultMetadata metadata) throws IOException {
+        File valueFile = generateValueFile(key);
+        File metadataFile = generateMetadataFile(key);
+        File valueTempFile = new File(directory, JOINER.join(key, SUFFIX_TEMP));
+        File metadataTempFile = new File(directory, JOINER.join(key, SUFFIX_METADATA, SUFFIX_TEMP));
+        try {
+            FileUtils.copyFile(file, valueTempFile);
+            metadata.write(metadataTempFile);
+            // a replaced value is not visible until both files are in place
+            metadataFile.delete();
+            if ( !valueTempFile.renameTo(valueFile)) {
+                valueFile.delete();
+                if ( !valueTempFile.renameTo(valueFile)) {
+                    throw new IOException("Unable to rename " + valueTempFile.getPath() + " to " + valueFile.getPath());
+                }
+            }
+            if ( !metadataTempFile.renameTo(metadataFile)) {
+                throw new IOException("Unable to rename " + metadataTempFile.getPath() + " to " + metadataFile.getPath());
+            }
+        }
+        finally {
+            valueTempFile.delete();
+            metadataTempFile.delete();
+        }
+    }
+
+    @Override
+    public ResultMetadata getMetadata(String key) throws IOException {
+        File metadataFile = generateMetadataFile(key);
+        try {
+            return ResultMetadata.read(metadataFile);
+        }
+        catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        if ( !generateMetadataFile(key).exists()) {
+            return null;
+        }
+        try {
+            return new FileInputStream(generateValueFile(key));
+        }
+        catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean deleted = generateMetadataFile(key).delete();
+        return generateValueFile(key).delete() || deleted;
+    }
+
+    @Override
+    public int deleteCreatedBefore(long createdMillis) throws IOException {
+        int deleted = 0;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list " + directory.getAbsolutePath());
+        }
+        String suffix = "." + SUFFIX_METADATA;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(suffix)) {
+                String key = name.substring(0, name.length() - suffix.length());
+                ResultMetadata metadata;
+                try {
+                    metadata = ResultMetadata.read(file);
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Unable to read cold storage metadata {}: {}", file.getPath(), e.getMessage());
+                    continue;
+                }
+                long created = metadata.getCreated() > 0 ? metadata.getCreated() : file.lastModified();
+                if (created < createdMillis && delete(key)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private File generateValueFile(String key) {
+        return new File(directory, key);
+    }
+
+    private File generateMetadataFile(String key) {
+        return new File(directory, JOINER.join(key, SUFFIX_METADATA));
+    }
+}
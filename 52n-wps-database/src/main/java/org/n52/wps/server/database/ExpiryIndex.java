@@ -0,0 +1,205 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Index of file names by the time bucket they were stored in, so expiry only
+ * reads the buckets older than the threshold instead of listing all files.
+ * Every bucket is a file named by its start time, listing one name per line.
+ */
+final class ExpiryIndex {
+
+    private final static String SUFFIX_BUCKET = ".bucket";
+
+    private final static String SUFFIX_TEMP = ".tmp";
+
+    private final File directory;
+
+    private final long bucketMillis;
+
+    private long currentBucket = -1;
+
+    private Writer currentWriter;
+
+    /**
+     * @param directory the directory of the bucket files, created if needed
+     * @param bucketMillis the time span of a bucket
+     */
+    ExpiryIndex(File directory, long bucketMillis) {
+        this.directory = directory;
+        this.bucketMillis = Math.max(1, bucketMillis);
+        directory.mkdirs();
+    }
+
+    /**
+     * Adds a name to the bucket of the given time, names may be added to
+     * several buckets.
+     */
+    synchronized void add(String name, long timeMillis) throws IOException {
+        long bucket = timeMillis - timeMillis % bucketMillis;
+        if (bucket == currentBucket) {
+            currentWriter.write(name);
+            currentWriter.write('\n');
+            currentWriter.flush();
+            return;
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(generateBucketFile(bucket), true), Charsets.UTF_8);
+        try {
+            writer.write(name);
+            writer.write('\n');
+            writer.flush();
+        }
+        catch (IOException e) {
+            IOUtils.closeQuietly(writer);
+            throw e;
+        }
+        if (bucket > currentBucket) {
+            // buckets of the past are only written when indexing existing files
+            IOUtils.closeQuietly(currentWriter);
+            currentBucket = bucket;
+            currentWriter = writer;
+        }
+        else {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the start times of all buckets ending before the given time,
+     *         oldest first
+     */
+    List<Long> findBucketsBefore(long timeMillis) {
+        List<Long> buckets = new ArrayList<Long>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SUFFIX_BUCKET)) {
+                    try {
+                        long bucket = Long.parseLong(name.substring(0, name.length() - SUFFIX_BUCKET.length()));
+                        if (bucket + bucketMillis <= timeMillis) {
+                            buckets.add(bucket);
+                        }
+                    }
+                    catch (NumberFormatException e) {
+                        // not a bucket
+                    }
+                }
+            }
+        }
+        Collections.sort(buckets);
+        return buckets;
+    }
+
+    List<String> read(long bucket) throws IOException {
+        List<String> names = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(generateBucketFile(bucket)),
+                                                                         Charsets.UTF_8));
+        try {
+            String name;
+            while ((name = reader.readLine()) != null) {
+                if (name.length() > 0) {
+                    names.add(name);
+                }
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return names;
+    }
+
+    synchronized void remove(long bucket) {
+        if (bucket == currentBucket) {
+            IOUtils.closeQuietly(currentWriter);
+            currentWriter = null;
+            currentBucket = -1;
+        }
+        generateBucketFile(bucket).delete();
+    }
+
+    /**
+     * Replaces the names of a bucket, the bucket is removed if no names are
+     * left.
+     */
+    synchronized void replace(long bucket, List<String> names) throws IOException {
+        if (names.isEmpty()) {
+            remove(bucket);
+            return;
+        }
+        if (bucket == currentBucket) {
+            IOUtils.closeQuietly(currentWriter);
+            currentWriter = null;
+            currentBucket = -1;
+        }
+        File tempFile = new File(directory, bucket + SUFFIX_BUCKET + SUFFIX_TEMP);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.UTF_8);
+        try {
+            for (String name : names) {
+                writer.write(name);
+                writer.write('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+        Files.move(tempFile.toPath(), generateBucketFile(bucket).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    synchronized void close() {
+        IOUtils.closeQuietly(currentWriter);
+        currentWriter = null;
+        currentBucket = -1;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    private File generateBucketFile(long bucket) {
+        return new File(directory, bucket + SUFFIX_BUCKET);
+    }
+}
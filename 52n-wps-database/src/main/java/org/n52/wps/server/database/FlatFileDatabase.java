@@ -28,7 +28,9 @@
  */
 package org.n52.wps.server.database;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -36,17 +38,25 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.n52.wps.DatabaseDocument.Database;
 import org.n52.wps.ServerDocument.Server;
 import org.n52.wps.commons.MIMEUtil;
@@ -56,7 +66,10 @@ import org.n52.wps.commons.XMLUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Striped;
 
 /*
  * @author tkunicki (Thomas Kunicki, USGS)
@@ -71,6 +84,8 @@ public final class FlatFileDatabase implements IDatabase {
     private final static String KEY_DATABASE_WIPE_ENABLED = "wipe.enabled";
     private final static String KEY_DATABASE_WIPE_PERIOD = "wipe.period";
     private final static String KEY_DATABASE_WIPE_THRESHOLD = "wipe.threshold";
+    private final static String KEY_DATABASE_WIPE_BUCKET = "wipe.bucket";
+    private final static String KEY_DATABASE_WIPE_RATE = "wipe.rate";
     private final static String KEY_DATABASE_COMPLEX_GZIP = "complex.gzip";
     
     private final static String DEFAULT_DATABASE_PATH = 
@@ -81,24 +96,42 @@ public final class FlatFileDatabase implements IDatabase {
     private final static boolean DEFAULT_DATABASE_WIPE_ENABLED = true;
     private final static long DEFAULT_DATABASE_WIPE_PERIOD = 1000 * 60 * 60;  // P1H
     private final static long DEFAULT_DATABASE_WIPE_THRESHOLD = 1000 * 60 * 60 * 24 * 7; // P7D
+    private final static double DEFAULT_DATABASE_WIPE_RATE = 100; // deletes per second
     private final static boolean DEFAULT_DATABASE_COMPLEX_GZIP = true; // P7D
     
     private final static String SUFFIX_MIMETYPE = "mime-type";
     private final static String SUFFIX_CONTENT_LENGTH = "content-length";
     private final static String SUFFIX_XML = "xml";
     private final static String SUFFIX_TEMP = "tmp";
-    private final static String SUFFIX_GZIP = "gz";
     private final static String SUFFIX_PROPERTIES = "properties";
+    private final static String SUFFIX_JOURNAL = "journal";
+    private final static String SUFFIX_METADATA = "metadata";
+
+    private final static String MIME_TYPE_XML = "text/xml";
+
+    private final static String NAME_STATUS = "status";
+    private final static String NAME_RESPONSE = "response";
+    private final static String NAME_EXPIRY_INDEX = ".expiry";
+
+    // Journal records are the response document followed by a trailer of the
+    // document checksum, the document length and JOURNAL_MAGIC, the latest
+    // record is found from the end.
+    private final static int JOURNAL_MAGIC = 0x57505332;
+    private final static int JOURNAL_CHECKSUM_LENGTH = 16;
+    private final static int JOURNAL_TRAILER_LENGTH = JOURNAL_CHECKSUM_LENGTH + 12;
+
+    // The Status element precedes the inputs and outputs of a response, a
+    // final status is detected in the head of the document.
+    private final static int RESPONSE_HEAD_LENGTH = 16 * 1024;
+    private final static Pattern PATTERN_FINAL_STATUS = Pattern.compile("<([\\w\\-\\.]+:)?Process(Succeeded|Failed)[\\s/>]");
 
     // If the delimiter changes, examine Patterns below.
     private final static Joiner JOINER = Joiner.on(".");
 
-    // Grouping is used to pull out integer index of response, if these patterns
-    // change examine findLatestResponseIndex(...), generateResponseFile(...)
-    // and generateResponseFile(...)
+    // Grouping is used to pull out integer index of responses stored by
+    // previous versions, one file per status update. If this pattern changes
+    // examine findLatestResponseIndex(...) and generateResponseFile(...)
     private final static Pattern PATTERN_RESPONSE = Pattern.compile("([\\d]+)\\." + SUFFIX_XML);
-    private final static Pattern PATTERN_RESPONSE_TEMP = Pattern.compile("([\\d]+)\\." + SUFFIX_XML + "(:?\\."
-            + SUFFIX_TEMP + ")?");
 
     private static FlatFileDatabase instance;
 
@@ -114,14 +147,18 @@ public final class FlatFileDatabase implements IDatabase {
 
     protected final String baseResultURL;
 
-    protected final boolean gzipComplexValues;
+    protected final CompressionPolicy compressionPolicy;
 
-    protected final Object storeResponseSerialNumberLock;
+    protected final Striped<Lock> responseLocks = Striped.lock(256);
 
     protected final boolean indentXML = true;
 
     protected final Timer wipeTimer;
 
+    protected final ExpiryIndex expiryIndex;
+
+    protected final WipeMetrics wipeMetrics = new WipeMetrics();
+
     protected FlatFileDatabase() {
         
         Server server = WPSConfig.getInstance().getWPSConfig().getServer();
@@ -145,18 +182,26 @@ public final class FlatFileDatabase implements IDatabase {
             
             long periodMillis = propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_PERIOD, DEFAULT_DATABASE_WIPE_PERIOD);
             long thresholdMillis = propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_THRESHOLD, DEFAULT_DATABASE_WIPE_THRESHOLD);
+            long bucketMillis = propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_BUCKET, periodMillis);
+            double deletesPerSecond = propertyUtil.extractDouble(KEY_DATABASE_WIPE_RATE, DEFAULT_DATABASE_WIPE_RATE);
+
+            File expiryIndexDirectory = new File(baseDirectory, NAME_EXPIRY_INDEX);
+            // files stored before the index existed are indexed by the first wipe
+            boolean indexExisting = !expiryIndexDirectory.exists();
+            expiryIndex = new ExpiryIndex(expiryIndexDirectory, bucketMillis);
 
             wipeTimer = new Timer(getClass().getSimpleName() + " File Wiper", true);
-            wipeTimer.scheduleAtFixedRate(new FlatFileDatabase.WipeTimerTask(thresholdMillis), 0, periodMillis);
-            LOGGER.info("Started {} file wiper timer; period {} ms, threshold {} ms",
-                    new Object[] {getDatabaseName(),periodMillis,thresholdMillis});
+            wipeTimer.scheduleAtFixedRate(new FlatFileDatabase.WipeTimerTask(thresholdMillis, deletesPerSecond, indexExisting), 0, periodMillis);
+            LOGGER.info("Started {} file wiper timer; period {} ms, threshold {} ms, bucket {} ms, {} deletes/s",
+                    new Object[] {getDatabaseName(),periodMillis,thresholdMillis,bucketMillis,deletesPerSecond});
         } else {
             wipeTimer = null;
+            expiryIndex = null;
         }
 
-        gzipComplexValues = propertyUtil.extractBoolean(KEY_DATABASE_COMPLEX_GZIP, DEFAULT_DATABASE_COMPLEX_GZIP);
-
-        storeResponseSerialNumberLock = new Object();
+        // complex.gzip selects the codec if complex.codec is not configured
+        compressionPolicy = new CompressionPolicy(propertyUtil,
+                propertyUtil.extractBoolean(KEY_DATABASE_COMPLEX_GZIP, DEFAULT_DATABASE_COMPLEX_GZIP) ? GzipCompressionCodec.ENCODING : "none");
     }
 
     @Override
@@ -173,7 +218,9 @@ public final class FlatFileDatabase implements IDatabase {
     public void insertRequest(String id, InputStream inputStream, boolean xml) {
         // store request in response directory...
         File responseDirectory = generateResponseDirectory(id);
-        responseDirectory.mkdir();
+        if (responseDirectory.mkdir()) {
+            indexForExpiry(responseDirectory);
+        }
         BufferedOutputStream outputStream = null;
         try {
             if (xml) {
@@ -227,18 +274,61 @@ public final class FlatFileDatabase implements IDatabase {
 
     @Override
     public InputStream lookupResponse(String id) {
+        File responseDirectory = generateResponseDirectory(id);
+        if ( !responseDirectory.exists()) {
+            return lookupComplexValue(id);
+        }
+        if ( !generateResponseFile(responseDirectory).exists()) {
+            File journalFile = generateJournalFile(responseDirectory);
+            Lock lock = responseLocks.get(id);
+            lock.lock();
+            try {
+                if (journalFile.exists()) {
+                    return openLatestJournalRecord(journalFile);
+                }
+            }
+            catch (IOException ex) {
+                LOGGER.warn("Error reading status journal for id {}", id);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
         File responseFile = lookupResponseAsFile(id);
         if (responseFile != null && responseFile.exists()) {
             LOGGER.debug("Response file for {} is {}", id, responseFile.getPath());
             try {
-                return responseFile.getName().endsWith(SUFFIX_GZIP) ? new GZIPInputStream(new FileInputStream(responseFile))
-                                                                   : new FileInputStream(responseFile);
+                return new FileInputStream(responseFile);
             }
             catch (FileNotFoundException ex) {
                 // should never get here due to checks above...
                 LOGGER.warn("Response not found for id {}", id);
             }
+        }
+        LOGGER.warn("Response not found for id {}", id);
+        return null;
+    }
+
+    /**
+     * @return the decoded content of a complex value
+     */
+    private InputStream lookupComplexValue(String id) {
+        ResultMetadata metadata = getMetadataForStoreResponse(id);
+        File resultFile = metadata == null ? null : metadata.getFile();
+        if (resultFile != null) {
+            LOGGER.debug("Response file for {} is {}", id, resultFile.getPath());
+            InputStream resultInputStream = null;
+            try {
+                resultInputStream = new FileInputStream(resultFile);
+                CompressionCodec codec = compressionPolicy.getCodecForEncoding(metadata.getEncoding());
+                return codec == null ? resultInputStream : codec.decompress(resultInputStream);
+            }
+            catch (FileNotFoundException ex) {
+                // deleted since the metadata was read
+                LOGGER.warn("Response not found for id {}", id);
+            }
             catch (IOException ex) {
+                IOUtils.closeQuietly(resultInputStream);
                 LOGGER.warn("Error processing response for id {}", id);
             }
         }
@@ -252,14 +342,12 @@ public final class FlatFileDatabase implements IDatabase {
         // request is stored in response directory...
         File responseDirectory = generateResponseDirectory(id);
         if (responseDirectory.exists()) {
-            synchronized (storeResponseSerialNumberLock) {
-                requestAsFile = new File(responseDirectory, JOINER.join("request", SUFFIX_XML));
-                if ( !requestAsFile.exists()) {
-                    requestAsFile = new File(responseDirectory, JOINER.join("request", SUFFIX_PROPERTIES));
-                }
-                if ( !requestAsFile.exists()) {
-                    requestAsFile = null;
-                }
+            requestAsFile = new File(responseDirectory, JOINER.join("request", SUFFIX_XML));
+            if ( !requestAsFile.exists()) {
+                requestAsFile = new File(responseDirectory, JOINER.join("request", SUFFIX_PROPERTIES));
+            }
+            if ( !requestAsFile.exists()) {
+                requestAsFile = null;
             }
         }
         return requestAsFile;
@@ -271,22 +359,23 @@ public final class FlatFileDatabase implements IDatabase {
         // if response resolved to directory, this means the response is a status update
         File responseDirectory = generateResponseDirectory(id);
         if (responseDirectory.exists()) {
-            synchronized (storeResponseSerialNumberLock) {
+            Lock lock = responseLocks.get(id);
+            lock.lock();
+            try {
                 return findLatestResponseFile(responseDirectory);
             }
+            catch (IOException e) {
+                LOGGER.warn("Error reading status journal for id {}", id);
+                return null;
+            }
+            finally {
+                lock.unlock();
+            }
         }
         else {
-            String mimeType = getMimeTypeForStoreResponse(id);
-            if (mimeType != null) {
-                // ignore gzipComplexValues in case file was stored when value
-                // was inconsistent with current value;
-                responseFile = generateComplexDataFile(id, mimeType, false);
-                if ( !responseFile.exists()) {
-                    responseFile = generateComplexDataFile(id, mimeType, true);
-                }
-                if ( !responseFile.exists()) {
-                    responseFile = null;
-                }
+            ResultMetadata metadata = getMetadataForStoreResponse(id);
+            if (metadata != null) {
+                responseFile = generateComplexDataFile(id, metadata);
             }
         }
         return responseFile;
@@ -297,49 +386,70 @@ public final class FlatFileDatabase implements IDatabase {
         if (wipeTimer != null) {
             wipeTimer.cancel();
         }
+        if (expiryIndex != null) {
+            expiryIndex.close();
+        }
+    }
+
+    public WipeMetrics getWipeMetrics() {
+        return wipeMetrics;
+    }
+
+    private void indexForExpiry(File file) {
+        if (expiryIndex != null) {
+            try {
+                expiryIndex.add(file.getName(), System.currentTimeMillis());
+            }
+            catch (IOException e) {
+                // the file is still found by the age check of a later re-index
+                LOGGER.warn("Unable to index {} for expiry: {}", file.getName(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public DatabaseBatch beginBatch() {
+        // values and responses are files of their own, written when added
+        return new ImmediateDatabaseBatch(this);
     }
 
     @Override
     public String storeComplexValue(String id, InputStream resultInputStream, String type, String mimeType) {
 
         String resultId = JOINER.join(id, UUID.randomUUID().toString());
+        InputStream valueInputStream = new BufferedInputStream(resultInputStream);
         try {
-            File resultFile = generateComplexDataFile(resultId, mimeType, gzipComplexValues);
-            File mimeTypeFile = generateComplexDataMimeTypeFile(resultId);
-            File contentLengthFile = generateComplexDataContentLengthFile(resultId);
+            CompressionCodec codec = compressionPolicy.getCodec(mimeType);
+            if (codec != null && !compressionPolicy.isCompressible(mimeType, valueInputStream)) {
+                LOGGER.debug("storing complex value for {} uncompressed, the content does not compress", id);
+                codec = null;
+            }
+            File resultFile = generateComplexDataFile(resultId, mimeType, codec);
+            File metadataFile = generateComplexDataMetadataFile(resultId);
 
             LOGGER.debug("initiating storage of complex value for {} as {}", id, resultFile.getPath());
+            indexForExpiry(resultFile);
+            indexForExpiry(metadataFile);
 
             long contentLength = -1;
+            MessageDigest digest = ResultMetadata.newChecksumDigest();
 
             OutputStream resultOutputStream = null;
             try {
-                resultOutputStream = gzipComplexValues ? new GZIPOutputStream(new FileOutputStream(resultFile))
-                                                      : new BufferedOutputStream(new FileOutputStream(resultFile));
-                contentLength = IOUtils.copyLarge(resultInputStream, resultOutputStream);
+                resultOutputStream = codec != null ? codec.compress(new FileOutputStream(resultFile), compressionPolicy.getLevel(mimeType))
+                                                   : new BufferedOutputStream(new FileOutputStream(resultFile));
+                contentLength = IOUtils.copyLarge(new DigestInputStream(valueInputStream, digest), resultOutputStream);
             }
             finally {
-                IOUtils.closeQuietly(resultInputStream);
                 IOUtils.closeQuietly(resultOutputStream);
             }
 
-            OutputStream mimeTypeOutputStream = null;
-            try {
-                mimeTypeOutputStream = new BufferedOutputStream(new FileOutputStream(mimeTypeFile));
-                IOUtils.write(mimeType, mimeTypeOutputStream);
-            }
-            finally {
-                IOUtils.closeQuietly(mimeTypeOutputStream);
-            }
-
-            OutputStream contentLengthOutputStream = null;
-            try {
-                contentLengthOutputStream = new BufferedOutputStream(new FileOutputStream(contentLengthFile));
-                IOUtils.write(Long.toString(contentLength), contentLengthOutputStream);
-            }
-            finally {
-                IOUtils.closeQuietly(contentLengthOutputStream);
-            }
+            new ResultMetadata(mimeType,
+                               resultFile.length(),
+                               contentLength,
+                               codec != null ? codec.getEncoding() : null,
+                               System.currentTimeMillis(),
+                               ResultMetadata.toHex(digest.digest())).write(metadataFile);
 
             LOGGER.debug("completed storage of complex value for {} as {}", id, resultFile.getPath());
 
@@ -347,66 +457,133 @@ public final class FlatFileDatabase implements IDatabase {
         catch (IOException e) {
             throw new RuntimeException("Error storing complex value for " + resultId, e);
         }
+        finally {
+            IOUtils.closeQuietly(valueInputStream);
+        }
         return generateRetrieveResultURL(resultId);
     }
 
+    /**
+     * Status updates are appended to the status journal of the response,
+     * the final response is written once and replaces the journal.
+     */
     @Override
     public String storeResponse(String id, InputStream inputStream) {
 
+        File responseDirectory = generateResponseDirectory(id);
+        if (responseDirectory.mkdir()) {
+            indexForExpiry(responseDirectory);
+        }
+        InputStream responseInputStream = new BufferedInputStream(inputStream, RESPONSE_HEAD_LENGTH);
         try {
-            File responseTempFile;
-            File responseFile;
-            synchronized (storeResponseSerialNumberLock) {
-                File responseDirectory = generateResponseDirectory(id);
-                responseDirectory.mkdir();
-                int responseIndex = findLatestResponseIndex(responseDirectory, true);
-                if (responseIndex < 0) {
-                    responseIndex = 0;
-                }
-                else {
-                    responseIndex++;
-                }
-                responseFile = generateResponseFile(responseDirectory, responseIndex);
-                responseTempFile = generateResponseTempFile(responseDirectory, responseIndex);
-                try {
-                    // create the file so that the reponse serial number is correctly
-                    // incremented if this method is called again for this reponse
-                    // before this reponse is completed.
-                    responseTempFile.createNewFile();
-                }
-                catch (IOException e) {
-                    throw new RuntimeException("Error storing response to {}", e);
-                }
-                LOGGER.debug("Creating temp file for {} as {}", id, responseTempFile.getPath());
-            }
-            InputStream responseInputStream = null;
-            OutputStream responseOutputStream = null;
-            try {
-                responseInputStream = inputStream;
-                responseOutputStream = new BufferedOutputStream(new FileOutputStream(responseTempFile));
-                // In order to allow the prior response to be available we write
-                // to a temp file and rename these when completed. Large responses
-                // can cause the call below to take a significant amount of time.
-                XMLUtil.copyXML(responseInputStream, responseOutputStream, indentXML);
+            if (isFinalResponse(responseInputStream)) {
+                storeFinalResponse(id, responseDirectory, responseInputStream);
             }
-            finally {
-                IOUtils.closeQuietly(responseInputStream);
-                IOUtils.closeQuietly(responseOutputStream);
-            }
-
-            synchronized (storeResponseSerialNumberLock) {
-                responseTempFile.renameTo(responseFile);
-                LOGGER.debug("Renamed temp file for {} to {}", id, responseFile.getPath());
+            else {
+                appendStatus(id, responseDirectory, responseInputStream);
             }
-
             return generateRetrieveResultURL(id);
-
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             throw new RuntimeException("Error storing response for " + id, e);
         }
+        finally {
+            IOUtils.closeQuietly(responseInputStream);
+        }
+    }
+
+    private boolean isFinalResponse(InputStream responseInputStream) throws IOException {
+        byte[] head = new byte[RESPONSE_HEAD_LENGTH];
+        responseInputStream.mark(RESPONSE_HEAD_LENGTH);
+        int headLength = 0;
+        int read;
+        while (headLength < head.length && (read = responseInputStream.read(head, headLength, head.length - headLength)) != -1) {
+            headLength += read;
+        }
+        responseInputStream.reset();
+        return PATTERN_FINAL_STATUS.matcher(new String(head, 0, headLength, Charsets.ISO_8859_1)).find();
+    }
+
+    private void storeFinalResponse(String id, File responseDirectory, InputStream responseInputStream) throws IOException {
+        File responseFile = generateResponseFile(responseDirectory);
+        // In order to allow the prior status to be available we write to a
+        // temp file and rename it when completed. Large responses can cause
+        // the copy below to take a significant amount of time.
+        File responseTempFile = new File(responseDirectory, JOINER.join(NAME_RESPONSE, UUID.randomUUID(), SUFFIX_TEMP));
+        File metadataFile = generateResponseMetadataFile(responseDirectory);
+        File metadataTempFile = new File(responseDirectory, JOINER.join(NAME_RESPONSE, UUID.randomUUID(), SUFFIX_METADATA, SUFFIX_TEMP));
+        LOGGER.debug("Creating temp file for {} as {}", id, responseTempFile.getPath());
+        MessageDigest digest = ResultMetadata.newChecksumDigest();
+        OutputStream responseOutputStream = null;
+        try {
+            // the final response is indented once, status updates are stored
+            // and served as they are
+            CountingOutputStream countingOutputStream = new CountingOutputStream(new FileOutputStream(responseTempFile));
+            responseOutputStream = new BufferedOutputStream(new DigestOutputStream(countingOutputStream, digest));
+            XMLUtil.copyXML(responseInputStream, responseOutputStream, indentXML);
+            responseOutputStream.close();
+            long length = countingOutputStream.getByteCount();
+            new ResultMetadata(MIME_TYPE_XML, length, length, null, System.currentTimeMillis(),
+                               ResultMetadata.toHex(digest.digest())).write(metadataTempFile);
+        }
         catch (IOException e) {
-            throw new RuntimeException("Error storing response for " + id, e);
+            IOUtils.closeQuietly(responseOutputStream);
+            responseTempFile.delete();
+            metadataTempFile.delete();
+            throw e;
+        }
+        finally {
+            IOUtils.closeQuietly(responseOutputStream);
+        }
+
+        Lock lock = responseLocks.get(id);
+        lock.lock();
+        try {
+            responseFile.delete();
+            metadataFile.delete();
+            if ( !responseTempFile.renameTo(responseFile) || !metadataTempFile.renameTo(metadataFile)) {
+                responseTempFile.delete();
+                metadataTempFile.delete();
+                throw new IOException("Unable to rename " + responseTempFile.getPath());
+            }
+            LOGGER.debug("Renamed temp file for {} to {}", id, responseFile.getPath());
+            generateJournalFile(responseDirectory).delete();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void appendStatus(String id, File responseDirectory, InputStream responseInputStream) throws IOException {
+        File journalFile = generateJournalFile(responseDirectory);
+        Lock lock = responseLocks.get(id);
+        lock.lock();
+        try {
+            FileOutputStream journalOutputStream = new FileOutputStream(journalFile, true);
+            FileChannel journalChannel = journalOutputStream.getChannel();
+            long recordStart = journalChannel.size();
+            try {
+                DataOutputStream recordOutputStream = new DataOutputStream(new BufferedOutputStream(journalOutputStream));
+                MessageDigest digest = ResultMetadata.newChecksumDigest();
+                long recordLength = IOUtils.copyLarge(new DigestInputStream(responseInputStream, digest), recordOutputStream);
+                recordOutputStream.write(digest.digest());
+                recordOutputStream.writeLong(recordLength);
+                recordOutputStream.writeInt(JOURNAL_MAGIC);
+                recordOutputStream.flush();
+            }
+            catch (IOException e) {
+                // drop the incomplete record, the previous status stays the latest
+                journalChannel.truncate(recordStart);
+                throw e;
+            }
+            finally {
+                IOUtils.closeQuietly(journalOutputStream);
+            }
+            // appending does not touch the directory, keep it from being wiped
+            responseDirectory.setLastModified(System.currentTimeMillis());
+        }
+        finally {
+            lock.unlock();
         }
     }
 
@@ -417,62 +594,133 @@ public final class FlatFileDatabase implements IDatabase {
 
     @Override
     public String getMimeTypeForStoreResponse(String id) {
+        ResultMetadata metadata = getMetadataForStoreResponse(id);
+        return metadata == null ? null : metadata.getMimeType();
+    }
+
+    @Override
+    public long getContentLengthForStoreResponse(String id) {
+        ResultMetadata metadata = getMetadataForStoreResponse(id);
+        return metadata == null ? -1 : metadata.getContentLength();
+    }
+
+    @Override
+    public ResultMetadata getMetadataForStoreResponse(String id) {
 
         File responseDirectory = generateResponseDirectory(id);
         if (responseDirectory.exists()) {
-            return "text/xml";
+            Lock lock = responseLocks.get(id);
+            lock.lock();
+            try {
+                File responseFile = generateResponseFile(responseDirectory);
+                if (responseFile.exists()) {
+                    File metadataFile = generateResponseMetadataFile(responseDirectory);
+                    return metadataFile.exists() ? ResultMetadata.read(metadataFile)
+                                                 : generateFileMetadata(responseFile);
+                }
+                File journalFile = generateJournalFile(responseDirectory);
+                if (journalFile.exists()) {
+                    JournalRecord record = findLatestJournalRecord(journalFile);
+                    return record == null ? null : new ResultMetadata(MIME_TYPE_XML,
+                                                                      record.length,
+                                                                      record.length,
+                                                                      null,
+                                                                      journalFile.lastModified(),
+                                                                      record.checksum);
+                }
+                responseFile = findLatestResponseFile(responseDirectory);
+                return responseFile == null ? null : generateFileMetadata(responseFile);
+            }
+            catch (IOException e) {
+                LOGGER.error("Unable to read metadata for response id {}, exception message: {}",
+                             id, e.getMessage());
+                return null;
+            }
+            finally {
+                lock.unlock();
+            }
         }
         else {
-            File mimeTypeFile = generateComplexDataMimeTypeFile(id);
-            if (mimeTypeFile.canRead()) {
-                InputStream mimeTypeInputStream = null;
+            ResultMetadata metadata;
+            File metadataFile = generateComplexDataMetadataFile(id);
+            if (metadataFile.canRead()) {
                 try {
-                    mimeTypeInputStream = new FileInputStream(mimeTypeFile);
-                    return IOUtils.toString(mimeTypeInputStream);
+                    metadata = ResultMetadata.read(metadataFile);
                 }
                 catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                finally {
-                    IOUtils.closeQuietly(mimeTypeInputStream);
+                    LOGGER.error("Unable to read metadata for response id {} from {}, exception message: {}",
+                                 new Object[] {id, metadataFile.getAbsolutePath(), e.getMessage()});
+                    return null;
                 }
             }
+            else {
+                metadata = findLegacyComplexDataMetadata(id);
+            }
+            return metadata == null ? null : metadata.withFile(generateComplexDataFile(id, metadata));
         }
-        return null;
     }
 
-    @Override
-    public long getContentLengthForStoreResponse(String id) {
+    /**
+     * Metadata of complex values stored by previous versions in separate
+     * mime-type and content-length files.
+     */
+    private ResultMetadata findLegacyComplexDataMetadata(String id) {
+        File mimeTypeFile = generateComplexDataMimeTypeFile(id);
+        if ( !mimeTypeFile.canRead()) {
+            return null;
+        }
+        String mimeType;
+        InputStream mimeTypeInputStream = null;
+        try {
+            mimeTypeInputStream = new FileInputStream(mimeTypeFile);
+            mimeType = IOUtils.toString(mimeTypeInputStream);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            IOUtils.closeQuietly(mimeTypeInputStream);
+        }
 
-        File responseDirectory = generateResponseDirectory(id);
-        if (responseDirectory.exists()) {
-            synchronized (storeResponseSerialNumberLock) {
-                File responseFile = findLatestResponseFile(responseDirectory);
-                return responseFile.length();
+        long contentLength = -1;
+        File contentLengthFile = generateComplexDataContentLengthFile(id);
+        if (contentLengthFile.canRead()) {
+            InputStream contentLengthInputStream = null;
+            try {
+                contentLengthInputStream = new FileInputStream(contentLengthFile);
+                contentLength = Long.parseLong(IOUtils.toString(contentLengthInputStream));
             }
-        }
-        else {
-            File contentLengthFile = generateComplexDataContentLengthFile(id);
-            if (contentLengthFile.canRead()) {
-                InputStream contentLengthInputStream = null;
-                try {
-                    contentLengthInputStream = new FileInputStream(contentLengthFile);
-                    return Long.parseLong(IOUtils.toString(contentLengthInputStream));
-                }
-                catch (IOException e) {
-                    LOGGER.error("Unable to extract content-length for response id {} from {}, exception message: {}",
-                                 new Object[] {id, contentLengthFile.getAbsolutePath(), e.getMessage()});
-                }
-                catch (NumberFormatException e) {
-                    LOGGER.error("Unable to parse content-length for response id {} from {}, exception message: {}",
-                                 new Object[] {id, contentLengthFile.getAbsolutePath(), e.getMessage()});
-                }
-                finally {
-                    IOUtils.closeQuietly(contentLengthInputStream);
-                }
+            catch (IOException e) {
+                LOGGER.error("Unable to extract content-length for response id {} from {}, exception message: {}",
+                             new Object[] {id, contentLengthFile.getAbsolutePath(), e.getMessage()});
+            }
+            catch (NumberFormatException e) {
+                LOGGER.error("Unable to parse content-length for response id {} from {}, exception message: {}",
+                             new Object[] {id, contentLengthFile.getAbsolutePath(), e.getMessage()});
+            }
+            finally {
+                IOUtils.closeQuietly(contentLengthInputStream);
             }
-            return -1;
         }
+
+        // previous versions stored uncompressed or gzip compressed values
+        // depending on complex.gzip at the time
+        File resultFile = generateComplexDataFile(id, mimeType, null);
+        boolean gzip = !resultFile.exists();
+        if (gzip) {
+            resultFile = generateComplexDataFile(id, mimeType, compressionPolicy.getCodecForEncoding(GzipCompressionCodec.ENCODING));
+        }
+        return new ResultMetadata(mimeType,
+                                  resultFile.length(),
+                                  contentLength,
+                                  gzip ? GzipCompressionCodec.ENCODING : null,
+                                  resultFile.lastModified(),
+                                  null);
+    }
+
+    private ResultMetadata generateFileMetadata(File responseFile) {
+        return new ResultMetadata(MIME_TYPE_XML, responseFile.length(), responseFile.length(), null,
+                                  responseFile.lastModified(), null);
     }
 
     @Override
@@ -480,11 +728,113 @@ public final class FlatFileDatabase implements IDatabase {
         return false;
     }
 
-    private int findLatestResponseIndex(File responseDirectory, boolean includeTemp) {
+    /**
+     * Location and checksum of a status journal record.
+     */
+    private static final class JournalRecord {
+
+        final long offset;
+        final long length;
+        final String checksum;
+
+        JournalRecord(long offset, long length, String checksum) {
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * @return the latest complete record or <code>null</code> if the journal
+     *         has no complete record or its checksum does not match
+     */
+    private JournalRecord findLatestJournalRecord(File journalFile) throws IOException {
+        RandomAccessFile journal = new RandomAccessFile(journalFile, "r");
+        try {
+            long journalLength = journal.length();
+            if (journalLength < JOURNAL_TRAILER_LENGTH) {
+                return null;
+            }
+            journal.seek(journalLength - JOURNAL_TRAILER_LENGTH);
+            byte[] checksum = new byte[JOURNAL_CHECKSUM_LENGTH];
+            journal.readFully(checksum);
+            long recordLength = journal.readLong();
+            if (journal.readInt() != JOURNAL_MAGIC || recordLength < 0
+                    || recordLength > journalLength - JOURNAL_TRAILER_LENGTH) {
+                LOGGER.warn("Status journal {} has no valid trailer", journalFile.getPath());
+                return null;
+            }
+            long recordOffset = journalLength - JOURNAL_TRAILER_LENGTH - recordLength;
+            if ( !hasChecksum(journal, recordOffset, recordLength, checksum)) {
+                LOGGER.warn("Status journal {} has a corrupt latest record", journalFile.getPath());
+                return null;
+            }
+            return new JournalRecord(recordOffset, recordLength, ResultMetadata.toHex(checksum));
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    private boolean hasChecksum(RandomAccessFile journal, long recordOffset, long recordLength, byte[] checksum) throws IOException {
+        MessageDigest digest = ResultMetadata.newChecksumDigest();
+        byte[] buffer = new byte[8192];
+        journal.seek(recordOffset);
+        long remaining = recordLength;
+        while (remaining > 0) {
+            int read = journal.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                return false;
+            }
+            digest.update(buffer, 0, read);
+            remaining -= read;
+        }
+        return MessageDigest.isEqual(checksum, digest.digest());
+    }
+
+    private InputStream openLatestJournalRecord(File journalFile) throws IOException {
+        JournalRecord record = findLatestJournalRecord(journalFile);
+        if (record == null) {
+            return null;
+        }
+        FileInputStream journalInputStream = new FileInputStream(journalFile);
+        try {
+            journalInputStream.getChannel().position(record.offset);
+        }
+        catch (IOException e) {
+            IOUtils.closeQuietly(journalInputStream);
+            throw e;
+        }
+        // later records are appended behind, the bounded range stays valid
+        return new BoundedInputStream(journalInputStream, record.length);
+    }
+
+    /**
+     * Writes the latest record of the status journal to a file in the
+     * response directory. Only used if the response is requested as file.
+     */
+    private File extractLatestJournalRecord(File responseDirectory, File journalFile) throws IOException {
+        InputStream recordInputStream = openLatestJournalRecord(journalFile);
+        if (recordInputStream == null) {
+            return null;
+        }
+        File statusFile = new File(responseDirectory, JOINER.join(NAME_STATUS, SUFFIX_XML));
+        OutputStream statusOutputStream = null;
+        try {
+            statusOutputStream = new BufferedOutputStream(new FileOutputStream(statusFile));
+            IOUtils.copyLarge(recordInputStream, statusOutputStream);
+        }
+        finally {
+            IOUtils.closeQuietly(recordInputStream);
+            IOUtils.closeQuietly(statusOutputStream);
+        }
+        return statusFile;
+    }
+
+    private int findLatestResponseIndex(File responseDirectory) {
         int responseIndex = Integer.MIN_VALUE;
         for (File file : responseDirectory.listFiles()) {
-            Matcher matcher = includeTemp ? PATTERN_RESPONSE_TEMP.matcher(file.getName())
-                                         : PATTERN_RESPONSE.matcher(file.getName());
+            Matcher matcher = PATTERN_RESPONSE.matcher(file.getName());
             if (matcher.matches()) {
                 int fileIndex = Integer.parseInt(matcher.group(1));
                 if (fileIndex > responseIndex) {
@@ -495,29 +845,56 @@ public final class FlatFileDatabase implements IDatabase {
         return responseIndex;
     }
 
-    private File findLatestResponseFile(File responseDirectory) {
-        int responseIndex = findLatestResponseIndex(responseDirectory, false);
-        return responseIndex < 0 ? null : generateResponseFile(responseDirectory, responseIndex);
+    private File findLatestResponseFile(File responseDirectory) throws IOException {
+        File responseFile = generateResponseFile(responseDirectory);
+        if (responseFile.exists()) {
+            return responseFile;
+        }
+        File journalFile = generateJournalFile(responseDirectory);
+        if (journalFile.exists()) {
+            return extractLatestJournalRecord(responseDirectory, journalFile);
+        }
+        // response stored by a previous version
+        int responseIndex = findLatestResponseIndex(responseDirectory);
+        return responseIndex < 0 ? null : new File(responseDirectory, JOINER.join(responseIndex, SUFFIX_XML));
+    }
+
+    private File generateResponseFile(File responseDirectory) {
+        return new File(responseDirectory, JOINER.join(NAME_RESPONSE, SUFFIX_XML));
     }
 
-    private File generateResponseFile(File responseDirectory, int index) {
-        return new File(responseDirectory, JOINER.join(index, SUFFIX_XML));
+    private File generateResponseMetadataFile(File responseDirectory) {
+        return new File(responseDirectory, JOINER.join(NAME_RESPONSE, SUFFIX_METADATA));
     }
 
-    private File generateResponseTempFile(File responseDirectory, int index) {
-        return new File(responseDirectory, JOINER.join(index, SUFFIX_XML, SUFFIX_TEMP));
+    private File generateJournalFile(File responseDirectory) {
+        return new File(responseDirectory, JOINER.join(NAME_STATUS, SUFFIX_JOURNAL));
     }
 
     private File generateResponseDirectory(String id) {
         return new File(baseDirectory, id);
     }
 
-    private File generateComplexDataFile(String id, String mimeType, boolean gzip) {
-        String fileName = gzip ? JOINER.join(id, MIMEUtil.getSuffixFromMIMEType(mimeType), SUFFIX_GZIP)
-                              : JOINER.join(id, MIMEUtil.getSuffixFromMIMEType(mimeType));
+    private File generateComplexDataFile(String id, String mimeType, CompressionCodec codec) {
+        String fileName = codec != null ? JOINER.join(id, MIMEUtil.getSuffixFromMIMEType(mimeType), codec.getFileSuffix())
+                                        : JOINER.join(id, MIMEUtil.getSuffixFromMIMEType(mimeType));
         return new File(baseDirectory, fileName);
     }
 
+    private File generateComplexDataFile(String id, ResultMetadata metadata) {
+        CompressionCodec codec = compressionPolicy.getCodecForEncoding(metadata.getEncoding());
+        if (metadata.getEncoding() != null && codec == null) {
+            LOGGER.warn("No compression codec for encoding {} of response id {}", metadata.getEncoding(), id);
+            return null;
+        }
+        File resultFile = generateComplexDataFile(id, metadata.getMimeType(), codec);
+        return resultFile.exists() ? resultFile : null;
+    }
+
+    private File generateComplexDataMetadataFile(String id) {
+        return new File(baseDirectory, JOINER.join(id, SUFFIX_METADATA));
+    }
+
     private File generateComplexDataMimeTypeFile(String id) {
         return new File(baseDirectory, JOINER.join(id, SUFFIX_MIMETYPE));
     }
@@ -526,54 +903,136 @@ public final class FlatFileDatabase implements IDatabase {
         return new File(baseDirectory, JOINER.join(id, SUFFIX_CONTENT_LENGTH));
     }
 
+    /**
+     * Deletes files and response directories whose bucket in the expiry index
+     * is older than the threshold, so each run only reads expired buckets.
+     * Entries modified since they were indexed are moved to a later bucket.
+     */
     private class WipeTimerTask extends TimerTask {
 
         public final long thresholdMillis;
 
-        WipeTimerTask(long thresholdMillis) {
+        private final RateLimiter rateLimiter;
+
+        private boolean indexExisting;
+
+        WipeTimerTask(long thresholdMillis, double deletesPerSecond, boolean indexExisting) {
             this.thresholdMillis = thresholdMillis;
+            this.rateLimiter = deletesPerSecond > 0 ? RateLimiter.create(deletesPerSecond) : null;
+            this.indexExisting = indexExisting;
         }
 
         @Override
         public void run() {
-            wipe(baseDirectory, thresholdMillis);
+            if (indexExisting) {
+                indexExisting(baseDirectory);
+                indexExisting = false;
+            }
+            wipe(thresholdMillis);
+        }
+
+        private void indexExisting(File rootFile) {
+            File[] files = rootFile.listFiles();
+            if (files == null) {
+                LOGGER.warn("Cannot index files, no files in root directory {}  > file list is null. ", rootFile.getAbsolutePath());
+                return;
+            }
+            LOGGER.info(getDatabaseName() + " file wiper, indexing {} files in {}", files.length, rootFile.getAbsolutePath());
+            for (File file : files) {
+                if ( !file.equals(expiryIndex.getDirectory())) {
+                    try {
+                        expiryIndex.add(file.getName(), file.lastModified());
+                    }
+                    catch (IOException e) {
+                        LOGGER.warn("Unable to index {} for expiry: {}", file.getName(), e.getMessage());
+                    }
+                }
+            }
         }
 
-        private void wipe(File rootFile, long thresholdMillis) {
+        private void wipe(long thresholdMillis) {
             // SimpleDataFormat is not thread-safe.
             SimpleDateFormat iso8601DateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
             long currentTimeMillis = System.currentTimeMillis();
+            long expiredMillis = currentTimeMillis - thresholdMillis;
             LOGGER.info(getDatabaseName() + " file wiper, checking {} for files older than {} ms",
-                        rootFile.getAbsolutePath(),
+                        baseDirectory.getAbsolutePath(),
                         thresholdMillis);
 
-            File[] files = rootFile.listFiles();
-            if (files != null) {
-                for (File file : files) {
+            long deletedEntries = 0;
+            long reclaimedBytes = 0;
+            for (long bucket : expiryIndex.findBucketsBefore(expiredMillis)) {
+                List<String> names;
+                try {
+                    names = expiryIndex.read(bucket);
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Unable to read expiry bucket {}: {}", bucket, e.getMessage());
+                    continue;
+                }
+                // retried by the next run
+                List<String> failedNames = new ArrayList<String>();
+                for (String name : names) {
+                    File file = new File(baseDirectory, name);
                     long lastModifiedMillis = file.lastModified();
-                    long ageMillis = currentTimeMillis - lastModifiedMillis;
-                    if (ageMillis > thresholdMillis) {
-                        LOGGER.info("Deleting {}, last modified date is {}",
-                                    file.getName(),
-                                    iso8601DateFormat.format(new Date(lastModifiedMillis)));
-                        delete(file);
-                        if (file.exists()) {
-                            LOGGER.warn("Deletion of {} failed", file.getName());
+                    if (lastModifiedMillis == 0) {
+                        // deleted already
+                        continue;
+                    }
+                    if (lastModifiedMillis > expiredMillis) {
+                        try {
+                            expiryIndex.add(name, lastModifiedMillis);
                         }
+                        catch (IOException e) {
+                            LOGGER.warn("Unable to index {} for expiry: {}", name, e.getMessage());
+                        }
+                        continue;
+                    }
+                    if (rateLimiter != null) {
+                        rateLimiter.acquire();
+                    }
+                    LOGGER.debug("Deleting {}, last modified date is {}",
+                                 name,
+                                 iso8601DateFormat.format(new Date(lastModifiedMillis)));
+                    long bytes = delete(file);
+                    if (file.exists()) {
+                        LOGGER.warn("Deletion of {} failed", name);
+                        failedNames.add(name);
+                    }
+                    else {
+                        deletedEntries++;
+                        reclaimedBytes += bytes;
                     }
                 }
-            } else {
-                LOGGER.warn("Cannot delete files, no files in root directory {}  > file list is null. ", rootFile.getAbsolutePath());
+                try {
+                    expiryIndex.replace(bucket, failedNames);
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Unable to update expiry bucket {}: {}", bucket, e.getMessage());
+                }
             }
+            wipeMetrics.recordRun(currentTimeMillis, deletedEntries, reclaimedBytes);
+            LOGGER.info(getDatabaseName() + " file wiper, deleted {} entries, reclaimed {} bytes in {} ms",
+                        new Object[] {deletedEntries, reclaimedBytes, wipeMetrics.getLastRunDurationMillis()});
         }
 
-        private void delete(File file) {
+        /**
+         * @return the bytes of the deleted files
+         */
+        private long delete(File file) {
+            long bytes = 0;
             if (file.isDirectory()) {
-                for (File child : file.listFiles()) {
-                    delete(child);
+                File[] children = file.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        bytes += delete(child);
+                    }
                 }
             }
-            file.delete();
+            else {
+                bytes = file.length();
+            }
+            return file.delete() ? bytes : 0;
         }
     }
 }
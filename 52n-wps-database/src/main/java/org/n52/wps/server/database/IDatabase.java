@@ -68,6 +68,10 @@ public interface IDatabase {
 	
 	public String storeComplexValue(String id, InputStream stream, String type, String mimeType);
 	
+	// Starts a unit of work storing the complex values and the response of an
+	// execution together, in one transaction where supported.
+	public DatabaseBatch beginBatch();
+	
 	// The URL referencing the location from which the ExecuteResponse can be retrieved. 
 	// If "status" is "true" in the Execute request, the ExecuteResponse should also be 
 	// found here as soon as the process returns the initial response to the client. 
@@ -86,6 +90,10 @@ public interface IDatabase {
 	
 	public long getContentLengthForStoreResponse(String id);
 	
+	// Returns the metadata of a stored response or complex value with a single
+	// lookup, null if not stored.
+	public ResultMetadata getMetadataForStoreResponse(String id);
+	
 	public boolean deleteStoredResponse(String id);
     
     public File lookupRequestAsFile(String id);
@@ -29,6 +29,7 @@
 package org.n52.wps.server.database;
 
 import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.RateLimiter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -40,17 +41,20 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -77,15 +81,21 @@ public class PostgresDatabase extends AbstractDatabase {
     private static final Logger LOGGER = LoggerFactory.getLogger(PostgresDatabase.class);
     private static PostgresDatabase db;
     private static String connectionURL = null;
-    private static Connection conn = null;
+    private static volatile ConnectionPool pool = null;
     private final static String KEY_DATABASE_ROOT = "org.n52.wps.server.database";
     private final static String KEY_DATABASE_PATH = "path";
     private final static String KEY_DATABASE_WIPE_ENABLED = "wipe.enabled";
     private final static String KEY_DATABASE_WIPE_PERIOD = "wipe.period";
     private final static String KEY_DATABASE_WIPE_THRESHOLD = "wipe.threshold";
+    private final static String KEY_DATABASE_WIPE_RATE = "wipe.rate";
+    private final static String KEY_DATABASE_WIPE_BATCH = "wipe.batch";
+    private final static String KEY_DATABASE_LARGE_OBJECTS = "largeObjects";
     private final static boolean DEFAULT_DATABASE_WIPE_ENABLED = true;
     private final static long DEFAULT_DATABASE_WIPE_PERIOD = 1000 * 60 * 60;
     private final static long DEFAULT_DATABASE_WIPE_THRESHOLD = 1000 * 60 * 60 * 24 * 7;
+    private final static double DEFAULT_DATABASE_WIPE_RATE = 100; // deletes per second
+    private final static long DEFAULT_DATABASE_WIPE_BATCH = 500;
+    private final static boolean DEFAULT_DATABASE_LARGE_OBJECTS = false;
     private final static String SUFFIX_GZIP = "gz";
     private final static String DEFAULT_DATABASE_PATH
             = Joiner.on(File.separator).join(
@@ -101,9 +111,34 @@ public class PostgresDatabase extends AbstractDatabase {
             + "REQUEST_DATE TIMESTAMP, "
             + "RESPONSE_TYPE VARCHAR(100), "
             + "RESPONSE TEXT, "
-            + "RESPONSE_MIMETYPE VARCHAR(100))";
+            + "RESPONSE_MIMETYPE VARCHAR(100), "
+            + "RESPONSE_OBJECT OID, "
+            + "RESPONSE_LENGTH BIGINT, "
+            + "RESPONSE_CONTENT_LENGTH BIGINT, "
+            + "RESPONSE_CHECKSUM VARCHAR(64))";
+    public static final String pgRequestDateIndexName = "results_request_date";
+    public static final String pgCreateRequestDateIndexString = "CREATE INDEX " + pgRequestDateIndexName
+            + " ON RESULTS (REQUEST_DATE)";
+    public static final String pgExpiredSelectionString = "SELECT REQUEST_ID, "
+            + "COALESCE(RESPONSE_LENGTH, OCTET_LENGTH(RESPONSE), 0) FROM RESULTS "
+            + "WHERE REQUEST_DATE < (?) ORDER BY REQUEST_DATE LIMIT (?)";
+    public static final String pgAddLargeObjectColumnString = "ALTER TABLE RESULTS ADD COLUMN RESPONSE_OBJECT OID";
+    public static final String pgLargeObjectInsertionString = "INSERT INTO RESULTS "
+            + "(REQUEST_ID, REQUEST_DATE, RESPONSE_TYPE, RESPONSE, RESPONSE_MIMETYPE, RESPONSE_OBJECT) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    public static final String pgLargeObjectUnlinkString = "SELECT lo_unlink(RESPONSE_OBJECT) FROM RESULTS "
+            + "WHERE REQUEST_ID = (?) AND RESPONSE_OBJECT IS NOT NULL";
+    public static final String pgLargeObjectUpdateString = "UPDATE RESULTS SET RESPONSE = NULL, RESPONSE_OBJECT = (?) WHERE REQUEST_ID = (?)";
+    public static final String pgLargeObjectSelectionString = "SELECT RESPONSE, RESPONSE_OBJECT FROM RESULTS WHERE REQUEST_ID = (?)";
+    /** The column of "response_object" in the large object insert statement. */
+    protected static final int INSERT_COLUMN_RESPONSE_OBJECT = 6;
+    /** Large objects are written for stored content, needs the RESPONSE_OBJECT column */
+    private static boolean largeObjects;
+    /** The table has the RESPONSE_OBJECT column, content may be stored as large object */
+    private static boolean largeObjectColumn;
     protected final Object storeResponseSerialNumberLock;
     protected final Timer wipeTimer;
+    protected final WipeMetrics wipeMetrics = new WipeMetrics();
 
     private PostgresDatabase() {
         try {
@@ -119,11 +154,13 @@ public class PostgresDatabase extends AbstractDatabase {
             if (propertyUtil.extractBoolean(KEY_DATABASE_WIPE_ENABLED, DEFAULT_DATABASE_WIPE_ENABLED)) {
                 long periodMillis = propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_PERIOD, DEFAULT_DATABASE_WIPE_PERIOD);
                 long thresholdMillis = propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_THRESHOLD, DEFAULT_DATABASE_WIPE_THRESHOLD);
+                double deletesPerSecond = propertyUtil.extractDouble(KEY_DATABASE_WIPE_RATE, DEFAULT_DATABASE_WIPE_RATE);
+                int batchSize = (int) Math.max(1, propertyUtil.extractLong(KEY_DATABASE_WIPE_BATCH, DEFAULT_DATABASE_WIPE_BATCH));
 
                 wipeTimer = new Timer(getClass().getSimpleName() + " Postgres Wiper", true);
-                wipeTimer.scheduleAtFixedRate(new PostgresDatabase.WipeTimerTask(thresholdMillis), 15000, periodMillis);
-                LOGGER.info("Started {} Postgres wiper timer; period {} ms, threshold {} ms",
-                        new Object[]{getDatabaseName(), periodMillis, thresholdMillis});
+                wipeTimer.scheduleAtFixedRate(new PostgresDatabase.WipeTimerTask(thresholdMillis, deletesPerSecond, batchSize), 15000, periodMillis);
+                LOGGER.info("Started {} Postgres wiper timer; period {} ms, threshold {} ms, {} deletes/s",
+                        new Object[]{getDatabaseName(), periodMillis, thresholdMillis, deletesPerSecond});
             } else {
                 wipeTimer = null;
             }
@@ -138,16 +175,15 @@ public class PostgresDatabase extends AbstractDatabase {
             PostgresDatabase.db = new PostgresDatabase();
         }
 
-        if (db.getConnection() == null) {
-            if (!PostgresDatabase.createConnection()) {
+        if (PostgresDatabase.pool == null) {
+            PropertyUtil propertyUtil = new PropertyUtil(server.getDatabase().getPropertyArray(), KEY_DATABASE_ROOT);
+            largeObjects = propertyUtil.extractBoolean(KEY_DATABASE_LARGE_OBJECTS, DEFAULT_DATABASE_LARGE_OBJECTS);
+            if (!PostgresDatabase.createConnectionPool()) {
                 throw new RuntimeException("Creating database connection failed.");
             }
             if (!PostgresDatabase.createResultTable()) {
                 throw new RuntimeException("Creating result table failed.");
             }
-            if (!PostgresDatabase.createPreparedStatements()) {
-                throw new RuntimeException("Creating prepared statements failed.");
-            }
         }
 
         DatabaseDocument.Database database = server.getDatabase();
@@ -163,93 +199,83 @@ public class PostgresDatabase extends AbstractDatabase {
         return PostgresDatabase.db;
     }
 
-    private static boolean createConnection() {
+    private static boolean createConnectionPool() {
         Properties props = new Properties();
         DataSource dataSource;
         String jndiName = getDatabaseProperties("jndiName");
         String username = getDatabaseProperties("username");
         String password = getDatabaseProperties("password");
+        ConnectionPool connectionPool;
 
         if (jndiName != null) {
             InitialContext context;
             try {
                 context = new InitialContext();
                 dataSource = (DataSource) context.lookup("java:comp/env/jdbc/" + jndiName);
-                PostgresDatabase.conn = dataSource.getConnection();
-                PostgresDatabase.conn.setAutoCommit(false);
-                LOGGER.info("Connected to WPS database.");
+                connectionPool = ConnectionPool.forDataSource(dataSource, getConnectionPoolSize());
             } catch (NamingException e) {
                 LOGGER.error("Could not connect to or create the database.", e);
                 return false;
-            } catch (SQLException e) {
-                LOGGER.error("Could not connect to or create the database.", e);
-                return false;
             }
         } else {
             props.setProperty("create", "true");
             props.setProperty("user", username);
             props.setProperty("password", password);
-            PostgresDatabase.conn = null;
-            try {
-                PostgresDatabase.conn = DriverManager.getConnection(
-                        PostgresDatabase.connectionURL, props);
-                PostgresDatabase.conn.setAutoCommit(false);
-                LOGGER.info("Connected to WPS database.");
-            } catch (SQLException e) {
-                LOGGER.error("Could not connect to or create the database.", e);
-                return false;
-            }
+            connectionPool = ConnectionPool.forDriverManager(
+                    PostgresDatabase.connectionURL, props, getConnectionPoolSize());
+        }
+        try {
+            connectionPool.release(connectionPool.acquire());
+            LOGGER.info("Connected to WPS database.");
+        } catch (SQLException e) {
+            LOGGER.error("Could not connect to or create the database.", e);
+            return false;
         }
+        PostgresDatabase.pool = connectionPool;
         return true;
     }
 
     @Override
-    public synchronized void insertRequest(String id, InputStream inputStream, boolean xml) {
-        insertResultEntity(inputStream, "REQ_" + id, "ExecuteRequest", xml ? "text/xml" : "text/plain");
-    }
-
-    @Override
-    public synchronized String insertResponse(String id, InputStream inputStream) {
-        return insertResultEntity(inputStream, id, "ExecuteResponse", "text/xml");
-    }
-
-    @Override
-    protected synchronized String insertResultEntity(InputStream stream, String id, String type, String mimeType) {
+    protected void insertResultEntity(Connection connection, InputStream stream, String id, String type, String mimeType) throws SQLException {
+        if (largeObjects) {
+            insertLargeObject(connection, stream, id, type, mimeType);
+            return;
+        }
         Timestamp timestamp = new Timestamp(Calendar.getInstance().getTimeInMillis());
         FileInputStream fis = null;
         Boolean storingOutput = null != id && id.toLowerCase().contains("output");
         Boolean saveResultsToDB = Boolean.parseBoolean(getDatabaseProperties("saveResultsToDB"));
         String filename = storingOutput ? id : UUID.randomUUID().toString();
         Path filePath = new File(BASE_DIRECTORY, filename).toPath();
+        PreparedStatement insertSQL = null;
 
         try {
             filePath = Files.createFile(filePath);
             Files.copy(stream, filePath, StandardCopyOption.REPLACE_EXISTING);
             fis = new FileInputStream(filePath.toFile());
 
-            AbstractDatabase.insertSQL.setString(INSERT_COLUMN_REQUEST_ID, id);
-            AbstractDatabase.insertSQL.setTimestamp(INSERT_COLUMN_REQUEST_DATE, timestamp);
-            AbstractDatabase.insertSQL.setString(INSERT_COLUMN_RESPONSE_TYPE, type);
-            AbstractDatabase.insertSQL.setString(INSERT_COLUMN_MIME_TYPE, mimeType);
+            insertSQL = connection.prepareStatement(insertionString);
+            insertSQL.setString(INSERT_COLUMN_REQUEST_ID, id);
+            insertSQL.setTimestamp(INSERT_COLUMN_REQUEST_DATE, timestamp);
+            insertSQL.setString(INSERT_COLUMN_RESPONSE_TYPE, type);
+            insertSQL.setString(INSERT_COLUMN_MIME_TYPE, mimeType);
 
             if (storingOutput) {
                 if (!saveResultsToDB) {
                     byte[] filePathByteArray = filePath.toUri().toString().getBytes();
-                    AbstractDatabase.insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, new ByteArrayInputStream(filePathByteArray), filePathByteArray.length);
+                    insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, new ByteArrayInputStream(filePathByteArray), filePathByteArray.length);
                 } else {
-                    AbstractDatabase.insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, fis, (int) filePath.toFile().length());
+                    insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, fis, (int) filePath.toFile().length());
                 }
             } else {
-                AbstractDatabase.insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, fis, (int) filePath.toFile().length());
+                insertSQL.setAsciiStream(INSERT_COLUMN_RESPONSE, fis, (int) filePath.toFile().length());
             }
 
-            AbstractDatabase.insertSQL.executeUpdate();
-            getConnection().commit();
-        } catch (SQLException e) {
-            LOGGER.error("Could not insert Response into database.", e);
+            insertSQL.executeUpdate();
         } catch (IOException e) {
-            LOGGER.error("Could not insert Response into database.", e);
+            throw new SQLException("Could not write response file " + filePath, e);
         } finally {
+            closeQuietly(insertSQL);
             if (fis != null) {
                 try {
                     fis.close();
@@ -275,27 +301,79 @@ public class PostgresDatabase extends AbstractDatabase {
                 }
             }
         }
-        return generateRetrieveResultURL(id);
+    }
+
+    /**
+     * Deletes the file of an output that is not saved to the database.
+     */
+    @Override
+    protected void discardResultEntity(String id) {
+        boolean storingOutput = null != id && id.toLowerCase().contains("output");
+        if (storingOutput && !Boolean.parseBoolean(getDatabaseProperties("saveResultsToDB"))) {
+            Path filePath = new File(BASE_DIRECTORY, id).toPath();
+            try {
+                Files.deleteIfExists(filePath);
+            } catch (IOException e) {
+                LOGGER.error("Could not delete file: " + filePath.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Inserts the content as large object, streamed with unknown length and
+     * without a temporary copy. Outputs that are not saved to the database are
+     * written to a file and the URI of the file is stored as text.
+     */
+    private void insertLargeObject(Connection connection, InputStream stream, String id, String type, String mimeType) throws SQLException {
+        Timestamp timestamp = new Timestamp(Calendar.getInstance().getTimeInMillis());
+        boolean storingOutput = null != id && id.toLowerCase().contains("output");
+        boolean saveResultsToDB = Boolean.parseBoolean(getDatabaseProperties("saveResultsToDB"));
+        PreparedStatement insertSQL = null;
+        try {
+            insertSQL = connection.prepareStatement(pgLargeObjectInsertionString);
+            insertSQL.setString(INSERT_COLUMN_REQUEST_ID, id);
+            insertSQL.setTimestamp(INSERT_COLUMN_REQUEST_DATE, timestamp);
+            insertSQL.setString(INSERT_COLUMN_RESPONSE_TYPE, type);
+            insertSQL.setString(INSERT_COLUMN_MIME_TYPE, mimeType);
+            if (storingOutput && !saveResultsToDB) {
+                Path filePath = new File(BASE_DIRECTORY, id).toPath();
+                Files.copy(stream, filePath, StandardCopyOption.REPLACE_EXISTING);
+                insertSQL.setString(INSERT_COLUMN_RESPONSE, filePath.toUri().toString());
+                insertSQL.setNull(INSERT_COLUMN_RESPONSE_OBJECT, Types.BLOB);
+            } else {
+                insertSQL.setNull(INSERT_COLUMN_RESPONSE, Types.VARCHAR);
+                insertSQL.setBlob(INSERT_COLUMN_RESPONSE_OBJECT, stream);
+            }
+            insertSQL.executeUpdate();
+        } catch (IOException e) {
+            throw new SQLException("Could not write response file for " + id, e);
+        } finally {
+            closeQuietly(insertSQL);
+        }
     }
 
     @Override
-    public synchronized void updateResponse(String id, InputStream stream) {
+    protected void updateResponse(Connection connection, String id, InputStream stream) throws SQLException {
+        if (largeObjects) {
+            updateLargeObject(connection, id, stream);
+            return;
+        }
         Path tempFilePath = null;
         FileInputStream fis = null;
+        PreparedStatement updateSQL = null;
         try {
             tempFilePath = Files.createTempFile(UUID.randomUUID().toString(), null);
             Files.copy(stream, tempFilePath, StandardCopyOption.REPLACE_EXISTING);
             fis = new FileInputStream(tempFilePath.toFile());
 
-            AbstractDatabase.updateSQL.setString(UPDATE_COLUMN_REQUEST_ID, id);
-            AbstractDatabase.updateSQL.setAsciiStream(UPDATE_COLUMN_RESPONSE, fis, (int) tempFilePath.toFile().length());
-            AbstractDatabase.updateSQL.executeUpdate();
-            getConnection().commit();
-        } catch (SQLException e) {
-            LOGGER.error("Could not insert Response into database", e);
+            updateSQL = connection.prepareStatement(updateString);
+            updateSQL.setString(UPDATE_COLUMN_REQUEST_ID, id);
+            updateSQL.setAsciiStream(UPDATE_COLUMN_RESPONSE, fis, (int) tempFilePath.toFile().length());
+            updateSQL.executeUpdate();
         } catch (IOException e) {
-            LOGGER.error("Could not insert Response into database", e);
+            throw new SQLException("Could not buffer response " + id, e);
         } finally {
+            closeQuietly(updateSQL);
             if (fis != null) {
                 try {
                     fis.close();
@@ -313,19 +391,60 @@ public class PostgresDatabase extends AbstractDatabase {
         }
     }
 
+    /**
+     * Replaces the content by a new large object and unlinks the previous one.
+     */
+    private void updateLargeObject(Connection connection, String id, InputStream stream) throws SQLException {
+        PreparedStatement unlinkSQL = null;
+        PreparedStatement updateSQL = null;
+        try {
+            unlinkSQL = connection.prepareStatement(pgLargeObjectUnlinkString);
+            unlinkSQL.setString(1, id);
+            unlinkSQL.execute();
+            updateSQL = connection.prepareStatement(pgLargeObjectUpdateString);
+            updateSQL.setString(UPDATE_COLUMN_REQUEST_ID, id);
+            updateSQL.setBlob(UPDATE_COLUMN_RESPONSE, stream);
+            updateSQL.executeUpdate();
+        } finally {
+            closeQuietly(unlinkSQL);
+            closeQuietly(updateSQL);
+        }
+    }
+
+    @Override
+    protected String getSelectionString() {
+        return largeObjectColumn ? pgLargeObjectSelectionString : selectionString;
+    }
+
+    @Override
+    protected InputStream getResponseStream(ResultSet resultSet) throws SQLException {
+        if (largeObjectColumn) {
+            // large objects are only readable while the transaction is open,
+            // the connection is held until the stream is closed
+            Blob blob = resultSet.getBlob(2);
+            if (blob != null) {
+                return blob.getBinaryStream();
+            }
+        }
+        return resultSet.getAsciiStream(1);
+    }
+
     private static boolean createResultTable() {
+        Connection conn = null;
         try {
+            conn = PostgresDatabase.pool.acquire();
             ResultSet rs;
-            DatabaseMetaData meta = PostgresDatabase.conn.getMetaData();
+            DatabaseMetaData meta = conn.getMetaData();
             rs = meta.getTables(null, null, "results", new String[]{"TABLE"});
             if (!rs.next()) {
                 LOGGER.info("Table RESULTS does not yet exist.");
-                Statement st = PostgresDatabase.conn.createStatement();
+                Statement st = conn.createStatement();
                 st.executeUpdate(PostgresDatabase.pgCreationString);
+                st.close();
 
-                PostgresDatabase.conn.commit();
+                conn.commit();
 
-                meta = PostgresDatabase.conn.getMetaData();
+                meta = conn.getMetaData();
 
                 rs = meta.getTables(null, null, "results", new String[]{"TABLE"});
                 if (rs.next()) {
@@ -335,82 +454,77 @@ public class PostgresDatabase extends AbstractDatabase {
                     return false;
                 }
             }
+            if (!hasIndex(meta, pgRequestDateIndexName)) {
+                // the wiper selects expired records by a range scan of this index
+                LOGGER.info("Creating index on REQUEST_DATE of table RESULTS.");
+                Statement st = conn.createStatement();
+                try {
+                    st.executeUpdate(PostgresDatabase.pgCreateRequestDateIndexString);
+                    conn.commit();
+                } catch (SQLException e) {
+                    LOGGER.warn("Could not create index on REQUEST_DATE, expired records are found by a table scan", e);
+                    conn.rollback();
+                } finally {
+                    st.close();
+                }
+            }
+            addMetadataColumns(conn, "results");
+            largeObjectColumn = meta.getColumns(null, null, "results", "response_object").next();
+            if (!largeObjectColumn && largeObjects) {
+                // tables created by previous versions store the content as text only
+                LOGGER.info("Adding column RESPONSE_OBJECT to table RESULTS.");
+                Statement st = conn.createStatement();
+                try {
+                    st.executeUpdate(PostgresDatabase.pgAddLargeObjectColumnString);
+                    conn.commit();
+                    largeObjectColumn = true;
+                } catch (SQLException e) {
+                    LOGGER.warn("Could not add column RESPONSE_OBJECT, storing content as text", e);
+                    conn.rollback();
+                } finally {
+                    st.close();
+                }
+            }
+            largeObjects = largeObjects && largeObjectColumn;
         } catch (SQLException e) {
             LOGGER.error("Connection to the Postgres database failed: " + e.getMessage());
             return false;
+        } finally {
+            PostgresDatabase.pool.release(conn);
         }
         return true;
     }
 
-    private static boolean createPreparedStatements() {
+    private static boolean hasIndex(DatabaseMetaData meta, String indexName) throws SQLException {
+        ResultSet rs = meta.getIndexInfo(null, null, "results", false, true);
         try {
-            PostgresDatabase.closePreparedStatements();
-            PostgresDatabase.insertSQL = PostgresDatabase.conn.prepareStatement(insertionString);
-            PostgresDatabase.selectSQL = PostgresDatabase.conn.prepareStatement(selectionString);
-            PostgresDatabase.updateSQL = PostgresDatabase.conn.prepareStatement(updateString);
-        } catch (SQLException e) {
-            LOGGER.error("Could not create the prepared statements.", e);
+            while (rs.next()) {
+                if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
             return false;
+        } finally {
+            rs.close();
         }
-        return true;
     }
 
-    private static boolean closePreparedStatements() {
-        try {
-            if (PostgresDatabase.insertSQL != null) {
-                PostgresDatabase.insertSQL.close();
-                PostgresDatabase.insertSQL = null;
-            }
-            if (PostgresDatabase.selectSQL != null) {
-                PostgresDatabase.selectSQL.close();
-                PostgresDatabase.selectSQL = null;
-            }
-            if (PostgresDatabase.updateSQL != null) {
-                PostgresDatabase.updateSQL.close();
-                PostgresDatabase.updateSQL = null;
-            }
-        } catch (SQLException e) {
-            LOGGER.error("Prepared statements could not be closed.", e);
-            return false;
-        }
-        return true;
+    public WipeMetrics getWipeMetrics() {
+        return wipeMetrics;
     }
 
     @Override
     public void shutdown() {
-        boolean isClosedPreparedStatements = false;
-        boolean isClosedConnection = false;
-
-        try {
-            if (PostgresDatabase.conn != null) {
-                isClosedPreparedStatements = closePreparedStatements();
-                Properties props = new Properties();
-                props.setProperty("shutdown", "true");
-                PostgresDatabase.conn = DriverManager.getConnection(PostgresDatabase.connectionURL, props);
-                PostgresDatabase.conn.close();
-                PostgresDatabase.conn = null;
-                isClosedConnection = true;
-                PostgresDatabase.db = null;
-            }
-        } catch (SQLException e) {
-            LOGGER.error("Error occured while closing Postgres database connection: "
-                    + "closed prepared statements?" + isClosedPreparedStatements
-                    + ";closed connection?" + isClosedConnection, e);
+        ConnectionPool connectionPool = PostgresDatabase.pool;
+        if (connectionPool == null) {
             return;
-        } finally {
-            try {
-                if (PostgresDatabase.conn != null) {
-                    try {
-                        PostgresDatabase.conn.close();
-                    } catch (SQLException e) {
-                        LOGGER.warn("Postgres database connection was not closed successfully during shutdown", e);
-                    }
-                    PostgresDatabase.conn = null;
-                }
-            } finally {
-                System.gc();
-            }
         }
+        if (wipeTimer != null) {
+            wipeTimer.cancel();
+        }
+        PostgresDatabase.pool = null;
+        PostgresDatabase.db = null;
+        connectionPool.close();
         LOGGER.info("Postgres database connection is closed succesfully");
     }
 
@@ -467,12 +581,22 @@ public class PostgresDatabase extends AbstractDatabase {
         return result;
     }
     
+    /**
+     * Deletes expired records in batches found by the index on REQUEST_DATE,
+     * so each run only reads expired rows. Deletes are rate limited.
+     */
     private class WipeTimerTask extends TimerTask {
 
         public final long thresholdMillis;
 
-        WipeTimerTask(long thresholdMillis) {
+        private final RateLimiter rateLimiter;
+
+        private final int batchSize;
+
+        WipeTimerTask(long thresholdMillis, double deletesPerSecond, int batchSize) {
             this.thresholdMillis = thresholdMillis;
+            this.rateLimiter = deletesPerSecond > 0 ? RateLimiter.create(deletesPerSecond) : null;
+            this.batchSize = batchSize;
         }
 
         @Override
@@ -482,38 +606,59 @@ public class PostgresDatabase extends AbstractDatabase {
         }
 
         private void wipe(long thresholdMillis, Boolean saveResultsToDB) {
-            // SimpleDataFormat is not thread-safe.
             long currentTimeMillis = System.currentTimeMillis();
             LOGGER.info(getDatabaseName() + " Postgres wiper, checking for records older than {} ms",
                     thresholdMillis);
 
-            List<String> oldRecords = findOldRecords(currentTimeMillis, thresholdMillis);
-            if (oldRecords.size() > 0) {
-                // Clean up files on disk if needed
-                if (!saveResultsToDB) {
-                    for (String recordId : oldRecords) {
-                        if (recordId.toLowerCase().contains("output")) {
-                            deleteFileOnDisk(recordId);
-                        }
+            long recordsDeleted = 0;
+            long reclaimedBytes = 0;
+            Map<String, Long> oldRecords;
+            do {
+                oldRecords = findOldRecords(currentTimeMillis, thresholdMillis);
+                if (oldRecords.isEmpty()) {
+                    break;
+                }
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(oldRecords.size());
+                }
+                long storedBytes = 0;
+                for (Map.Entry<String, Long> record : oldRecords.entrySet()) {
+                    // Clean up files on disk if needed, their length is stored for the record
+                    if (!saveResultsToDB && record.getKey().toLowerCase().contains("output")) {
+                        reclaimedBytes += deleteFileOnDisk(record.getKey());
+                    } else {
+                        storedBytes += record.getValue();
                     }
                 }
 
                 // Clean up records in database 
-                Integer recordsDeleted = deleteRecords(oldRecords);
-                LOGGER.info("Cleaned {} records from database", recordsDeleted);
-                
-            }
+                int deleted = deleteRecords(new ArrayList<String>(oldRecords.keySet()));
+                if (deleted == 0) {
+                    // do not retry a failing batch within this run
+                    break;
+                }
+                recordsDeleted += deleted;
+                reclaimedBytes += storedBytes;
+            } while (oldRecords.size() == batchSize);
+
+            wipeMetrics.recordRun(currentTimeMillis, recordsDeleted, reclaimedBytes);
+            LOGGER.info("Cleaned {} records from database, reclaimed {} bytes in {} ms",
+                    new Object[]{recordsDeleted, reclaimedBytes, wipeMetrics.getLastRunDurationMillis()});
         }
 
-        private Boolean deleteFileOnDisk(String id) {
-            Boolean deleted = false; 
+        /**
+         * @return the bytes of the deleted file
+         */
+        private long deleteFileOnDisk(String id) {
+            long deleted = 0;
 
             File fileToDelete = new File(BASE_DIRECTORY, id);
 
             if (fileToDelete.exists()) {
+                long length = fileToDelete.length();
                 try {
                     Files.delete(fileToDelete.toPath());
-                    deleted = true;
+                    deleted = length;
                 } catch (IOException ex) {
                     LOGGER.warn("{} could not be deleted. Reason: {}", fileToDelete.toURI().toString(), ex.getMessage());
                 }
@@ -524,6 +669,7 @@ public class PostgresDatabase extends AbstractDatabase {
 
         private Integer deleteRecords(List<String> recordIds) {
             Integer deletedRecordsCount = 0;
+            Connection connection = null;
             PreparedStatement deleteStatement = null;
 
             StringBuilder builder = new StringBuilder();
@@ -535,7 +681,11 @@ public class PostgresDatabase extends AbstractDatabase {
 
                 String deleteStatementString = "DELETE FROM RESULTS "
                         + "WHERE RESULTS.REQUEST_ID IN (" + builder.deleteCharAt(builder.length() - 1).toString() + ")";
-                deleteStatement = PostgresDatabase.conn.prepareStatement(deleteStatementString);
+                connection = getConnectionPool().acquire();
+                if (largeObjectColumn) {
+                    unlinkLargeObjects(connection, recordIds);
+                }
+                deleteStatement = connection.prepareStatement(deleteStatementString);
 
                 int idIdx = 1;
                 for (String id : recordIds) {
@@ -543,7 +693,7 @@ public class PostgresDatabase extends AbstractDatabase {
                     idIdx++;
                 }
                 deletedRecordsCount = deleteStatement.executeUpdate();
-                PostgresDatabase.conn.commit();
+                connection.commit();
             } catch (SQLException ex) {
                 LOGGER.warn("Could not delete rows from Postgres database", ex);
             } finally {
@@ -554,31 +704,47 @@ public class PostgresDatabase extends AbstractDatabase {
                         LOGGER.warn("Postgres Wiper: Could not close prepared statement", e);
                     }
                 }
+                getConnectionPool().release(connection);
             }
 
             return deletedRecordsCount;
         }
 
-        private List<String> findOldRecords(long currentTimeMillis, long threshold) {
+        private void unlinkLargeObjects(Connection connection, List<String> recordIds) throws SQLException {
+            PreparedStatement unlinkStatement = connection.prepareStatement(pgLargeObjectUnlinkString);
+            try {
+                for (String id : recordIds) {
+                    unlinkStatement.setString(1, id);
+                    unlinkStatement.execute();
+                }
+            } finally {
+                unlinkStatement.close();
+            }
+        }
+
+        /**
+         * @return the ids of the oldest expired records, at most one batch,
+         *         mapped to the stored length of their content
+         */
+        private Map<String, Long> findOldRecords(long currentTimeMillis, long threshold) {
+            Connection connection = null;
             PreparedStatement lookupStatement = null;
             ResultSet rs = null;
-            List<String> matchingRecords = new ArrayList<String>();
+            Map<String, Long> matchingRecords = new LinkedHashMap<String, Long>();
             try {
-                long ageMillis = currentTimeMillis - thresholdMillis;
-                String lookupStatementString = "SELECT * FROM "
-                        + "(SELECT REQUEST_ID, EXTRACT(EPOCH FROM REQUEST_DATE) * 1000 AS TIMESTAMP "
-                        + "FROM RESULTS) items "
-                        + "WHERE TIMESTAMP < ?";
-                lookupStatement = PostgresDatabase.conn.prepareStatement(lookupStatementString);
-                lookupStatement.setLong(1, ageMillis);
+                long ageMillis = currentTimeMillis - threshold;
+                connection = getConnectionPool().acquire();
+                lookupStatement = connection.prepareStatement(pgExpiredSelectionString);
+                lookupStatement.setTimestamp(1, new Timestamp(ageMillis));
+                lookupStatement.setInt(2, batchSize);
                 rs = lookupStatement.executeQuery();
 
                 while (rs.next()) {
-                    matchingRecords.add(rs.getString(1));
+                    matchingRecords.put(rs.getString(1), rs.getLong(2));
                 }
 
             } catch (SQLException ex) {
-                LOGGER.warn("");
+                LOGGER.warn("Postgres Wiper: Could not find expired records", ex);
             } finally {
                 if (null != rs) {
                     try {
@@ -595,6 +761,7 @@ public class PostgresDatabase extends AbstractDatabase {
                         LOGGER.warn("Postgres Wiper: Could not close prepared statement", e);
                     }
                 }
+                getConnectionPool().release(connection);
             }
             return matchingRecords;
         }
@@ -607,8 +774,8 @@ public class PostgresDatabase extends AbstractDatabase {
     }
 
     @Override
-    public Connection getConnection() {
-        return PostgresDatabase.conn;
+    protected ConnectionPool getConnectionPool() {
+        return PostgresDatabase.pool;
     }
 
     @Override
@@ -0,0 +1,203 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Metadata of a stored result, written once when the result is stored so it
+ * can be served with a single lookup.
+ */
+public class ResultMetadata {
+
+    /** The algorithm of the checksum */
+    public static final String CHECKSUM_ALGORITHM = "MD5";
+
+    private static final String KEY_MIME_TYPE = "mimeType";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_CONTENT_LENGTH = "contentLength";
+    private static final String KEY_ENCODING = "encoding";
+    private static final String KEY_CREATED = "created";
+    private static final String KEY_CHECKSUM = "checksum";
+
+    private final String mimeType;
+    private final long length;
+    private final long contentLength;
+    private final String encoding;
+    private final long created;
+    private final String checksum;
+    private final File file;
+
+    /**
+     * @param mimeType the mime type of the content
+     * @param length the stored length, -1 if unknown
+     * @param contentLength the length of the content after decoding, -1 if unknown
+     * @param encoding the content encoding of the stored bytes, e.g. gzip, or <code>null</code>
+     * @param created the creation time in milliseconds, -1 if unknown
+     * @param checksum the hex encoded checksum of the content or <code>null</code>
+     */
+    public ResultMetadata(String mimeType, long length, long contentLength, String encoding, long created, String checksum) {
+        this(mimeType, length, contentLength, encoding, created, checksum, null);
+    }
+
+    private ResultMetadata(String mimeType, long length, long contentLength, String encoding, long created, String checksum, File file) {
+        this.mimeType = mimeType;
+        this.length = length;
+        this.contentLength = contentLength;
+        this.encoding = encoding;
+        this.created = created;
+        this.checksum = checksum;
+        this.file = file;
+    }
+
+    /**
+     * @param file the file holding the stored bytes, not persisted
+     * @return a copy of this metadata referencing the file
+     */
+    public ResultMetadata withFile(File file) {
+        return new ResultMetadata(mimeType, length, contentLength, encoding, created, checksum, file);
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the file holding the stored bytes if it is directly accessible, otherwise <code>null</code>
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the entity tag of the content or <code>null</code> if no checksum is known
+     */
+    public String getETag() {
+        return checksum == null ? null : '"' + checksum + '"';
+    }
+
+    public static ResultMetadata read(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+        try {
+            properties.load(inputStream);
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        try {
+            return new ResultMetadata(
+                    properties.getProperty(KEY_MIME_TYPE),
+                    Long.parseLong(properties.getProperty(KEY_LENGTH, "-1")),
+                    Long.parseLong(properties.getProperty(KEY_CONTENT_LENGTH, "-1")),
+                    properties.getProperty(KEY_ENCODING),
+                    Long.parseLong(properties.getProperty(KEY_CREATED, "-1")),
+                    properties.getProperty(KEY_CHECKSUM));
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Invalid result metadata in " + file.getPath(), e);
+        }
+    }
+
+    public void write(File file) throws IOException {
+        Properties properties = new Properties();
+        if (mimeType != null) {
+            properties.setProperty(KEY_MIME_TYPE, mimeType);
+        }
+        properties.setProperty(KEY_LENGTH, Long.toString(length));
+        properties.setProperty(KEY_CONTENT_LENGTH, Long.toString(contentLength));
+        if (encoding != null) {
+            properties.setProperty(KEY_ENCODING, encoding);
+        }
+        properties.setProperty(KEY_CREATED, Long.toString(created));
+        if (checksum != null) {
+            properties.setProperty(KEY_CHECKSUM, checksum);
+        }
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            properties.store(outputStream, null);
+        }
+        finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * @return a new digest of {@link #CHECKSUM_ALGORITHM}
+     */
+    public static MessageDigest newChecksumDigest() {
+        try {
+            return MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform supports MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,733 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log structured key value store of the {@link SegmentedLogDatabase}.
+ * 
+ * Values are appended to segment files, the latest record of a key wins. The
+ * location of every live value is kept in an in-memory index, rebuilt from the
+ * segments when the store is opened. Values larger than the inline limit are
+ * written to a file of their own outside the write lock and only referenced
+ * by the log record, so large results do not block status writes.
+ * 
+ * Superseded and expired records are reclaimed by {@link #maintain()}, which
+ * deletes segments without live records and rewrites segments with less live
+ * data than the compaction threshold. Deletion records are kept while a segment
+ * older than theirs exists, otherwise recovery would find the deleted value
+ * again.
+ */
+class SegmentedLog {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SegmentedLog.class);
+
+    private final static int RECORD_MAGIC = 0x57505352;
+
+    private final static byte KIND_INLINE = 0;
+    private final static byte KIND_EXTERNAL = 1;
+    private final static byte KIND_DELETE = 2;
+
+    private final static Pattern PATTERN_SEGMENT = Pattern.compile("([\\d]+)\\.log");
+
+    /**
+     * Location and metadata of a stored value.
+     */
+    static final class Entry {
+
+        final String key;
+        final String mimeType;
+        final long created;
+        final long updated;
+        final long length;
+        final String checksum;
+        // either the segment and offset of an inline value or an external file
+        final Segment segment;
+        final long offset;
+        final long recordLength;
+        final File file;
+
+        Entry(String key, String mimeType, long created, long updated, long length, String checksum,
+              Segment segment, long offset, long recordLength, File file) {
+            this.key = key;
+            this.mimeType = mimeType;
+            this.created = created;
+            this.updated = updated;
+            this.length = length;
+            this.checksum = checksum;
+            this.segment = segment;
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.file = file;
+        }
+
+        String getMimeType() {
+            return mimeType;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getCreated() {
+            return created;
+        }
+
+        long getUpdated() {
+            return updated;
+        }
+
+        String getChecksum() {
+            return checksum;
+        }
+
+        File getFile() {
+            return file;
+        }
+    }
+
+    static final class Segment {
+
+        final long id;
+        final File file;
+        final AtomicLong liveBytes = new AtomicLong();
+        // deletions, live as long as an older segment may hold their keys
+        final AtomicLong deleteBytes = new AtomicLong();
+        volatile long size;
+
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    private final File segmentDirectory;
+    private final File externalDirectory;
+    private final long segmentSize;
+    private final int inlineLength;
+    private final long ttl;
+    private final double compactionThreshold;
+
+    private final ConcurrentMap<String, Entry> index = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+    // files that could not be deleted yet, e.g. while still being read
+    private final Queue<File> pendingDeletes = new ConcurrentLinkedQueue<File>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile Segment activeSegment;
+    private FileChannel activeChannel;
+
+    /**
+     * @param baseDirectory the directory of the segments and external values
+     * @param segmentSize the size after which a new segment is started
+     * @param inlineLength the maximum length of values stored in the segments
+     * @param ttl milliseconds after the last update a value expires
+     * @param compactionThreshold the ratio of live data below which a segment is rewritten
+     */
+    SegmentedLog(File baseDirectory, long segmentSize, int inlineLength, long ttl, double compactionThreshold)
+            throws IOException {
+        this.segmentDirectory = new File(baseDirectory, "segments");
+        this.externalDirectory = new File(baseDirectory, "values");
+        this.segmentSize = segmentSize;
+        this.inlineLength = inlineLength;
+        this.ttl = ttl;
+        this.compactionThreshold = compactionThreshold;
+        segmentDirectory.mkdirs();
+        externalDirectory.mkdirs();
+        recover();
+    }
+
+    /**
+     * @return the entry of the key or <code>null</code> if not stored or expired
+     */
+    Entry get(String key) {
+        Entry entry = index.get(key);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Opens the value of an entry.
+     * 
+     * @return the value or <code>null</code> if not stored or expired
+     */
+    InputStream open(String key) throws IOException {
+        // the value may move while being opened if its segment is compacted
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Entry entry = get(key);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                if (entry.file != null) {
+                    return new FileInputStream(entry.file);
+                }
+                FileInputStream segmentInputStream = new FileInputStream(entry.segment.file);
+                try {
+                    segmentInputStream.getChannel().position(entry.offset);
+                }
+                catch (IOException e) {
+                    IOUtils.closeQuietly(segmentInputStream);
+                    throw e;
+                }
+                return new BoundedInputStream(segmentInputStream, entry.length);
+            }
+            catch (FileNotFoundException e) {
+                LOGGER.debug("Value of {} moved while opening, retrying", key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the value of a key, replacing a previous value.
+     * 
+     * @param external stores the value in a file of its own regardless of its length
+     */
+    Entry put(String key, InputStream valueInputStream, String mimeType, boolean external) throws IOException {
+        MessageDigest digest = ResultMetadata.newChecksumDigest();
+        InputStream inputStream = new DigestInputStream(valueInputStream, digest);
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        boolean complete = external ? false : readHead(inputStream, head);
+        if (complete) {
+            return append(KIND_INLINE, key, mimeType, null, head.toByteArray(), head.size(),
+                          ResultMetadata.toHex(digest.digest()));
+        }
+        File file = new File(externalDirectory, UUID.randomUUID().toString());
+        long length;
+        OutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = new BufferedOutputStream(new FileOutputStream(file));
+            head.writeTo(fileOutputStream);
+            length = head.size() + IOUtils.copyLarge(inputStream, fileOutputStream);
+        }
+        catch (IOException e) {
+            IOUtils.closeQuietly(fileOutputStream);
+            file.delete();
+            throw e;
+        }
+        finally {
+            IOUtils.closeQuietly(fileOutputStream);
+        }
+        return append(KIND_EXTERNAL, key, mimeType, file.getName(), null, length,
+                      ResultMetadata.toHex(digest.digest()));
+    }
+
+    /**
+     * @return <code>true</code> if a value was stored for the key
+     */
+    boolean delete(String key) throws IOException {
+        if ( !index.containsKey(key)) {
+            return false;
+        }
+        append(KIND_DELETE, key, null, null, null, 0, null);
+        return true;
+    }
+
+    /**
+     * Removes expired entries, deletes segments and files without live data and
+     * compacts sparse segments.
+     */
+    void maintain() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : index.values()) {
+            if (isExpired(entry, now)) {
+                writeLock.lock();
+                try {
+                    if (index.remove(entry.key, entry)) {
+                        release(entry);
+                    }
+                }
+                finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+        for (Segment segment : segments.values()) {
+            if (segment == activeSegment) {
+                continue;
+            }
+            long liveBytes = segment.liveBytes.get();
+            if (hasOlderSegment(segment)) {
+                liveBytes += segment.deleteBytes.get();
+            }
+            if (liveBytes <= 0 || liveBytes < segment.size * compactionThreshold) {
+                try {
+                    compact(segment);
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Compaction of segment " + segment.file.getName() + " failed", e);
+                }
+            }
+        }
+        int pending = pendingDeletes.size();
+        for (int i = 0; i < pending; i++) {
+            File file = pendingDeletes.poll();
+            if (file != null && !file.delete() && file.exists()) {
+                pendingDeletes.offer(file);
+            }
+        }
+    }
+
+    /**
+     * @return the number of live values
+     */
+    int size() {
+        return index.size();
+    }
+
+    void close() {
+        writeLock.lock();
+        try {
+            if (activeChannel != null) {
+                activeChannel.force(false);
+                activeChannel.close();
+                activeChannel = null;
+            }
+        }
+        catch (IOException e) {
+            LOGGER.warn("Error closing segment", e);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return ttl > 0 && entry.updated + ttl < now;
+    }
+
+    private boolean hasOlderSegment(Segment segment) {
+        Long first = segments.isEmpty() ? null : segments.firstKey();
+        return first != null && first < segment.id;
+    }
+
+    private boolean readHead(InputStream inputStream, ByteArrayOutputStream head) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (head.size() <= inlineLength) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, inlineLength + 1 - head.size()));
+            if (read == -1) {
+                return true;
+            }
+            head.write(buffer, 0, read);
+        }
+        return false;
+    }
+
+    private Entry append(byte kind, String key, String mimeType, String fileName, byte[] payload, long length,
+                         String checksum) throws IOException {
+        long now = System.currentTimeMillis();
+        writeLock.lock();
+        try {
+            Entry previous = index.get(key);
+            long created = previous == null ? now : previous.created;
+            ByteBuffer[] record = encode(kind, key, mimeType, fileName, created, now, payload, length, checksum);
+            long recordLength = record[0].remaining() + record[1].remaining() + record[2].remaining();
+            if (activeChannel == null || activeSegment.size + recordLength > segmentSize && activeSegment.size > 0) {
+                roll();
+            }
+            long recordOffset = activeSegment.size;
+            long payloadOffset = recordOffset + record[0].remaining();
+            while (record[2].hasRemaining()) {
+                activeChannel.write(record);
+            }
+            activeSegment.size += recordLength;
+
+            Entry entry = null;
+            if (kind == KIND_DELETE) {
+                index.remove(key);
+                activeSegment.deleteBytes.addAndGet(recordLength);
+            }
+            else {
+                entry = kind == KIND_INLINE ?
+                        new Entry(key, mimeType, created, now, length, checksum, activeSegment, payloadOffset, recordLength, null) :
+                        new Entry(key, mimeType, created, now, length, checksum, activeSegment, -1, recordLength, new File(externalDirectory, fileName));
+                activeSegment.liveBytes.addAndGet(recordLength);
+                index.put(key, entry);
+            }
+            if (previous != null) {
+                release(previous);
+            }
+            return entry;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Frees the log space and file of a superseded or expired entry.
+     */
+    private void release(Entry entry) {
+        entry.segment.liveBytes.addAndGet( -entry.recordLength);
+        if (entry.file != null && !entry.file.delete() && entry.file.exists()) {
+            pendingDeletes.offer(entry.file);
+        }
+    }
+
+    private void roll() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+        long id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        activeSegment = new Segment(id, new File(segmentDirectory, String.format("%016d.log", id)));
+        activeChannel = new RandomAccessFile(activeSegment.file, "rw").getChannel();
+        activeChannel.position(activeChannel.size());
+        activeSegment.size = activeChannel.size();
+        segments.put(id, activeSegment);
+        LOGGER.debug("Started segment {}", activeSegment.file.getName());
+    }
+
+    /**
+     * Copies the live records of a segment to the active segment and deletes it.
+     */
+    private void compact(Segment segment) throws IOException {
+        int copied = 0;
+        if (segment.liveBytes.get() > 0 || segment.deleteBytes.get() > 0) {
+            DataInputStream segmentInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            try {
+                Record record;
+                long offset = 0;
+                while ((record = Record.read(segmentInputStream, offset, true)) != null) {
+                    offset += record.recordLength;
+                    if (record.kind == KIND_DELETE) {
+                        // keep deletions of values that may still be found in older segments
+                        if ( !index.containsKey(record.key) && hasOlderSegment(segment)) {
+                            copyDelete(record);
+                        }
+                        continue;
+                    }
+                    Entry entry = index.get(record.key);
+                    if (entry != null && entry.segment == segment && entry.recordLength == record.recordLength
+                            && (entry.file != null ? entry.file.getName().equals(record.fileName)
+                                                   : entry.offset == record.payloadOffset)) {
+                        if (copy(entry, record)) {
+                            copied++;
+                        }
+                    }
+                }
+            }
+            finally {
+                IOUtils.closeQuietly(segmentInputStream);
+            }
+        }
+        segments.remove(segment.id);
+        if ( !segment.file.delete() && segment.file.exists()) {
+            pendingDeletes.offer(segment.file);
+        }
+        LOGGER.debug("Compacted segment {}, {} live records copied", segment.file.getName(), copied);
+    }
+
+    private boolean copy(Entry entry, Record record) throws IOException {
+        writeLock.lock();
+        try {
+            if (index.get(entry.key) != entry) {
+                return false;
+            }
+            ByteBuffer[] copy = encode(entry.file == null ? KIND_INLINE : KIND_EXTERNAL, entry.key, entry.mimeType,
+                                       record.fileName, entry.created, entry.updated, record.payload, entry.length,
+                                       entry.checksum);
+            long recordLength = copy[0].remaining() + copy[1].remaining() + copy[2].remaining();
+            if (activeChannel == null || activeSegment.size + recordLength > segmentSize && activeSegment.size > 0) {
+                roll();
+            }
+            long payloadOffset = activeSegment.size + copy[0].remaining();
+            while (copy[2].hasRemaining()) {
+                activeChannel.write(copy);
+            }
+            activeSegment.size += recordLength;
+            Entry moved = new Entry(entry.key, entry.mimeType, entry.created, entry.updated, entry.length, entry.checksum,
+                                    activeSegment, entry.file == null ? payloadOffset : -1, recordLength, entry.file);
+            activeSegment.liveBytes.addAndGet(recordLength);
+            entry.segment.liveBytes.addAndGet( -entry.recordLength);
+            index.put(entry.key, moved);
+            return true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void copyDelete(Record record) throws IOException {
+        writeLock.lock();
+        try {
+            if (index.containsKey(record.key)) {
+                return;
+            }
+            ByteBuffer[] copy = encode(KIND_DELETE, record.key, null, null, record.created, record.updated, null, 0, null);
+            long recordLength = copy[0].remaining() + copy[1].remaining() + copy[2].remaining();
+            if (activeChannel == null || activeSegment.size + recordLength > segmentSize && activeSegment.size > 0) {
+                roll();
+            }
+            while (copy[2].hasRemaining()) {
+                activeChannel.write(copy);
+            }
+            activeSegment.size += recordLength;
+            activeSegment.deleteBytes.addAndGet(recordLength);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the segments, a torn record at the end of the
+     * last segment is truncated.
+     */
+    private void recover() throws IOException {
+        File[] files = segmentDirectory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Matcher matcher = PATTERN_SEGMENT.matcher(file.getName());
+                if (matcher.matches()) {
+                    long id = Long.parseLong(matcher.group(1));
+                    segments.put(id, new Segment(id, file));
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Segment segment : segments.values()) {
+            DataInputStream segmentInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            long offset = 0;
+            try {
+                Record record;
+                while ((record = Record.read(segmentInputStream, offset, false)) != null) {
+                    Entry previous;
+                    if (record.kind == KIND_DELETE) {
+                        previous = index.remove(record.key);
+                        segment.deleteBytes.addAndGet(record.recordLength);
+                    }
+                    else {
+                        Entry entry = new Entry(record.key, record.mimeType, record.created, record.updated, record.length,
+                                                record.checksum, segment, record.kind == KIND_INLINE ? record.payloadOffset : -1,
+                                                record.recordLength,
+                                                record.kind == KIND_EXTERNAL ? new File(externalDirectory, record.fileName) : null);
+                        segment.liveBytes.addAndGet(record.recordLength);
+                        previous = index.put(record.key, entry);
+                    }
+                    if (previous != null) {
+                        previous.segment.liveBytes.addAndGet( -previous.recordLength);
+                    }
+                    offset += record.recordLength;
+                }
+            }
+            catch (IOException e) {
+                LOGGER.warn("Segment {} is damaged after offset {}: {}", new Object[] {segment.file.getName(), offset, e.getMessage()});
+            }
+            finally {
+                IOUtils.closeQuietly(segmentInputStream);
+            }
+            segment.size = offset;
+            if (segment.file.length() > offset) {
+                truncate(segment, offset);
+            }
+        }
+        // external files are deleted on release, remove expired entries and
+        // files whose record has not been written
+        Set<String> externalFiles = new HashSet<String>();
+        for (Entry entry : index.values()) {
+            if (isExpired(entry, now)) {
+                index.remove(entry.key);
+                release(entry);
+            }
+            else if (entry.file != null) {
+                externalFiles.add(entry.file.getName());
+            }
+        }
+        File[] values = externalDirectory.listFiles();
+        if (values != null) {
+            for (File file : values) {
+                if ( !externalFiles.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        if ( !segments.isEmpty()) {
+            activeSegment = segments.lastEntry().getValue();
+            activeChannel = new RandomAccessFile(activeSegment.file, "rw").getChannel();
+            activeChannel.position(activeSegment.size);
+        }
+        LOGGER.info("Recovered {} values from {} segments", index.size(), segments.size());
+    }
+
+    private void truncate(Segment segment, long length) throws IOException {
+        LOGGER.warn("Truncating segment {} to {} bytes", segment.file.getName(), length);
+        RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+        try {
+            file.setLength(length);
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Encodes a record as header, payload and trailer with the payload checksum.
+     */
+    private static ByteBuffer[] encode(byte kind, String key, String mimeType, String fileName,
+                                       long created, long updated, byte[] payload, long length,
+                                       String checksum) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+        DataOutputStream headerOutputStream = new DataOutputStream(header);
+        headerOutputStream.writeInt(RECORD_MAGIC);
+        headerOutputStream.writeByte(kind);
+        headerOutputStream.writeUTF(key);
+        headerOutputStream.writeUTF(mimeType == null ? "" : mimeType);
+        headerOutputStream.writeUTF(fileName == null ? "" : fileName);
+        headerOutputStream.writeLong(created);
+        headerOutputStream.writeLong(updated);
+        headerOutputStream.writeLong(length);
+        headerOutputStream.writeUTF(checksum == null ? "" : checksum);
+        headerOutputStream.flush();
+        CRC32 crc = new CRC32();
+        crc.update(header.toByteArray());
+        byte[] body = payload == null ? new byte[0] : payload;
+        crc.update(body);
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) crc.getValue());
+        trailer.flip();
+        return new ByteBuffer[] {ByteBuffer.wrap(header.toByteArray()), ByteBuffer.wrap(body), trailer};
+    }
+
+    /**
+     * A record read from a segment.
+     */
+    private static final class Record {
+
+        byte kind;
+        String key;
+        String mimeType;
+        String fileName;
+        long created;
+        long updated;
+        long length;
+        String checksum;
+        long payloadOffset;
+        long recordLength;
+        byte[] payload;
+
+        /**
+         * @return the next record or <code>null</code> at the end of the segment
+         * @throws IOException if the record is damaged
+         */
+        static Record read(DataInputStream inputStream, long offset, boolean keepPayload) throws IOException {
+            int magic;
+            try {
+                magic = inputStream.readInt();
+            }
+            catch (EOFException e) {
+                return null;
+            }
+            if (magic != RECORD_MAGIC) {
+                throw new IOException("Invalid record");
+            }
+            Record record = new Record();
+            ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+            DataOutputStream headerOutputStream = new DataOutputStream(header);
+            headerOutputStream.writeInt(magic);
+            record.kind = inputStream.readByte();
+            record.key = inputStream.readUTF();
+            String mimeType = inputStream.readUTF();
+            record.mimeType = mimeType.isEmpty() ? null : mimeType;
+            String fileName = inputStream.readUTF();
+            record.fileName = fileName.isEmpty() ? null : fileName;
+            record.created = inputStream.readLong();
+            record.updated = inputStream.readLong();
+            record.length = inputStream.readLong();
+            String checksum = inputStream.readUTF();
+            record.checksum = checksum.isEmpty() ? null : checksum;
+            headerOutputStream.writeByte(record.kind);
+            headerOutputStream.writeUTF(record.key);
+            headerOutputStream.writeUTF(mimeType);
+            headerOutputStream.writeUTF(fileName);
+            headerOutputStream.writeLong(record.created);
+            headerOutputStream.writeLong(record.updated);
+            headerOutputStream.writeLong(record.length);
+            headerOutputStream.writeUTF(checksum);
+            headerOutputStream.flush();
+            record.payloadOffset = offset + header.size();
+            long payloadLength = record.kind == KIND_INLINE ? record.length : 0;
+            if (payloadLength < 0 || payloadLength > Integer.MAX_VALUE) {
+                throw new IOException("Invalid record length");
+            }
+            // inline values are bounded by the inline length, read for the checksum
+            byte[] payload = new byte[(int) payloadLength];
+            inputStream.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(header.toByteArray());
+            crc.update(payload);
+            if (inputStream.readInt() != (int) crc.getValue()) {
+                throw new IOException("Invalid record checksum");
+            }
+            record.payload = keepPayload ? payload : null;
+            record.recordLength = header.size() + payloadLength + 4;
+            return record;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.n52.wps.DatabaseDocument.Database;
+import org.n52.wps.ServerDocument.Server;
+import org.n52.wps.commons.PropertyUtil;
+import org.n52.wps.commons.WPSConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Database storing requests, responses and complex values in an embedded
+ * {@link SegmentedLog}. Writes are appends to the current segment and the
+ * metadata of all values is held in memory, so status updates neither rewrite
+ * files nor scan directories. Expired values are removed and segments are
+ * compacted by a background task instead of a wiper.
+ */
+public final class SegmentedLogDatabase implements IDatabase {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SegmentedLogDatabase.class);
+
+    private final static String KEY_DATABASE_ROOT = "org.n52.wps.server.database";
+    private final static String KEY_DATABASE_PATH = "path";
+    private final static String KEY_DATABASE_WIPE_ENABLED = "wipe.enabled";
+    private final static String KEY_DATABASE_WIPE_PERIOD = "wipe.period";
+    private final static String KEY_DATABASE_WIPE_THRESHOLD = "wipe.threshold";
+    private final static String KEY_DATABASE_SEGMENT_SIZE = "segment.size";
+    private final static String KEY_DATABASE_SEGMENT_INLINE = "segment.inline";
+    private final static String KEY_DATABASE_COMPACTION_THRESHOLD = "compaction.threshold";
+
+    private final static String DEFAULT_DATABASE_PATH =
+            Joiner.on(File.separator).join(
+                System.getProperty("java.io.tmpdir", "."),
+                "Database",
+                "SegmentedLog");
+    private final static boolean DEFAULT_DATABASE_WIPE_ENABLED = true;
+    private final static long DEFAULT_DATABASE_WIPE_PERIOD = 1000 * 60 * 60;  // P1H
+    private final static long DEFAULT_DATABASE_WIPE_THRESHOLD = 1000 * 60 * 60 * 24 * 7; // P7D
+    private final static long DEFAULT_DATABASE_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private final static long DEFAULT_DATABASE_SEGMENT_INLINE = 1024 * 1024;
+    private final static double DEFAULT_DATABASE_COMPACTION_THRESHOLD = 0.5;
+
+    private final static String MIME_TYPE_XML = "text/xml";
+    private final static String MIME_TYPE_PROPERTIES = "text/plain";
+
+    private final static Joiner JOINER = Joiner.on(".");
+
+    private static SegmentedLogDatabase instance;
+
+    // This method is required by the DatabaseFactory, it is found using reflection
+    public synchronized static IDatabase getInstance() {
+        if (instance == null) {
+            instance = new SegmentedLogDatabase();
+        }
+        return instance;
+    }
+
+    protected final File baseDirectory;
+
+    protected final String baseResultURL;
+
+    protected final SegmentedLog log;
+
+    protected final ScheduledExecutorService maintenanceExecutor;
+
+    private SegmentedLogDatabase() {
+
+        Server server = WPSConfig.getInstance().getWPSConfig().getServer();
+        Database database = server.getDatabase();
+        PropertyUtil propertyUtil = new PropertyUtil(database.getPropertyArray(), KEY_DATABASE_ROOT);
+
+        // NOTE: The hostname and port are hard coded as part of the 52n framework design/implementation.
+        baseResultURL = String.format("http://%s:%s/%s/RetrieveResultServlet?id=",
+                server.getHostname(), server.getHostport(), server.getWebappPath());
+        LOGGER.info("Using \"{}\" as base URL for results", baseResultURL);
+
+        String baseDirectoryPath = propertyUtil.extractString(KEY_DATABASE_PATH, DEFAULT_DATABASE_PATH);
+        baseDirectory = new File(baseDirectoryPath);
+        LOGGER.info("Using \"{}\" as base directory for results database", baseDirectoryPath);
+
+        boolean wipeEnabled = propertyUtil.extractBoolean(KEY_DATABASE_WIPE_ENABLED, DEFAULT_DATABASE_WIPE_ENABLED);
+        long periodMillis = propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_PERIOD, DEFAULT_DATABASE_WIPE_PERIOD);
+        long thresholdMillis = propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_THRESHOLD, DEFAULT_DATABASE_WIPE_THRESHOLD);
+        long segmentSize = propertyUtil.extractLong(KEY_DATABASE_SEGMENT_SIZE, DEFAULT_DATABASE_SEGMENT_SIZE);
+        long inlineLength = propertyUtil.extractLong(KEY_DATABASE_SEGMENT_INLINE, DEFAULT_DATABASE_SEGMENT_INLINE);
+        double compactionThreshold = propertyUtil.extractDouble(KEY_DATABASE_COMPACTION_THRESHOLD, DEFAULT_DATABASE_COMPACTION_THRESHOLD);
+
+        try {
+            log = new SegmentedLog(baseDirectory, segmentSize, (int) Math.min(inlineLength, segmentSize),
+                                   wipeEnabled ? thresholdMillis : 0, compactionThreshold);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error opening results database in " + baseDirectoryPath, e);
+        }
+
+        // compaction reclaims superseded status updates, so it runs even if
+        // values do not expire
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, SegmentedLogDatabase.class.getSimpleName() + " Maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    log.maintain();
+                }
+                catch (RuntimeException e) {
+                    LOGGER.warn("Maintenance of results database failed", e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Started {} maintenance; period {} ms, threshold {} ms",
+                    new Object[] {getDatabaseName(), periodMillis, wipeEnabled ? thresholdMillis : -1});
+    }
+
+    @Override
+    public String generateRetrieveResultURL(String id) {
+        return baseResultURL + id;
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void insertRequest(String id, InputStream inputStream, boolean xml) {
+        try {
+            log.put(generateRequestKey(id), inputStream, xml ? MIME_TYPE_XML : MIME_TYPE_PROPERTIES, false);
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception storing request for id {}: {}", id, e);
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    @Override
+    public String insertResponse(String id, InputStream inputStream) {
+        return storeResponse(id, inputStream);
+    }
+
+    @Override
+    public void updateResponse(String id, InputStream inputStream) {
+        storeResponse(id, inputStream);
+    }
+
+    @Override
+    public String storeResponse(String id, InputStream inputStream) {
+        try {
+            log.put(id, inputStream, MIME_TYPE_XML, false);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error storing response for " + id, e);
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        return generateRetrieveResultURL(id);
+    }
+
+    @Override
+    public DatabaseBatch beginBatch() {
+        // every value is an append of its own
+        return new ImmediateDatabaseBatch(this);
+    }
+
+    @Override
+    public String storeComplexValue(String id, InputStream resultInputStream, String type, String mimeType) {
+        String resultId = JOINER.join(id, UUID.randomUUID().toString());
+        try {
+            log.put(resultId, resultInputStream, mimeType, true);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error storing complex value for " + resultId, e);
+        }
+        finally {
+            IOUtils.closeQuietly(resultInputStream);
+        }
+        return generateRetrieveResultURL(resultId);
+    }
+
+    @Override
+    public InputStream lookupRequest(String id) {
+        return lookup(generateRequestKey(id));
+    }
+
+    @Override
+    public InputStream lookupResponse(String id) {
+        return lookup(id);
+    }
+
+    @Override
+    public String getMimeTypeForStoreResponse(String id) {
+        SegmentedLog.Entry entry = log.get(id);
+        return entry == null ? null : entry.getMimeType();
+    }
+
+    @Override
+    public long getContentLengthForStoreResponse(String id) {
+        SegmentedLog.Entry entry = log.get(id);
+        return entry == null ? -1 : entry.getLength();
+    }
+
+    @Override
+    public ResultMetadata getMetadataForStoreResponse(String id) {
+        SegmentedLog.Entry entry = log.get(id);
+        return entry == null ? null : new ResultMetadata(entry.getMimeType(),
+                                                         entry.getLength(),
+                                                         entry.getLength(),
+                                                         null,
+                                                         entry.getCreated(),
+                                                         entry.getChecksum()).withFile(entry.getFile());
+    }
+
+    @Override
+    public boolean deleteStoredResponse(String id) {
+        try {
+            return log.delete(id);
+        }
+        catch (IOException e) {
+            LOGGER.warn("Error deleting response for id " + id, e);
+            return false;
+        }
+    }
+
+    @Override
+    public File lookupRequestAsFile(String id) {
+        return lookupAsFile(generateRequestKey(id));
+    }
+
+    @Override
+    public File lookupResponseAsFile(String id) {
+        return lookupAsFile(id);
+    }
+
+    @Override
+    public void shutdown() {
+        maintenanceExecutor.shutdownNow();
+        log.close();
+    }
+
+    private InputStream lookup(String key) {
+        try {
+            InputStream inputStream = log.open(key);
+            if (inputStream == null) {
+                LOGGER.warn("Response not found for id {}", key);
+            }
+            return inputStream;
+        }
+        catch (IOException e) {
+            LOGGER.warn("Error processing response for id {}", key);
+            return null;
+        }
+    }
+
+    /**
+     * Only values kept in an external file can be returned as a file; values
+     * stored in a segment are served from {@link #lookup(String)} instead,
+     * like the SQL databases do.
+     */
+    private File lookupAsFile(String key) {
+        SegmentedLog.Entry entry = log.get(key);
+        return entry == null ? null : entry.getFile();
+    }
+
+    private String generateRequestKey(String id) {
+        return JOINER.join("request", id);
+    }
+}
@@ -0,0 +1,742 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.n52.wps.DatabaseDocument.Database;
+import org.n52.wps.ServerDocument.Server;
+import org.n52.wps.commons.PropertyUtil;
+import org.n52.wps.commons.WPSConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Database keeping complex values on local disk while they are recent and
+ * migrating older values to a {@link ColdStorage} in the background. Values
+ * looked up from the cold storage are promoted back to local disk, the local
+ * disk usage is bounded by evicting the least recently used values. Requests
+ * and responses are stored by a delegate database.
+ * 
+ * Local files are not migrated while they are being read, and for a while
+ * after they have been handed out as file, e.g. to be sent by the servlet
+ * container. A reader that finds the local file removed nevertheless falls
+ * back to the cold storage.
+ */
+public final class TieredDatabase implements IDatabase {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(TieredDatabase.class);
+
+    private final static String KEY_DATABASE_ROOT = "org.n52.wps.server.database";
+    private final static String KEY_DATABASE_DELEGATE = "delegateClass";
+    private final static String KEY_DATABASE_HOT_PATH = "hot.path";
+    private final static String KEY_DATABASE_HOT_SIZE = "hot.size";
+    private final static String KEY_DATABASE_HOT_AGE = "hot.age";
+    private final static String KEY_DATABASE_COLD_CLASS = "cold.class";
+    private final static String KEY_DATABASE_MIGRATION_PERIOD = "migration.period";
+    private final static String KEY_DATABASE_WIPE_ENABLED = "wipe.enabled";
+    private final static String KEY_DATABASE_WIPE_THRESHOLD = "wipe.threshold";
+
+    private final static String DEFAULT_DATABASE_DELEGATE = FlatFileDatabase.class.getName();
+    private final static String DEFAULT_DATABASE_HOT_PATH =
+            Joiner.on(File.separator).join(
+                System.getProperty("java.io.tmpdir", "."),
+                "Database",
+                "Hot");
+    private final static long DEFAULT_DATABASE_HOT_SIZE = 1024L * 1024 * 1024;
+    private final static long DEFAULT_DATABASE_HOT_AGE = 1000 * 60 * 60 * 24; // P1D
+    private final static String DEFAULT_DATABASE_COLD_CLASS = DirectoryColdStorage.class.getName();
+    private final static long DEFAULT_DATABASE_MIGRATION_PERIOD = 1000 * 60 * 10; // PT10M
+    private final static boolean DEFAULT_DATABASE_WIPE_ENABLED = true;
+    private final static long DEFAULT_DATABASE_WIPE_THRESHOLD = 1000 * 60 * 60 * 24 * 7; // P7D
+
+    // local files handed out are kept at least this long
+    private final static long HANDED_OUT_MILLIS = 1000 * 60; // PT1M
+
+    private final static String SUFFIX_METADATA = "metadata";
+    private final static String SUFFIX_TEMP = "tmp";
+
+    // If the delimiter changes, examine isComplexValue(...)
+    private final static Joiner JOINER = Joiner.on(".");
+
+    private static TieredDatabase instance;
+
+    // This method is required by the DatabaseFactory, it is found using reflection
+    public synchronized static IDatabase getInstance() {
+        if (instance == null) {
+            Server server = WPSConfig.getInstance().getWPSConfig().getServer();
+            Database database = server.getDatabase();
+            PropertyUtil propertyUtil = new PropertyUtil(database.getPropertyArray(), KEY_DATABASE_ROOT);
+
+            boolean wipeEnabled = propertyUtil.extractBoolean(KEY_DATABASE_WIPE_ENABLED, DEFAULT_DATABASE_WIPE_ENABLED);
+            instance = new TieredDatabase(
+                    createDelegate(propertyUtil.extractString(KEY_DATABASE_DELEGATE, DEFAULT_DATABASE_DELEGATE)),
+                    new File(propertyUtil.extractString(KEY_DATABASE_HOT_PATH, DEFAULT_DATABASE_HOT_PATH)),
+                    propertyUtil.extractLong(KEY_DATABASE_HOT_SIZE, DEFAULT_DATABASE_HOT_SIZE),
+                    propertyUtil.extractPeriodAsMillis(KEY_DATABASE_HOT_AGE, DEFAULT_DATABASE_HOT_AGE),
+                    createColdStorage(propertyUtil.extractString(KEY_DATABASE_COLD_CLASS, DEFAULT_DATABASE_COLD_CLASS), propertyUtil),
+                    propertyUtil.extractPeriodAsMillis(KEY_DATABASE_MIGRATION_PERIOD, DEFAULT_DATABASE_MIGRATION_PERIOD),
+                    wipeEnabled ? propertyUtil.extractPeriodAsMillis(KEY_DATABASE_WIPE_THRESHOLD, DEFAULT_DATABASE_WIPE_THRESHOLD) : 0);
+        }
+        return instance;
+    }
+
+    private static IDatabase createDelegate(String className) {
+        if (TieredDatabase.class.getName().equals(className)) {
+            throw new IllegalArgumentException("A " + className + " can not delegate to itself");
+        }
+        try {
+            Class<?> cls = Class.forName(className, true, TieredDatabase.class.getClassLoader());
+            Method method = cls.getMethod("getInstance", new Class[0]);
+            return (IDatabase) method.invoke(cls, new Object[0]);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Error creating delegate database " + className, e);
+        }
+    }
+
+    private static ColdStorage createColdStorage(String className, PropertyUtil propertyUtil) {
+        try {
+            Class<?> cls = Class.forName(className, true, TieredDatabase.class.getClassLoader());
+            Constructor<?> constructor = cls.getConstructor(PropertyUtil.class);
+            return (ColdStorage) constructor.newInstance(propertyUtil);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Error creating cold storage " + className, e);
+        }
+    }
+
+    private final IDatabase delegate;
+
+    private final File hotDirectory;
+
+    private final long hotSize;
+
+    private final long hotAgeMillis;
+
+    private final ColdStorage coldStorage;
+
+    private final long wipeThresholdMillis;
+
+    private final Map<String, HotEntry> hotEntries = new ConcurrentHashMap<String, HotEntry>();
+
+    private final AtomicLong hotUsage = new AtomicLong();
+
+    private final AtomicBoolean migrationPending = new AtomicBoolean();
+
+    private final Striped<Lock> locks = Striped.lock(256);
+
+    private final ScheduledExecutorService migrationExecutor;
+
+    /**
+     * @param wipeThresholdMillis the age after which values are deleted from
+     *        both tiers, values do not expire if not positive
+     */
+    TieredDatabase(IDatabase delegate,
+                   File hotDirectory,
+                   long hotSize,
+                   long hotAgeMillis,
+                   ColdStorage coldStorage,
+                   long migrationPeriodMillis,
+                   long wipeThresholdMillis) {
+        this.delegate = delegate;
+        this.hotDirectory = hotDirectory;
+        this.hotSize = hotSize;
+        this.hotAgeMillis = hotAgeMillis;
+        this.coldStorage = coldStorage;
+        this.wipeThresholdMillis = wipeThresholdMillis;
+
+        try {
+            FileUtils.forceMkdir(hotDirectory);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error creating hot storage directory " + hotDirectory.getPath(), e);
+        }
+        migrationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TieredDatabase.class.getSimpleName() + " Migration");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        migrationExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                wipe();
+                migrate();
+            }
+        }, migrationPeriodMillis, migrationPeriodMillis, TimeUnit.MILLISECONDS);
+
+        loadHotEntries();
+        LOGGER.info("Using \"{}\" as hot storage directory, {} of {} bytes used",
+                    new Object[] {hotDirectory.getAbsolutePath(), hotUsage.get(), hotSize});
+    }
+
+    @Override
+    public void shutdown() {
+        migrationExecutor.shutdownNow();
+        coldStorage.close();
+        delegate.shutdown();
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public void insertRequest(String id, InputStream request, boolean xml) {
+        delegate.insertRequest(id, request, xml);
+    }
+
+    @Override
+    public String insertResponse(String id, InputStream response) {
+        return delegate.insertResponse(id, response);
+    }
+
+    @Override
+    public void updateResponse(String id, InputStream response) {
+        delegate.updateResponse(id, response);
+    }
+
+    @Override
+    public String storeResponse(String id, InputStream response) {
+        return delegate.storeResponse(id, response);
+    }
+
+    @Override
+    public InputStream lookupRequest(String id) {
+        return delegate.lookupRequest(id);
+    }
+
+    @Override
+    public File lookupRequestAsFile(String id) {
+        return delegate.lookupRequestAsFile(id);
+    }
+
+    @Override
+    public String generateRetrieveResultURL(String id) {
+        return delegate.generateRetrieveResultURL(id);
+    }
+
+    @Override
+    public DatabaseBatch beginBatch() {
+        // complex values are local files, responses go to the delegate when added
+        return new ImmediateDatabaseBatch(this);
+    }
+
+    @Override
+    public String storeComplexValue(String id, InputStream resultInputStream, String type, String mimeType) {
+        String resultId = JOINER.join(id, UUID.randomUUID().toString());
+        File resultFile = generateHotFile(resultId);
+        File resultTempFile = new File(hotDirectory, JOINER.join(resultId, SUFFIX_TEMP));
+
+        LOGGER.debug("initiating storage of complex value for {} as {}", id, resultFile.getPath());
+
+        MessageDigest digest = ResultMetadata.newChecksumDigest();
+        OutputStream resultOutputStream = null;
+        try {
+            resultOutputStream = new BufferedOutputStream(new FileOutputStream(resultTempFile));
+            IOUtils.copyLarge(new DigestInputStream(resultInputStream, digest), resultOutputStream);
+            resultOutputStream.close();
+            if ( !resultTempFile.renameTo(resultFile)) {
+                throw new IOException("Unable to rename " + resultTempFile.getPath() + " to " + resultFile.getPath());
+            }
+            ResultMetadata metadata = new ResultMetadata(mimeType,
+                                                         resultFile.length(),
+                                                         resultFile.length(),
+                                                         null,
+                                                         System.currentTimeMillis(),
+                                                         ResultMetadata.toHex(digest.digest()));
+            metadata.write(generateHotMetadataFile(resultId));
+            addHotEntry(resultId, new HotEntry(metadata, false));
+        }
+        catch (IOException e) {
+            resultFile.delete();
+            throw new RuntimeException("Error storing complex value for " + resultId, e);
+        }
+        finally {
+            IOUtils.closeQuietly(resultInputStream);
+            IOUtils.closeQuietly(resultOutputStream);
+            resultTempFile.delete();
+        }
+        return generateRetrieveResultURL(resultId);
+    }
+
+    @Override
+    public InputStream lookupResponse(String id) {
+        if (isComplexValue(id)) {
+            InputStream hotInputStream = openHotFile(id);
+            if (hotInputStream != null) {
+                return hotInputStream;
+            }
+            try {
+                InputStream inputStream = coldStorage.get(id);
+                if (inputStream != null) {
+                    return inputStream;
+                }
+            }
+            catch (IOException e) {
+                LOGGER.error("Error reading complex value {} from cold storage: {}", id, e.getMessage());
+                return null;
+            }
+        }
+        return delegate.lookupResponse(id);
+    }
+
+    @Override
+    public File lookupResponseAsFile(String id) {
+        if (isComplexValue(id)) {
+            File file = lookupComplexValueAsFile(id, true);
+            if (file != null) {
+                return file;
+            }
+        }
+        return delegate.lookupResponseAsFile(id);
+    }
+
+    @Override
+    public String getMimeTypeForStoreResponse(String id) {
+        ResultMetadata metadata = getMetadataForStoreResponse(id);
+        return metadata == null ? null : metadata.getMimeType();
+    }
+
+    @Override
+    public long getContentLengthForStoreResponse(String id) {
+        ResultMetadata metadata = getMetadataForStoreResponse(id);
+        return metadata == null ? -1 : metadata.getContentLength();
+    }
+
+    @Override
+    public ResultMetadata getMetadataForStoreResponse(String id) {
+        if (isComplexValue(id)) {
+            HotEntry entry = hotEntries.get(id);
+            if (entry != null) {
+                entry.handedOutMillis = System.currentTimeMillis();
+                File file = generateHotFile(id);
+                // re-checked as the value may have been migrated meanwhile
+                if (hotEntries.get(id) == entry && file.exists()) {
+                    return entry.metadata.withFile(file);
+                }
+            }
+            try {
+                ResultMetadata metadata = coldStorage.getMetadata(id);
+                if (metadata != null) {
+                    return metadata;
+                }
+            }
+            catch (IOException e) {
+                LOGGER.error("Error reading metadata of complex value {} from cold storage: {}", id, e.getMessage());
+                return null;
+            }
+        }
+        return delegate.getMetadataForStoreResponse(id);
+    }
+
+    @Override
+    public boolean deleteStoredResponse(String id) {
+        if (isComplexValue(id)) {
+            Lock lock = locks.get(id);
+            lock.lock();
+            try {
+                boolean deleted = deleteHotEntry(id);
+                try {
+                    deleted |= coldStorage.delete(id);
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Error deleting complex value {} from cold storage: {}", id, e.getMessage());
+                }
+                if (deleted) {
+                    return true;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        return delegate.deleteStoredResponse(id);
+    }
+
+    /**
+     * Opens the local file of a complex value, the value is not migrated
+     * before the stream is closed.
+     * 
+     * @return the stream or <code>null</code> if the value is served from the
+     *         cold storage
+     */
+    private InputStream openHotFile(String id) {
+        HotEntry entry = hotEntries.get(id);
+        if (entry == null) {
+            if (lookupComplexValueAsFile(id, false) == null) {
+                return null;
+            }
+            entry = hotEntries.get(id);
+            if (entry == null) {
+                return null;
+            }
+        }
+        entry.readers.incrementAndGet();
+        boolean opened = false;
+        try {
+            // re-checked as the value may have been migrated meanwhile
+            if (hotEntries.get(id) != entry) {
+                return null;
+            }
+            entry.lastAccessMillis = System.currentTimeMillis();
+            InputStream inputStream = new HotFileInputStream(generateHotFile(id), entry);
+            opened = true;
+            return inputStream;
+        }
+        catch (FileNotFoundException e) {
+            // migrated while being opened, served from cold storage
+            return null;
+        }
+        finally {
+            if ( !opened) {
+                entry.readers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param handOut whether the file is handed out to the caller, which
+     *        keeps it from being migrated for a while
+     * @return the local file of a complex value, promoted from the cold
+     *         storage if needed, or <code>null</code> if not stored in either
+     *         tier or too large for the local disk
+     */
+    private File lookupComplexValueAsFile(String id, boolean handOut) {
+        HotEntry entry = hotEntries.get(id);
+        if (entry != null) {
+            touch(entry, handOut);
+            return generateHotFile(id);
+        }
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            entry = hotEntries.get(id);
+            if (entry == null) {
+                File file = promote(id);
+                entry = hotEntries.get(id);
+                if (file == null || entry == null) {
+                    return file;
+                }
+            }
+            touch(entry, handOut);
+            return generateHotFile(id);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static void touch(HotEntry entry, boolean handOut) {
+        long now = System.currentTimeMillis();
+        entry.lastAccessMillis = now;
+        if (handOut) {
+            entry.handedOutMillis = now;
+        }
+    }
+
+    // Called with the lock of the id held
+    private File promote(String id) {
+        File resultFile = generateHotFile(id);
+        File resultTempFile = new File(hotDirectory, JOINER.join(id, SUFFIX_TEMP));
+        InputStream inputStream = null;
+        try {
+            ResultMetadata metadata = coldStorage.getMetadata(id);
+            if (metadata == null || metadata.getLength() > hotSize) {
+                return null;
+            }
+            inputStream = coldStorage.get(id);
+            if (inputStream == null) {
+                return null;
+            }
+            FileUtils.copyInputStreamToFile(inputStream, resultTempFile);
+            if ( !resultTempFile.renameTo(resultFile)) {
+                throw new IOException("Unable to rename " + resultTempFile.getPath() + " to " + resultFile.getPath());
+            }
+            metadata.write(generateHotMetadataFile(id));
+            // the cold copy is kept, so evicting the value again is a delete
+            addHotEntry(id, new HotEntry(metadata, true));
+            LOGGER.debug("Promoted complex value {} from cold storage", id);
+            return resultFile;
+        }
+        catch (IOException e) {
+            LOGGER.error("Error promoting complex value {} from cold storage: {}", id, e.getMessage());
+            resultFile.delete();
+            return null;
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+            resultTempFile.delete();
+        }
+    }
+
+    private void addHotEntry(String id, HotEntry entry) {
+        HotEntry previous = hotEntries.put(id, entry);
+        long usage = hotUsage.addAndGet(entry.metadata.getLength() - (previous == null ? 0 : previous.metadata.getLength()));
+        if (usage > hotSize && migrationPending.compareAndSet(false, true)) {
+            try {
+                migrationExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        migrate();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                migrationPending.set(false);
+            }
+        }
+    }
+
+    // Called with the lock of the id held
+    private boolean deleteHotEntry(String id) {
+        HotEntry entry = hotEntries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        hotUsage.addAndGet( -entry.metadata.getLength());
+        generateHotMetadataFile(id).delete();
+        return generateHotFile(id).delete();
+    }
+
+    /**
+     * Moves values not accessed for the configured age to the cold storage,
+     * then the least recently used values until the local disk usage is
+     * within bounds. Values being read are skipped.
+     */
+    void migrate() {
+        migrationPending.set(false);
+        List<Map.Entry<String, HotEntry>> entries = new ArrayList<Map.Entry<String, HotEntry>>(hotEntries.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, HotEntry>>() {
+            @Override
+            public int compare(Map.Entry<String, HotEntry> o1, Map.Entry<String, HotEntry> o2) {
+                long a1 = o1.getValue().lastAccessMillis;
+                long a2 = o2.getValue().lastAccessMillis;
+                return a1 < a2 ? -1 : (a1 == a2 ? 0 : 1);
+            }
+        });
+        long accessedBeforeMillis = System.currentTimeMillis() - hotAgeMillis;
+        int migrated = 0;
+        for (Map.Entry<String, HotEntry> entry : entries) {
+            if (entry.getValue().lastAccessMillis >= accessedBeforeMillis && hotUsage.get() <= hotSize) {
+                break;
+            }
+            if (demote(entry.getKey())) {
+                migrated++;
+            }
+        }
+        if (migrated > 0) {
+            LOGGER.info("Migrated {} complex values to cold storage, {} of {} bytes of hot storage used",
+                        new Object[] {migrated, hotUsage.get(), hotSize});
+        }
+    }
+
+    private boolean demote(String id) {
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            HotEntry entry = hotEntries.get(id);
+            if (entry == null || entry.isPinned()) {
+                return false;
+            }
+            if ( !entry.cold) {
+                coldStorage.put(id, generateHotFile(id), entry.metadata);
+            }
+            return deleteHotEntry(id);
+        }
+        catch (IOException e) {
+            LOGGER.warn("Error migrating complex value {} to cold storage: {}", id, e.getMessage());
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void wipe() {
+        if (wipeThresholdMillis <= 0) {
+            return;
+        }
+        long createdBeforeMillis = System.currentTimeMillis() - wipeThresholdMillis;
+        int deleted = 0;
+        for (Map.Entry<String, HotEntry> entry : hotEntries.entrySet()) {
+            if (entry.getValue().metadata.getCreated() < createdBeforeMillis) {
+                String id = entry.getKey();
+                Lock lock = locks.get(id);
+                lock.lock();
+                try {
+                    if (deleteHotEntry(id)) {
+                        deleted++;
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+        try {
+            deleted += coldStorage.deleteCreatedBefore(createdBeforeMillis);
+        }
+        catch (IOException e) {
+            LOGGER.warn("Error deleting expired complex values from cold storage: {}", e.getMessage());
+        }
+        if (deleted > 0) {
+            LOGGER.info("Deleted {} expired complex values", deleted);
+        }
+    }
+
+    private void loadHotEntries() {
+        File[] files = hotDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        String suffix = "." + SUFFIX_METADATA;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith("." + SUFFIX_TEMP)) {
+                file.delete();
+            }
+            else if (name.endsWith(suffix)) {
+                String id = name.substring(0, name.length() - suffix.length());
+                File resultFile = generateHotFile(id);
+                try {
+                    if (resultFile.exists()) {
+                        // a cold copy may exist, it is overwritten on migration
+                        HotEntry entry = new HotEntry(ResultMetadata.read(file), false);
+                        entry.lastAccessMillis = resultFile.lastModified();
+                        addHotEntry(id, entry);
+                        continue;
+                    }
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Unable to read metadata {}: {}", file.getPath(), e.getMessage());
+                }
+                file.delete();
+                resultFile.delete();
+            }
+        }
+    }
+
+    // Complex value ids are the id of the request and a UUID joined by JOINER
+    private static boolean isComplexValue(String id) {
+        return id != null && id.indexOf('.') > 0;
+    }
+
+    private File generateHotFile(String id) {
+        return new File(hotDirectory, id);
+    }
+
+    private File generateHotMetadataFile(String id) {
+        return new File(hotDirectory, JOINER.join(id, SUFFIX_METADATA));
+    }
+
+    private static class HotEntry {
+
+        final ResultMetadata metadata;
+
+        // whether a copy is held by the cold storage
+        final boolean cold;
+
+        volatile long lastAccessMillis = System.currentTimeMillis();
+
+        volatile long handedOutMillis;
+
+        // streams open on the local file
+        final AtomicInteger readers = new AtomicInteger();
+
+        HotEntry(ResultMetadata metadata, boolean cold) {
+            this.metadata = metadata;
+            this.cold = cold;
+        }
+
+        boolean isPinned() {
+            return readers.get() > 0 || System.currentTimeMillis() - handedOutMillis < HANDED_OUT_MILLIS;
+        }
+    }
+
+    private static class HotFileInputStream extends FileInputStream {
+
+        private final HotEntry entry;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        HotFileInputStream(File file, HotEntry entry) throws FileNotFoundException {
+            super(file);
+            this.entry = entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                if (closed.compareAndSet(false, true)) {
+                    entry.readers.decrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the expiry of stored results, updated after every wipe.
+ */
+public class WipeMetrics {
+
+    private final AtomicLong runs = new AtomicLong();
+
+    private final AtomicLong deletedEntries = new AtomicLong();
+
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    private volatile long lastRunMillis = -1;
+
+    private volatile long lastRunDurationMillis = -1;
+
+    private volatile long lastRunDeletedEntries;
+
+    private volatile long lastRunReclaimedBytes;
+
+    void recordRun(long startMillis, long deletedEntries, long reclaimedBytes) {
+        this.runs.incrementAndGet();
+        this.deletedEntries.addAndGet(deletedEntries);
+        this.reclaimedBytes.addAndGet(reclaimedBytes);
+        this.lastRunMillis = startMillis;
+        this.lastRunDurationMillis = System.currentTimeMillis() - startMillis;
+        this.lastRunDeletedEntries = deletedEntries;
+        this.lastRunReclaimedBytes = reclaimedBytes;
+    }
+
+    public long getRuns() {
+        return runs.get();
+    }
+
+    public long getDeletedEntries() {
+        return deletedEntries.get();
+    }
+
+    /**
+     * @return the bytes of deleted content, not including file system or
+     *         table overhead
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return the start time of the last wipe, -1 if not run yet
+     */
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    public long getLastRunDurationMillis() {
+        return lastRunDurationMillis;
+    }
+
+    public long getLastRunDeletedEntries() {
+        return lastRunDeletedEntries;
+    }
+
+    public long getLastRunReclaimedBytes() {
+        return lastRunReclaimedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d runs, %d entries and %d bytes deleted; last run %d entries and %d bytes in %d ms",
+                             getRuns(), getDeletedEntries(), getReclaimedBytes(),
+                             lastRunDeletedEntries, lastRunReclaimedBytes, lastRunDurationMillis);
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.n52.wps.PropertyDocument.Property;
+import org.n52.wps.commons.PropertyUtil;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+public class CompressionPolicyTest {
+
+    static final String KEY_CODEC = "complex.codec";
+    static final String KEY_CODEC_MIME_TYPES = "complex.codec.mimeTypes";
+    static final String KEY_CODEC_SKIP = "complex.codec.skip";
+
+    @Test
+    public void testCodecWithLevel() {
+        CompressionPolicy policy = createPolicy(KEY_CODEC, "gzip:1");
+        assertTrue(policy.getCodec("text/xml") instanceof GzipCompressionCodec);
+        assertEquals(1, policy.getLevel("text/xml"));
+    }
+
+    @Test
+    public void testDefaultCodecIsUsedWithoutConfiguration() {
+        CompressionPolicy policy = createPolicy();
+        assertTrue(policy.getCodec("text/xml") instanceof GzipCompressionCodec);
+        assertEquals(CompressionCodec.DEFAULT_LEVEL, policy.getLevel("text/xml"));
+    }
+
+    @Test
+    public void testNoneStoresAsIs() {
+        CompressionPolicy policy = createPolicy(KEY_CODEC, "none");
+        assertNull(policy.getCodec("text/xml"));
+        assertNull(policy.getCodec(null));
+    }
+
+    @Test
+    public void testCodecByClassName() {
+        CompressionPolicy policy = createPolicy(KEY_CODEC, TestCodec.class.getName() + ":3");
+        CompressionCodec codec = policy.getCodec("text/xml");
+        assertTrue(codec instanceof TestCodec);
+        assertEquals(3, policy.getLevel("text/xml"));
+        assertSame(codec, policy.getCodecForEncoding(TestCodec.ENCODING));
+        assertTrue(policy.getCodecForEncoding(GzipCompressionCodec.ENCODING) instanceof GzipCompressionCodec);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCodecIsRejected() {
+        createPolicy(KEY_CODEC, "org.n52.wps.server.database.UnknownCodec");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevelIsRejected() {
+        createPolicy(KEY_CODEC, "gzip:fast");
+    }
+
+    @Test
+    public void testMimeTypeCodecs() {
+        CompressionPolicy policy = createPolicy(KEY_CODEC, "gzip:1",
+                                                KEY_CODEC_MIME_TYPES, "text/xml=none, application/json = gzip:9");
+        assertNull(policy.getCodec("text/xml"));
+        assertTrue(policy.getCodec("application/json") instanceof GzipCompressionCodec);
+        assertEquals(9, policy.getLevel("application/json"));
+        assertEquals(1, policy.getLevel("text/plain"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMimeTypeCodecWithoutSeparatorIsRejected() {
+        createPolicy(KEY_CODEC_MIME_TYPES, "text/xml");
+    }
+
+    @Test
+    public void testSkippedMimeTypesAreStoredAsIs() {
+        CompressionPolicy policy = createPolicy();
+        assertNull(policy.getCodec("image/png"));
+        assertNull(policy.getCodec("application/x-zipped-shp"));
+        assertTrue(policy.getCodec("text/xml") instanceof GzipCompressionCodec);
+    }
+
+    @Test
+    public void testConfiguredSkipListReplacesDefault() {
+        CompressionPolicy policy = createPolicy(KEY_CODEC_SKIP, "text/csv");
+        assertNull(policy.getCodec("text/csv"));
+        assertTrue(policy.getCodec("image/png") instanceof GzipCompressionCodec);
+    }
+
+    @Test
+    public void testMimeTypeCodecOverridesSkipList() {
+        CompressionPolicy policy = createPolicy(KEY_CODEC_MIME_TYPES, "image/png=gzip:2");
+        assertTrue(policy.getCodec("image/png") instanceof GzipCompressionCodec);
+        assertEquals(2, policy.getLevel("image/png"));
+    }
+
+    @Test
+    public void testMimeTypeParametersAndCaseAreIgnored() {
+        CompressionPolicy policy = createPolicy(KEY_CODEC_MIME_TYPES, "Text/XML; subtype=gml/3.1.1 = none");
+        assertNull(policy.getCodec("text/xml; subtype=gml/2.1.2"));
+        assertNull(policy.getCodec(" TEXT/XML "));
+        assertNull(policy.getCodec("Image/PNG; charset=binary"));
+    }
+
+    @Test
+    public void testCompressibleSampleIsReset() throws IOException {
+        byte[] value = Strings.repeat("<gml:featureMember/>", 10000).getBytes(Charsets.UTF_8);
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(value));
+        assertTrue(createPolicy().isCompressible("text/xml", inputStream));
+        assertArrayEquals(value, IOUtils.toByteArray(inputStream));
+    }
+
+    @Test
+    public void testIncompressibleSampleIsReset() throws IOException {
+        byte[] value = new byte[100000];
+        new Random(42).nextBytes(value);
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(value));
+        assertFalse(createPolicy().isCompressible("application/octet-stream", inputStream));
+        assertArrayEquals(value, IOUtils.toByteArray(inputStream));
+    }
+
+    @Test
+    public void testEmptyValueIsNotCompressible() throws IOException {
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(new byte[0]));
+        assertFalse(createPolicy().isCompressible("text/xml", inputStream));
+    }
+
+    @Test
+    public void testValueStoredAsIsIsNotSampled() throws IOException {
+        InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("sampled");
+            }
+        };
+        assertFalse(createPolicy(KEY_CODEC, "none").isCompressible("text/xml", inputStream));
+        assertFalse(createPolicy().isCompressible("image/png", inputStream));
+    }
+
+    private CompressionPolicy createPolicy(String... namesAndValues) {
+        List<Property> properties = new ArrayList<Property>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            Property property = Property.Factory.newInstance();
+            property.setName(namesAndValues[i]);
+            property.setStringValue(namesAndValues[i + 1]);
+            property.setActive(true);
+            properties.add(property);
+        }
+        return new CompressionPolicy(new PropertyUtil(properties.toArray(new Property[properties.size()])), "gzip");
+    }
+
+    public static class TestCodec implements CompressionCodec {
+
+        static final String ENCODING = "test";
+
+        @Override
+        public String getEncoding() {
+            return ENCODING;
+        }
+
+        @Override
+        public String getFileSuffix() {
+            return ENCODING;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream outputStream, int level) {
+            return outputStream;
+        }
+
+        @Override
+        public InputStream decompress(InputStream inputStream) {
+            return inputStream;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class SegmentedLogTest {
+
+    // small segments, each holds about two values
+    static final long SEGMENT_SIZE = 400;
+    static final int INLINE_LENGTH = 256;
+    static final int VALUE_LENGTH = 100;
+    static final double COMPACTION_THRESHOLD = 0.5;
+
+    File baseDirectory;
+    SegmentedLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDirectory = Files.createTempDir();
+        log = open(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+        FileUtils.deleteDirectory(baseDirectory);
+    }
+
+    @Test
+    public void testDeletedValueStaysDeletedAfterRecovery() throws IOException {
+        put("a", 'a');
+        put("b", 'b');
+        assertTrue(log.delete("a"));
+        reopen(0);
+        assertNull(log.get("a"));
+        assertValue("b", 'b');
+    }
+
+    @Test
+    public void testDeletionOnlySegmentIsKeptWithoutTtl() throws IOException {
+        // a and b fill the first segment, the deletion of a starts the second
+        put("a", 'a');
+        put("b", 'b');
+        assertTrue(log.delete("a"));
+        // c is written twice so the second segment only holds the deletion as
+        // live data, d and e fill further segments
+        put("c", 'c');
+        put("c", 'C');
+        put("d", 'd');
+        put("e", 'e');
+        log.maintain();
+        assertNull(log.get("a"));
+        reopen(0);
+        assertNull(log.get("a"));
+        assertValue("b", 'b');
+        assertValue("c", 'C');
+        assertValue("d", 'd');
+        assertValue("e", 'e');
+        // compacting again after recovery must not lose the deletion either
+        log.maintain();
+        reopen(0);
+        assertNull(log.get("a"));
+        assertEquals(4, log.size());
+    }
+
+    @Test
+    public void testDeletionIsKeptWithTtl() throws IOException {
+        reopen(60 * 60 * 1000);
+        put("a", 'a');
+        put("b", 'b');
+        assertTrue(log.delete("a"));
+        put("c", 'c');
+        put("c", 'C');
+        put("d", 'd');
+        put("e", 'e');
+        log.maintain();
+        reopen(60 * 60 * 1000);
+        assertNull(log.get("a"));
+        assertValue("b", 'b');
+        assertValue("c", 'C');
+    }
+
+    @Test
+    public void testCompactionKeepsLiveValues() throws IOException {
+        for (int round = 0; round < 5; round++) {
+            for (char key = 'a'; key <= 'f'; key++) {
+                put(String.valueOf(key), (char) (key + round));
+            }
+            assertTrue(log.delete("f"));
+            log.maintain();
+        }
+        reopen(0);
+        assertNull(log.get("f"));
+        assertEquals(5, log.size());
+        for (char key = 'a'; key <= 'e'; key++) {
+            assertValue(String.valueOf(key), (char) (key + 4));
+        }
+    }
+
+    @Test
+    public void testDeletedExternalValueStaysDeletedAfterRecovery() throws IOException {
+        SegmentedLog.Entry entry = log.put("a", new ByteArrayInputStream(value('a')), "text/plain", true);
+        assertNotNull(entry.getFile());
+        put("b", 'b');
+        assertTrue(log.delete("a"));
+        put("c", 'c');
+        put("c", 'C');
+        put("d", 'd');
+        log.maintain();
+        reopen(0);
+        assertNull(log.get("a"));
+        assertNull(log.open("a"));
+        assertValue("b", 'b');
+    }
+
+    private SegmentedLog open(long ttl) throws IOException {
+        return new SegmentedLog(baseDirectory, SEGMENT_SIZE, INLINE_LENGTH, ttl, COMPACTION_THRESHOLD);
+    }
+
+    private void reopen(long ttl) throws IOException {
+        log.close();
+        log = open(ttl);
+    }
+
+    private void put(String key, char content) throws IOException {
+        log.put(key, new ByteArrayInputStream(value(content)), "text/plain", false);
+    }
+
+    private void assertValue(String key, char content) throws IOException {
+        InputStream inputStream = log.open(key);
+        assertNotNull(inputStream);
+        try {
+            assertArrayEquals(value(content), IOUtils.toByteArray(inputStream));
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private static byte[] value(char content) {
+        byte[] value = new byte[VALUE_LENGTH];
+        Arrays.fill(value, (byte) content);
+        return value;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class TieredDatabaseTest {
+
+    static final String VALUE = "complex value";
+
+    File baseDirectory;
+    File hotDirectory;
+    TieredDatabase database;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDirectory = Files.createTempDir();
+        hotDirectory = new File(baseDirectory, "hot");
+        // values are migrated as soon as they are not accessed, only by migrate()
+        database = new TieredDatabase(createDelegate(),
+                                      hotDirectory,
+                                      Long.MAX_VALUE,
+                                      0,
+                                      new DirectoryColdStorage(new File(baseDirectory, "cold")),
+                                      1000 * 60 * 60,
+                                      0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        database.shutdown();
+        FileUtils.deleteDirectory(baseDirectory);
+    }
+
+    @Test
+    public void testMigratedValueIsPromotedFromColdStorage() throws Exception {
+        String id = store();
+        migrate();
+        assertFalse(new File(hotDirectory, id).exists());
+        assertEquals(VALUE, read(database.lookupResponse(id)));
+        assertTrue(new File(hotDirectory, id).exists());
+    }
+
+    @Test
+    public void testValueIsNotMigratedWhileRead() throws Exception {
+        String id = store();
+        InputStream inputStream = database.lookupResponse(id);
+        migrate();
+        assertTrue(new File(hotDirectory, id).exists());
+        assertEquals(VALUE, read(inputStream));
+        migrate();
+        assertFalse(new File(hotDirectory, id).exists());
+        assertEquals(VALUE, read(database.lookupResponse(id)));
+    }
+
+    @Test
+    public void testHandedOutFileIsNotMigrated() throws Exception {
+        String id = store();
+        ResultMetadata metadata = database.getMetadataForStoreResponse(id);
+        assertNotNull(metadata.getFile());
+        migrate();
+        assertTrue(metadata.getFile().exists());
+        assertEquals(VALUE, FileUtils.readFileToString(metadata.getFile(), "UTF-8"));
+    }
+
+    @Test
+    public void testMetadataOfMigratedValueIsReadFromColdStorage() throws Exception {
+        String id = store();
+        migrate();
+        ResultMetadata metadata = database.getMetadataForStoreResponse(id);
+        assertNotNull(metadata);
+        assertNull(metadata.getFile());
+        assertEquals(VALUE.length(), metadata.getContentLength());
+    }
+
+    @Test
+    public void testDeletedValueIsRemovedFromBothTiers() throws Exception {
+        String id = store();
+        migrate();
+        assertEquals(VALUE, read(database.lookupResponse(id)));
+        assertTrue(database.deleteStoredResponse(id));
+        assertNull(database.lookupResponse(id));
+        assertNull(database.getMetadataForStoreResponse(id));
+    }
+
+    private String store() {
+        return database.storeComplexValue("request", new ByteArrayInputStream(VALUE.getBytes(Charsets.UTF_8)),
+                                          "ComplexDataResponse", "text/plain");
+    }
+
+    // values accessed before are migrated as the hot age is 0
+    private void migrate() throws InterruptedException {
+        Thread.sleep(10);
+        database.migrate();
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        assertNotNull(inputStream);
+        try {
+            return IOUtils.toString(inputStream, "UTF-8");
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @return a delegate that does not store anything, retrieve result URLs
+     *         are the ids themselves
+     */
+    private static IDatabase createDelegate() {
+        return (IDatabase) Proxy.newProxyInstance(IDatabase.class.getClassLoader(),
+                                                  new Class< ? >[] {IDatabase.class},
+                                                  new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("generateRetrieveResultURL".equals(method.getName())) {
+                    return args[0];
+                }
+                if (method.getReturnType() == boolean.class) {
+                    return Boolean.FALSE;
+                }
+                if (method.getReturnType() == long.class) {
+                    return Long.valueOf( -1);
+                }
+                return null;
+            }
+        });
+    }
+}
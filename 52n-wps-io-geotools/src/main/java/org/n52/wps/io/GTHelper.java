@@ -53,9 +53,13 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URLDecoder;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.xml.namespace.QName;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.geotools.feature.NameImpl;
@@ -68,6 +72,7 @@ import org.opengis.feature.Feature;
 import org.opengis.feature.Property;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.Name;
 import org.opengis.feature.type.PropertyDescriptor;
@@ -89,6 +94,46 @@ import com.vividsolutions.jts.geom.Polygon;
 public class GTHelper {
 	private static Logger LOGGER = LoggerFactory.getLogger(GTHelper.class);
 	
+	private static final int MAX_SCHEMAS = 256;
+	
+	/**
+	 * Locations of the generated GML3 schemas by structural hash and namespace
+	 * of their feature types.
+	 */
+	private static final Map<String, QName> GML3_SCHEMAS = Collections.synchronizedMap(new LinkedHashMap<String, QName>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, QName> eldest) {
+			return size() > MAX_SCHEMAS;
+		}
+	});
+	
+	/**
+	 * Creates a feature type like
+	 * {@link #createFeatureType(Collection, Geometry, String, CoordinateReferenceSystem)},
+	 * but derives the namespace from the names and bindings of the attributes
+	 * instead of a random UUID. Feature types of the same structure therefore
+	 * share the schema created by {@link #createGML3SchemaForFeatureType(SimpleFeatureType)}.
+	 */
+	public static SimpleFeatureType createFeatureType(Collection<Property> attributes, Geometry newGeometry, CoordinateReferenceSystem coordinateReferenceSystem){
+		SimpleFeatureType structure = createFeatureType(attributes, newGeometry, "", coordinateReferenceSystem);
+		return createFeatureType(attributes, newGeometry, createStructuralHash(structure), coordinateReferenceSystem);
+	}
+	
+	/**
+	 * @return a hash of the names and bindings of the attributes of the
+	 *         feature type, independent of its name and namespace
+	 */
+	public static String createStructuralHash(SimpleFeatureType featureType){
+		StringBuilder structure = new StringBuilder();
+		for(AttributeDescriptor attribute : featureType.getAttributeDescriptors()){
+			structure.append(attribute.getLocalName()).append(':')
+					.append(attribute.getType().getBinding().getName()).append(';');
+		}
+		return DigestUtils.shaHex(structure.toString());
+	}
+	
 	public static SimpleFeatureType createFeatureType(Collection<Property> attributes, Geometry newGeometry, String uuid, CoordinateReferenceSystem coordinateReferenceSystem){
 		String namespace = "http://www.52north.org/"+uuid;
 		
@@ -287,6 +332,12 @@ public class GTHelper {
 		
 		String uuid = featureType.getName().getNamespaceURI().replace("http://www.52north.org/", "");
 		String namespace = "http://www.52north.org/"+uuid;
+		// the schema only depends on the namespace and the structure of the type
+		String key = createStructuralHash(featureType) + " " + namespace;
+		QName cached = GML3_SCHEMAS.get(key);
+		if(cached != null){
+			return cached;
+		}
 		String schema = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><xs:schema targetNamespace=\""+namespace+"\" " +
 				"xmlns:n52=\""+namespace+"\" "+
 				"xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" "+
@@ -373,7 +424,9 @@ public class GTHelper {
 				LOGGER.error("Exception while storing schema.", e);
 				throw new RuntimeException("Exception while storing schema.", e);
 			}
-			return new QName(namespace, schemalocation);
+			QName qname = new QName(namespace, schemalocation);
+			GML3_SCHEMAS.put(key, qname);
+			return qname;
 			
 		}
 		
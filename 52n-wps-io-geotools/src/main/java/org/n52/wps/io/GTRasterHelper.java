@@ -0,0 +1,165 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.factory.Hints;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.n52.wps.PropertyDocument.Property;
+import org.n52.wps.io.data.binding.complex.GTRasterDataBinding;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reading of GeoTIFF files into coverages whose tiles are read from the file
+ * when they are computed, and the memory budget of the JAI tile cache holding
+ * the computed tiles.
+ */
+public class GTRasterHelper {
+
+	private static Logger LOGGER = LoggerFactory.getLogger(GTRasterHelper.class);
+
+	public static final String PROPERTY_TILE_SIZE = "tileSize";
+
+	public static final String PROPERTY_TILE_CACHE_MEMORY = "tileCacheMemory";
+
+	public static final int DEFAULT_TILE_SIZE = 512;
+
+	public static final long DEFAULT_TILE_CACHE_MEMORY = 256L * 1024 * 1024;
+
+	/**
+	 * Sets the memory capacity of the JAI default tile cache that is shared
+	 * by all coverages. Tiles beyond the capacity are dropped from the cache
+	 * and read or computed again when needed.
+	 * 
+	 * @param bytes
+	 *            the capacity in bytes
+	 */
+	public static synchronized void setTileCacheMemory(long bytes) {
+		TileCache tileCache = JAI.getDefaultInstance().getTileCache();
+		if (tileCache.getMemoryCapacity() != bytes) {
+			LOGGER.info("Setting JAI tile cache capacity to " + bytes + " bytes");
+			tileCache.setMemoryCapacity(bytes);
+		}
+	}
+
+	/**
+	 * Applies the tile cache budget configured by the
+	 * {@value #PROPERTY_TILE_CACHE_MEMORY} property in megabytes, or the
+	 * default of 256 MB.
+	 */
+	public static void configureTileCache(Property[] properties) {
+		long bytes = DEFAULT_TILE_CACHE_MEMORY;
+		for (Property property : properties) {
+			if (property.getName().equalsIgnoreCase(PROPERTY_TILE_CACHE_MEMORY) && property.getActive()) {
+				bytes = Long.parseLong(property.getStringValue().trim()) * 1024 * 1024;
+			}
+		}
+		setTileCacheMemory(bytes);
+	}
+
+	/**
+	 * @return the tile size configured by the {@value #PROPERTY_TILE_SIZE}
+	 *         property, or {@link #DEFAULT_TILE_SIZE}
+	 */
+	public static int getTileSize(Property[] properties) {
+		int tileSize = DEFAULT_TILE_SIZE;
+		for (Property property : properties) {
+			if (property.getName().equalsIgnoreCase(PROPERTY_TILE_SIZE) && property.getActive()) {
+				tileSize = Integer.parseInt(property.getStringValue().trim());
+			}
+		}
+		return tileSize;
+	}
+
+	/**
+	 * Reads a GeoTIFF without loading its pixels. The image is read through
+	 * the ImageRead operation, which reads a tile from the file when it is
+	 * requested, so operations on the coverage stay deferred and tiled. Files
+	 * that are not tiled are read in tiles of the given size.
+	 * 
+	 * @param file
+	 *            the GeoTIFF, which has to exist until the binding is
+	 *            disposed
+	 * @param tileSize
+	 *            the width and height of the tiles of files that are not
+	 *            tiled
+	 * @return the binding of the coverage, which keeps the reader and the
+	 *         file open until it is disposed
+	 */
+	public static GTRasterDataBinding readGeotiff(File file, int tileSize) throws IOException {
+		Hints hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+		hints.put(JAI.KEY_TILE_CACHE, JAI.getDefaultInstance().getTileCache());
+		GeoTiffReader reader = new GeoTiffReader(file, hints);
+		boolean read = false;
+		try {
+			ParameterValue<Boolean> deferred = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+			deferred.setValue(Boolean.TRUE);
+			ParameterValue<String> tiling = AbstractGridFormat.SUGGESTED_TILE_SIZE.createValue();
+			tiling.setValue(tileSize + "," + tileSize);
+
+			GridCoverage2D coverage = (GridCoverage2D) reader.read(new GeneralParameterValue[] { deferred, tiling });
+			read = true;
+			return new GTRasterDataBinding(coverage, reader);
+		} finally {
+			if (!read) {
+				reader.dispose();
+			}
+		}
+	}
+
+}
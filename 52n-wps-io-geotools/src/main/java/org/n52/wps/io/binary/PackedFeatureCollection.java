@@ -0,0 +1,300 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBReader;
+
+/**
+ * Feature collection reading a file in the packed feature format through a
+ * memory mapping. Features are decoded from the mapped file while they are
+ * iterated, size and bounds are taken from the footer and
+ * {@link #query(Envelope)} uses the spatial index to read only the records
+ * of the matching features.
+ * 
+ * @see PackedFeatureWriter
+ */
+public class PackedFeatureCollection extends AbstractFeatureCollection {
+
+	private static Logger LOGGER = LoggerFactory.getLogger(PackedFeatureCollection.class);
+
+	private final ByteBuffer buffer;
+	private final byte[] typeCodes;
+	private final int featuresStart;
+	private final int indexStart;
+	private final int indexItems;
+	private final int nodeSize;
+	private final long count;
+	private final ReferencedEnvelope bounds;
+
+	private PackedFeatureCollection(SimpleFeatureType featureType, ByteBuffer buffer, byte[] typeCodes, int featuresStart) {
+		super(featureType);
+		this.buffer = buffer;
+		this.typeCodes = typeCodes;
+		this.featuresStart = featuresStart;
+
+		int footer = buffer.limit() - PackedFeatureFormat.FOOTER_SIZE;
+		this.count = buffer.getLong(footer);
+		double minX = buffer.getDouble(footer + 8);
+		double minY = buffer.getDouble(footer + 16);
+		double maxX = buffer.getDouble(footer + 24);
+		double maxY = buffer.getDouble(footer + 32);
+		this.indexStart = (int) buffer.getLong(footer + 40);
+		this.indexItems = buffer.getInt(footer + 48);
+		this.nodeSize = buffer.getInt(footer + 52);
+		CoordinateReferenceSystem crs = featureType.getCoordinateReferenceSystem();
+		this.bounds = maxX < minX ? new ReferencedEnvelope(crs) : new ReferencedEnvelope(minX, maxX, minY, maxY, crs);
+	}
+
+	/**
+	 * Maps the file and reads its header. The mapping is kept until the
+	 * collection is garbage collected, the file may be deleted before on
+	 * systems that allow deleting mapped files.
+	 * 
+	 * @throws IOException
+	 *             if the file could not be read or is not in the packed
+	 *             feature format
+	 */
+	public static PackedFeatureCollection open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			if (raf.length() > Integer.MAX_VALUE) {
+				throw new IOException("Packed feature files are limited to 2 GB: " + file);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			// the mapping stays valid after the channel has been closed
+			raf.close();
+		}
+		return open(buffer);
+	}
+
+	/**
+	 * Reads the header of the features in the buffer.
+	 */
+	public static PackedFeatureCollection open(ByteBuffer buffer) throws IOException {
+		ByteBuffer input = buffer.duplicate();
+		byte[] magic = new byte[PackedFeatureFormat.MAGIC.length];
+		if (input.remaining() < 2 * magic.length + 4 + PackedFeatureFormat.FOOTER_SIZE) {
+			throw new IOException("Not in packed feature format");
+		}
+		input.get(magic);
+		byte[] tail = new byte[magic.length];
+		input.position(input.limit() - magic.length);
+		input.get(tail);
+		if (!Arrays.equals(magic, PackedFeatureFormat.MAGIC) || !Arrays.equals(tail, PackedFeatureFormat.MAGIC)) {
+			throw new IOException("Not in packed feature format or incomplete");
+		}
+		input.position(magic.length);
+		int headerLength = input.getInt();
+		int featuresStart = input.position() + headerLength;
+
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName(PackedFeatureFormat.readString(input));
+		String namespace = PackedFeatureFormat.readString(input);
+		if (namespace.length() > 0) {
+			typeBuilder.setNamespaceURI(namespace);
+		}
+		CoordinateReferenceSystem crs = decodeCRS(PackedFeatureFormat.readString(input));
+		typeBuilder.setCRS(crs);
+		String geometryName = PackedFeatureFormat.readString(input);
+		int attributeCount = input.getInt();
+		byte[] typeCodes = new byte[attributeCount];
+		for (int i = 0; i < attributeCount; i++) {
+			String name = PackedFeatureFormat.readString(input);
+			typeCodes[i] = input.get();
+			Class<?> binding = PackedFeatureFormat.binding(typeCodes[i]);
+			if (typeCodes[i] == PackedFeatureFormat.GEOMETRY) {
+				binding = geometryBinding(PackedFeatureFormat.readString(input));
+			}
+			typeBuilder.add(name, binding);
+		}
+		if (geometryName.length() > 0) {
+			typeBuilder.setDefaultGeometry(geometryName);
+		}
+		return new PackedFeatureCollection(typeBuilder.buildFeatureType(), buffer.duplicate(), typeCodes, featuresStart);
+	}
+
+	@Override
+	protected Iterator<SimpleFeature> openIterator() {
+		return new RecordIterator();
+	}
+
+	@Override
+	protected void closeIterator(Iterator<SimpleFeature> close) {
+		// nothing to release, the records are read from the mapping
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(count, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ReferencedEnvelope getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * @return the features whose default geometry's envelope intersects the
+	 *         given envelope, found by the spatial index
+	 */
+	public SimpleFeatureCollection query(Envelope envelope) throws IOException {
+		long[] offsets = PackedRTree.search(buffer, indexStart, indexItems, nodeSize, envelope);
+		List<SimpleFeature> features = new ArrayList<SimpleFeature>(offsets.length);
+		ByteBuffer input = buffer.duplicate();
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+		WKBReader wkbReader = new WKBReader();
+		for (long offset : offsets) {
+			input.position((int) offset);
+			features.add(readRecord(input, builder, wkbReader));
+		}
+		return new ListFeatureCollection(getSchema(), features);
+	}
+
+	private SimpleFeature readRecord(ByteBuffer input, SimpleFeatureBuilder builder, WKBReader wkbReader) throws IOException {
+		int length = input.getInt();
+		int end = input.position() + length;
+		String id = PackedFeatureFormat.readString(input);
+		for (int i = 0; i < typeCodes.length; i++) {
+			builder.set(i, PackedFeatureFormat.readValue(input, typeCodes[i], wkbReader));
+		}
+		input.position(end);
+		return builder.buildFeature(id.length() > 0 ? id : null);
+	}
+
+	private static CoordinateReferenceSystem decodeCRS(String crs) {
+		if (crs.length() == 0) {
+			return null;
+		}
+		try {
+			return crs.startsWith("EPSG:") ? CRS.decode(crs) : CRS.parseWKT(crs);
+		} catch (FactoryException e) {
+			LOGGER.warn("Could not decode CRS " + crs, e);
+			return null;
+		}
+	}
+
+	private static Class<?> geometryBinding(String className) {
+		try {
+			Class<?> binding = Class.forName(className);
+			if (Geometry.class.isAssignableFrom(binding)) {
+				return binding;
+			}
+		} catch (ClassNotFoundException e) {
+			LOGGER.debug("Unknown geometry binding " + className);
+		}
+		return Geometry.class;
+	}
+
+	/**
+	 * Decodes the records one after the other, each iterator reads with its
+	 * own view of the mapping.
+	 */
+	private final class RecordIterator implements Iterator<SimpleFeature> {
+
+		private final ByteBuffer input = buffer.duplicate();
+		private final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+		private final WKBReader wkbReader = new WKBReader();
+		private final int end = indexStart;
+
+		private RecordIterator() {
+			input.position(featuresStart);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return input.position() < end;
+		}
+
+		@Override
+		public SimpleFeature next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				return readRecord(input, builder, wkbReader);
+			} catch (IOException e) {
+				throw new RuntimeException("Exception while reading packed features.", e);
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.binary;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.InStream;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Layout and value encoding of the packed feature format. A file consists of
+ * 
+ * <pre>
+ * magic (8 bytes)
+ * header length (int), header
+ * feature records, each prefixed with its length (int)
+ * packed R-tree over the bounds of the default geometries
+ * footer (feature count, bounds, index offset, index items, node size, magic)
+ * </pre>
+ * 
+ * The header holds the feature type: name, namespace, CRS, name of the
+ * default geometry and the name and type code of each attribute. A record
+ * holds the feature id and the values of all attributes in header order.
+ * Geometries are encoded as WKB. All numbers are big-endian.
+ */
+final class PackedFeatureFormat {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final byte[] MAGIC = {'N', '5', '2', 'P', 'F', 'B', 0, 1};
+
+	static final int FOOTER_SIZE = 8 + 4 * 8 + 8 + 4 + 4 + MAGIC.length;
+
+	static final byte STRING = 0;
+	static final byte INTEGER = 1;
+	static final byte LONG = 2;
+	static final byte DOUBLE = 3;
+	static final byte FLOAT = 4;
+	static final byte BOOLEAN = 5;
+	static final byte DATE = 6;
+	static final byte SHORT = 7;
+	static final byte BYTE = 8;
+	static final byte BIG_DECIMAL = 9;
+	static final byte BIG_INTEGER = 10;
+	static final byte GEOMETRY = 11;
+
+	private PackedFeatureFormat() {
+	}
+
+	/**
+	 * @return the type code of the binding, values of unknown bindings are
+	 *         written as strings
+	 */
+	static byte typeCode(Class<?> binding) {
+		if (Geometry.class.isAssignableFrom(binding)) {
+			return GEOMETRY;
+		} else if (binding.equals(Integer.class)) {
+			return INTEGER;
+		} else if (binding.equals(Long.class)) {
+			return LONG;
+		} else if (binding.equals(Double.class)) {
+			return DOUBLE;
+		} else if (binding.equals(Float.class)) {
+			return FLOAT;
+		} else if (binding.equals(Boolean.class)) {
+			return BOOLEAN;
+		} else if (Date.class.isAssignableFrom(binding)) {
+			return DATE;
+		} else if (binding.equals(Short.class)) {
+			return SHORT;
+		} else if (binding.equals(Byte.class)) {
+			return BYTE;
+		} else if (binding.equals(BigDecimal.class)) {
+			return BIG_DECIMAL;
+		} else if (binding.equals(BigInteger.class)) {
+			return BIG_INTEGER;
+		}
+		return STRING;
+	}
+
+	static Class<?> binding(byte typeCode) {
+		switch (typeCode) {
+		case INTEGER:
+			return Integer.class;
+		case LONG:
+			return Long.class;
+		case DOUBLE:
+			return Double.class;
+		case FLOAT:
+			return Float.class;
+		case BOOLEAN:
+			return Boolean.class;
+		case DATE:
+			return Date.class;
+		case SHORT:
+			return Short.class;
+		case BYTE:
+			return Byte.class;
+		case BIG_DECIMAL:
+			return BigDecimal.class;
+		case BIG_INTEGER:
+			return BigInteger.class;
+		case GEOMETRY:
+			return Geometry.class;
+		default:
+			return String.class;
+		}
+	}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Writes a presence flag followed by the value.
+	 */
+	static void writeValue(DataOutput out, byte typeCode, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(1);
+		switch (typeCode) {
+		case INTEGER:
+			out.writeInt(((Number) value).intValue());
+			break;
+		case LONG:
+			out.writeLong(((Number) value).longValue());
+			break;
+		case DOUBLE:
+			out.writeDouble(((Number) value).doubleValue());
+			break;
+		case FLOAT:
+			out.writeFloat(((Number) value).floatValue());
+			break;
+		case BOOLEAN:
+			out.writeBoolean((Boolean) value);
+			break;
+		case DATE:
+			out.writeLong(((Date) value).getTime());
+			break;
+		case SHORT:
+			out.writeShort(((Number) value).shortValue());
+			break;
+		case BYTE:
+			out.writeByte(((Number) value).byteValue());
+			break;
+		case GEOMETRY:
+			Geometry geometry = (Geometry) value;
+			// only keep z values if there are any
+			int dimension = Double.isNaN(geometry.getCoordinate() != null ? geometry.getCoordinate().z : Double.NaN) ? 2 : 3;
+			byte[] wkb = new WKBWriter(dimension).write(geometry);
+			out.writeInt(wkb.length);
+			out.write(wkb);
+			break;
+		default:
+			writeString(out, value.toString());
+		}
+	}
+
+	/**
+	 * Reads a value written by {@link #writeValue(DataOutput, byte, Object)}
+	 * at the position of the buffer.
+	 */
+	static Object readValue(ByteBuffer buffer, byte typeCode, WKBReader wkbReader) throws IOException {
+		if (buffer.get() == 0) {
+			return null;
+		}
+		switch (typeCode) {
+		case INTEGER:
+			return buffer.getInt();
+		case LONG:
+			return buffer.getLong();
+		case DOUBLE:
+			return buffer.getDouble();
+		case FLOAT:
+			return buffer.getFloat();
+		case BOOLEAN:
+			return buffer.get() != 0;
+		case DATE:
+			return new Date(buffer.getLong());
+		case SHORT:
+			return buffer.getShort();
+		case BYTE:
+			return buffer.get();
+		case BIG_DECIMAL:
+			return new BigDecimal(readString(buffer));
+		case BIG_INTEGER:
+			return new BigInteger(readString(buffer));
+		case GEOMETRY:
+			int length = buffer.getInt();
+			int end = buffer.position() + length;
+			try {
+				// WKB is decoded from the buffer in place
+				return wkbReader.read(new BufferInStream(buffer));
+			} catch (ParseException e) {
+				throw new IOException("Invalid geometry", e);
+			} finally {
+				buffer.position(end);
+			}
+		default:
+			return readString(buffer);
+		}
+	}
+
+	private static final class BufferInStream implements InStream {
+
+		private final ByteBuffer buffer;
+
+		private BufferInStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void read(byte[] buf) throws IOException {
+			buffer.get(buf);
+		}
+	}
+}
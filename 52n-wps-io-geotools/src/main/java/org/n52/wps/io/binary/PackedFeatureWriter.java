@@ -0,0 +1,223 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Writes features in the packed feature format while they are iterated, only
+ * the bounds and offsets of the features are kept for the spatial index that
+ * is written by {@link #finish()}.
+ * 
+ * @see PackedFeatureCollection
+ */
+public class PackedFeatureWriter {
+
+	private static Logger LOGGER = LoggerFactory.getLogger(PackedFeatureWriter.class);
+
+	private final CountingOutputStream counter;
+	private final DataOutputStream out;
+	private final String[] names;
+	private final byte[] typeCodes;
+	private final PackedRTree index = new PackedRTree();
+	private final Envelope bounds = new Envelope();
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private long count;
+
+	/**
+	 * Writes the header for features of the given type.
+	 * 
+	 * @param os
+	 *            the stream to write to, it is not closed
+	 * @param featureType
+	 *            the type of the features
+	 */
+	public PackedFeatureWriter(OutputStream os, SimpleFeatureType featureType) throws IOException {
+		this.counter = new CountingOutputStream(new BufferedOutputStream(new CloseShieldOutputStream(os)));
+		this.out = new DataOutputStream(counter);
+
+		List<AttributeDescriptor> attributes = featureType.getAttributeDescriptors();
+		names = new String[attributes.size()];
+		typeCodes = new byte[attributes.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = attributes.get(i).getLocalName();
+			typeCodes[i] = PackedFeatureFormat.typeCode(attributes.get(i).getType().getBinding());
+		}
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+		GeometryDescriptor geometry = featureType.getGeometryDescriptor();
+		PackedFeatureFormat.writeString(headerOut, featureType.getTypeName());
+		String namespace = featureType.getName().getNamespaceURI();
+		PackedFeatureFormat.writeString(headerOut, namespace != null ? namespace : "");
+		PackedFeatureFormat.writeString(headerOut, encodeCRS(featureType.getCoordinateReferenceSystem()));
+		PackedFeatureFormat.writeString(headerOut, geometry != null ? geometry.getLocalName() : "");
+		headerOut.writeInt(names.length);
+		for (int i = 0; i < names.length; i++) {
+			PackedFeatureFormat.writeString(headerOut, names[i]);
+			headerOut.writeByte(typeCodes[i]);
+			if (typeCodes[i] == PackedFeatureFormat.GEOMETRY) {
+				PackedFeatureFormat.writeString(headerOut, attributes.get(i).getType().getBinding().getName());
+			}
+		}
+		headerOut.flush();
+
+		out.write(PackedFeatureFormat.MAGIC);
+		out.writeInt(header.size());
+		header.writeTo(out);
+	}
+
+	/**
+	 * Writes the features of the collection to the stream.
+	 * 
+	 * @param collection
+	 *            the features to write
+	 * @param os
+	 *            the stream to write to, it is not closed
+	 */
+	public static void write(FeatureCollection<?, ?> collection, OutputStream os) throws IOException {
+		PackedFeatureWriter writer = new PackedFeatureWriter(os, (SimpleFeatureType) collection.getSchema());
+		FeatureIterator<?> features = collection.features();
+		try {
+			while (features.hasNext()) {
+				writer.write((SimpleFeature) features.next());
+			}
+		} finally {
+			features.close();
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Writes a feature, attributes are taken by name so features of other
+	 * types are written with the attributes they share with the header.
+	 */
+	public void write(SimpleFeature feature) throws IOException {
+		record.reset();
+		PackedFeatureFormat.writeString(recordOut, feature.getID() != null ? feature.getID() : "");
+		for (int i = 0; i < names.length; i++) {
+			Object value = feature.getAttribute(names[i]);
+			if (value != null && typeCodes[i] == PackedFeatureFormat.GEOMETRY && !(value instanceof Geometry)) {
+				value = null;
+			}
+			PackedFeatureFormat.writeValue(recordOut, typeCodes[i], value);
+		}
+		recordOut.flush();
+
+		Object geometry = feature.getDefaultGeometry();
+		if (geometry instanceof Geometry && !((Geometry) geometry).isEmpty()) {
+			Envelope envelope = ((Geometry) geometry).getEnvelopeInternal();
+			index.add(envelope, counter.getByteCount());
+			bounds.expandToInclude(envelope);
+		}
+		out.writeInt(record.size());
+		record.writeTo(out);
+		count++;
+	}
+
+	/**
+	 * Writes the spatial index and the footer and flushes the stream.
+	 */
+	public void finish() throws IOException {
+		long indexOffset = counter.getByteCount();
+		index.write(out, PackedRTree.DEFAULT_NODE_SIZE);
+
+		out.writeLong(count);
+		out.writeDouble(bounds.isNull() ? 0 : bounds.getMinX());
+		out.writeDouble(bounds.isNull() ? 0 : bounds.getMinY());
+		out.writeDouble(bounds.isNull() ? -1 : bounds.getMaxX());
+		out.writeDouble(bounds.isNull() ? -1 : bounds.getMaxY());
+		out.writeLong(indexOffset);
+		out.writeInt(index.size());
+		out.writeInt(PackedRTree.DEFAULT_NODE_SIZE);
+		out.write(PackedFeatureFormat.MAGIC);
+		out.flush();
+	}
+
+	/*
+	 * EPSG codes are kept if they describe the CRS exactly, e.g. including its
+	 * axis order, otherwise the WKT
+	 */
+	private static String encodeCRS(CoordinateReferenceSystem crs) {
+		if (crs == null) {
+			return "";
+		}
+		try {
+			Integer code = CRS.lookupEpsgCode(crs, false);
+			if (code != null && CRS.equalsIgnoreMetadata(CRS.decode("EPSG:" + code), crs)) {
+				return "EPSG:" + code;
+			}
+		} catch (FactoryException e) {
+			LOGGER.debug("Could not look up EPSG code of " + crs.getName(), e);
+		}
+		return crs.toWKT();
+	}
+}
@@ -0,0 +1,287 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.binary;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Static R-tree packed from the bounds of the features after sorting them
+ * along a Hilbert curve, as used by FlatGeobuf. Nodes are stored root first,
+ * level by level, each with its bounds and, for leaves, the offset of the
+ * feature record. The children of a node are found by position, so no child
+ * pointers are stored.
+ */
+final class PackedRTree {
+
+	static final int DEFAULT_NODE_SIZE = 16;
+
+	static final int NODE_BYTES = 4 * 8 + 8;
+
+	private static final int HILBERT_MAX = (1 << 16) - 1;
+
+	private double[] bounds = new double[4 * 64];
+	private long[] offsets = new long[64];
+	private int size;
+	private final Envelope extent = new Envelope();
+
+	/**
+	 * Adds an item to the tree that is written by
+	 * {@link #write(DataOutput, int)}.
+	 */
+	void add(Envelope envelope, long offset) {
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size * 2);
+			bounds = Arrays.copyOf(bounds, size * 8);
+		}
+		bounds[4 * size] = envelope.getMinX();
+		bounds[4 * size + 1] = envelope.getMinY();
+		bounds[4 * size + 2] = envelope.getMaxX();
+		bounds[4 * size + 3] = envelope.getMaxY();
+		offsets[size] = offset;
+		extent.expandToInclude(envelope);
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Writes the nodes of the tree.
+	 */
+	void write(DataOutput out, int nodeSize) throws IOException {
+		if (size == 0) {
+			return;
+		}
+		int[] levelStarts = levelStarts(size, nodeSize);
+		int nodeCount = nodeCount(size, nodeSize);
+		double[] nodes = new double[4 * nodeCount];
+		long[] leafOffsets = new long[size];
+
+		// leaves are sorted along the Hilbert curve of their centers
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = hilbert(bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2], bounds[4 * i + 3]) << 31 | i;
+		}
+		Arrays.sort(keys);
+		int leafStart = levelStarts[levelStarts.length - 1];
+		for (int i = 0; i < size; i++) {
+			int item = (int) (keys[i] & Integer.MAX_VALUE);
+			System.arraycopy(bounds, 4 * item, nodes, 4 * (leafStart + i), 4);
+			leafOffsets[i] = offsets[item];
+		}
+
+		// parents enclose their children, from the leaves up to the root
+		for (int level = levelStarts.length - 2; level >= 0; level--) {
+			int childLevelEnd = level + 2 < levelStarts.length ? levelStarts[level + 2] : nodeCount;
+			for (int node = levelStarts[level]; node < levelStarts[level + 1]; node++) {
+				int first = firstChild(levelStarts, level, node, nodeSize);
+				int last = Math.min(first + nodeSize, childLevelEnd);
+				double minX = Double.POSITIVE_INFINITY;
+				double minY = Double.POSITIVE_INFINITY;
+				double maxX = Double.NEGATIVE_INFINITY;
+				double maxY = Double.NEGATIVE_INFINITY;
+				for (int child = first; child < last; child++) {
+					minX = Math.min(minX, nodes[4 * child]);
+					minY = Math.min(minY, nodes[4 * child + 1]);
+					maxX = Math.max(maxX, nodes[4 * child + 2]);
+					maxY = Math.max(maxY, nodes[4 * child + 3]);
+				}
+				nodes[4 * node] = minX;
+				nodes[4 * node + 1] = minY;
+				nodes[4 * node + 2] = maxX;
+				nodes[4 * node + 3] = maxY;
+			}
+		}
+
+		for (int node = 0; node < nodeCount; node++) {
+			for (int i = 0; i < 4; i++) {
+				out.writeDouble(nodes[4 * node + i]);
+			}
+			out.writeLong(node < leafStart ? -1 : leafOffsets[node - leafStart]);
+		}
+	}
+
+	/**
+	 * Searches the tree stored in the buffer.
+	 * 
+	 * @param buffer
+	 *            the buffer holding the tree
+	 * @param start
+	 *            the position of the root node in the buffer
+	 * @param items
+	 *            the number of leaves of the tree
+	 * @param nodeSize
+	 *            the number of children per node
+	 * @param query
+	 *            the envelope to search
+	 * @return the offsets of the items intersecting the query, in ascending
+	 *         order
+	 */
+	static long[] search(ByteBuffer buffer, int start, int items, int nodeSize, Envelope query) {
+		if (items == 0) {
+			return new long[0];
+		}
+		int[] levelStarts = levelStarts(items, nodeSize);
+		int nodeCount = nodeCount(items, nodeSize);
+		int leafStart = levelStarts[levelStarts.length - 1];
+		long[] results = new long[16];
+		int resultCount = 0;
+		// pairs of node and level
+		int[] stack = new int[2 * 64];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		stack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int level = stack[--stackSize];
+			int node = stack[--stackSize];
+			int position = start + node * NODE_BYTES;
+			if (query.getMaxX() < buffer.getDouble(position) || query.getMaxY() < buffer.getDouble(position + 8)
+					|| query.getMinX() > buffer.getDouble(position + 16) || query.getMinY() > buffer.getDouble(position + 24)) {
+				continue;
+			}
+			if (node >= leafStart) {
+				if (resultCount == results.length) {
+					results = Arrays.copyOf(results, resultCount * 2);
+				}
+				results[resultCount++] = buffer.getLong(position + 32);
+				continue;
+			}
+			int childLevelEnd = level + 2 < levelStarts.length ? levelStarts[level + 2] : nodeCount;
+			int first = firstChild(levelStarts, level, node, nodeSize);
+			int last = Math.min(first + nodeSize, childLevelEnd);
+			for (int child = first; child < last; child++) {
+				if (stackSize + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[stackSize++] = child;
+				stack[stackSize++] = level + 1;
+			}
+		}
+		long[] offsets = Arrays.copyOf(results, resultCount);
+		// records are read in file order
+		Arrays.sort(offsets);
+		return offsets;
+	}
+
+	/**
+	 * @return the number of nodes of a tree with the given number of leaves
+	 */
+	static int nodeCount(int items, int nodeSize) {
+		int count = items;
+		int levelSize = items;
+		while (levelSize > 1) {
+			levelSize = (levelSize + nodeSize - 1) / nodeSize;
+			count += levelSize;
+		}
+		return count;
+	}
+
+	/*
+	 * the position of the first node of each level, the root level first
+	 */
+	private static int[] levelStarts(int items, int nodeSize) {
+		int levels = 1;
+		for (int levelSize = items; levelSize > 1; levelSize = (levelSize + nodeSize - 1) / nodeSize) {
+			levels++;
+		}
+		int[] levelSizes = new int[levels];
+		int levelSize = items;
+		for (int level = levels - 1; level >= 0; level--) {
+			levelSizes[level] = levelSize;
+			levelSize = (levelSize + nodeSize - 1) / nodeSize;
+		}
+		int[] starts = new int[levels];
+		for (int level = 1; level < levels; level++) {
+			starts[level] = starts[level - 1] + levelSizes[level - 1];
+		}
+		return starts;
+	}
+
+	private static int firstChild(int[] levelStarts, int level, int node, int nodeSize) {
+		return levelStarts[level + 1] + (node - levelStarts[level]) * nodeSize;
+	}
+
+	private long hilbert(double minX, double minY, double maxX, double maxY) {
+		int x = scale((minX + maxX) / 2, extent.getMinX(), extent.getWidth());
+		int y = scale((minY + maxY) / 2, extent.getMinY(), extent.getHeight());
+		return hilbert(x, y);
+	}
+
+	private static int scale(double value, double min, double extent) {
+		return extent > 0 ? (int) (HILBERT_MAX * ((value - min) / extent)) : 0;
+	}
+
+	/*
+	 * distance of the cell along the Hilbert curve filling the 2^16 x 2^16 grid
+	 */
+	static long hilbert(int x, int y) {
+		int n = HILBERT_MAX + 1;
+		long d = 0;
+		for (int s = n / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+}
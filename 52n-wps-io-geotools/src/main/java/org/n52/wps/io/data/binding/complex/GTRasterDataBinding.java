@@ -50,15 +50,33 @@ package org.n52.wps.io.data.binding.complex;
 import java.io.IOException;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.coverage.grid.GridCoverageReader;
 import org.n52.wps.io.data.IComplexData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class GTRasterDataBinding implements IComplexData {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GTRasterDataBinding.class);
+	
 	protected GridCoverage2D payload; 
 	
+	// the reader of a coverage read from a file, null otherwise
+	protected transient GridCoverageReader reader;
+	
 	public GTRasterDataBinding(GridCoverage2D coverage){
 		this.payload = coverage;
 	}
 	
+	/**
+	 * @param coverage the coverage read by the reader
+	 * @param reader the reader keeping the file of the coverage open,
+	 *        disposed with the binding
+	 */
+	public GTRasterDataBinding(GridCoverage2D coverage, GridCoverageReader reader){
+		this.payload = coverage;
+		this.reader = reader;
+	}
+	
 	public GridCoverage2D getPayload() {
 		return payload;
 	}
@@ -79,6 +97,15 @@ public class GTRasterDataBinding implements IComplexData {
     
     @Override
     public void dispose() {
-        
+        if (reader != null) {
+            // closes the image input stream of the deferred read
+            payload.dispose(true);
+            try {
+                reader.dispose();
+            } catch (IOException e) {
+                LOGGER.warn("Could not dispose the reader of the coverage", e);
+            }
+            reader = null;
+        }
     }
 }
@@ -59,6 +59,7 @@ import org.n52.wps.io.data.GenericFileDataWithGT;
 import org.n52.wps.io.data.IComplexData;
 import org.n52.wps.io.datahandler.generator.SimpleGMLGenerator;
 import org.n52.wps.io.datahandler.parser.SimpleGMLParser;
+import org.n52.wps.io.datahandler.parser.StreamingFeatureCollection;
 
 public class GTVectorDataBinding implements IComplexData{
 	
@@ -107,7 +108,10 @@ public class GTVectorDataBinding implements IComplexData{
 	
 	@Override
     public void dispose() {
-        
+        // lazily parsed collections own a spooled copy of their document
+        if (featureCollection instanceof StreamingFeatureCollection) {
+            ((StreamingFeatureCollection) featureCollection).dispose();
+        }
     }
 
 }
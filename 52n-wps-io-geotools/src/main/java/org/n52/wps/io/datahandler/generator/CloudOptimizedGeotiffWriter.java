@@ -0,0 +1,245 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.datahandler.generator;
+
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.ParameterBlock;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.Interpolation;
+import javax.media.jai.JAI;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.referencing.CRS;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.crs.ProjectedCRS;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * Writes coverages as cloud optimized GeoTIFF: tiled, compressed and with
+ * overviews halving the resolution until the image fits into a tile. The
+ * overviews are deferred JAI operations on the next larger image, their tiles
+ * are computed while they are written.
+ */
+final class CloudOptimizedGeotiffWriter {
+
+	private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+	private static final int TAG_MODEL_TIEPOINT = 33922;
+	private static final int TAG_MODEL_TRANSFORMATION = 34264;
+	private static final int TAG_GEO_KEY_DIRECTORY = 34735;
+	private static final int TAG_GDAL_NODATA = 42113;
+
+	private static final int KEY_MODEL_TYPE = 1024;
+	private static final int KEY_RASTER_TYPE = 1025;
+	private static final int KEY_GEOGRAPHIC_TYPE = 2048;
+	private static final int KEY_PROJECTED_CS_TYPE = 3072;
+
+	private static final int MODEL_TYPE_PROJECTED = 1;
+	private static final int MODEL_TYPE_GEOGRAPHIC = 2;
+	private static final int RASTER_PIXEL_IS_AREA = 1;
+
+	private final int tileSize;
+	private final int compression;
+	private final int compressionLevel;
+	private final boolean average;
+
+	/**
+	 * @param tileSize
+	 *            the width and height of the tiles, a multiple of 16
+	 * @param compression
+	 *            <code>DEFLATE</code> or <code>NONE</code>
+	 * @param compressionLevel
+	 *            the deflate level from 1 (fastest) to 9 (smallest)
+	 * @param resampling
+	 *            <code>average</code> or <code>nearest</code>, how overview
+	 *            pixels are computed. Images with a color palette always use
+	 *            nearest.
+	 */
+	CloudOptimizedGeotiffWriter(int tileSize, String compression, int compressionLevel, String resampling) {
+		if ("DEFLATE".equalsIgnoreCase(compression)) {
+			this.compression = TiledTiffWriter.COMPRESSION_DEFLATE;
+		} else if ("NONE".equalsIgnoreCase(compression)) {
+			this.compression = TiledTiffWriter.COMPRESSION_NONE;
+		} else {
+			throw new IllegalArgumentException("Unsupported compression " + compression + ", expected DEFLATE or NONE");
+		}
+		if ("average".equalsIgnoreCase(resampling)) {
+			average = true;
+		} else if ("nearest".equalsIgnoreCase(resampling)) {
+			average = false;
+		} else {
+			throw new IllegalArgumentException("Unsupported resampling " + resampling + ", expected average or nearest");
+		}
+		if (compressionLevel < 1 || compressionLevel > 9) {
+			throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+		}
+		this.tileSize = tileSize;
+		this.compressionLevel = compressionLevel;
+		// validates the tile size
+		new TiledTiffWriter(tileSize, this.compression, compressionLevel);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the coverage can not be written as GeoTIFF by this
+	 *             writer: its CRS has no EPSG code, its grid to CRS transform
+	 *             is not affine or its data type is not supported. The file
+	 *             is not written then.
+	 */
+	void write(GridCoverage2D coverage, File file) throws IOException {
+		RenderedImage image = coverage.getRenderedImage();
+		TiledTiffWriter writer = new TiledTiffWriter(tileSize, compression, compressionLevel);
+		setGeoTags(writer, coverage, image);
+		setNoData(writer, coverage);
+		writer.write(createOverviews(image), file);
+	}
+
+	private List<RenderedImage> createOverviews(RenderedImage image) {
+		List<RenderedImage> levels = new ArrayList<RenderedImage>();
+		levels.add(image);
+		boolean nearest = !average || image.getColorModel() instanceof IndexColorModel;
+		ImageLayout layout = new ImageLayout();
+		layout.setTileWidth(tileSize);
+		layout.setTileHeight(tileSize);
+		RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+		RenderedImage level = image;
+		while (Math.max(level.getWidth(), level.getHeight()) > tileSize && Math.min(level.getWidth(), level.getHeight()) > 1) {
+			ParameterBlock parameters = new ParameterBlock();
+			parameters.addSource(level);
+			if (nearest) {
+				parameters.add(0.5f);
+				parameters.add(0.5f);
+				parameters.add(0f);
+				parameters.add(0f);
+				parameters.add(Interpolation.getInstance(Interpolation.INTERP_NEAREST));
+				level = JAI.create("Scale", parameters, hints);
+			} else {
+				parameters.add(0.5);
+				parameters.add(0.5);
+				level = JAI.create("SubsampleAverage", parameters, hints);
+			}
+			levels.add(level);
+		}
+		return levels;
+	}
+
+	private static void setGeoTags(TiledTiffWriter writer, GridCoverage2D coverage, RenderedImage image) {
+		CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem2D();
+		Integer code;
+		try {
+			code = CRS.lookupEpsgCode(crs, true);
+		} catch (FactoryException e) {
+			code = null;
+		}
+		// geo key values are unsigned shorts
+		if (code == null || code > 0xFFFF) {
+			throw new IllegalArgumentException("No EPSG code for CRS " + crs.getName());
+		}
+		if (crs instanceof ProjectedCRS) {
+			writer.setTag(TAG_GEO_KEY_DIRECTORY, 1, 1, 0, 3,
+					KEY_MODEL_TYPE, 0, 1, MODEL_TYPE_PROJECTED,
+					KEY_RASTER_TYPE, 0, 1, RASTER_PIXEL_IS_AREA,
+					KEY_PROJECTED_CS_TYPE, 0, 1, code);
+		} else if (crs instanceof GeographicCRS) {
+			writer.setTag(TAG_GEO_KEY_DIRECTORY, 1, 1, 0, 3,
+					KEY_MODEL_TYPE, 0, 1, MODEL_TYPE_GEOGRAPHIC,
+					KEY_RASTER_TYPE, 0, 1, RASTER_PIXEL_IS_AREA,
+					KEY_GEOGRAPHIC_TYPE, 0, 1, code);
+		} else {
+			throw new IllegalArgumentException("CRS " + crs.getName() + " is neither projected nor geographic");
+		}
+
+		MathTransform gridToCRS = coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+		if (!(gridToCRS instanceof AffineTransform)) {
+			throw new IllegalArgumentException("Grid to CRS transform is not affine");
+		}
+		AffineTransform transform = new AffineTransform((AffineTransform) gridToCRS);
+		// GeoTIFF model coordinates are easting first
+		if (CRS.getAxisOrder(crs) == CRS.AxisOrder.NORTH_EAST) {
+			transform.preConcatenate(new AffineTransform(0, 1, 1, 0, 0, 0));
+		}
+		// the first pixel of the file is the first pixel of the image
+		transform.translate(image.getMinX(), image.getMinY());
+		if (transform.getShearX() == 0 && transform.getShearY() == 0) {
+			writer.setTag(TAG_MODEL_PIXEL_SCALE, transform.getScaleX(), -transform.getScaleY(), 0);
+			writer.setTag(TAG_MODEL_TIEPOINT, 0, 0, 0, transform.getTranslateX(), transform.getTranslateY(), 0);
+		} else {
+			writer.setTag(TAG_MODEL_TRANSFORMATION,
+					transform.getScaleX(), transform.getShearX(), 0, transform.getTranslateX(),
+					transform.getShearY(), transform.getScaleY(), 0, transform.getTranslateY(),
+					0, 0, 0, 0,
+					0, 0, 0, 1);
+		}
+	}
+
+	private static void setNoData(TiledTiffWriter writer, GridCoverage2D coverage) {
+		double[] noData;
+		try {
+			noData = coverage.getSampleDimension(0).getNoDataValues();
+		} catch (IllegalStateException e) {
+			// no data categories that are ranges of values
+			return;
+		}
+		if (noData != null && noData.length > 0) {
+			double value = noData[0];
+			writer.setTag(TAG_GDAL_NODATA, value == Math.rint(value) && !Double.isInfinite(value)
+					? Long.toString((long) value) : String.valueOf(value).toLowerCase(Locale.ROOT));
+		}
+	}
+}
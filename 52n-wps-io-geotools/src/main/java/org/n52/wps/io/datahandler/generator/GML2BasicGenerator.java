@@ -52,6 +52,8 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -65,6 +67,7 @@ import org.geotools.feature.FeatureCollection;
 import org.geotools.gml.producer.FeatureTransformer;
 import org.geotools.gml.producer.FeatureTransformer.FeatureTypeNamespaces;
 import org.n52.wps.PropertyDocument.Property;
+import org.n52.wps.io.IStreamingGenerator;
 import org.n52.wps.io.SchemaRepository;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
@@ -77,7 +80,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
  * @author Theodor Foerster, ITC; Matthias Mueller, TU Dresden
  *
  */
-public class GML2BasicGenerator extends AbstractGenerator {
+public class GML2BasicGenerator extends AbstractGenerator implements IStreamingGenerator {
 	
 	private boolean featureTransformerIncludeBounding;
 	private int featureTransformerDecimalPlaces;
@@ -160,7 +163,7 @@ public class GML2BasicGenerator extends AbstractGenerator {
 		
 		try{
 			tx.transform( fc, writer);
-			writer.close();
+			writer.flush();
 		}
 		catch(TransformerException e) {
 			LOGGER.error(e.getMessage());
@@ -168,11 +171,16 @@ public class GML2BasicGenerator extends AbstractGenerator {
 		}
 	}
 	
+	@Override
+	public void writeTo(IData data, OutputStream os, String mimeType, String schema) throws IOException {
+		write(data, new OutputStreamWriter(os, "UTF-8"));
+	}
+	
 	@Override
 	public InputStream generateStream(IData data, String mimeType, String schema) throws IOException {
 		
 		File tempFile = File.createTempFile("gml2", "xml");
-		finalizeFiles.add(tempFile);
+		registerTempFile(tempFile);
 		FileWriter fw = new FileWriter(tempFile);
 		write(data, fw);
 		fw.close();
@@ -54,7 +54,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.UUID;
 
 import javax.xml.namespace.QName;
@@ -69,6 +68,7 @@ import org.geotools.gml3.ApplicationSchemaConfiguration;
 import org.geotools.gml3.GMLConfiguration;
 import org.geotools.xml.Configuration;
 import org.n52.wps.io.GTHelper;
+import org.n52.wps.io.IStreamingGenerator;
 import org.n52.wps.io.SchemaRepository;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
@@ -78,7 +78,7 @@ import org.opengis.feature.type.FeatureType;
 
 import com.vividsolutions.jts.geom.Geometry;
 
-public class GML3BasicGenerator extends AbstractGenerator {
+public class GML3BasicGenerator extends AbstractGenerator implements IStreamingGenerator {
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(GML3BasicGenerator.class);
 		
@@ -87,7 +87,7 @@ public class GML3BasicGenerator extends AbstractGenerator {
 		supportedIDataTypes.add(GTVectorDataBinding.class);
 	}
 	
-	public void writeToStream(IData coll, OutputStream os) {
+	public void writeToStream(IData coll, OutputStream os) throws IOException {
 		FeatureCollection<?,?> fc = ((GTVectorDataBinding)coll).getPayload();
 		
 		FeatureCollection<?,?> correctFeatureCollection = createCorrectFeatureCollection(fc);
@@ -128,15 +128,21 @@ public class GML3BasicGenerator extends AbstractGenerator {
             encoder.encode(correctFeatureCollection, ns, os);           
         }catch(IOException e){
         	LOGGER.error("Exception while trying to encode FeatureCollection.", e);
-        	throw new RuntimeException(e);
+        	throw e;
         }
 		
 	}
 
+	@Override
+	public void writeTo(IData data, OutputStream os, String mimeType, String schema) throws IOException {
+		this.writeToStream(data, os);
+	}
+
 	@Override
 	public InputStream generateStream(final IData data, String mimeType, String schema) throws IOException {
 		String uuid = UUID.randomUUID().toString();
 		File file = File.createTempFile("gml3"+uuid, ".xml");
+		registerTempFile(file);
 		FileOutputStream outputStream = new FileOutputStream(file);
 		this.writeToStream(data, outputStream);
 		outputStream.flush();
@@ -150,30 +156,29 @@ public class GML3BasicGenerator extends AbstractGenerator {
 		
 	}
 
+	/*
+	 * the type is generated from the first feature, its schema is shared by all
+	 * types of the same structure and the features are converted while encoded
+	 */
 	private SimpleFeatureCollection createCorrectFeatureCollection(FeatureCollection<?,?> fc) {
 		
-		List<SimpleFeature> simpleFeatureList = new ArrayList<SimpleFeature>();
 		SimpleFeatureType featureType = null;
 		FeatureIterator<?> iterator = fc.features();
-		String uuid = UUID.randomUUID().toString();
-		int i = 0;
-		while(iterator.hasNext()){
-			SimpleFeature feature = (SimpleFeature) iterator.next();
-		
-			if(i==0){
-				featureType = GTHelper.createFeatureType(feature.getProperties(), (Geometry)feature.getDefaultGeometry(), uuid, feature.getFeatureType().getCoordinateReferenceSystem());
+		try {
+			if(iterator.hasNext()){
+				SimpleFeature feature = (SimpleFeature) iterator.next();
+				featureType = GTHelper.createFeatureType(feature.getProperties(), (Geometry)feature.getDefaultGeometry(), feature.getFeatureType().getCoordinateReferenceSystem());
 				QName qname = GTHelper.createGML3SchemaForFeatureType(featureType);
 				SchemaRepository.registerSchemaLocation(qname.getNamespaceURI(), qname.getLocalPart());
 			}
-			SimpleFeature resultFeature = GTHelper.createFeature("ID"+i, (Geometry)feature.getDefaultGeometry(), featureType, feature.getProperties());
-		
-			simpleFeatureList.add(resultFeature);
-			i++;
+		} finally {
+			iterator.close();
 		}
-		iterator.close();
 		
-		ListFeatureCollection resultFeatureCollection = new ListFeatureCollection(featureType, simpleFeatureList);
-		return resultFeatureCollection;
+		if(featureType == null){
+			return new ListFeatureCollection(featureType, new ArrayList<SimpleFeature>());
+		}
+		return new RetypingFeatureCollection(fc, featureType);
 		
 	}
 
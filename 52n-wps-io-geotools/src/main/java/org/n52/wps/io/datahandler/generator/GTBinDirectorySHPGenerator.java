@@ -70,7 +70,6 @@ import org.n52.wps.io.GTHelper;
 import org.n52.wps.io.SchemaRepository;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
-import org.opengis.feature.Feature;
 import org.opengis.feature.IllegalAttributeException;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -100,25 +99,24 @@ public class GTBinDirectorySHPGenerator {
 	private FeatureCollection createCorrectFeatureCollection(
 			FeatureCollection fc) {
 		
-		FeatureCollection resultFeatureCollection = DefaultFeatureCollections.newCollection();
 		SimpleFeatureType featureType = null;
 		FeatureIterator iterator = fc.features();
-		String uuid = UUID.randomUUID().toString();
-		int i = 0;
-		while(iterator.hasNext()){
-			SimpleFeature feature = (SimpleFeature) iterator.next();
-		
-			if(i==0){
-				featureType = GTHelper.createFeatureType(feature.getProperties(), (Geometry)feature.getDefaultGeometry(), uuid, feature.getFeatureType().getCoordinateReferenceSystem());
+		try {
+			if(iterator.hasNext()){
+				SimpleFeature feature = (SimpleFeature) iterator.next();
+				featureType = GTHelper.createFeatureType(feature.getProperties(), (Geometry)feature.getDefaultGeometry(), feature.getFeatureType().getCoordinateReferenceSystem());
 				QName qname = GTHelper.createGML3SchemaForFeatureType(featureType);
 				SchemaRepository.registerSchemaLocation(qname.getNamespaceURI(), qname.getLocalPart());
 			}
-			Feature resultFeature = GTHelper.createFeature("ID"+i, (Geometry)feature.getDefaultGeometry(), featureType, feature.getProperties());
+		} finally {
+			iterator.close();
+		}
 		
-			resultFeatureCollection.add(resultFeature);
-			i++;
+		if(featureType == null){
+			return DefaultFeatureCollections.newCollection();
 		}
-		return resultFeatureCollection;
+		// the features are converted while they are written to the shapefile
+		return new RetypingFeatureCollection(fc, featureType);
 		
 	}
 
@@ -77,8 +77,8 @@ public class GTBinZippedSHPGenerator extends AbstractGenerator {
 //			throw new IOException("I don't support the incoming datatype");
 //		}
 		GTBinDirectorySHPGenerator directoryShp = new GTBinDirectorySHPGenerator(); 
-		InputStream stream = new FileInputStream(createZippedShapefile(
-				directoryShp.writeFeatureCollectionToDirectory(data)));
+		File shapeDirectory = registerTempFile(directoryShp.writeFeatureCollectionToDirectory(data));
+		InputStream stream = new FileInputStream(registerTempFile(createZippedShapefile(shapeDirectory)));
 		
 		return stream;
 	}
@@ -47,14 +47,23 @@
  */
 package org.n52.wps.io.datahandler.generator;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.geojson.feature.FeatureJSON;
 import org.geotools.geojson.geom.GeometryJSON;
+import org.n52.wps.io.IStreamingGenerator;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
 import org.n52.wps.io.data.binding.complex.JTSGeometryBinding;
@@ -63,10 +72,14 @@ import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * This class generates a GeoJSON String representation out of a JTS Geometry.
+ * FeatureCollections are written feature by feature, so only the current
+ * feature is encoded in memory.
  * @author BenjaminPross(bpross-52n)
  *
  */
-public class GeoJSONGenerator extends AbstractGenerator {
+public class GeoJSONGenerator extends AbstractGenerator implements IStreamingGenerator {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 
 	public GeoJSONGenerator(){
 		super();
@@ -75,28 +88,61 @@ public class GeoJSONGenerator extends AbstractGenerator {
 	}
 	
 	@Override
-	public InputStream generateStream(IData data, String mimeType, String schema)
+	public void writeTo(IData data, OutputStream os, String mimeType, String schema)
 			throws IOException {
 		
 		if(data instanceof JTSGeometryBinding){
 			Geometry g = ((JTSGeometryBinding)data).getPayload();
-			
-			File tempFile = File.createTempFile("wps", "json");
-			finalizeFiles.add(tempFile); // mark for final delete
-			
-			 new GeometryJSON().write(g, tempFile);
-					
-			InputStream is = new FileInputStream(tempFile);
-			
-			return is;
+			new GeometryJSON().write(g, os);
 		}else if(data instanceof GTVectorDataBinding){
-			
 			SimpleFeatureCollection f = (SimpleFeatureCollection)data.getPayload();
+			writeFeatureCollection(f, os);
+		}
+	}
+	
+	private void writeFeatureCollection(SimpleFeatureCollection collection, OutputStream os)
+			throws IOException {
+		
+		FeatureJSON featureJSON = new FeatureJSON();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF8));
+		// FeatureJSON flushes after each feature, the StringWriter keeps that from reaching the stream
+		StringWriter feature = new StringWriter();
+		
+		writer.write("{\"type\":\"FeatureCollection\",\"features\":[");
+		SimpleFeatureIterator features = collection.features();
+		try {
+			boolean first = true;
+			while (features.hasNext()) {
+				if (!first) {
+					writer.write(',');
+				}
+				first = false;
+				feature.getBuffer().setLength(0);
+				featureJSON.writeFeature(features.next(), feature);
+				writer.write(feature.toString());
+			}
+		} finally {
+			features.close();
+		}
+		writer.write("]}");
+		writer.flush();
+	}
+	
+	@Override
+	public InputStream generateStream(IData data, String mimeType, String schema)
+			throws IOException {
+		
+		if(data instanceof JTSGeometryBinding || data instanceof GTVectorDataBinding){
 			
 			File tempFile = File.createTempFile("wps", "json");
-			finalizeFiles.add(tempFile); // mark for final delete
+			registerTempFile(tempFile); // mark for final delete
 			
-			 new FeatureJSON().writeFeatureCollection(f, tempFile);
+			OutputStream os = new FileOutputStream(tempFile);
+			try {
+				writeTo(data, os, mimeType, schema);
+			} finally {
+				os.close();
+			}
 					
 			InputStream is = new FileInputStream(tempFile);
 			
@@ -47,6 +47,7 @@
  */
 package org.n52.wps.io.datahandler.generator;
 
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -54,8 +55,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.UUID;
 
-import javax.media.jai.JAI;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -64,6 +63,8 @@ import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
 import org.geotools.gce.geotiff.GeoTiffFormat;
 import org.geotools.gce.geotiff.GeoTiffWriteParams;
 import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.n52.wps.PropertyDocument.Property;
+import org.n52.wps.io.GTRasterHelper;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.GTRasterDataBinding;
 import org.n52.wps.io.data.binding.complex.GeotiffBinding;
@@ -71,13 +72,48 @@ import org.opengis.coverage.grid.GridCoverage;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
 
+/**
+ * Generator for GeoTIFFs. Coverages are written as cloud optimized GeoTIFF,
+ * with internal tiles and overviews, if the mime type has the parameter
+ * <code>profile=cloud-optimized</code> or the <code>cloudOptimized</code>
+ * property is set.
+ */
 public class GeotiffGenerator  extends AbstractGenerator {
 	private static Logger LOGGER = LoggerFactory.getLogger(GeotiffGenerator.class);
 	
+	private static final String PROFILE_CLOUD_OPTIMIZED = "profile=cloud-optimized";
+	
+	private boolean cloudOptimized;
+	private CloudOptimizedGeotiffWriter cloudOptimizedWriter;
+	
 	public GeotiffGenerator() {
 		super();
 		supportedIDataTypes.add(GTRasterDataBinding.class);
 		supportedIDataTypes.add(GeotiffBinding.class);
+		GTRasterHelper.configureTileCache(properties);
+		
+		cloudOptimized = false;
+		int tileSize = 512;
+		String compression = "DEFLATE";
+		int compressionLevel = 6;
+		String resampling = "average";
+		for(Property property : properties){
+			if(!property.getActive()){
+				continue;
+			}
+			if(property.getName().equalsIgnoreCase("cloudOptimized")){
+				cloudOptimized = Boolean.parseBoolean(property.getStringValue());
+			}else if(property.getName().equalsIgnoreCase("cogTileSize")){
+				tileSize = Integer.parseInt(property.getStringValue().trim());
+			}else if(property.getName().equalsIgnoreCase("cogCompression")){
+				compression = property.getStringValue().trim();
+			}else if(property.getName().equalsIgnoreCase("cogCompressionLevel")){
+				compressionLevel = Integer.parseInt(property.getStringValue().trim());
+			}else if(property.getName().equalsIgnoreCase("cogOverviewResampling")){
+				resampling = property.getStringValue().trim();
+			}
+		}
+		cloudOptimizedWriter = new CloudOptimizedGeotiffWriter(tileSize, compression, compressionLevel, resampling);
 	}
 	
 	public InputStream generateStream(IData data, String mimeType, String schema) throws IOException {
@@ -91,12 +127,14 @@ public class GeotiffGenerator  extends AbstractGenerator {
 			String tmpDirPath = System.getProperty("java.io.tmpdir");			
 			String fileName = tmpDirPath + File.separatorChar + "temp" + UUID.randomUUID() + ".tmp";
 			File outputFile = new File(fileName);
-			this.finalizeFiles.add(outputFile); // mark file for final delete
+			registerTempFile(outputFile); // mark file for final delete
 			
 			try {
-				geoTiffWriter = new GeoTiffWriter(outputFile);
-				writeGeotiff(geoTiffWriter, coverage);
-				geoTiffWriter.dispose();
+				if(!(isCloudOptimized(mimeType) && writeCloudOptimizedGeotiff((GridCoverage2D) coverage, outputFile))){
+					geoTiffWriter = new GeoTiffWriter(outputFile);
+					writeGeotiff(geoTiffWriter, coverage);
+					geoTiffWriter.dispose();
+				}
 				stream = new FileInputStream(outputFile);
 				
 			} catch (IOException e) {
@@ -116,6 +154,24 @@ public class GeotiffGenerator  extends AbstractGenerator {
 		return stream;
 	}
 	
+	private boolean isCloudOptimized(String mimeType){
+		return cloudOptimized || (mimeType != null && mimeType.replace(" ", "").contains(PROFILE_CLOUD_OPTIMIZED));
+	}
+	
+	/**
+	 * @return <code>false</code> if the coverage can not be written as cloud
+	 *         optimized GeoTIFF and has to be written as plain GeoTIFF
+	 */
+	private boolean writeCloudOptimizedGeotiff(GridCoverage2D coverage, File outputFile) throws IOException{
+		try {
+			cloudOptimizedWriter.write(coverage, outputFile);
+			return true;
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Writing plain GeoTIFF, the coverage can not be written as cloud optimized GeoTIFF: " + e.getMessage());
+			return false;
+		}
+	}
+	
 	private void writeGeotiff(GeoTiffWriter geoTiffWriter, GridCoverage coverage){
 		GeoTiffFormat format = new GeoTiffFormat();
 		
@@ -124,15 +180,20 @@ public class GeotiffGenerator  extends AbstractGenerator {
 		wp.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
 		wp.setCompressionType("LZW"); 
 		wp.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
-		int width = ((GridCoverage2D) coverage).getRenderedImage().getWidth();
-		int tileWidth = 1024;
-		if(width<2048){
-			tileWidth = new Double(Math.sqrt(width)).intValue();
+		RenderedImage image = ((GridCoverage2D) coverage).getRenderedImage();
+		if(isTiled(image)){
+			// tiles are written as the source computes them, e.g. read from a tiled input
+			wp.setTiling(image.getTileWidth(), image.getTileHeight());
+		}else{
+			int width = image.getWidth();
+			int tileWidth = 1024;
+			if(width<2048){
+				tileWidth = new Double(Math.sqrt(width)).intValue();
+			}
+			wp.setTiling(tileWidth, tileWidth);
 		}
-		wp.setTiling(tileWidth, tileWidth);
 		ParameterValueGroup paramWrite = format.getWriteParameters();
 		paramWrite.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString()).setValue(wp);
-		JAI.getDefaultInstance().getTileCache().setMemoryCapacity(256*1024*1024);
 		
 		try {
 			geoTiffWriter.write(coverage, (GeneralParameterValue[])paramWrite.values().toArray(new
@@ -148,4 +209,13 @@ public class GeotiffGenerator  extends AbstractGenerator {
 		}
 	}
 	
+	/*
+	 * whether the image has tiles smaller than the image that TIFF allows,
+	 * tile sizes have to be multiples of 16
+	 */
+	private static boolean isTiled(RenderedImage image){
+		return (image.getTileWidth() < image.getWidth() || image.getTileHeight() < image.getHeight())
+				&& image.getTileWidth() % 16 == 0 && image.getTileHeight() % 16 == 0;
+	}
+	
 }
@@ -61,6 +61,7 @@ import org.geotools.kml.KML;
 import org.geotools.kml.KMLConfiguration;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Encoder;
+import org.n52.wps.io.IStreamingGenerator;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
 
@@ -68,7 +69,7 @@ import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
  * @author Bastian Schaeffer, IfGI; Matthias Mueller, TU Dresden
  *
  */
-public class KMLGenerator extends AbstractGenerator {
+public class KMLGenerator extends AbstractGenerator implements IStreamingGenerator {
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(KMLGenerator.class);
 	
@@ -84,7 +85,7 @@ public class KMLGenerator extends AbstractGenerator {
 		InputStream stream = null;
 		try {
 			tempFile = File.createTempFile("kml", "xml");
-			this.finalizeFiles.add(tempFile);
+			registerTempFile(tempFile);
 			FileOutputStream outputStream = new FileOutputStream(tempFile);
 			this.writeToStream(data, outputStream);
 			outputStream.flush();
@@ -99,6 +100,11 @@ public class KMLGenerator extends AbstractGenerator {
 		return stream;
 	}
 
+	@Override
+	public void writeTo(IData data, OutputStream os, String mimeType, String schema) throws IOException {
+		this.writeToStream(data, os);
+	}
+
 	private void writeToStream(IData coll, OutputStream os) {
 		FeatureCollection<?, ?> fc = ((GTVectorDataBinding)coll).getPayload();
 		
@@ -0,0 +1,171 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.datahandler.generator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.n52.wps.io.GTHelper;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * View of a feature collection with the features converted to a generated
+ * feature type by {@link GTHelper#createFeature(String, Geometry, SimpleFeatureType, java.util.Collection)}
+ * while they are iterated, instead of copying the whole collection. Features
+ * without geometry are skipped.
+ */
+class RetypingFeatureCollection extends AbstractFeatureCollection {
+
+	private final FeatureCollection<?, ?> source;
+
+	private int size = -1;
+	private ReferencedEnvelope bounds;
+
+	RetypingFeatureCollection(FeatureCollection<?, ?> source, SimpleFeatureType featureType) {
+		super(featureType);
+		this.source = source;
+	}
+
+	@Override
+	protected Iterator<SimpleFeature> openIterator() {
+		return new RetypingIterator(source.features(), getSchema());
+	}
+
+	@Override
+	protected void closeIterator(Iterator<SimpleFeature> close) {
+		((RetypingIterator) close).close();
+	}
+
+	@Override
+	public synchronized int size() {
+		if (size < 0) {
+			computeSizeAndBounds();
+		}
+		return size;
+	}
+
+	@Override
+	public synchronized ReferencedEnvelope getBounds() {
+		if (bounds == null) {
+			computeSizeAndBounds();
+		}
+		return bounds;
+	}
+
+	/*
+	 * the generated features keep the coordinates of the source geometries,
+	 * so the source features are sufficient
+	 */
+	private void computeSizeAndBounds() {
+		int count = 0;
+		ReferencedEnvelope envelope = new ReferencedEnvelope(getSchema().getCoordinateReferenceSystem());
+		FeatureIterator<?> iterator = source.features();
+		try {
+			while (iterator.hasNext()) {
+				Geometry geometry = (Geometry) ((SimpleFeature) iterator.next()).getDefaultGeometry();
+				if (geometry != null && !geometry.isEmpty()) {
+					envelope.expandToInclude(geometry.getEnvelopeInternal());
+					count++;
+				}
+			}
+		} finally {
+			iterator.close();
+		}
+		size = count;
+		bounds = envelope;
+	}
+
+	private static final class RetypingIterator implements Iterator<SimpleFeature> {
+
+		private final FeatureIterator<?> features;
+		private final SimpleFeatureType featureType;
+		private SimpleFeature next;
+		private int index;
+
+		private RetypingIterator(FeatureIterator<?> features, SimpleFeatureType featureType) {
+			this.features = features;
+			this.featureType = featureType;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && features.hasNext()) {
+				SimpleFeature feature = (SimpleFeature) features.next();
+				// the identifiers count the skipped features as well
+				next = GTHelper.createFeature("ID" + index++, (Geometry) feature.getDefaultGeometry(), featureType, feature.getProperties());
+			}
+			return next != null;
+		}
+
+		@Override
+		public SimpleFeature next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			SimpleFeature feature = next;
+			next = null;
+			return feature;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void close() {
+			features.close();
+		}
+	}
+}
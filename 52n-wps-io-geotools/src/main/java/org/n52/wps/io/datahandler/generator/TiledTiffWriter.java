@@ -0,0 +1,497 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.datahandler.generator;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writes images and their reduced resolution versions as tiled TIFF in the
+ * layout of cloud optimized GeoTIFFs: the directories of all images come
+ * first, followed by the tiles of the smallest overview up to the tiles of
+ * the full resolution image. Readers fetching the head of the file know the
+ * location of every tile. The tiles are requested from the images and written
+ * one after the other, so only a single tile is held in memory.
+ */
+final class TiledTiffWriter {
+
+	static final int COMPRESSION_NONE = 1;
+	static final int COMPRESSION_DEFLATE = 8;
+
+	private static final int TYPE_ASCII = 2;
+	private static final int TYPE_SHORT = 3;
+	private static final int TYPE_LONG = 4;
+	private static final int TYPE_DOUBLE = 12;
+
+	private static final int TAG_NEW_SUBFILE_TYPE = 254;
+	private static final int TAG_IMAGE_WIDTH = 256;
+	private static final int TAG_IMAGE_LENGTH = 257;
+	private static final int TAG_BITS_PER_SAMPLE = 258;
+	private static final int TAG_COMPRESSION = 259;
+	private static final int TAG_PHOTOMETRIC_INTERPRETATION = 262;
+	private static final int TAG_SAMPLES_PER_PIXEL = 277;
+	private static final int TAG_PLANAR_CONFIGURATION = 284;
+	private static final int TAG_COLOR_MAP = 320;
+	private static final int TAG_TILE_WIDTH = 322;
+	private static final int TAG_TILE_LENGTH = 323;
+	private static final int TAG_TILE_OFFSETS = 324;
+	private static final int TAG_TILE_BYTE_COUNTS = 325;
+	private static final int TAG_EXTRA_SAMPLES = 338;
+	private static final int TAG_SAMPLE_FORMAT = 339;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// classic TIFF has 32 bit offsets
+	private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+	private final int tileSize;
+	private final int compression;
+	private final int compressionLevel;
+
+	// additional tags of the full resolution image
+	private final SortedMap<Integer, Entry> tags = new TreeMap<Integer, Entry>();
+
+	/**
+	 * @param tileSize
+	 *            the width and height of the tiles, a multiple of 16
+	 * @param compression
+	 *            {@link #COMPRESSION_NONE} or {@link #COMPRESSION_DEFLATE}
+	 * @param compressionLevel
+	 *            the deflate level from 1 (fastest) to 9 (smallest)
+	 */
+	TiledTiffWriter(int tileSize, int compression, int compressionLevel) {
+		if (tileSize <= 0 || tileSize % 16 != 0) {
+			throw new IllegalArgumentException("Invalid tile size " + tileSize + ", expected a multiple of 16");
+		}
+		if (compression != COMPRESSION_NONE && compression != COMPRESSION_DEFLATE) {
+			throw new IllegalArgumentException("Unsupported compression " + compression);
+		}
+		this.tileSize = tileSize;
+		this.compression = compression;
+		this.compressionLevel = compressionLevel;
+	}
+
+	void setTag(int tag, int... values) {
+		ByteBuffer value = ByteBuffer.allocate(2 * values.length);
+		for (int v : values) {
+			value.putShort((short) v);
+		}
+		tags.put(tag, new Entry(tag, TYPE_SHORT, values.length, value.array()));
+	}
+
+	void setTag(int tag, double... values) {
+		ByteBuffer value = ByteBuffer.allocate(8 * values.length);
+		for (double v : values) {
+			value.putDouble(v);
+		}
+		tags.put(tag, new Entry(tag, TYPE_DOUBLE, values.length, value.array()));
+	}
+
+	void setTag(int tag, String value) {
+		byte[] bytes = Arrays.copyOf(value.getBytes(ASCII), value.length() + 1);
+		tags.put(tag, new Entry(tag, TYPE_ASCII, bytes.length, bytes));
+	}
+
+	/**
+	 * Writes the images to the file.
+	 * 
+	 * @param levels
+	 *            the full resolution image followed by its overviews, from the
+	 *            largest to the smallest
+	 * @throws IllegalArgumentException
+	 *             if the data type of the images is not supported, the file is
+	 *             not written then
+	 * @throws IOException
+	 *             if the file could not be written or exceeds 4 GB
+	 */
+	void write(List<? extends RenderedImage> levels, File file) throws IOException {
+		List<Directory> directories = new ArrayList<Directory>(levels.size());
+		long position = 8;
+		for (int i = 0; i < levels.size(); i++) {
+			Directory directory = createDirectory(levels.get(i), i == 0);
+			directory.offset = position;
+			position += directory.size();
+			directories.add(directory);
+		}
+
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			out.seek(position);
+			TileEncoder encoder = new TileEncoder();
+			try {
+				for (int i = levels.size() - 1; i >= 0; i--) {
+					writeTiles(levels.get(i), directories.get(i), encoder, out);
+				}
+			} finally {
+				encoder.end();
+			}
+
+			ByteArrayOutputStream head = new ByteArrayOutputStream((int) position);
+			DataOutputStream headOut = new DataOutputStream(head);
+			headOut.writeByte('M');
+			headOut.writeByte('M');
+			headOut.writeShort(42);
+			headOut.writeInt(8);
+			for (int i = 0; i < directories.size(); i++) {
+				long next = i + 1 < directories.size() ? directories.get(i + 1).offset : 0;
+				directories.get(i).write(headOut, next);
+			}
+			out.seek(0);
+			out.write(head.toByteArray());
+		} finally {
+			out.close();
+		}
+	}
+
+	private Directory createDirectory(RenderedImage image, boolean fullResolution) {
+		int bands = image.getSampleModel().getNumBands();
+		int dataType = image.getSampleModel().getDataType();
+		int bits = DataBuffer.getDataTypeSize(dataType);
+		int sampleFormat;
+		switch (dataType) {
+		case DataBuffer.TYPE_BYTE:
+		case DataBuffer.TYPE_USHORT:
+			sampleFormat = 1;
+			break;
+		case DataBuffer.TYPE_SHORT:
+		case DataBuffer.TYPE_INT:
+			sampleFormat = 2;
+			break;
+		case DataBuffer.TYPE_FLOAT:
+		case DataBuffer.TYPE_DOUBLE:
+			sampleFormat = 3;
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported data type " + dataType);
+		}
+		int tiles = tilesAcross(image) * tilesDown(image);
+
+		Directory directory = new Directory(tiles);
+		directory.put(TAG_NEW_SUBFILE_TYPE, TYPE_LONG, fullResolution ? 0 : 1);
+		directory.put(TAG_IMAGE_WIDTH, TYPE_LONG, image.getWidth());
+		directory.put(TAG_IMAGE_LENGTH, TYPE_LONG, image.getHeight());
+		directory.put(TAG_BITS_PER_SAMPLE, TYPE_SHORT, repeat(bits, bands));
+		directory.put(TAG_COMPRESSION, TYPE_SHORT, compression);
+		directory.put(TAG_SAMPLES_PER_PIXEL, TYPE_SHORT, bands);
+		directory.put(TAG_PLANAR_CONFIGURATION, TYPE_SHORT, 1);
+		directory.put(TAG_TILE_WIDTH, TYPE_LONG, tileSize);
+		directory.put(TAG_TILE_LENGTH, TYPE_LONG, tileSize);
+		directory.put(TAG_TILE_OFFSETS, TYPE_LONG, new int[tiles]);
+		directory.put(TAG_TILE_BYTE_COUNTS, TYPE_LONG, new int[tiles]);
+		directory.put(TAG_SAMPLE_FORMAT, TYPE_SHORT, repeat(sampleFormat, bands));
+
+		ColorModel colorModel = image.getColorModel();
+		int colorBands = 1;
+		if (colorModel instanceof IndexColorModel && bands == 1 && dataType == DataBuffer.TYPE_BYTE) {
+			directory.put(TAG_PHOTOMETRIC_INTERPRETATION, TYPE_SHORT, 3);
+			directory.put(TAG_COLOR_MAP, TYPE_SHORT, colorMap((IndexColorModel) colorModel));
+		} else if (bands >= 3 && dataType == DataBuffer.TYPE_BYTE && colorModel != null
+				&& colorModel.getColorSpace().getType() == ColorSpace.TYPE_RGB) {
+			directory.put(TAG_PHOTOMETRIC_INTERPRETATION, TYPE_SHORT, 2);
+			colorBands = 3;
+		} else {
+			directory.put(TAG_PHOTOMETRIC_INTERPRETATION, TYPE_SHORT, 1);
+		}
+		if (bands > colorBands) {
+			int[] extraSamples = new int[bands - colorBands];
+			if (colorBands == 3 && colorModel.hasAlpha()) {
+				// associated or unassociated alpha
+				extraSamples[extraSamples.length - 1] = colorModel.isAlphaPremultiplied() ? 1 : 2;
+			}
+			directory.put(TAG_EXTRA_SAMPLES, TYPE_SHORT, extraSamples);
+		}
+		if (fullResolution) {
+			directory.entries.putAll(tags);
+		}
+		return directory;
+	}
+
+	private void writeTiles(RenderedImage image, Directory directory, TileEncoder encoder, RandomAccessFile out)
+			throws IOException {
+		Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+		int bands = image.getSampleModel().getNumBands();
+		int bytesPerSample = DataBuffer.getDataTypeSize(image.getSampleModel().getDataType()) / 8;
+		encoder.allocate(tileSize * tileSize * bands * bytesPerSample);
+		int tilesAcross = tilesAcross(image);
+		int tilesDown = tilesDown(image);
+		for (int tileY = 0; tileY < tilesDown; tileY++) {
+			for (int tileX = 0; tileX < tilesAcross; tileX++) {
+				Rectangle tile = new Rectangle(bounds.x + tileX * tileSize, bounds.y + tileY * tileSize, tileSize, tileSize)
+						.intersection(bounds);
+				int length = encoder.encode(image.getData(tile), tile, bands, bytesPerSample);
+				long offset = out.getFilePointer();
+				if (offset + length > MAX_OFFSET) {
+					throw new IOException("TIFF exceeds 4 GB, BigTIFF is not supported");
+				}
+				out.write(encoder.output, 0, length);
+				int index = tileY * tilesAcross + tileX;
+				directory.tileOffsets[index] = (int) offset;
+				directory.tileByteCounts[index] = length;
+			}
+		}
+		directory.put(TAG_TILE_OFFSETS, TYPE_LONG, directory.tileOffsets);
+		directory.put(TAG_TILE_BYTE_COUNTS, TYPE_LONG, directory.tileByteCounts);
+	}
+
+	private int tilesAcross(RenderedImage image) {
+		return (image.getWidth() + tileSize - 1) / tileSize;
+	}
+
+	private int tilesDown(RenderedImage image) {
+		return (image.getHeight() + tileSize - 1) / tileSize;
+	}
+
+	private static int[] repeat(int value, int count) {
+		int[] values = new int[count];
+		Arrays.fill(values, value);
+		return values;
+	}
+
+	/*
+	 * the red, green and blue values of all 256 entries scaled to 16 bits
+	 */
+	private static int[] colorMap(IndexColorModel colorModel) {
+		int[] colorMap = new int[3 * 256];
+		for (int i = 0; i < colorModel.getMapSize() && i < 256; i++) {
+			colorMap[i] = colorModel.getRed(i) * 257;
+			colorMap[256 + i] = colorModel.getGreen(i) * 257;
+			colorMap[512 + i] = colorModel.getBlue(i) * 257;
+		}
+		return colorMap;
+	}
+
+	/**
+	 * Converts the samples of a tile to big endian, pixel interleaved bytes
+	 * and compresses them. Tiles at the right and bottom edges are padded to
+	 * the full tile size.
+	 */
+	private final class TileEncoder {
+
+		private byte[] tile = new byte[0];
+		private ByteBuffer tileBuffer;
+		private byte[] output = new byte[0];
+		private int[] intSamples = new int[0];
+		private float[] floatSamples = new float[0];
+		private double[] doubleSamples = new double[0];
+		private final Deflater deflater = compression == COMPRESSION_DEFLATE ? new Deflater(compressionLevel) : null;
+
+		void allocate(int tileBytes) {
+			if (tile.length != tileBytes) {
+				tile = new byte[tileBytes];
+				tileBuffer = ByteBuffer.wrap(tile);
+				output = new byte[tileBytes + tileBytes / 1000 + 64];
+			}
+		}
+
+		/**
+		 * @return the length of the encoded tile in {@link #output}
+		 */
+		int encode(Raster raster, Rectangle bounds, int bands, int bytesPerSample) {
+			if (bounds.width < tileSize || bounds.height < tileSize) {
+				Arrays.fill(tile, (byte) 0);
+			}
+			int dataType = raster.getSampleModel().getDataType();
+			int rowBytes = tileSize * bands * bytesPerSample;
+			for (int row = 0; row < bounds.height; row++) {
+				for (int band = 0; band < bands; band++) {
+					int position = row * rowBytes + band * bytesPerSample;
+					int step = bands * bytesPerSample;
+					switch (dataType) {
+					case DataBuffer.TYPE_FLOAT:
+						floatSamples = raster.getSamples(bounds.x, bounds.y + row, bounds.width, 1, band,
+								floatSamples.length < bounds.width ? null : floatSamples);
+						for (int i = 0; i < bounds.width; i++, position += step) {
+							tileBuffer.putFloat(position, floatSamples[i]);
+						}
+						break;
+					case DataBuffer.TYPE_DOUBLE:
+						doubleSamples = raster.getSamples(bounds.x, bounds.y + row, bounds.width, 1, band,
+								doubleSamples.length < bounds.width ? null : doubleSamples);
+						for (int i = 0; i < bounds.width; i++, position += step) {
+							tileBuffer.putDouble(position, doubleSamples[i]);
+						}
+						break;
+					default:
+						intSamples = raster.getSamples(bounds.x, bounds.y + row, bounds.width, 1, band,
+								intSamples.length < bounds.width ? null : intSamples);
+						for (int i = 0; i < bounds.width; i++, position += step) {
+							if (bytesPerSample == 1) {
+								tile[position] = (byte) intSamples[i];
+							} else if (bytesPerSample == 2) {
+								tileBuffer.putShort(position, (short) intSamples[i]);
+							} else {
+								tileBuffer.putInt(position, intSamples[i]);
+							}
+						}
+					}
+				}
+			}
+			if (deflater == null) {
+				System.arraycopy(tile, 0, output, 0, tile.length);
+				return tile.length;
+			}
+			deflater.reset();
+			deflater.setInput(tile);
+			deflater.finish();
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == output.length) {
+					output = Arrays.copyOf(output, output.length * 2);
+				}
+				length += deflater.deflate(output, length, output.length - length);
+			}
+			return length;
+		}
+
+		void end() {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		final int tag;
+		final int type;
+		final int count;
+		final byte[] value;
+
+		Entry(int tag, int type, int count, byte[] value) {
+			this.tag = tag;
+			this.type = type;
+			this.count = count;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * An image file directory, the tags of an image.
+	 */
+	private static final class Directory {
+
+		final SortedMap<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+		final int[] tileOffsets;
+		final int[] tileByteCounts;
+		long offset;
+
+		Directory(int tiles) {
+			tileOffsets = new int[tiles];
+			tileByteCounts = new int[tiles];
+		}
+
+		void put(int tag, int type, int... values) {
+			int size = type == TYPE_SHORT ? 2 : 4;
+			ByteBuffer value = ByteBuffer.allocate(size * values.length);
+			for (int v : values) {
+				if (type == TYPE_SHORT) {
+					value.putShort((short) v);
+				} else {
+					value.putInt(v);
+				}
+			}
+			entries.put(tag, new Entry(tag, type, values.length, value.array()));
+		}
+
+		int size() {
+			int size = 2 + 12 * entries.size() + 4;
+			for (Entry entry : entries.values()) {
+				if (entry.value.length > 4) {
+					size += entry.value.length + (entry.value.length & 1);
+				}
+			}
+			return size;
+		}
+
+		/*
+		 * values that do not fit into an entry follow the entries, at word
+		 * boundaries
+		 */
+		void write(DataOutputStream out, long next) throws IOException {
+			ByteArrayOutputStream values = new ByteArrayOutputStream();
+			long valuesOffset = offset + 2 + 12 * entries.size() + 4;
+			out.writeShort(entries.size());
+			for (Entry entry : entries.values()) {
+				out.writeShort(entry.tag);
+				out.writeShort(entry.type);
+				out.writeInt(entry.count);
+				if (entry.value.length <= 4) {
+					out.write(entry.value);
+					out.write(new byte[4 - entry.value.length]);
+				} else {
+					out.writeInt((int) (valuesOffset + values.size()));
+					values.write(entry.value);
+					if ((entry.value.length & 1) == 1) {
+						values.write(0);
+					}
+				}
+			}
+			out.writeInt((int) next);
+			values.writeTo(out);
+		}
+	}
+}
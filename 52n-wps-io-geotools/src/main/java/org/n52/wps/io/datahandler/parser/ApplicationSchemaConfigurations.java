@@ -0,0 +1,108 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.datahandler.parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geotools.gml3.ApplicationSchemaConfiguration;
+import org.geotools.xml.Configuration;
+import org.n52.wps.io.SchemaCache;
+import org.n52.wps.io.SchemaRepository;
+
+/**
+ * Shares the configurations of application schemas between parses. Building a
+ * configuration parses the application schema and all schemas it imports, so
+ * configurations are kept per namespace and schema location. Remote schema
+ * locations are resolved to the local copies of the {@link SchemaCache}; as
+ * these are named by content, a changed schema gets a new configuration.
+ * Schemas of local files, e.g. next to a parsed shapefile or zipped GML, are
+ * not shared.
+ */
+final class ApplicationSchemaConfigurations {
+
+	private static final int MAXIMUM_SIZE = 64;
+
+	// access ordered, the least recently used configuration is evicted first
+	private static final Map<String, Configuration> CONFIGURATIONS =
+			new LinkedHashMap<String, Configuration>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Configuration> eldest) {
+					return size() > MAXIMUM_SIZE;
+				}
+			};
+
+	private ApplicationSchemaConfigurations() {
+	}
+
+	static Configuration get(String namespaceURI, String schemaLocation) {
+		if (!schemaLocation.startsWith("http://") && !schemaLocation.startsWith("https://")) {
+			return new ApplicationSchemaConfiguration(namespaceURI, schemaLocation);
+		}
+		String location = SchemaRepository.resolveSchemaLocation(schemaLocation);
+		String key = namespaceURI + " " + location;
+		synchronized (CONFIGURATIONS) {
+			Configuration configuration = CONFIGURATIONS.get(key);
+			if (configuration != null) {
+				return configuration;
+			}
+		}
+		// built outside the lock, a concurrent duplicate is dropped
+		Configuration configuration = new ApplicationSchemaConfiguration(namespaceURI, location);
+		synchronized (CONFIGURATIONS) {
+			Configuration existing = CONFIGURATIONS.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			CONFIGURATIONS.put(key, configuration);
+		}
+		return configuration;
+	}
+}
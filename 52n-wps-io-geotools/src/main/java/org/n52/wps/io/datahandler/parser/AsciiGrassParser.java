@@ -105,6 +105,7 @@ public class AsciiGrassParser extends AbstractParser {
 		BufferedInputStream bis = new BufferedInputStream(inputStream);
 
 		File outputFile = File.createTempFile("temp" + inputStream.hashCode(), "tmp");
+		registerTempFile(outputFile); // mark for final delete
 
 		BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile));
 
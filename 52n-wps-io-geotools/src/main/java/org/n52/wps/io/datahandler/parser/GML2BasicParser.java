@@ -72,7 +72,6 @@ import org.geotools.feature.type.GeometryDescriptorImpl;
 import org.geotools.feature.type.GeometryTypeImpl;
 import org.geotools.filter.identity.GmlObjectIdImpl;
 import org.geotools.gml2.GMLConfiguration;
-import org.geotools.gml3.ApplicationSchemaConfiguration;
 import org.geotools.xml.Configuration;
 import org.n52.wps.io.SchemaRepository;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
@@ -108,7 +107,7 @@ public class GML2BasicParser extends AbstractParser {
 		try {
 			File tempFile = File.createTempFile(UUID.randomUUID().toString(),
 					".gml2");
-			finalizeFiles.add(tempFile); // mark for final delete
+			registerTempFile(tempFile); // mark for final delete
 			fos = new FileOutputStream(tempFile);
 			int i = stream.read();
 			while (i != -1) {
@@ -152,7 +151,7 @@ public class GML2BasicParser extends AbstractParser {
 		if (schemaLocation != null && schematypeTuple.getNamespaceURI() != null) {
 			SchemaRepository.registerSchemaLocation(
 					schematypeTuple.getNamespaceURI(), schemaLocation);
-			configuration = new ApplicationSchemaConfiguration(
+			configuration = ApplicationSchemaConfigurations.get(
 					schematypeTuple.getNamespaceURI(), schemaLocation);
 		} else {
 			configuration = new GMLConfiguration();
@@ -78,7 +78,7 @@ public class GML2BasicParser4Files extends AbstractParser {
 		FileOutputStream fos = null;
 		try{
 			File tempFile = File.createTempFile(UUID.randomUUID().toString(), ".gml2");
-			finalizeFiles.add(tempFile); // mark for final delete
+			registerTempFile(tempFile); // mark for final delete
 			fos = new FileOutputStream(tempFile);
 			int i = stream.read();
 			while(i != -1){
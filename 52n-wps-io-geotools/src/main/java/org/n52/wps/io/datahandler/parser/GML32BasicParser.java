@@ -47,12 +47,9 @@
  */
 package org.n52.wps.io.datahandler.parser;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -61,7 +58,6 @@ import java.util.Map;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -71,7 +67,6 @@ import org.geotools.feature.GeometryAttributeImpl;
 import org.geotools.feature.type.GeometryDescriptorImpl;
 import org.geotools.feature.type.GeometryTypeImpl;
 import org.geotools.filter.identity.GmlObjectIdImpl;
-import org.geotools.gml3.ApplicationSchemaConfiguration;
 import org.geotools.gml3.v3_2.GMLConfiguration;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Parser;
@@ -96,11 +91,19 @@ public class GML32BasicParser extends AbstractParser {
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(GML32BasicParser.class);
 	private Configuration configuration;
+	private boolean streaming;
 
 
 	public GML32BasicParser() {
 		super();
 		supportedIDataTypes.add(GTVectorDataBinding.class);
+
+		streaming = false;
+		for (org.n52.wps.PropertyDocument.Property property : properties) {
+			if (property.getName().equalsIgnoreCase("streaming") && property.getActive()) {
+				streaming = Boolean.parseBoolean(property.getStringValue());
+			}
+		}
 	}
 	
 	public void setConfiguration(Configuration config) {
@@ -109,27 +112,10 @@ public class GML32BasicParser extends AbstractParser {
 
 	@Override
 	public GTVectorDataBinding parse(InputStream stream, String mimeType, String schema) {
-
-		FileOutputStream fos = null;
-		try {
-			File tempFile = File.createTempFile("wps", "tmp");
-			finalizeFiles.add(tempFile); // mark for final delete
-			fos = new FileOutputStream(tempFile);
-			int i = stream.read();
-			while (i != -1) {
-				fos.write(i);
-				i = stream.read();
-			}
-			fos.flush();
-			fos.close();
-
-			QName schematypeTuple = determineFeatureTypeSchema(tempFile);
-			return parse(new FileInputStream(tempFile), schematypeTuple);
-		}
-		catch (IOException e) {
-			if (fos != null) try { fos.close(); } catch (Exception e1) { }
-			throw new IllegalArgumentException("Error while creating tempFile", e);
-		}
+		// the document is read once, the schema location is taken from the buffered start
+		InputStream in = new BufferedInputStream(stream);
+		QName schematypeTuple = determineFeatureTypeSchema(in);
+		return parse(in, schematypeTuple);
 	}
 
 	public GTVectorDataBinding parse(InputStream input, QName schematypeTuple) {
@@ -137,6 +123,15 @@ public class GML32BasicParser extends AbstractParser {
 			configuration = resolveConfiguration(schematypeTuple);
 		}
 
+		if (streaming) {
+			// features are parsed from a spooled copy while they are iterated
+			try {
+				return new GTVectorDataBinding(StreamingFeatureCollection.create(input, configuration));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Error while spooling GML", e);
+			}
+		}
+
 		Parser parser = new Parser(configuration);
 		parser.setStrict(true);
 
@@ -226,7 +221,7 @@ public class GML32BasicParser extends AbstractParser {
 			} else {
 				if (schemaLocation != null && schematypeTuple.getNamespaceURI()!=null){
 					SchemaRepository.registerSchemaLocation(schematypeTuple.getNamespaceURI(), schemaLocation);
-					configuration =  new ApplicationSchemaConfiguration(schematypeTuple.getNamespaceURI(), schemaLocation);
+					configuration = ApplicationSchemaConfigurations.get(schematypeTuple.getNamespaceURI(), schemaLocation);
 				} else {
 					configuration = new GMLConfiguration();
 				}
@@ -238,38 +233,17 @@ public class GML32BasicParser extends AbstractParser {
 		return configuration;
 	}
 
-	private QName determineFeatureTypeSchema(File file) {
+	private QName determineFeatureTypeSchema(InputStream stream) {
 		try {
-			GML2Handler handler = new GML2Handler();
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			factory.setNamespaceAware(true);
-
-			factory.newSAXParser().parse(new FileInputStream(file), handler); 
-
-			String schemaUrl = handler.getSchemaUrl(); 
-
-			if(schemaUrl == null){
-				return null;
-			}
-
-			String namespaceURI = handler.getNameSpaceURI();
-
 			/*
 			 * TODO dude, wtf? Massive abuse of QName.
 			 */
-			return new QName(namespaceURI, schemaUrl);
-		} catch (MalformedURLException e) {
-			throw new IllegalArgumentException(e);
+			return SchemaLocationReader.read(stream);
 		} catch (IOException e) {
 			throw new IllegalArgumentException(e);
-		} catch (SAXException e) {
-			throw new IllegalArgumentException(e);
-		} catch(ParserConfigurationException e) {
-			throw new IllegalArgumentException(e);
 		}
 	}
 
-	
 	public static GML32BasicParser getInstanceForConfiguration(
 			Configuration config) {
 		GML32BasicParser parser = new GML32BasicParser();
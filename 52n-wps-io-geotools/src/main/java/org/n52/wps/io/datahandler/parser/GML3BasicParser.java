@@ -47,9 +47,9 @@
  */
 package org.n52.wps.io.datahandler.parser;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -58,8 +58,8 @@ import java.util.HashMap;
 import java.util.List;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.geotools.data.collection.ListFeatureCollection;
@@ -71,7 +71,6 @@ import org.geotools.feature.GeometryAttributeImpl;
 import org.geotools.feature.type.GeometryDescriptorImpl;
 import org.geotools.feature.type.GeometryTypeImpl;
 import org.geotools.filter.identity.GmlObjectIdImpl;
-import org.geotools.gml3.ApplicationSchemaConfiguration;
 import org.geotools.gml3.GMLConfiguration;
 import org.geotools.xml.Configuration;
 import org.n52.wps.io.SchemaRepository;
@@ -83,7 +82,6 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.GeometryType;
 import org.opengis.filter.identity.Identifier;
-import org.xml.sax.helpers.DefaultHandler;
 
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -97,32 +95,44 @@ public class GML3BasicParser extends AbstractParser {
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(GML3BasicParser.class);
 	
+	private boolean streaming;
+	
 	public GML3BasicParser() {
 		super();
 		supportedIDataTypes.add(GTVectorDataBinding.class);
+		
+		streaming = false;
+		for(org.n52.wps.PropertyDocument.Property property : properties){
+			if(property.getName().equalsIgnoreCase("streaming") && property.getActive()){
+				streaming = Boolean.parseBoolean(property.getStringValue());
+			}
+		}
 	}
 	
 	@Override
 	public GTVectorDataBinding parse(InputStream stream, String mimeType, String schema) {
-
-		FileOutputStream fos = null;
-		try{
-			File tempFile = File.createTempFile("wps", "tmp");
-			finalizeFiles.add(tempFile); // mark for final delete
-			fos = new FileOutputStream(tempFile);
-			int i = stream.read();
-			while(i != -1){
-				fos.write(i);
-				i = stream.read();
-			}
-			fos.flush();
-			fos.close();
-			GTVectorDataBinding data = parseXML(tempFile);
-			return data;
+		// the document is read once, the schema location is taken from the buffered start
+		InputStream in = new BufferedInputStream(stream);
+		if (streaming) {
+			return new GTVectorDataBinding(parseFeatureCollectionStreaming(in));
 		}
-		catch(IOException e) {
-			if (fos != null) try { fos.close(); } catch (Exception e1) { }
-			throw new IllegalArgumentException("Error while creating tempFile", e);
+		SimpleFeatureCollection fc = parseFeatureCollection(in, null);
+		return new GTVectorDataBinding(fc);
+	}
+	
+	/**
+	 * Spools the stream to a file and returns a collection that parses the features from that file while they are
+	 * iterated, so documents larger than the heap can be processed.
+	 * 
+	 * @param stream stream supporting mark and reset containing a SimpleFeatureCollection
+	 * @return The lazily parsed SimpleFeatureCollection
+	 */
+	public SimpleFeatureCollection parseFeatureCollectionStreaming(InputStream stream){
+		Configuration configuration = resolveConfiguration(determineFeatureTypeSchema(stream), null);
+		try {
+			return StreamingFeatureCollection.create(stream, configuration);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Error while spooling GML", e);
 		}
 	}
 	
@@ -147,46 +157,65 @@ public class GML3BasicParser extends AbstractParser {
 	 * @return The parsed SimpleFeatureCollection
 	 */
 	public SimpleFeatureCollection parseFeatureCollection(File file){
-		QName schematypeTuple = determineFeatureTypeSchema(file);
-		
-		boolean schemaLocationIsRelative = false;
-		if (!(schematypeTuple.getLocalPart().contains("://") || schematypeTuple.getLocalPart().contains("file:"))) {
-			schemaLocationIsRelative = true;
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(file));
+			return parseFeatureCollection(in, file.getParentFile());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Error while reading " + file, e);
+		} finally {
+			IOUtils.closeQuietly(in);
 		}
+	}
+	
+	/**
+	 * Method to parse a SimpleFeatureCollection out of a stream in a single pass. The schema location is read from
+	 * the start of the stream, which is reset before the stream is parsed.
+	 * 
+	 * @param stream stream supporting mark and reset containing a SimpleFeatureCollection
+	 * @param baseDirectory directory relative schema locations are resolved against, may be <code>null</code>
+	 * @return The parsed SimpleFeatureCollection
+	 */
+	public SimpleFeatureCollection parseFeatureCollection(InputStream stream, File baseDirectory){
+		Configuration configuration = resolveConfiguration(determineFeatureTypeSchema(stream), baseDirectory);
+		
+		// only documents with application schema are parsed strictly
+		boolean shouldSetParserStrict = !(configuration instanceof GMLConfiguration);
+		
+		//parse		
+		SimpleFeatureCollection fc = parseFeatureCollection(stream, configuration, shouldSetParserStrict);
+		
+		return fc;
+	}
+	
+	private Configuration resolveConfiguration(QName schematypeTuple, File baseDirectory) {
 		
 		Configuration configuration = null;
 		
-		boolean shouldSetParserStrict = true;
 		if(schematypeTuple != null) {
 			
 			String schemaLocation =  schematypeTuple.getLocalPart();
 			
-			if (schemaLocationIsRelative) {
-				schemaLocation = new File(file.getParentFile(), schemaLocation).getAbsolutePath();
+			boolean schemaLocationIsRelative = !(schemaLocation.contains("://") || schemaLocation.contains("file:"));
+			if (schemaLocationIsRelative && baseDirectory != null) {
+				schemaLocation = new File(baseDirectory, schemaLocation).getAbsolutePath();
 			}
 			
 			if(schemaLocation.equals("http://schemas.opengis.net/gml/3.1.1/base/gml.xsd")){
 				configuration = new GMLConfiguration();
-				shouldSetParserStrict = false;
 			}else{			
 				if(schemaLocation!= null && schematypeTuple.getNamespaceURI()!=null){
 					SchemaRepository.registerSchemaLocation(schematypeTuple.getNamespaceURI(), schemaLocation);
-					configuration =  new ApplicationSchemaConfiguration(schematypeTuple.getNamespaceURI(), schemaLocation);
+					configuration = ApplicationSchemaConfigurations.get(schematypeTuple.getNamespaceURI(), schemaLocation);
 				}else{
 					configuration = new GMLConfiguration();
-					shouldSetParserStrict = false;
 				}
 			}
+		}else{
+			configuration = new GMLConfiguration();
 		}
 		
-		org.geotools.xml.Parser parser = new org.geotools.xml.Parser(configuration);
-		
-		parser.setStrict(shouldSetParserStrict);
-		
-		//parse		
-		SimpleFeatureCollection fc = parseFeatureCollection(file, configuration, shouldSetParserStrict);
-		
-		return fc;
+		return configuration;
 	}
 	
 	/**
@@ -198,6 +227,26 @@ public class GML3BasicParser extends AbstractParser {
 	 * @return The parsed SimpleFeatureCollection
 	 */
 	public SimpleFeatureCollection parseFeatureCollection(File file, Configuration configuration, boolean shouldSetParserStrict){
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			return parseFeatureCollection(in, configuration, shouldSetParserStrict);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Error while reading " + file, e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Method to parse a SimpleFeatureCollection out of a stream. 
+	 * 
+	 * @param stream stream containing a SimpleFeatureCollection
+	 * @param configuration The Configuration for the Parser
+	 * @param shouldSetParserStrict Boolean specifying whether the Parser should be set to strict or not.
+	 * @return The parsed SimpleFeatureCollection
+	 */
+	public SimpleFeatureCollection parseFeatureCollection(InputStream stream, Configuration configuration, boolean shouldSetParserStrict){
 		
 		org.geotools.xml.Parser parser = new org.geotools.xml.Parser(configuration);
 		
@@ -206,7 +255,7 @@ public class GML3BasicParser extends AbstractParser {
 		//parse		
 		SimpleFeatureCollection fc = DefaultFeatureCollections.newCollection();
 		try {
-			Object parsedData =  parser.parse( new FileInputStream(file));
+			Object parsedData =  parser.parse(stream);
 			if(parsedData instanceof FeatureCollection){
 				fc = (SimpleFeatureCollection) parsedData;				
 			}else if(parsedData instanceof HashMap){
@@ -261,28 +310,7 @@ public class GML3BasicParser extends AbstractParser {
 		FeatureIterator<?> featureIterator = fc.features();
 		while(featureIterator.hasNext()){
 			SimpleFeature feature = (SimpleFeature) featureIterator.next();
-			if(feature.getDefaultGeometry()==null){
-				Collection<org.opengis.feature.Property>properties = feature.getProperties();
-				for(org.opengis.feature.Property property : properties){
-					try{						
-						Geometry g = (Geometry)property.getValue();
-						if(g!=null){
-							GeometryAttribute oldGeometryDescriptor = feature.getDefaultGeometryProperty();
-							GeometryType type = new GeometryTypeImpl(property.getName(),(Class<?>)oldGeometryDescriptor.getType().getBinding(),oldGeometryDescriptor.getType().getCoordinateReferenceSystem(),oldGeometryDescriptor.getType().isIdentified(),oldGeometryDescriptor.getType().isAbstract(),oldGeometryDescriptor.getType().getRestrictions(),oldGeometryDescriptor.getType().getSuper(),oldGeometryDescriptor.getType().getDescription());
-																
-							GeometryDescriptor newGeometryDescriptor = new GeometryDescriptorImpl(type,property.getName(),0,1,true,null);
-							Identifier identifier = new GmlObjectIdImpl(feature.getID());
-							GeometryAttributeImpl geo = new GeometryAttributeImpl((Object)g,newGeometryDescriptor, identifier);
-							feature.setDefaultGeometryProperty(geo);
-							feature.setDefaultGeometry(g);
-							
-						}
-					}catch(ClassCastException e){
-						//do nothing
-					}
-					
-				}
-			}
+			setDefaultGeometry(feature);
 		}
 		} catch (Exception e) {
 			LOGGER.error("Exception while handling parsed GML.", e);
@@ -291,20 +319,40 @@ public class GML3BasicParser extends AbstractParser {
 		return fc;
 	}
 		
-	private QName determineFeatureTypeSchema(File file) {
-		try {
-			GML2Handler handler = new GML2Handler();
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			factory.setNamespaceAware(true);
-			factory.newSAXParser().parse(new FileInputStream(file), (DefaultHandler)handler); 
-			String schemaUrl = handler.getSchemaUrl(); 
-			if(schemaUrl == null){
-				return null;
+	/**
+	 * Sets the first geometry property of a feature without default geometry as its default geometry.
+	 * 
+	 * @param feature the parsed feature
+	 */
+	static void setDefaultGeometry(SimpleFeature feature) {
+		if(feature.getDefaultGeometry()==null){
+			Collection<org.opengis.feature.Property>properties = feature.getProperties();
+			for(org.opengis.feature.Property property : properties){
+				try{						
+					Geometry g = (Geometry)property.getValue();
+					if(g!=null){
+						GeometryAttribute oldGeometryDescriptor = feature.getDefaultGeometryProperty();
+						GeometryType type = new GeometryTypeImpl(property.getName(),(Class<?>)oldGeometryDescriptor.getType().getBinding(),oldGeometryDescriptor.getType().getCoordinateReferenceSystem(),oldGeometryDescriptor.getType().isIdentified(),oldGeometryDescriptor.getType().isAbstract(),oldGeometryDescriptor.getType().getRestrictions(),oldGeometryDescriptor.getType().getSuper(),oldGeometryDescriptor.getType().getDescription());
+															
+						GeometryDescriptor newGeometryDescriptor = new GeometryDescriptorImpl(type,property.getName(),0,1,true,null);
+						Identifier identifier = new GmlObjectIdImpl(feature.getID());
+						GeometryAttributeImpl geo = new GeometryAttributeImpl((Object)g,newGeometryDescriptor, identifier);
+						feature.setDefaultGeometryProperty(geo);
+						feature.setDefaultGeometry(g);
+						
+					}
+				}catch(ClassCastException e){
+					//do nothing
+				}
+				
 			}
-			String namespaceURI = handler.getNameSpaceURI();
-			return new QName(namespaceURI,schemaUrl);
-			
-		} catch (Exception e) {
+		}
+	}
+		
+	private QName determineFeatureTypeSchema(InputStream stream) {
+		try {
+			return SchemaLocationReader.read(stream);
+		} catch (IOException e) {
 			LOGGER.error("Exception while trying to determine schema of FeatureType.", e);
 			throw new IllegalArgumentException(e);
 		}
@@ -79,7 +79,7 @@ public class GML3BasicParser4Files extends AbstractParser {
 		FileOutputStream fos = null;
 		try{
 			File tempFile = File.createTempFile(UUID.randomUUID().toString(), ".gml3");
-			finalizeFiles.add(tempFile); // mark for final delete
+			registerTempFile(tempFile); // mark for final delete
 			fos = new FileOutputStream(tempFile);
 			int i = stream.read();
 			while(i != -1){
@@ -106,7 +106,7 @@ public class GTBinZippedWKT64Parser extends AbstractParser {
 			String fileName = "tempfile" + UUID.randomUUID() + ".zip";
 			String tmpDirPath = System.getProperty("java.io.tmpdir");
 			File tempFile = new File(tmpDirPath + File.separatorChar + fileName);
-			finalizeFiles.add(tempFile); // mark tempFile for final delete
+			registerTempFile(tempFile); // mark tempFile for final delete
 			try {
 				FileOutputStream outputStream = new FileOutputStream(tempFile);
 				byte buf[] = new byte[4096];
@@ -126,10 +126,10 @@ public class GTBinZippedWKT64Parser extends AbstractParser {
 				throw new RuntimeException(e);
 			}			
 			
-			finalizeFiles.add(tempFile); // mark for final delete
+			registerTempFile(tempFile); // mark for final delete
 			stream.close();
 			List<File> wktFiles = IOUtils.unzip(tempFile, "wkt");
-			finalizeFiles.addAll(wktFiles); // mark for final delete
+			registerTempFiles(wktFiles); // mark for final delete
 			
 			if (wktFiles == null || wktFiles.size() == 0) {
 				throw new RuntimeException(
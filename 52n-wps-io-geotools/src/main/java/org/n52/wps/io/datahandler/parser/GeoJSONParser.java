@@ -48,18 +48,26 @@
 package org.n52.wps.io.datahandler.parser;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geojson.feature.FeatureJSON;
 import org.geotools.geojson.geom.GeometryJSON;
+import org.n52.wps.PropertyDocument.Property;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
 import org.n52.wps.io.data.binding.complex.JTSGeometryBinding;
@@ -72,6 +80,12 @@ import com.vividsolutions.jts.geom.GeometryCollection;
  * 
  * 
  * This class parses json into JTS geometries.
+ * 
+ * The input is spooled to a temporary file and the GeoJSON object is selected
+ * by the <code>type</code> member of the root object, so the document is never
+ * held as a String. With the property <code>streaming</code> set to
+ * <code>true</code>, FeatureCollections are read feature by feature while the
+ * process iterates them.
  *         
  *  @author BenjaminPross(bpross-52n)
  * 
@@ -79,53 +93,74 @@ import com.vividsolutions.jts.geom.GeometryCollection;
 public class GeoJSONParser extends AbstractParser {
 
 	private static Logger LOGGER = LoggerFactory.getLogger(GeoJSONParser.class);
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private boolean streaming;
 
 	public GeoJSONParser() {
 		super();
 		supportedIDataTypes.add(JTSGeometryBinding.class);
 		supportedIDataTypes.add(GTVectorDataBinding.class);
+		
+		streaming = false;
+		for (Property property : properties) {
+			if (property.getName().equalsIgnoreCase("streaming") && property.getActive()) {
+				streaming = Boolean.parseBoolean(property.getStringValue());
+			}
+		}
 	}
 
 	@Override
 	public IData parse(InputStream input, String mimeType, String schema) {
 
-		String geojsonstring = "";
-
-		String line = "";
-
-		BufferedReader breader = new BufferedReader(
-				new InputStreamReader(input));
-
+		File file = null;
+		String type;
+		
 		try {
-			while ((line = breader.readLine()) != null) {
-				geojsonstring = geojsonstring.concat(line);
-			}
+			file = spool(input);
+			type = readType(file);
 		} catch (IOException e) {
 			LOGGER.error("Exception while reading inputstream.", e);
+			if (file != null) {
+				file.delete();
+			}
+			return null;
 		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		
+		if (streaming && "FeatureCollection".equals(type)) {
 			try {
-				input.close();
+				// the collection owns the spooled file from now on
+				return new GTVectorDataBinding(StreamingFeatureCollection.createGeoJSON(file));
 			} catch (IOException e) {
-				LOGGER.error(e.getMessage(), e);
+				LOGGER.info("Could not read FeatureCollection from inputstream");
+				return null;
 			}
 		}
+		
+		try {
+			return parse(file, type);
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private IData parse(File file, String type) {
 
-		if (geojsonstring.contains("FeatureCollection")) {
-
-			try {
+		Reader reader = null;
+		try {
+			if ("FeatureCollection".equals(type)) {
+				reader = open(file);
 				FeatureCollection<?, ?> featureCollection = new FeatureJSON()
-						.readFeatureCollection(geojsonstring);
+						.readFeatureCollection(reader);
 
 				return new GTVectorDataBinding(featureCollection);
 
-			} catch (IOException e) {
-				LOGGER.info("Could not read FeatureCollection from inputstream");
-			}
-
-		} else if (geojsonstring.contains("Feature")) {
-
-			try {
-				SimpleFeature feature = new FeatureJSON().readFeature(geojsonstring);
+			} else if ("Feature".equals(type)) {
+				reader = open(file);
+				SimpleFeature feature = new FeatureJSON().readFeature(reader);
 
 				List<SimpleFeature> featureList = new ArrayList<SimpleFeature>();
 
@@ -136,40 +171,151 @@ public class GeoJSONParser extends AbstractParser {
 
 				return new GTVectorDataBinding(featureCollection);
 
-			} catch (IOException e) {
-				LOGGER.info("Could not read Feature from inputstream");
-			}
-
-		} else if (geojsonstring.contains("GeometryCollection")) {
-
-			try {
-				GeometryCollection g = new GeometryJSON().readGeometryCollection(geojsonstring);
+			} else if ("GeometryCollection".equals(type)) {
+				reader = open(file);
+				GeometryCollection g = new GeometryJSON().readGeometryCollection(reader);
 
 				return new JTSGeometryBinding(g);
 
-			} catch (IOException e) {
-				LOGGER.info("Could not read GeometryCollection from inputstream.");
-			}
-
-		} else if(geojsonstring.contains("Point") || 
-				geojsonstring.contains("LineString") ||
-				geojsonstring.contains("Polygon") ||
-				geojsonstring.contains("MultiPoint") ||
-				geojsonstring.contains("MultiLineString") ||
-				geojsonstring.contains("MultiPolygon")){
-
-			try {
-				Geometry g = new GeometryJSON().read(geojsonstring);
+			} else if("Point".equals(type) || 
+					"LineString".equals(type) ||
+					"Polygon".equals(type) ||
+					"MultiPoint".equals(type) ||
+					"MultiLineString".equals(type) ||
+					"MultiPolygon".equals(type)){
+				reader = open(file);
+				Geometry g = new GeometryJSON().read(reader);
 
 				return new JTSGeometryBinding(g);
-
-			} catch (IOException e) {
-				LOGGER.info("Could not read single Geometry from inputstream.");
 			}
-
+		} catch (IOException e) {
+			LOGGER.info("Could not read " + type + " from inputstream.");
+		} finally {
+			IOUtils.closeQuietly(reader);
 		}
 		LOGGER.error("Could not parse inputstream, returning null.");
 		return null;
 	}
+	
+	private static File spool(InputStream input) throws IOException {
+		File file = File.createTempFile("wps", ".json");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			IOUtils.copy(input, out);
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return file;
+	}
+	
+	private static Reader open(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+	}
+	
+	/**
+	 * Reads the value of the <code>type</code> member of the root object,
+	 * other members are skipped token by token without being kept.
+	 * 
+	 * @return the type or <code>null</code> if the root object has none
+	 */
+	static String readType(File file) throws IOException {
+		Reader reader = open(file);
+		try {
+			return readType(reader);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+	
+	static String readType(Reader reader) throws IOException {
+		if (nextToken(reader) != '{') {
+			return null;
+		}
+		int c = nextToken(reader);
+		while (c == '"') {
+			String name = readString(reader);
+			if (nextToken(reader) != ':') {
+				return null;
+			}
+			c = nextToken(reader);
+			if ("type".equals(name)) {
+				return c == '"' ? readString(reader) : null;
+			}
+			c = skipValue(reader, c);
+			if (c == ',') {
+				c = nextToken(reader);
+			}
+		}
+		return null;
+	}
+	
+	private static int nextToken(Reader reader) throws IOException {
+		int c;
+		do {
+			c = reader.read();
+		} while (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\uFEFF');
+		return c;
+	}
+	
+	/*
+	 * reads the string following the opening quote, escapes are kept except
+	 * for the quote itself which is sufficient to compare member names
+	 */
+	private static String readString(Reader reader) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		int c;
+		while ((c = reader.read()) != '"') {
+			if (c == -1) {
+				throw new IOException("Unterminated string");
+			}
+			if (c == '\\') {
+				c = reader.read();
+				if (c != '"') {
+					builder.append('\\');
+				}
+			}
+			builder.append((char) c);
+		}
+		return builder.toString();
+	}
+	
+	/*
+	 * skips the value starting with c and returns the token following it
+	 */
+	private static int skipValue(Reader reader, int c) throws IOException {
+		int depth = 0;
+		while (c != -1) {
+			if (c == '"') {
+				skipString(reader);
+			} else if (c == '{' || c == '[') {
+				depth++;
+			} else if (c == '}' || c == ']') {
+				depth--;
+			} else if (depth == 0 && c == ',') {
+				return c;
+			}
+			if (depth < 0) {
+				// end of the enclosing object
+				return c;
+			}
+			c = depth == 0 && (c == '"' || c == '}' || c == ']') ? nextToken(reader) : reader.read();
+		}
+		return c;
+	}
+	
+	private static void skipString(Reader reader) throws IOException {
+		int c;
+		while ((c = reader.read()) != '"') {
+			if (c == -1) {
+				throw new IOException("Unterminated string");
+			}
+			if (c == '\\') {
+				reader.read();
+			}
+		}
+	}
 
 }
@@ -54,23 +54,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.UUID;
 
-import javax.media.jai.JAI;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.DataSourceException;
-import org.geotools.factory.Hints;
-import org.geotools.gce.geotiff.GeoTiffReader;
+import org.n52.wps.io.GTRasterHelper;
 import org.n52.wps.io.data.binding.complex.GTRasterDataBinding;
 
+/**
+ * Parser for GeoTIFFs. The upload is written to a temporary file and the
+ * coverage reads its tiles from that file when they are computed, the file is
+ * deleted when the request completes.
+ */
 public class GeotiffParser extends AbstractParser {
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(GeotiffParser.class);
 
+	private int tileSize;
+
 	public GeotiffParser() {
 		super();
 		supportedIDataTypes.add(GTRasterDataBinding.class);
+		tileSize = GTRasterHelper.getTileSize(properties);
+		GTRasterHelper.configureTileCache(properties);
 	}
 	
 	
@@ -81,7 +86,7 @@ public class GeotiffParser extends AbstractParser {
 		
 		try {
             tempFile = File.createTempFile("tempfile" + UUID.randomUUID(),"tmp");
-            finalizeFiles.add(tempFile); // mark for final delete
+            registerTempFile(tempFile); // mark for final delete
 			FileOutputStream outputStream = new FileOutputStream(tempFile);
 			byte buf[] = new byte[4096];
 			int len;
@@ -105,15 +110,8 @@ public class GeotiffParser extends AbstractParser {
 	}
 	
 	private GTRasterDataBinding parseTiff(File file){
-		JAI.getDefaultInstance().getTileCache().setMemoryCapacity(256*1024*1024);
-		
-		Hints hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER,
-				Boolean.TRUE);
-		GeoTiffReader reader;
 		try {
-			reader = new GeoTiffReader(file, hints);
-			GridCoverage2D coverage = (GridCoverage2D) reader.read(null);
-			return new GTRasterDataBinding(coverage);
+			return GTRasterHelper.readGeotiff(file, tileSize);
 		} catch (DataSourceException e) {
 			LOGGER.error(e.getMessage(), e);
 			throw new RuntimeException(e);
@@ -54,19 +54,26 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.factory.Hints;
-import org.geotools.gce.geotiff.GeoTiffReader;
+import org.n52.wps.io.GTRasterHelper;
 import org.n52.wps.io.IOUtils;
 import org.n52.wps.io.data.binding.complex.GTRasterDataBinding;
 
+/**
+ * Parser for zipped GeoTIFFs. The coverage reads its tiles from the unzipped
+ * file when they are computed, the files are deleted when the request
+ * completes.
+ */
 public class GeotiffZippedParser extends AbstractParser {
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(GeotiffZippedParser.class);
 	
+	private int tileSize;
+	
 	public GeotiffZippedParser() {
 		super();
 		supportedIDataTypes.add(GTRasterDataBinding.class);
+		tileSize = GTRasterHelper.getTileSize(properties);
+		GTRasterHelper.configureTileCache(properties);
 	}
 	
 	@Override
@@ -75,10 +82,10 @@ public class GeotiffZippedParser extends AbstractParser {
 		File zippedFile;
 		try {
 			zippedFile = IOUtils.writeStreamToFile(input, "zip");
-			finalizeFiles.add(zippedFile); // mark for final delete
+			registerTempFile(zippedFile); // mark for final delete
 		
 			List<File> files = IOUtils.unzipAll(zippedFile);
-			finalizeFiles.addAll(files); // mark for final delete
+			registerTempFiles(files); // mark for final delete
 			
 			for(File file : files){
 				if(file.getName().toLowerCase().endsWith(".tif") || file.getName().toLowerCase().endsWith(".tiff")){
@@ -93,13 +100,8 @@ public class GeotiffZippedParser extends AbstractParser {
 	}
 	
 	private GTRasterDataBinding parseTiff(File file){
-		Hints hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER,
-				Boolean.TRUE);
-		GeoTiffReader reader;
 		try {
-			reader = new GeoTiffReader(file, hints);
-			GridCoverage2D coverage = (GridCoverage2D) reader.read(null);
-			return new GTRasterDataBinding(coverage);
+			return GTRasterHelper.readGeotiff(file, tileSize);
 		} catch (Exception e) {
 			LOGGER.error("Exception while trying to create GTRasterDataBinding out of tiff.", e);
 			throw new RuntimeException(e);
@@ -75,7 +75,7 @@ public class KMLParser extends AbstractParser {
 		FileOutputStream fos = null;
 		try{
 			File tempFile = File.createTempFile("kml", "tmp");
-			finalizeFiles.add(tempFile); // mark for final delete
+			registerTempFile(tempFile); // mark for final delete
 			fos = new FileOutputStream(tempFile);
 			int i = stream.read();
 			while(i != -1){
@@ -0,0 +1,161 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.datahandler.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the application schema of a GML document from the schemaLocation
+ * attribute of its root element, like {@link GML2Handler} does, but without
+ * consuming the stream: only the start of the document is read and the stream
+ * is reset afterwards, so it can be handed to the GeoTools parser as is.
+ */
+final class SchemaLocationReader {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SchemaLocationReader.class);
+
+	/**
+	 * the root element has to start within the first 1 MiB of the document
+	 */
+	static final int READ_LIMIT = 1024 * 1024;
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+	}
+
+	private SchemaLocationReader() {
+	}
+
+	/**
+	 * @param stream
+	 *            a stream supporting mark and reset, positioned at the start of
+	 *            the document
+	 * @return the namespace of the application schema and its location as
+	 *         local part, <code>null</code> if the root element does not
+	 *         reference an application schema
+	 * @throws IOException
+	 *             if the stream could not be reset
+	 */
+	static QName read(InputStream stream) throws IOException {
+		if (!stream.markSupported()) {
+			throw new IllegalArgumentException("stream does not support mark");
+		}
+		stream.mark(READ_LIMIT);
+		// the reader must not read beyond the mark
+		BoundedInputStream bounded = new BoundedInputStream(stream, READ_LIMIT);
+		bounded.setPropagateClose(false);
+		try {
+			return read(bounded);
+		} finally {
+			stream.reset();
+		}
+	}
+
+	private static QName read(BoundedInputStream stream) {
+		XMLStreamReader reader = null;
+		try {
+			synchronized (FACTORY) {
+				reader = FACTORY.createXMLStreamReader(stream);
+			}
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				// skip the root of xml-beans fragments
+				if ("xml-fragment".equals(reader.getLocalName())) {
+					continue;
+				}
+				return parseSchemaLocation(reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation"));
+			}
+		} catch (XMLStreamException e) {
+			LOGGER.debug("Unable to read the root element within {} bytes", READ_LIMIT, e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					LOGGER.debug("Unable to close reader", e);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static QName parseSchemaLocation(String schemaLocation) {
+		if (schemaLocation == null) {
+			LOGGER.debug("schemaLocation attribute is not set");
+			return null;
+		}
+		String[] locationStrings = schemaLocation.trim().split("\\s+");
+		if (locationStrings.length % 2 != 0) {
+			LOGGER.debug("schemaLocation does not reference locations correctly, odd number of whitespace separated addresses");
+			return null;
+		}
+		for (int i = 0; i < locationStrings.length; i += 2) {
+			if (!locationStrings[i].equals("http://www.opengis.net/wfs") && !locationStrings[i].equals("http://www.opengis.net/gml") && !locationStrings[i].equals("")) {
+				return new QName(locationStrings[i], locationStrings[i + 1]);
+			}
+		}
+		return null;
+	}
+}
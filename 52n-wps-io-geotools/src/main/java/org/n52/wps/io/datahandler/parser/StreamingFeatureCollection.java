@@ -0,0 +1,385 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.datahandler.parser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.DefaultFeatureCollections;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.geojson.feature.FeatureJSON;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.xml.Configuration;
+import org.geotools.xml.PullParser;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.geometry.BoundingBox;
+
+/**
+ * Feature collection reading its features from a GML or GeoJSON document while
+ * they are iterated. Each iterator parses the document again, GML with a
+ * {@link PullParser} and GeoJSON with {@link FeatureJSON#streamFeatureCollection(Object)},
+ * so only the current feature is held in memory. Size and bounds are computed
+ * by one additional pass on first request.
+ * 
+ * The document is spooled to a file the collection owns, the file is deleted
+ * by {@link #dispose()}.
+ */
+public class StreamingFeatureCollection extends AbstractFeatureCollection {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final ReaderFactory readerFactory;
+	private final Set<FeatureReader> readers = new HashSet<FeatureReader>();
+
+	private int size = -1;
+	private ReferencedEnvelope bounds;
+
+	private StreamingFeatureCollection(File file, ReaderFactory readerFactory, SimpleFeatureType type) {
+		super(type);
+		this.file = file;
+		this.readerFactory = readerFactory;
+	}
+
+	/**
+	 * @param stream
+	 *            the GML document
+	 * @param configuration
+	 *            the configuration of the document's schema
+	 * @return a streaming collection, or an empty collection if the document
+	 *         contains no features
+	 * @throws IOException
+	 *             if the document could not be spooled
+	 */
+	public static SimpleFeatureCollection create(InputStream stream, Configuration configuration) throws IOException {
+		File file = File.createTempFile("wps", ".gml");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			IOUtils.copy(stream, out);
+			out.close();
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return create(file, new GMLReaderFactory(configuration));
+	}
+
+	/**
+	 * @param file
+	 *            a GeoJSON FeatureCollection in UTF-8, the collection takes
+	 *            ownership of the file and deletes it on {@link #dispose()}
+	 * @return a streaming collection, or an empty collection if the document
+	 *         contains no features
+	 * @throws IOException
+	 *             if the document could not be read
+	 */
+	public static SimpleFeatureCollection createGeoJSON(File file) throws IOException {
+		return create(file, new GeoJSONReaderFactory());
+	}
+
+	private static SimpleFeatureCollection create(File file, ReaderFactory readerFactory) throws IOException {
+		try {
+			// the type of the collection is the type of the first feature
+			FeatureReader reader = readerFactory.open(file);
+			try {
+				if (reader.hasNext()) {
+					return new StreamingFeatureCollection(file, readerFactory, reader.next().getFeatureType());
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} catch (RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+		file.delete();
+		return DefaultFeatureCollections.newCollection();
+	}
+
+	@Override
+	protected Iterator<SimpleFeature> openIterator() {
+		try {
+			FeatureReader reader = readerFactory.open(file);
+			synchronized (readers) {
+				readers.add(reader);
+			}
+			return reader;
+		} catch (IOException e) {
+			throw new RuntimeException("Error while reading " + file, e);
+		}
+	}
+
+	@Override
+	protected void closeIterator(Iterator<SimpleFeature> close) {
+		FeatureReader reader = (FeatureReader) close;
+		reader.close();
+		synchronized (readers) {
+			readers.remove(reader);
+		}
+	}
+
+	@Override
+	public synchronized int size() {
+		if (size < 0) {
+			computeSizeAndBounds();
+		}
+		return size;
+	}
+
+	@Override
+	public synchronized ReferencedEnvelope getBounds() {
+		if (bounds == null) {
+			computeSizeAndBounds();
+		}
+		return bounds;
+	}
+
+	private void computeSizeAndBounds() {
+		int count = 0;
+		ReferencedEnvelope envelope = new ReferencedEnvelope(getSchema().getCoordinateReferenceSystem());
+		Iterator<SimpleFeature> iterator = openIterator();
+		try {
+			while (iterator.hasNext()) {
+				BoundingBox featureBounds = iterator.next().getBounds();
+				if (featureBounds != null && !featureBounds.isEmpty()) {
+					envelope.include(featureBounds);
+				}
+				count++;
+			}
+		} finally {
+			closeIterator(iterator);
+		}
+		size = count;
+		bounds = envelope;
+	}
+
+	/**
+	 * Closes all iterators that are still open and deletes the spooled
+	 * document.
+	 */
+	public void dispose() {
+		synchronized (readers) {
+			for (FeatureReader reader : readers) {
+				reader.close();
+			}
+			readers.clear();
+		}
+		file.delete();
+	}
+
+	private interface ReaderFactory {
+
+		FeatureReader open(File file) throws IOException;
+	}
+
+	private static final class GMLReaderFactory implements ReaderFactory {
+
+		private final Configuration configuration;
+
+		private GMLReaderFactory(Configuration configuration) {
+			this.configuration = configuration;
+		}
+
+		@Override
+		public FeatureReader open(File file) throws IOException {
+			return new GMLFeatureReader(file, configuration);
+		}
+	}
+
+	private static final class GeoJSONReaderFactory implements ReaderFactory {
+
+		@Override
+		public FeatureReader open(File file) throws IOException {
+			return new GeoJSONFeatureReader(file);
+		}
+	}
+
+	/**
+	 * Iterates the features of a spooled document, the document is closed
+	 * once all features have been read.
+	 */
+	private abstract static class FeatureReader implements Iterator<SimpleFeature> {
+
+		protected final InputStream input;
+		private SimpleFeature next;
+		private boolean done;
+
+		protected FeatureReader(File file) throws IOException {
+			this.input = new BufferedInputStream(new FileInputStream(file));
+		}
+
+		/**
+		 * @return the next feature of the document, <code>null</code> at its
+		 *         end
+		 */
+		protected abstract SimpleFeature read() throws Exception;
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && !done) {
+				try {
+					next = read();
+				} catch (Exception e) {
+					close();
+					throw new RuntimeException("Exception while parsing streamed features.", e);
+				}
+				if (next == null) {
+					close();
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public SimpleFeature next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			SimpleFeature feature = next;
+			next = null;
+			return feature;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		protected void close() {
+			done = true;
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private static final class GMLFeatureReader extends FeatureReader {
+
+		private final PullParser parser;
+
+		private GMLFeatureReader(File file, Configuration configuration) throws IOException {
+			super(file);
+			this.parser = new PullParser(configuration, input, SimpleFeature.class);
+		}
+
+		@Override
+		protected SimpleFeature read() throws Exception {
+			Object parsed;
+			while ((parsed = parser.parse()) != null) {
+				SimpleFeature feature = (SimpleFeature) parsed;
+				if (!isCollection(feature)) {
+					GML3BasicParser.setDefaultGeometry(feature);
+					return feature;
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * collections of application schemas may be parsed as features, their
+		 * members have been returned already
+		 */
+		private static boolean isCollection(SimpleFeature feature) {
+			Collection<? extends Property> values = feature.getValue();
+			for (Property value : values) {
+				if (value.getType().getBinding().isAssignableFrom(FeatureCollection.class)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class GeoJSONFeatureReader extends FeatureReader {
+
+		private final FeatureIterator<SimpleFeature> features;
+
+		private GeoJSONFeatureReader(File file) throws IOException {
+			super(file);
+			try {
+				this.features = new FeatureJSON().streamFeatureCollection(new InputStreamReader(input, UTF8));
+			} catch (IOException e) {
+				IOUtils.closeQuietly(input);
+				throw e;
+			}
+		}
+
+		@Override
+		protected SimpleFeature read() {
+			return features.hasNext() ? features.next() : null;
+		}
+
+		@Override
+		protected void close() {
+			features.close();
+			super.close();
+		}
+	}
+}
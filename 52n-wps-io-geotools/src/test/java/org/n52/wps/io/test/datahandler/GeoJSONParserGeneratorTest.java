@@ -48,6 +48,7 @@
 package org.n52.wps.io.test.datahandler;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -128,6 +129,34 @@ public class GeoJSONParserGeneratorTest extends AbstractTestCase<GeoJSONGenerato
 		
 	}
 	
+	@Test
+	public void testWriteToGeoJSONPoint() throws IOException {
+		
+		if(!isDataHandlerActive()){
+			return;
+		}
+		
+		String inputGeoJSONPointString = "{\"type\":\"Point\",\"coordinates\":[100,0.0]}";
+		
+		InputStream in = new ByteArrayInputStream(inputGeoJSONPointString.getBytes());
+		
+		GeoJSONParser theParser = new GeoJSONParser();
+
+		String mimetype = theParser.getSupportedFormats()[0];
+		
+		JTSGeometryBinding theBinding = (JTSGeometryBinding) theParser.parse(in, mimetype,
+				null);
+		
+		assertTrue(theBinding.getPayload() != null);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		dataHandler.writeTo(theBinding, out, mimetype, null);
+		
+		assertTrue(inputGeoJSONPointString.equals(out.toString()));
+		
+	}
+	
 	@Test
 	public void testParseWriteGeoJSONFeatureCollection(){
 		
@@ -262,6 +291,42 @@ public class GeoJSONParserGeneratorTest extends AbstractTestCase<GeoJSONGenerato
 		
 	}	
 	
+	@Test
+	public void testParseGeoJSONTypeAfterMembers() throws IOException {
+		
+		// the type member does not need to come first, property values must not be taken for the type
+		String featureString = "{\"properties\":{\"name\":\"FeatureCollection\"}, \"geometry\":{\"coordinates\":[100,0.0], \"type\":\"Point\"}, \"type\":\"Feature\"}";
+		
+		InputStream in = new ByteArrayInputStream(featureString.getBytes());
+		
+		GeoJSONParser theParser = new GeoJSONParser();
+
+		String mimetype = theParser.getSupportedFormats()[0];
+		
+		IData theBinding = theParser.parse(in, mimetype,
+				null);
+		
+		if(!(theBinding instanceof GTVectorDataBinding)){
+			fail();
+		}
+		
+		assertTrue(((GTVectorDataBinding)theBinding).getPayload().size() == 1);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		dataHandler.writeTo(theBinding, out, mimetype, null);
+		
+		IData theGeneratedParsedBinding = theParser.parse(new ByteArrayInputStream(out.toByteArray()), mimetype,
+				null);
+		
+		if(!(theGeneratedParsedBinding instanceof GTVectorDataBinding)){
+			fail();
+		}
+		
+		assertTrue(((GTVectorDataBinding)theGeneratedParsedBinding).getPayload().size() == 1);
+		
+	}	
+	
 	@Override
 	protected void initializeDataHandler() {
 		dataHandler = new GeoJSONGenerator();		
@@ -0,0 +1,185 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.test.datahandler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.xmlbeans.XmlException;
+import org.geotools.feature.FeatureIterator;
+import org.n52.wps.commons.WPSConfigTestUtil;
+import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
+import org.n52.wps.io.datahandler.generator.GML3BasicGenerator;
+import org.n52.wps.io.datahandler.generator.GTBinPackedFeatureGenerator;
+import org.n52.wps.io.datahandler.generator.GTBinZippedSHPGenerator;
+import org.n52.wps.io.datahandler.parser.GML3BasicParser;
+import org.n52.wps.io.datahandler.parser.GTBinPackedFeatureParser;
+import org.n52.wps.io.datahandler.parser.GTBinZippedSHPParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares round trips of a feature collection through the packed feature
+ * format, GML 3 and zipped shapefiles. Each round trip generates the encoded
+ * stream, parses it again and iterates all parsed features. Not run by
+ * surefire, start it from the test classpath with the zipped shapefile to use
+ * and the number of iterations as arguments. The timings are logged.
+ */
+public class PackedFeatureBenchmark {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PackedFeatureBenchmark.class);
+
+	private static final String GML3_MIMETYPE = "text/xml; subtype=gml/3.1.1";
+	private static final String GML3_SCHEMA = "http://schemas.opengis.net/gml/3.1.1/base/feature.xsd";
+
+	private abstract static class RoundTrip {
+
+		private final String name;
+
+		RoundTrip(String name) {
+			this.name = name;
+		}
+
+		abstract InputStream generate(GTVectorDataBinding data) throws IOException;
+
+		abstract GTVectorDataBinding parse(InputStream input);
+	}
+
+	public static void main(String[] args) throws IOException, XmlException {
+		String path = args.length > 0 ? args[0] : "52n-wps-io-geotools/src/test/resources/tasmania_roads.zip";
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		WPSConfigTestUtil.generateMockConfig(PackedFeatureBenchmark.class, "/org/n52/wps/io/test/datahandler/generator/wps_config.xml");
+
+		InputStream input = new FileInputStream(new File(path));
+		GTVectorDataBinding data = new GTBinZippedSHPParser().parse(input, "application/x-zipped-shp", null);
+
+		RoundTrip[] roundTrips = {
+				new RoundTrip("packed") {
+					@Override
+					InputStream generate(GTVectorDataBinding data) throws IOException {
+						return new GTBinPackedFeatureGenerator().generateStream(data, "application/x-packed-features", null);
+					}
+
+					@Override
+					GTVectorDataBinding parse(InputStream input) {
+						return new GTBinPackedFeatureParser().parse(input, "application/x-packed-features", null);
+					}
+				},
+				new RoundTrip("GML 3") {
+					@Override
+					InputStream generate(GTVectorDataBinding data) throws IOException {
+						return new GML3BasicGenerator().generateStream(data, GML3_MIMETYPE, GML3_SCHEMA);
+					}
+
+					@Override
+					GTVectorDataBinding parse(InputStream input) {
+						return new GML3BasicParser().parse(input, GML3_MIMETYPE, GML3_SCHEMA);
+					}
+				},
+				new RoundTrip("zipped shapefile") {
+					@Override
+					InputStream generate(GTVectorDataBinding data) throws IOException {
+						return new GTBinZippedSHPGenerator().generateStream(data, "application/x-zipped-shp", null);
+					}
+
+					@Override
+					GTVectorDataBinding parse(InputStream input) {
+						return new GTBinZippedSHPParser().parse(input, "application/x-zipped-shp", null);
+					}
+				} };
+
+		LOGGER.info("{} features, {} iterations", data.getPayload().size(), iterations);
+		for (RoundTrip roundTrip : roundTrips) {
+			// the first round trip warms up the JIT and is not measured
+			run(roundTrip, data);
+			long generate = 0;
+			long parse = 0;
+			long bytes = 0;
+			for (int i = 0; i < iterations; i++) {
+				long[] result = run(roundTrip, data);
+				generate += result[0];
+				parse += result[1];
+				bytes = result[2];
+			}
+			LOGGER.info(String.format("%-18s generate %8.2f ms  parse %8.2f ms  %10d bytes",
+					roundTrip.name, generate / 1e6 / iterations, parse / 1e6 / iterations, bytes));
+		}
+	}
+
+	/**
+	 * @return the nanoseconds needed to generate and to parse and the number
+	 *         of encoded bytes
+	 */
+	private static long[] run(RoundTrip roundTrip, GTVectorDataBinding data) throws IOException {
+		long start = System.nanoTime();
+		InputStream generated = roundTrip.generate(data);
+		long generatedAt = System.nanoTime();
+
+		CountingInputStream counting = new CountingInputStream(generated);
+		GTVectorDataBinding parsed = roundTrip.parse(counting);
+		int count = 0;
+		FeatureIterator<?> features = parsed.getPayload().features();
+		try {
+			while (features.hasNext()) {
+				features.next();
+				count++;
+			}
+		} finally {
+			features.close();
+		}
+		long end = System.nanoTime();
+		if (count != data.getPayload().size()) {
+			throw new IllegalStateException(roundTrip.name + " round trip returned " + count + " features");
+		}
+		return new long[] { generatedAt - start, end - generatedAt, counting.getByteCount() };
+	}
+}
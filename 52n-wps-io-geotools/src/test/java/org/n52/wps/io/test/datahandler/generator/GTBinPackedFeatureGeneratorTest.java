@@ -0,0 +1,127 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * As an exception to the terms of the GPL, you may copy, modify,
+ * propagate, and distribute a work formed by combining 52°North WPS
+ * GeoTools Modules with the Eclipse Libraries, or a work derivative of
+ * such a combination, even if such copying, modification, propagation, or
+ * distribution would otherwise violate the terms of the GPL. Nothing in
+ * this exception exempts you from complying with the GPL in all respects
+ * for all of the code used other than the Eclipse Libraries. You may
+ * include this exception and its grant of permissions when you distribute
+ * 52°North WPS GeoTools Modules. Inclusion of this notice with such a
+ * distribution constitutes a grant of such permissions. If you do not wish
+ * to grant these permissions, remove this paragraph from your
+ * distribution. "52°North WPS GeoTools Modules" means the 52°North WPS
+ * modules using GeoTools functionality - software licensed under version 2
+ * or any later version of the GPL, or a work based on such software and
+ * licensed under the GPL. "Eclipse Libraries" means Eclipse Modeling
+ * Framework Project and XML Schema Definition software distributed by the
+ * Eclipse Foundation and licensed under the Eclipse Public License Version
+ * 1.0 ("EPL"), or a work based on such software and licensed under the EPL.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.io.test.datahandler.generator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.n52.wps.io.binary.PackedFeatureCollection;
+import org.n52.wps.io.data.binding.complex.GTVectorDataBinding;
+import org.n52.wps.io.datahandler.generator.GTBinPackedFeatureGenerator;
+import org.n52.wps.io.datahandler.parser.GTBinPackedFeatureParser;
+import org.n52.wps.io.datahandler.parser.GTBinZippedSHPParser;
+import org.n52.wps.io.test.datahandler.AbstractTestCase;
+
+public class GTBinPackedFeatureGeneratorTest extends AbstractTestCase<GTBinPackedFeatureGenerator> {
+
+	public void testParser() throws IOException {
+
+		if(!isDataHandlerActive()){
+			return;
+		}
+
+		String testFilePath = projectRoot + "/52n-wps-io-geotools/src/test/resources/tasmania_roads.zip";
+
+		try {
+			testFilePath = URLDecoder.decode(testFilePath, "UTF-8");
+		} catch (UnsupportedEncodingException e1) {
+			fail(e1.getMessage());
+		}
+
+		InputStream input = null;
+
+		try {
+			input = new FileInputStream(new File(testFilePath));
+		} catch (FileNotFoundException e) {
+			fail(e.getMessage());
+		}
+
+		GTVectorDataBinding theBinding = new GTBinZippedSHPParser().parse(input, "application/x-zipped-shp", null);
+		SimpleFeatureCollection original = (SimpleFeatureCollection) theBinding.getPayload();
+
+		GTBinPackedFeatureParser theParser = new GTBinPackedFeatureParser();
+
+		String[] mimetypes = theParser.getSupportedFormats();
+
+		InputStream generatedStream = dataHandler.generateStream(theBinding, mimetypes[0], null);
+
+		GTVectorDataBinding parsedGeneratedBinding = theParser.parse(generatedStream, mimetypes[0], null);
+
+		PackedFeatureCollection packed = (PackedFeatureCollection) parsedGeneratedBinding.getPayload();
+		assertEquals(original.size(), packed.size());
+		assertEquals(original.getSchema().getAttributeCount(), packed.getSchema().getAttributeCount());
+		assertTrue(original.getBounds().boundsEquals2D(packed.getBounds(), 1e-9));
+
+		// a query with the full extent reads every feature through the index
+		ReferencedEnvelope bounds = packed.getBounds();
+		assertEquals(original.size(), packed.query(bounds).size());
+		// a query outside of the extent reads none
+		bounds.translate(bounds.getWidth() * 2, 0);
+		assertTrue(packed.query(bounds).isEmpty());
+
+		InputStream generatedStreamBase64 = dataHandler.generateBase64Stream(theBinding, mimetypes[0], null);
+
+		GTVectorDataBinding parsedGeneratedBindingBase64 = (GTVectorDataBinding) theParser.parseBase64(generatedStreamBase64, mimetypes[0], null);
+
+		assertEquals(original.size(), parsedGeneratedBindingBase64.getPayload().size());
+
+	}
+
+	@Override
+	protected void initializeDataHandler() {
+		dataHandler = new GTBinPackedFeatureGenerator();
+	}
+
+}
@@ -55,6 +55,14 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
 import org.n52.wps.io.data.binding.complex.GTRasterDataBinding;
 import org.n52.wps.io.datahandler.generator.GeotiffGenerator;
 import org.n52.wps.io.datahandler.parser.GeotiffParser;
@@ -115,6 +123,43 @@ public class GeotiffGeneratorTest extends AbstractTestCase<GeotiffGenerator> {
 
 	}
 
+	public void testCloudOptimizedGenerator() throws IOException {
+
+		if(!isDataHandlerActive()){
+			return;
+		}
+
+		String testFilePath = URLDecoder.decode(projectRoot
+				+ "/52n-wps-io-geotools/src/test/resources/6_UTM2GTIF.TIF", "UTF-8");
+
+		GeotiffParser theParser = new GeotiffParser();
+
+		GTRasterDataBinding theBinding = theParser.parse(new FileInputStream(new File(testFilePath)), "image/tiff", null);
+		GridCoverage2D original = theBinding.getPayload();
+
+		InputStream resultStream = dataHandler.generateStream(theBinding, "image/tiff; application=geotiff; profile=cloud-optimized", null);
+		File resultFile = File.createTempFile("cog", ".tif");
+		resultFile.deleteOnExit();
+		FileUtils.copyInputStreamToFile(resultStream, resultFile);
+
+		// 929 rows in tiles of 512 need one overview
+		ImageInputStream imageStream = ImageIO.createImageInputStream(resultFile);
+		try {
+			ImageReader reader = ImageIO.getImageReaders(imageStream).next();
+			reader.setInput(imageStream);
+			assertEquals(2, reader.getNumImages(true));
+			assertEquals(512, reader.getTileWidth(0));
+			reader.dispose();
+		} finally {
+			imageStream.close();
+		}
+
+		GridCoverage2D result = theParser.parse(new FileInputStream(resultFile), "image/tiff", null).getPayload();
+		assertEquals(original.getGridGeometry().getGridRange2D(), result.getGridGeometry().getGridRange2D());
+		assertTrue(new ReferencedEnvelope(original.getEnvelope2D()).boundsEquals2D(result.getEnvelope2D(), 1e-6));
+		assertTrue(CRS.equalsIgnoreMetadata(original.getCoordinateReferenceSystem2D(), result.getCoordinateReferenceSystem2D()));
+	}
+
 	@Override
 	protected void initializeDataHandler() {
 		dataHandler = new GeotiffGenerator();
@@ -38,6 +38,7 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.n52.wps.io.IStreamingGenerator;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.complex.ArrayDataBinding;
 
@@ -46,7 +47,7 @@ import org.n52.wps.io.data.binding.complex.ArrayDataBinding;
  * @author Bastian Schaeffer; Matthias Mueller, TU Dresden
  *
  */
-public class WCPSGenerator extends AbstractGenerator {
+public class WCPSGenerator extends AbstractGenerator implements IStreamingGenerator {
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(WCPSGenerator.class);
 
@@ -66,7 +67,7 @@ public class WCPSGenerator extends AbstractGenerator {
 		List<byte[]> wcpsoutput = ((ArrayDataBinding)data).getPayload();
 		
 		File tempFile = File.createTempFile("wcps", ".bin");
-		this.finalizeFiles.add(tempFile);
+		registerTempFile(tempFile);
 		FileOutputStream fos = new FileOutputStream(tempFile);
 		
 		for (byte[] currentArray : wcpsoutput){
@@ -81,6 +82,16 @@ public class WCPSGenerator extends AbstractGenerator {
 		return stream;
 	}
 
+	@Override
+	public void writeTo(IData data, OutputStream os, String mimeType, String schema) throws IOException {
+		
+		List<byte[]> wcpsoutput = ((ArrayDataBinding)data).getPayload();
+		
+		for (byte[] currentArray : wcpsoutput){
+			os.write(currentArray);
+		}
+	}
+
 	public void writeToStream(IData outputData, OutputStream outputStream) {
 		
 		
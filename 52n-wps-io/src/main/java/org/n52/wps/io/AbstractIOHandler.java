@@ -16,11 +16,15 @@
  */
 package org.n52.wps.io;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.n52.wps.FormatDocument.Format;
 import org.n52.wps.PropertyDocument.Property;
+import org.n52.wps.commons.context.ExecutionContext;
+import org.n52.wps.commons.context.ExecutionContextFactory;
 
 
 /**
@@ -46,6 +50,32 @@ public abstract class AbstractIOHandler implements IOHandler {
 		this.supportedIDataTypes = new ArrayList<Class<?>>();
 	}
 	
+	/**
+	 * Marks a temporary file or directory for deletion once the current
+	 * request completed. Outside of a request the file is deleted on exit.
+	 * 
+	 * @param file the temporary file or directory
+	 * @return the file
+	 */
+	protected static File registerTempFile(File file) {
+		ExecutionContext context = ExecutionContextFactory.getContext(false);
+		if (context != null) {
+			context.getTempFileManager().register(file);
+		} else if (file != null) {
+			file.deleteOnExit();
+		}
+		return file;
+	}
+	
+	/**
+	 * @see #registerTempFile(File)
+	 */
+	protected static void registerTempFiles(Collection<File> files) {
+		for (File file : files) {
+			registerTempFile(file);
+		}
+	}
+	
 	/**
 	 * Returns true if the given format is supported, else false.
 	 */ 
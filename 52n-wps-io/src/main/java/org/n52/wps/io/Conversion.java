@@ -0,0 +1,78 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.n52.wps.io.data.IData;
+
+/**
+ * Converts data of one binding into another by generating it in a format and
+ * parsing it again.
+ */
+final class Conversion {
+
+	private final IGenerator generator;
+	private final IParser parser;
+	private final String mimeType;
+	private final String schema;
+	private final Class<?> source;
+	private final Class<?> target;
+
+	Conversion(IGenerator generator, IParser parser, String mimeType, String schema, Class<?> source, Class<?> target) {
+		this.generator = generator;
+		this.parser = parser;
+		this.mimeType = mimeType;
+		this.schema = schema;
+		this.source = source;
+		this.target = target;
+	}
+
+	IData apply(IData data) {
+		InputStream stream = null;
+		try {
+			stream = generator.generateStream(data, mimeType, schema);
+			return parser.parse(stream, mimeType, schema);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to convert " + source.getName() + " to " + target.getName() + " using " + mimeType, e);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+	}
+
+	static IData apply(IData data, Iterable<Conversion> conversions) {
+		for (Conversion conversion : conversions) {
+			data = conversion.apply(data);
+		}
+		return data;
+	}
+
+	Class<?> getSource() {
+		return source;
+	}
+
+	Class<?> getTarget() {
+		return target;
+	}
+
+	@Override
+	public String toString() {
+		return source.getSimpleName() + " -> " + mimeType + " -> " + target.getSimpleName();
+	}
+}
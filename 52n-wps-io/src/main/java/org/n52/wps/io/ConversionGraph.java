@@ -0,0 +1,158 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.n52.wps.FormatDocument.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Graph of the data bindings that can be converted into each other by a
+ * generator and a parser sharing a format. The shortest conversion paths
+ * between all bindings are computed once, the graph is rebuilt after parsers
+ * or generators have been reloaded.
+ */
+final class ConversionGraph {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConversionGraph.class);
+
+	/**
+	 * every conversion serializes the data once, longer paths are not used
+	 */
+	static final int MAX_CONVERSIONS = 2;
+
+	private static ConversionGraph instance;
+
+	// source binding -> target binding -> path
+	private final Map<Class<?>, Map<Class<?>, List<Conversion>>> paths;
+
+	ConversionGraph(List<IParser> parsers, List<IGenerator> generators) {
+		Map<Class<?>, List<Conversion>> edges = createEdges(parsers, generators);
+		paths = new LinkedHashMap<Class<?>, Map<Class<?>, List<Conversion>>>();
+		for (Class<?> source : edges.keySet()) {
+			paths.put(source, findPaths(source, edges));
+		}
+		LOGGER.debug("Conversions between data bindings: {}", paths);
+	}
+
+	static synchronized ConversionGraph getInstance() {
+		if (instance == null) {
+			instance = new ConversionGraph(
+					ParserFactory.getInstance().getAllParsers(),
+					GeneratorFactory.getInstance().getAllGenerators());
+		}
+		return instance;
+	}
+
+	static synchronized void invalidate() {
+		instance = null;
+	}
+
+	/**
+	 * @return the conversions from source to target binding, <code>null</code>
+	 *         if the source cannot be converted to the target
+	 */
+	List<Conversion> getPath(Class<?> source, Class<?> target) {
+		Map<Class<?>, List<Conversion>> targets = paths.get(source);
+		return targets == null ? null : targets.get(target);
+	}
+
+	Set<Class<?>> getSources() {
+		return Collections.unmodifiableSet(paths.keySet());
+	}
+
+	private static Map<Class<?>, List<Conversion>> createEdges(List<IParser> parsers, List<IGenerator> generators) {
+		Map<Class<?>, List<Conversion>> edges = new LinkedHashMap<Class<?>, List<Conversion>>();
+		for (IGenerator generator : generators) {
+			Format[] formats = generator.getSupportedFullFormats();
+			if (formats == null) {
+				continue;
+			}
+			for (Format format : formats) {
+				String encoding = format.getEncoding();
+				// data is passed on as generated, encoded formats are skipped
+				if (encoding != null && !encoding.isEmpty() && !encoding.equalsIgnoreCase(IOHandler.DEFAULT_ENCODING)) {
+					continue;
+				}
+				String mimeType = format.getMimetype();
+				String schema = format.getSchema();
+				for (IParser parser : parsers) {
+					if (!parser.isSupportedFormat(mimeType) || !parser.isSupportedSchema(schema) || !parser.isSupportedEncoding(IOHandler.DEFAULT_ENCODING)) {
+						continue;
+					}
+					for (Class<?> source : generator.getSupportedDataBindings()) {
+						for (Class<?> target : parser.getSupportedDataBindings()) {
+							if (!source.equals(target)) {
+								addEdge(edges, new Conversion(generator, parser, mimeType, schema, source, target));
+							}
+						}
+					}
+				}
+			}
+		}
+		return edges;
+	}
+
+	private static void addEdge(Map<Class<?>, List<Conversion>> edges, Conversion conversion) {
+		List<Conversion> outgoing = edges.get(conversion.getSource());
+		if (outgoing == null) {
+			outgoing = new ArrayList<Conversion>();
+			edges.put(conversion.getSource(), outgoing);
+		}
+		// the first registered generator and parser are used
+		for (Conversion existing : outgoing) {
+			if (existing.getTarget().equals(conversion.getTarget())) {
+				return;
+			}
+		}
+		outgoing.add(conversion);
+	}
+
+	// breadth first, so every path found is a shortest one
+	private static Map<Class<?>, List<Conversion>> findPaths(Class<?> source, Map<Class<?>, List<Conversion>> edges) {
+		Map<Class<?>, List<Conversion>> found = new HashMap<Class<?>, List<Conversion>>();
+		LinkedList<Class<?>> queue = new LinkedList<Class<?>>();
+		found.put(source, Collections.<Conversion>emptyList());
+		queue.add(source);
+		while (!queue.isEmpty()) {
+			Class<?> current = queue.removeFirst();
+			List<Conversion> path = found.get(current);
+			if (path.size() >= MAX_CONVERSIONS || !edges.containsKey(current)) {
+				continue;
+			}
+			for (Conversion conversion : edges.get(current)) {
+				if (!found.containsKey(conversion.getTarget())) {
+					List<Conversion> extended = new ArrayList<Conversion>(path);
+					extended.add(conversion);
+					found.put(conversion.getTarget(), Collections.unmodifiableList(extended));
+					queue.add(conversion.getTarget());
+				}
+			}
+		}
+		found.remove(source);
+		return found;
+	}
+}
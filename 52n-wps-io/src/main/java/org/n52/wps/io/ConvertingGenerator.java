@@ -0,0 +1,91 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.n52.wps.FormatDocument.Format;
+import org.n52.wps.io.data.IData;
+
+/**
+ * Generator for a binding no registered generator supports directly: the data
+ * is converted along a path of the {@link ConversionGraph} into a binding the
+ * generator supports.
+ */
+final class ConvertingGenerator implements IGenerator {
+
+	private final IGenerator generator;
+	private final List<Conversion> conversions;
+	private final Class<?> binding;
+
+	ConvertingGenerator(IGenerator generator, List<Conversion> conversions, Class<?> binding) {
+		this.generator = generator;
+		this.conversions = conversions;
+		this.binding = binding;
+	}
+
+	public InputStream generateStream(IData data, String mimeType, String schema) throws IOException {
+		return generator.generateStream(Conversion.apply(data, conversions), mimeType, schema);
+	}
+
+	public InputStream generateBase64Stream(IData data, String mimeType, String schema) throws IOException {
+		return generator.generateBase64Stream(Conversion.apply(data, conversions), mimeType, schema);
+	}
+
+	public boolean isSupportedSchema(String schema) {
+		return generator.isSupportedSchema(schema);
+	}
+
+	public boolean isSupportedFormat(String format) {
+		return generator.isSupportedFormat(format);
+	}
+
+	public boolean isSupportedEncoding(String encoding) {
+		return generator.isSupportedEncoding(encoding);
+	}
+
+	public boolean isSupportedDataBinding(Class<?> clazz) {
+		return binding.equals(clazz);
+	}
+
+	public String[] getSupportedSchemas() {
+		return generator.getSupportedSchemas();
+	}
+
+	public String[] getSupportedFormats() {
+		return generator.getSupportedFormats();
+	}
+
+	public String[] getSupportedEncodings() {
+		return generator.getSupportedEncodings();
+	}
+
+	public Format[] getSupportedFullFormats() {
+		return generator.getSupportedFullFormats();
+	}
+
+	public Class<?>[] getSupportedDataBindings() {
+		return new Class<?>[] { binding };
+	}
+
+	@Override
+	public String toString() {
+		return conversions + " " + generator;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.io.InputStream;
+import java.util.List;
+
+import org.n52.wps.FormatDocument.Format;
+import org.n52.wps.io.data.IData;
+
+/**
+ * Parser for a binding no registered parser supports directly: the input is
+ * parsed into another binding and converted along a path of the
+ * {@link ConversionGraph}.
+ */
+final class ConvertingParser implements IParser {
+
+	private final IParser parser;
+	private final List<Conversion> conversions;
+	private final Class<?> binding;
+
+	ConvertingParser(IParser parser, List<Conversion> conversions, Class<?> binding) {
+		this.parser = parser;
+		this.conversions = conversions;
+		this.binding = binding;
+	}
+
+	public IData parse(InputStream input, String mimeType, String schema) {
+		return Conversion.apply(parser.parse(input, mimeType, schema), conversions);
+	}
+
+	public IData parseBase64(InputStream input, String mimeType, String schema) {
+		return Conversion.apply(parser.parseBase64(input, mimeType, schema), conversions);
+	}
+
+	public boolean isSupportedSchema(String schema) {
+		return parser.isSupportedSchema(schema);
+	}
+
+	public boolean isSupportedFormat(String format) {
+		return parser.isSupportedFormat(format);
+	}
+
+	public boolean isSupportedEncoding(String encoding) {
+		return parser.isSupportedEncoding(encoding);
+	}
+
+	public boolean isSupportedDataBinding(Class<?> clazz) {
+		return binding.equals(clazz);
+	}
+
+	public String[] getSupportedSchemas() {
+		return parser.getSupportedSchemas();
+	}
+
+	public String[] getSupportedFormats() {
+		return parser.getSupportedFormats();
+	}
+
+	public String[] getSupportedEncodings() {
+		return parser.getSupportedEncodings();
+	}
+
+	public Format[] getSupportedFullFormats() {
+		return parser.getSupportedFullFormats();
+	}
+
+	public Class<?>[] getSupportedDataBindings() {
+		return new Class<?>[] { binding };
+	}
+
+	@Override
+	public String toString() {
+		return parser + " " + conversions;
+	}
+}
@@ -19,7 +19,10 @@ package org.n52.wps.io;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.n52.wps.GeneratorDocument.Generator;
 import org.n52.wps.PropertyDocument.Property;
@@ -27,13 +30,20 @@ import org.n52.wps.commons.WPSConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
+
 public class GeneratorFactory {
 	
 	public static String PROPERTY_NAME_REGISTERED_GENERATORS = "registeredGenerators";
 	private static GeneratorFactory factory;
 	private static Logger LOGGER = LoggerFactory.getLogger(GeneratorFactory.class);
 	
-	private List<IGenerator> registeredGenerators;
+	private static final int MAX_LOOKUPS = 1024;
+	
+	private volatile List<IGenerator> registeredGenerators;
+	private volatile IOHandlerIndex<IGenerator> index;
+	// (binding, schema, format, encoding) -> generator, including failed lookups
+	private volatile ConcurrentMap<List<Object>, Optional<IGenerator>> lookups;
 
 	/**
 	 * This factory provides all available {@link AbstractXMLGenerator} to WPS.
@@ -63,7 +73,7 @@ public class GeneratorFactory {
 	}
 
     private void loadAllGenerators(Generator[] generators){
-        registeredGenerators = new ArrayList<IGenerator>();
+        List<IGenerator> registeredGenerators = new ArrayList<IGenerator>();
 		for(Generator currentGenerator : generators) {
 
 			// remove inactive properties
@@ -95,6 +105,10 @@ public class GeneratorFactory {
 				registeredGenerators.add(generator);
 			}
 		}
+		this.registeredGenerators = registeredGenerators;
+		this.index = new IOHandlerIndex<IGenerator>(registeredGenerators);
+		this.lookups = new ConcurrentHashMap<List<Object>, Optional<IGenerator>>();
+		ConversionGraph.invalidate();
     }
 
 	public static GeneratorFactory getInstance() {
@@ -112,18 +126,48 @@ public class GeneratorFactory {
 			encoding = IOHandler.DEFAULT_ENCODING;
 		}
 		
-		for(IGenerator generator : registeredGenerators) {
-			Class<?>[] supportedBindings = generator.getSupportedDataBindings();
-			for(Class<?> clazz : supportedBindings){
-				if(clazz.equals(outputInternalClass)) {
-					if(generator.isSupportedSchema(schema) && generator.isSupportedEncoding(encoding) && generator.isSupportedFormat(format)){
-						return generator;
-					}
-				}
+		List<Object> key = Arrays.<Object>asList(outputInternalClass, schema, format, encoding);
+		ConcurrentMap<List<Object>, Optional<IGenerator>> lookups = this.lookups;
+		Optional<IGenerator> cached = lookups.get(key);
+		if (cached != null) {
+			return cached.orNull();
+		}
+		
+		IGenerator generator = index.find(outputInternalClass, schema, format, encoding);
+		
+		// try a chaining approach, by converting the data to a binding another generator supports
+		if (generator == null) {
+			generator = findConvertingGenerator(schema, format, encoding, outputInternalClass);
+		}
+		if (lookups.size() >= MAX_LOOKUPS) {
+			lookups.clear();
+		}
+		lookups.put(key, Optional.fromNullable(generator));
+		return generator;
+	}
+	
+	private IGenerator findConvertingGenerator(String schema, String format, String encoding, Class<?> outputInternalClass) {
+		ConversionGraph graph;
+		try {
+			graph = ConversionGraph.getInstance();
+		} catch (RuntimeException e) {
+			LOGGER.debug("Conversions between data bindings are not available", e);
+			return null;
+		}
+		IGenerator generator = null;
+		List<Conversion> conversions = null;
+		for (Class<?> target : index.getBindings()) {
+			List<Conversion> path = graph.getPath(outputInternalClass, target);
+			if (path == null || (conversions != null && path.size() >= conversions.size())) {
+				continue;
+			}
+			IGenerator candidate = index.find(target, schema, format, encoding);
+			if (candidate != null) {
+				generator = candidate;
+				conversions = path;
 			}
 		}
-		//TODO: try a chaining approach, by calculation all permutations and look for matches.
-		return null;
+		return generator == null ? null : new ConvertingGenerator(generator, conversions, outputInternalClass);
 	}
 
 	public List<IGenerator> getAllGenerators() {
@@ -0,0 +1,93 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of parsers or generators by supported data binding and format. A
+ * lookup only checks schema and encoding of the handlers registered for the
+ * binding and format, in the order of registration. Handlers may accept more
+ * schemas than they declare, so schema and encoding are not indexed.
+ */
+final class IOHandlerIndex<T extends IOHandler> {
+
+	private final Map<Class<?>, Map<String, List<T>>> handlers;
+
+	IOHandlerIndex(List<T> registeredHandlers) {
+		handlers = new LinkedHashMap<Class<?>, Map<String, List<T>>>();
+		for (T handler : registeredHandlers) {
+			for (Class<?> binding : handler.getSupportedDataBindings()) {
+				Map<String, List<T>> handlersByFormat = handlers.get(binding);
+				if (handlersByFormat == null) {
+					handlersByFormat = new LinkedHashMap<String, List<T>>();
+					handlers.put(binding, handlersByFormat);
+				}
+				for (String format : handler.getSupportedFormats()) {
+					String key = normalize(format);
+					List<T> candidates = handlersByFormat.get(key);
+					if (candidates == null) {
+						candidates = new ArrayList<T>();
+						handlersByFormat.put(key, candidates);
+					}
+					if (!candidates.contains(handler)) {
+						candidates.add(handler);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the first registered handler supporting binding, schema, format
+	 *         and encoding, <code>null</code> if there is none
+	 */
+	T find(Class<?> binding, String schema, String format, String encoding) {
+		for (T handler : getCandidates(binding, format)) {
+			if (handler.isSupportedSchema(schema) && handler.isSupportedEncoding(encoding) && handler.isSupportedFormat(format)) {
+				return handler;
+			}
+		}
+		return null;
+	}
+
+	Set<Class<?>> getBindings() {
+		return Collections.unmodifiableSet(handlers.keySet());
+	}
+
+	private List<T> getCandidates(Class<?> binding, String format) {
+		Map<String, List<T>> handlersByFormat = handlers.get(binding);
+		if (handlersByFormat == null || format == null) {
+			return Collections.emptyList();
+		}
+		List<T> candidates = handlersByFormat.get(normalize(format));
+		if (candidates == null) {
+			return Collections.emptyList();
+		}
+		return candidates;
+	}
+
+	private static String normalize(String format) {
+		return format.toLowerCase(Locale.ROOT);
+	}
+}
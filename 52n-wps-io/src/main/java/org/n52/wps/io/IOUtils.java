@@ -38,6 +38,9 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.n52.wps.io.data.IData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.xpath.XPathAPI;
@@ -122,6 +125,53 @@ public class IOUtils {
         }
 	}
 
+	/**
+	 * Writes the output of the generator for the given data to the stream. The
+	 * output is written directly if the generator is an
+	 * {@link IStreamingGenerator}, otherwise the stream returned by the
+	 * generator is copied. The given stream is not closed.
+	 * 
+	 * @param generator
+	 *            the generator to use
+	 * @param data
+	 *            the data to generate
+	 * @param os
+	 *            the stream to write to
+	 * @param mimeType
+	 *            the mime type of the output
+	 * @param schema
+	 *            the schema of the output
+	 * @param base64
+	 *            <code>true</code> to write the output base64 encoded
+	 * @throws IOException
+	 *             if the output could not be generated or written
+	 */
+	public static void generate(IGenerator generator, IData data,
+			OutputStream os, String mimeType, String schema, boolean base64)
+			throws IOException {
+		if (generator instanceof IStreamingGenerator) {
+			IStreamingGenerator streamingGenerator = (IStreamingGenerator) generator;
+			if (base64) {
+				// closing the Base64OutputStream writes the pending bytes
+				OutputStream base64Stream = new Base64OutputStream(
+						new CloseShieldOutputStream(os));
+				streamingGenerator.writeTo(data, base64Stream, mimeType, schema);
+				base64Stream.close();
+			} else {
+				streamingGenerator.writeTo(data, os, mimeType, schema);
+			}
+			return;
+		}
+		InputStream stream = base64 ? generator.generateBase64Stream(data,
+				mimeType, schema) : generator.generateStream(data, mimeType,
+				schema);
+		try {
+			copy(stream, os);
+		} finally {
+			closeQuietly(stream);
+		}
+	}
+
 	/**
 	 * Zip the files. Returns a zipped file and delete the specified files
 	 * 
@@ -0,0 +1,46 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.n52.wps.io.data.IData;
+
+/**
+ * Generators implementing this interface are able to write their output
+ * directly to a stream, e.g. the stream to the client. This avoids buffering
+ * the whole result in memory or in a temporary file before it is sent.
+ * Callers fall back to {@link IGenerator#generateStream(IData, String, String)}
+ * for generators that do not implement this interface.
+ */
+public interface IStreamingGenerator extends IGenerator {
+
+	/**
+	 * 
+	 * @param data
+	 * @param os
+	 * @param mimeType
+	 * @param schema
+	 * 
+	 * generates final output data produced by an IAlgorithm
+	 * and writes it to the given OutputStream. The stream is not closed.
+	 * 
+	 */
+	public void writeTo(IData data, OutputStream os, String mimeType, String schema) throws IOException;
+
+}
@@ -19,7 +19,10 @@ package org.n52.wps.io;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +30,8 @@ import org.n52.wps.ParserDocument.Parser;
 import org.n52.wps.PropertyDocument.Property;
 import org.n52.wps.commons.WPSConfig;
 
+import com.google.common.base.Optional;
+
 /**
  * XMLParserFactory. Will be initialized within each Framework. 
  * @author foerster
@@ -39,7 +44,12 @@ public class ParserFactory {
 	private static ParserFactory factory;
 	private static Logger LOGGER = LoggerFactory.getLogger(ParserFactory.class);
 	
-	private List<IParser> registeredParsers;
+	private static final int MAX_LOOKUPS = 1024;
+	
+	private volatile List<IParser> registeredParsers;
+	private volatile IOHandlerIndex<IParser> index;
+	// (binding, schema, format, encoding) -> parser, including failed lookups
+	private volatile ConcurrentMap<List<Object>, Optional<IParser>> lookups;
 
 	/**
 	 * This factory provides all available {@link IParser} to WPS.
@@ -69,7 +79,7 @@ public class ParserFactory {
 	}
 
     private void loadAllParsers(Parser[] parsers){
-        registeredParsers = new ArrayList<IParser>();
+        List<IParser> registeredParsers = new ArrayList<IParser>();
 		for(Parser currentParser : parsers) {
 			
 			// remove inactive parser
@@ -104,6 +114,10 @@ public class ParserFactory {
 				registeredParsers.add(parser);
 			}
 		}
+		this.registeredParsers = registeredParsers;
+		this.index = new IOHandlerIndex<IParser>(registeredParsers);
+		this.lookups = new ConcurrentHashMap<List<Object>, Optional<IParser>>();
+		ConversionGraph.invalidate();
     }
 
 	public static ParserFactory getInstance() {
@@ -121,23 +135,53 @@ public class ParserFactory {
 			encoding = IOHandler.DEFAULT_ENCODING;
 		}
 		
-		//first, look if we can find a direct way		
-		for(IParser parser : registeredParsers) {
-			Class<?>[] supportedClasses = parser.getSupportedDataBindings();
-			for(Class<?> clazz : supportedClasses){
-				if(clazz.equals(requiredInputClass)) {
-					if(parser.isSupportedSchema(schema) &&	parser.isSupportedEncoding(encoding) && parser.isSupportedFormat(format)) {
-						LOGGER.info("Matching parser found: " + parser);
-						return parser;
-					}
-				}
-			}
+		List<Object> key = Arrays.<Object>asList(requiredInputClass, schema, format, encoding);
+		ConcurrentMap<List<Object>, Optional<IParser>> lookups = this.lookups;
+		Optional<IParser> cached = lookups.get(key);
+		if (cached != null) {
+			return cached.orNull();
 		}
 		
+		//first, look if we can find a direct way		
+		IParser parser = index.find(requiredInputClass, schema, format, encoding);
+		
 		//no parser could be found
-		//try an indirect way by creating all permutations and look if one matches
-		//TODO
-		return null;
+		//try an indirect way by converting the data of another parser
+		if (parser == null) {
+			parser = findConvertingParser(schema, format, encoding, requiredInputClass);
+		}
+		if (parser != null) {
+			LOGGER.debug("Matching parser found: " + parser);
+		}
+		if (lookups.size() >= MAX_LOOKUPS) {
+			lookups.clear();
+		}
+		lookups.put(key, Optional.fromNullable(parser));
+		return parser;
+	}
+	
+	private IParser findConvertingParser(String schema, String format, String encoding, Class<?> requiredInputClass) {
+		ConversionGraph graph;
+		try {
+			graph = ConversionGraph.getInstance();
+		} catch (RuntimeException e) {
+			LOGGER.debug("Conversions between data bindings are not available", e);
+			return null;
+		}
+		IParser parser = null;
+		List<Conversion> conversions = null;
+		for (Class<?> source : graph.getSources()) {
+			List<Conversion> path = graph.getPath(source, requiredInputClass);
+			if (path == null || (conversions != null && path.size() >= conversions.size())) {
+				continue;
+			}
+			IParser candidate = index.find(source, schema, format, encoding);
+			if (candidate != null) {
+				parser = candidate;
+				conversions = path;
+			}
+		}
+		return parser == null ? null : new ConvertingParser(parser, conversions, requiredInputClass);
 	}
 
 	public List<IParser> getAllParsers() {
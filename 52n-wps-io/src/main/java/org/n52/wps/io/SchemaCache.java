@@ -0,0 +1,416 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.n52.wps.ServerDocument.Server;
+import org.n52.wps.commons.PropertyUtil;
+import org.n52.wps.commons.WPSConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Persistent cache of the XML schemas referenced by GML application schemas.
+ * <p>
+ * Remote schemas are downloaded once and stored under the SHA-1 hash of their
+ * content. References to other schemas (import, include and redefine) are
+ * rewritten to the cached copies, so a cached schema is read from disk
+ * together with everything it references. Locations matching a prefix of the
+ * catalog are resolved to local copies without any download. The catalog is
+ * read from all resources named {@value #CATALOG_RESOURCE} on the classpath and
+ * from the file configured by <code>schemacache.catalog</code>; entries map a
+ * location prefix to a <code>file:</code> or <code>classpath:</code> base, e.g.
+ * to the OGC schemas shipped with GeoTools.
+ * <p>
+ * Entries older than <code>schemacache.ttl</code> are downloaded again. If the
+ * download fails the stale copy is used, so parsing keeps working offline.
+ */
+public class SchemaCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SchemaCache.class);
+
+	public static final String CATALOG_RESOURCE = "org/n52/wps/io/schema-catalog.properties";
+
+	private static final String KEY_ROOT = "org.n52.wps.io";
+	private static final String KEY_ENABLED = "schemacache.enabled";
+	private static final String KEY_PATH = "schemacache.path";
+	private static final String KEY_TTL = "schemacache.ttl";
+	private static final String KEY_CATALOG = "schemacache.catalog";
+
+	private static final boolean DEFAULT_ENABLED = true;
+	private static final String DEFAULT_PATH =
+			Joiner.on(File.separator).join(
+				System.getProperty("java.io.tmpdir", "."),
+				"SchemaCache");
+	private static final long DEFAULT_TTL = 1000 * 60 * 60 * 24 * 7; // P7D
+
+	private static final int TIMEOUT = 1000 * 30;
+
+	private static final String PREFIX_CLASSPATH = "classpath:";
+	private static final String[] REFERENCES = { "import", "include", "redefine" };
+	private static final String ATTRIBUTE_SCHEMA_LOCATION = "schemaLocation";
+
+	private static final String DIRECTORY_OBJECTS = "objects";
+	private static final String FILE_INDEX = "index.properties";
+	private static final String SUFFIX_SCHEMA = ".xsd";
+	private static final String SUFFIX_TEMP = ".tmp";
+
+	private static SchemaCache instance;
+
+	private final boolean enabled;
+	private final File objectDirectory;
+	private final File indexFile;
+	private final long ttl;
+	private final Map<String, String> catalog;
+	private final Map<String, Entry> index;
+
+	SchemaCache(boolean enabled, File baseDirectory, long ttl, File catalogFile) {
+		this.enabled = enabled;
+		this.objectDirectory = new File(baseDirectory, DIRECTORY_OBJECTS);
+		this.indexFile = new File(baseDirectory, FILE_INDEX);
+		this.ttl = ttl;
+		this.catalog = new LinkedHashMap<String, String>();
+		this.index = new ConcurrentHashMap<String, Entry>();
+		loadCatalog(catalogFile);
+		if (enabled) {
+			LOGGER.info("Using \"{}\" as base directory for the schema cache", baseDirectory);
+			objectDirectory.mkdirs();
+			loadIndex();
+		}
+	}
+
+	public static synchronized SchemaCache getInstance() {
+		if (instance == null) {
+			Server server = WPSConfig.getInstance().getWPSConfig().getServer();
+			PropertyUtil propertyUtil = new PropertyUtil(server.getPropertyArray(), KEY_ROOT);
+			String catalogPath = propertyUtil.extractString(KEY_CATALOG, null);
+			instance = new SchemaCache(
+					propertyUtil.extractBoolean(KEY_ENABLED, DEFAULT_ENABLED),
+					new File(propertyUtil.extractString(KEY_PATH, DEFAULT_PATH)),
+					propertyUtil.extractPeriodAsMillis(KEY_TTL, DEFAULT_TTL),
+					catalogPath == null ? null : new File(catalogPath));
+		}
+		return instance;
+	}
+
+	/**
+	 * Resolves a schema location to a local copy.
+	 *
+	 * @param location
+	 *            the location of the schema
+	 * @return the URI of the local copy, or the given location if it is not a
+	 *         remote location or could not be cached
+	 */
+	public String resolve(String location) {
+		if (location == null || !isRemote(location)) {
+			return location;
+		}
+		String mapped = lookupCatalog(location);
+		if (mapped != null) {
+			return mapped;
+		}
+		if (!enabled) {
+			return location;
+		}
+		try {
+			return resolve(location, new HashSet<String>());
+		} catch (IOException e) {
+			LOGGER.warn("Unable to cache schema {}, using remote location", location, e);
+			return location;
+		}
+	}
+
+	private String resolve(String location, Set<String> pending) throws IOException {
+		String mapped = lookupCatalog(location);
+		if (mapped != null) {
+			return mapped;
+		}
+		Entry entry = index.get(location);
+		File cached = entry == null ? null : getObjectFile(entry.hash);
+		if (cached != null && !cached.exists()) {
+			cached = null;
+		}
+		if (cached != null && System.currentTimeMillis() - entry.created < ttl) {
+			return cached.toURI().toString();
+		}
+		if (!pending.add(location)) {
+			// cyclic reference, the schema is still being downloaded
+			return cached == null ? location : cached.toURI().toString();
+		}
+		try {
+			URLConnection connection = new URL(location).openConnection();
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			byte[] content;
+			InputStream in = connection.getInputStream();
+			try {
+				content = IOUtils.toByteArray(in);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+			// relative references are resolved against the redirected location
+			content = rewriteReferences(content, connection.getURL(), pending);
+			String hash = store(content);
+			index.put(location, new Entry(hash, System.currentTimeMillis()));
+			saveIndex();
+			LOGGER.debug("Cached schema {} as {}", location, hash);
+			return getObjectFile(hash).toURI().toString();
+		} catch (IOException e) {
+			if (cached != null) {
+				LOGGER.warn("Unable to refresh schema {}, using cached copy", location, e);
+				return cached.toURI().toString();
+			}
+			throw e;
+		} finally {
+			pending.remove(location);
+		}
+	}
+
+	private byte[] rewriteReferences(byte[] content, URL base, Set<String> pending) throws IOException {
+		Document document;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(content));
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e);
+		} catch (SAXException e) {
+			throw new IOException("Schema " + base + " is not well formed", e);
+		}
+		boolean modified = false;
+		for (String reference : REFERENCES) {
+			NodeList elements = document.getElementsByTagNameNS(XMLConstants.W3C_XML_SCHEMA_NS_URI, reference);
+			for (int i = 0; i < elements.getLength(); i++) {
+				Element element = (Element) elements.item(i);
+				String schemaLocation = element.getAttribute(ATTRIBUTE_SCHEMA_LOCATION);
+				if (schemaLocation.isEmpty()) {
+					continue;
+				}
+				String absolute = new URL(base, schemaLocation).toString();
+				String resolved = absolute;
+				if (isRemote(absolute)) {
+					try {
+						resolved = resolve(absolute, pending);
+					} catch (IOException e) {
+						LOGGER.warn("Unable to cache schema {} referenced by {}", new Object[] { absolute, base, e });
+					}
+				}
+				if (!resolved.equals(schemaLocation)) {
+					element.setAttribute(ATTRIBUTE_SCHEMA_LOCATION, resolved);
+					modified = true;
+				}
+			}
+		}
+		if (!modified) {
+			return content;
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(out));
+			return out.toByteArray();
+		} catch (TransformerException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private String store(byte[] content) throws IOException {
+		String hash;
+		try {
+			hash = new String(Hex.encodeHex(MessageDigest.getInstance("SHA-1").digest(content)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		File file = getObjectFile(hash);
+		if (!file.exists()) {
+			File tempFile = new File(objectDirectory, hash + SUFFIX_TEMP + Thread.currentThread().getId());
+			FileUtils.writeByteArrayToFile(tempFile, content);
+			// identical content may have been stored concurrently
+			if (!tempFile.renameTo(file) && !file.exists()) {
+				tempFile.delete();
+				throw new IOException("Unable to rename " + tempFile.getPath() + " to " + file.getPath());
+			}
+			tempFile.delete();
+		}
+		return hash;
+	}
+
+	private File getObjectFile(String hash) {
+		return new File(objectDirectory, hash + SUFFIX_SCHEMA);
+	}
+
+	private String lookupCatalog(String location) {
+		String prefix = null;
+		for (String candidate : catalog.keySet()) {
+			if (location.startsWith(candidate) && (prefix == null || candidate.length() > prefix.length())) {
+				prefix = candidate;
+			}
+		}
+		if (prefix == null) {
+			return null;
+		}
+		String target = catalog.get(prefix) + location.substring(prefix.length());
+		if (target.startsWith(PREFIX_CLASSPATH)) {
+			URL resource = SchemaCache.class.getClassLoader().getResource(target.substring(PREFIX_CLASSPATH.length()));
+			return resource == null ? null : resource.toString();
+		}
+		try {
+			URL url = new URL(target);
+			if ("file".equals(url.getProtocol()) && !FileUtils.toFile(url).exists()) {
+				return null;
+			}
+			return target;
+		} catch (IOException e) {
+			LOGGER.warn("Invalid catalog entry {} for {}", target, location);
+			return null;
+		}
+	}
+
+	private void loadCatalog(File catalogFile) {
+		try {
+			Enumeration<URL> resources = SchemaCache.class.getClassLoader().getResources(CATALOG_RESOURCE);
+			while (resources.hasMoreElements()) {
+				URL resource = resources.nextElement();
+				InputStream in = resource.openStream();
+				try {
+					loadCatalog(in);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+			if (catalogFile != null) {
+				InputStream in = new FileInputStream(catalogFile);
+				try {
+					loadCatalog(in);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("Unable to load schema catalog", e);
+		}
+		LOGGER.debug("Loaded {} schema catalog entries", catalog.size());
+	}
+
+	private void loadCatalog(InputStream in) throws IOException {
+		Properties properties = new Properties();
+		properties.load(in);
+		for (String prefix : properties.stringPropertyNames()) {
+			catalog.put(prefix, properties.getProperty(prefix).trim());
+		}
+	}
+
+	private void loadIndex() {
+		if (!indexFile.exists()) {
+			return;
+		}
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(indexFile);
+			properties.load(in);
+		} catch (IOException e) {
+			LOGGER.error("Unable to load schema cache index, schemas will be downloaded again", e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		for (String location : properties.stringPropertyNames()) {
+			String[] value = properties.getProperty(location).split(" ");
+			try {
+				index.put(location, new Entry(value[0], Long.parseLong(value[1])));
+			} catch (RuntimeException e) {
+				LOGGER.warn("Ignoring invalid schema cache index entry for {}", location);
+			}
+		}
+	}
+
+	private synchronized void saveIndex() {
+		Properties properties = new Properties();
+		for (Map.Entry<String, Entry> entry : index.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().hash + " " + entry.getValue().created);
+		}
+		File tempFile = new File(indexFile.getPath() + SUFFIX_TEMP);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tempFile);
+			properties.store(out, null);
+			out.close();
+			if (!tempFile.renameTo(indexFile)) {
+				indexFile.delete();
+				if (!tempFile.renameTo(indexFile)) {
+					throw new IOException("Unable to rename " + tempFile.getPath() + " to " + indexFile.getPath());
+				}
+			}
+		} catch (IOException e) {
+			// the cached copies are downloaded again after a restart
+			LOGGER.error("Unable to save schema cache index", e);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	private static boolean isRemote(String location) {
+		return location.startsWith("http://") || location.startsWith("https://");
+	}
+
+	private static final class Entry {
+
+		private final String hash;
+		private final long created;
+
+		private Entry(String hash, long created) {
+			this.hash = hash;
+			this.created = created;
+		}
+	}
+}
@@ -16,42 +16,47 @@
  */
 package org.n52.wps.io;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Registry of the schema locations and GML versions of application schemas
+ * seen by the parsers. The schemas themselves are resolved to local copies by
+ * the {@link SchemaCache}.
+ */
 public class SchemaRepository {
 
-	private static Map<String, String> repository;
-	private static Map<String, String> gmlNamespaces;
+	private static final Map<String, String> repository = new ConcurrentHashMap<String, String>();
+	private static final Map<String, String> gmlNamespaces = new ConcurrentHashMap<String, String>();
 	
-	public static synchronized String getSchemaLocation(String namespaceURI){
-		if (repository==null) {
-			repository = new HashMap<String, String>();
-		}
-		return repository.get(namespaceURI);
-		
+	public static String getSchemaLocation(String namespaceURI){
+		return namespaceURI == null ? null : repository.get(namespaceURI);
 	}
 	
-	public static synchronized void registerSchemaLocation(String namespaceURI, String schemaLocation){
-		if (repository==null) {
-			repository = new HashMap<String, String>();
+	public static void registerSchemaLocation(String namespaceURI, String schemaLocation){
+		// features without namespace have no application schema
+		if (namespaceURI != null && schemaLocation != null) {
+			repository.put(namespaceURI,schemaLocation);
 		}
-		repository.put(namespaceURI,schemaLocation);
-		
 	}
 	
-	public static synchronized void registerGMLVersion(String namespaceURI, String gmlNamespace){
-		if (gmlNamespaces==null) {
-			gmlNamespaces = new HashMap<String, String>();
+	public static void registerGMLVersion(String namespaceURI, String gmlNamespace){
+		if (namespaceURI != null && gmlNamespace != null) {
+			gmlNamespaces.put(namespaceURI, gmlNamespace);
 		}
-		gmlNamespaces.put(namespaceURI, gmlNamespace);
-		
 	}
 
-	public static synchronized String getGMLNamespaceForSchema(String namespace) {
-		if (gmlNamespaces==null) {
-			gmlNamespaces = new HashMap<String, String>();
-		}
-		return gmlNamespaces.get(namespace);
+	public static String getGMLNamespaceForSchema(String namespace) {
+		return namespace == null ? null : gmlNamespaces.get(namespace);
+	}
+
+	/**
+	 * @param schemaLocation
+	 *            the location of a schema
+	 * @return the location of the cached copy of the schema, or the given
+	 *         location if the schema is not cached
+	 */
+	public static String resolveSchemaLocation(String schemaLocation) {
+		return SchemaCache.getInstance().resolve(schemaLocation);
 	}
 }
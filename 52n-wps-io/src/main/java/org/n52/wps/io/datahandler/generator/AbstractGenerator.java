@@ -16,11 +16,8 @@
  */
 package org.n52.wps.io.datahandler.generator;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.commons.codec.binary.Base64InputStream;
 import org.n52.wps.FormatDocument.Format;
@@ -36,13 +33,6 @@ import org.n52.wps.io.data.IData;
  */
 public abstract class AbstractGenerator extends AbstractIOHandler implements IGenerator {
 	
-	/**
-	 * A list of files that shall be deleted by destructor.
-	 * Convenience mechanism to delete temporary files that had
-	 * to be written during the generation procedure.
-	 */
-	protected List<File> finalizeFiles;
-	
 	public AbstractGenerator(){
 		super();
 		
@@ -68,25 +58,10 @@ public abstract class AbstractGenerator extends AbstractIOHandler implements IGe
 				supportedEncodings.add(IOHandler.DEFAULT_ENCODING);
 			}			
 		}
-		
-		finalizeFiles = new ArrayList<File>();
 	}
 	
 	public InputStream generateBase64Stream(IData data, String mimeType, String schema) throws IOException {
 		return new Base64InputStream(generateStream(data, mimeType, schema), true);
 	}
-	
-	/**
-	 * Destructor deletes generated temporary files.
-	 */
-	@Override
-	protected void finalize() throws Throwable {
-		
-		for (File currentFile : finalizeFiles){
-			currentFile.delete();
-		}
-		
-		super.finalize();
-	}
 
 }
@@ -0,0 +1,96 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.n52.wps.commons.WPSConfigTestUtil;
+import org.n52.wps.io.TestHandlers.BindingA;
+import org.n52.wps.io.TestHandlers.BindingB;
+import org.n52.wps.io.TestHandlers.BindingC;
+import org.n52.wps.io.TestHandlers.BindingD;
+import org.n52.wps.io.TestHandlers.GeneratorA;
+import org.n52.wps.io.TestHandlers.GeneratorB;
+import org.n52.wps.io.TestHandlers.GeneratorC;
+import org.n52.wps.io.TestHandlers.ParserB;
+import org.n52.wps.io.TestHandlers.ParserC;
+import org.n52.wps.io.TestHandlers.ParserD;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.test.datahandler.AbstractTestCase;
+
+public class ConversionGraphTest extends AbstractTestCase<AbstractIOHandler> {
+
+	private ConversionGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		WPSConfigTestUtil.generateMockConfig(getClass(), TestHandlers.CONFIG);
+		List<IParser> parsers = Arrays.<IParser>asList(new ParserB(), new ParserC(), new ParserD());
+		List<IGenerator> generators = Arrays.<IGenerator>asList(new GeneratorA(), new GeneratorB(), new GeneratorC());
+		graph = new ConversionGraph(parsers, generators);
+	}
+
+	public void testSingleConversion() {
+		List<Conversion> path = graph.getPath(BindingA.class, BindingB.class);
+		assertNotNull(path);
+		assertEquals(1, path.size());
+		assertConversion(path.get(0), BindingA.class, BindingB.class);
+	}
+
+	public void testMultiStepConversion() {
+		List<Conversion> path = graph.getPath(BindingA.class, BindingC.class);
+		assertNotNull(path);
+		assertEquals(2, path.size());
+		assertConversion(path.get(0), BindingA.class, BindingB.class);
+		assertConversion(path.get(1), BindingB.class, BindingC.class);
+
+		IData converted = Conversion.apply(new BindingA("payload"), path);
+		assertTrue(converted instanceof BindingC);
+		assertEquals("payload", converted.getPayload());
+	}
+
+	public void testLongerPathsAreNotUsed() {
+		assertEquals(2, graph.getPath(BindingB.class, BindingD.class).size());
+		// A to D takes three conversions
+		assertNull(graph.getPath(BindingA.class, BindingD.class));
+	}
+
+	public void testConversionsAreDirected() {
+		assertNull(graph.getPath(BindingC.class, BindingA.class));
+		assertNull(graph.getPath(BindingA.class, BindingA.class));
+		assertNull(graph.getPath(BindingD.class, BindingC.class));
+	}
+
+	public void testSources() {
+		assertTrue(graph.getSources().contains(BindingA.class));
+		assertTrue(graph.getSources().contains(BindingB.class));
+		assertTrue(graph.getSources().contains(BindingC.class));
+		assertFalse(graph.getSources().contains(BindingD.class));
+	}
+
+	private static void assertConversion(Conversion conversion, Class<?> source, Class<?> target) {
+		assertEquals(source, conversion.getSource());
+		assertEquals(target, conversion.getTarget());
+	}
+
+	@Override
+	protected void initializeDataHandler() {
+		// the handlers are created by setUp() with the lookup configuration
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.n52.wps.commons.WPSConfigTestUtil;
+import org.n52.wps.io.TestHandlers.BindingB;
+import org.n52.wps.io.TestHandlers.BindingC;
+import org.n52.wps.io.TestHandlers.BindingD;
+import org.n52.wps.io.TestHandlers.ParserB;
+import org.n52.wps.io.TestHandlers.ParserC;
+import org.n52.wps.io.test.datahandler.AbstractTestCase;
+
+public class IOHandlerIndexTest extends AbstractTestCase<AbstractIOHandler> {
+
+	private ParserB parserB;
+	private ParserB otherParserB;
+	private ParserC parserC;
+	private IOHandlerIndex<IParser> index;
+
+	@Override
+	protected void setUp() throws Exception {
+		WPSConfigTestUtil.generateMockConfig(getClass(), TestHandlers.CONFIG);
+		parserB = new ParserB();
+		otherParserB = new ParserB();
+		parserC = new ParserC();
+		index = new IOHandlerIndex<IParser>(Arrays.<IParser>asList(parserB, parserC, otherParserB));
+	}
+
+	public void testFindByBindingAndFormat() {
+		assertSame(parserB, index.find(BindingB.class, null, TestHandlers.MIME_TYPE_B, IOHandler.DEFAULT_ENCODING));
+		assertSame(parserC, index.find(BindingC.class, null, TestHandlers.MIME_TYPE_C, IOHandler.DEFAULT_ENCODING));
+	}
+
+	public void testFormatIsCaseInsensitive() {
+		String format = TestHandlers.MIME_TYPE_B.toUpperCase(Locale.ROOT);
+		assertSame(parserB, index.find(BindingB.class, null, format, IOHandler.DEFAULT_ENCODING));
+	}
+
+	public void testFirstRegisteredHandlerIsFound() {
+		index = new IOHandlerIndex<IParser>(Arrays.<IParser>asList(otherParserB, parserB));
+		assertSame(otherParserB, index.find(BindingB.class, null, TestHandlers.MIME_TYPE_B, IOHandler.DEFAULT_ENCODING));
+	}
+
+	public void testMismatchIsNotFound() {
+		assertNull(index.find(BindingD.class, null, TestHandlers.MIME_TYPE_B, IOHandler.DEFAULT_ENCODING));
+		assertNull(index.find(BindingB.class, null, TestHandlers.MIME_TYPE_C, IOHandler.DEFAULT_ENCODING));
+		assertNull(index.find(BindingB.class, null, null, IOHandler.DEFAULT_ENCODING));
+		assertNull(index.find(BindingB.class, "http://example.org/unsupported.xsd", TestHandlers.MIME_TYPE_B, IOHandler.DEFAULT_ENCODING));
+		assertNull(index.find(BindingB.class, null, TestHandlers.MIME_TYPE_B, IOHandler.ENCODING_BASE64));
+	}
+
+	public void testBindings() {
+		assertEquals(2, index.getBindings().size());
+		assertTrue(index.getBindings().contains(BindingB.class));
+		assertTrue(index.getBindings().contains(BindingC.class));
+	}
+
+	@Override
+	protected void initializeDataHandler() {
+		// the handlers are created by setUp() with the lookup configuration
+	}
+
+}
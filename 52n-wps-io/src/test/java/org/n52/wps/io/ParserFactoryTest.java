@@ -0,0 +1,81 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.io.ByteArrayInputStream;
+
+import org.n52.wps.commons.WPSConfigTestUtil;
+import org.n52.wps.io.TestHandlers.BindingB;
+import org.n52.wps.io.TestHandlers.BindingC;
+import org.n52.wps.io.TestHandlers.BindingD;
+import org.n52.wps.io.TestHandlers.ParserB;
+import org.n52.wps.io.TestHandlers.ParserC;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.test.datahandler.AbstractTestCase;
+
+public class ParserFactoryTest extends AbstractTestCase<AbstractIOHandler> {
+
+	@Override
+	protected void setUp() throws Exception {
+		// reloads the parsers and generators of initialized factories
+		WPSConfigTestUtil.generateMockConfig(getClass(), TestHandlers.CONFIG);
+	}
+
+	public void testDirectLookup() {
+		IParser parser = ParserFactory.getInstance().getParser(null, TestHandlers.MIME_TYPE_B, null, BindingB.class);
+		assertTrue(parser instanceof ParserB);
+	}
+
+	public void testMultiStepConversion() throws Exception {
+		IParser parser = ParserFactory.getInstance().getParser(null, TestHandlers.MIME_TYPE_B, null, BindingD.class);
+		assertTrue(parser instanceof ConvertingParser);
+
+		IData data = parser.parse(new ByteArrayInputStream("payload".getBytes("UTF-8")), TestHandlers.MIME_TYPE_B, null);
+		assertTrue(data instanceof BindingD);
+		assertEquals("payload", data.getPayload());
+	}
+
+	public void testFailedLookupIsCached() {
+		ParserFactory factory = ParserFactory.getInstance();
+		String schema = "http://example.org/unsupported.xsd";
+		assertNull(factory.getParser(schema, TestHandlers.MIME_TYPE_B, null, BindingB.class));
+		int schemaChecks = ParserB.SCHEMA_CHECKS.get();
+		assertTrue(schemaChecks > 0);
+
+		// answered without checking the parsers again
+		assertNull(factory.getParser(schema, TestHandlers.MIME_TYPE_B, null, BindingB.class));
+		assertEquals(schemaChecks, ParserB.SCHEMA_CHECKS.get());
+	}
+
+	public void testLookupsAreDiscardedWhenParsersChange() throws Exception {
+		WPSConfigTestUtil.generateMockConfig(getClass(), TestHandlers.CONFIG_WITHOUT_C);
+		ParserFactory factory = ParserFactory.getInstance();
+		assertNull(factory.getParser(null, TestHandlers.MIME_TYPE_C, null, BindingC.class));
+		assertNull(factory.getParser(null, TestHandlers.MIME_TYPE_B, null, BindingD.class));
+
+		WPSConfigTestUtil.generateMockConfig(getClass(), TestHandlers.CONFIG);
+		assertTrue(factory.getParser(null, TestHandlers.MIME_TYPE_C, null, BindingC.class) instanceof ParserC);
+		// the conversions are computed again as well
+		assertTrue(factory.getParser(null, TestHandlers.MIME_TYPE_B, null, BindingD.class) instanceof ConvertingParser);
+	}
+
+	@Override
+	protected void initializeDataHandler() {
+		// the parsers are created by the factory with the lookup configuration
+	}
+
+}
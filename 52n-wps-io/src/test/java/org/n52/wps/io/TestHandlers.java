@@ -0,0 +1,201 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.n52.wps.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.n52.wps.io.data.IComplexData;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.datahandler.generator.AbstractGenerator;
+import org.n52.wps.io.datahandler.parser.AbstractParser;
+
+/**
+ * Bindings, parsers and generators of the lookup tests, their formats are
+ * configured in lookup_config.xml. Generators write the payload of a binding,
+ * parsers read it into their binding, so A converts to B, B to C and C to D.
+ */
+final class TestHandlers {
+
+	static final String MIME_TYPE_B = "application/x-test-b";
+	static final String MIME_TYPE_C = "application/x-test-c";
+	static final String MIME_TYPE_D = "application/x-test-d";
+
+	static final String CONFIG = "/org/n52/wps/io/lookup_config.xml";
+	static final String CONFIG_WITHOUT_C = "/org/n52/wps/io/lookup_config_without_c.xml";
+
+	private TestHandlers() {
+	}
+
+	public static abstract class Binding implements IComplexData {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String payload;
+
+		Binding(String payload) {
+			this.payload = payload;
+		}
+
+		public String getPayload() {
+			return payload;
+		}
+
+		public Class<?> getSupportedClass() {
+			return String.class;
+		}
+
+		public void dispose() {
+		}
+	}
+
+	public static class BindingA extends Binding {
+
+		private static final long serialVersionUID = 1L;
+
+		public BindingA(String payload) {
+			super(payload);
+		}
+	}
+
+	public static class BindingB extends Binding {
+
+		private static final long serialVersionUID = 1L;
+
+		public BindingB(String payload) {
+			super(payload);
+		}
+	}
+
+	public static class BindingC extends Binding {
+
+		private static final long serialVersionUID = 1L;
+
+		public BindingC(String payload) {
+			super(payload);
+		}
+	}
+
+	public static class BindingD extends Binding {
+
+		private static final long serialVersionUID = 1L;
+
+		public BindingD(String payload) {
+			super(payload);
+		}
+	}
+
+	public static abstract class TestParser extends AbstractParser {
+
+		TestParser(Class<? extends Binding> binding) {
+			supportedIDataTypes.add(binding);
+		}
+
+		public IData parse(InputStream input, String mimeType, String schema) {
+			try {
+				return create(IOUtils.toString(input, "UTF-8"));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		abstract Binding create(String payload);
+	}
+
+	/**
+	 * Counts the schema checks of all instances, a lookup answered from the
+	 * cache does not check any handler.
+	 */
+	public static class ParserB extends TestParser {
+
+		static final AtomicInteger SCHEMA_CHECKS = new AtomicInteger();
+
+		public ParserB() {
+			super(BindingB.class);
+		}
+
+		@Override
+		public boolean isSupportedSchema(String schema) {
+			SCHEMA_CHECKS.incrementAndGet();
+			return super.isSupportedSchema(schema);
+		}
+
+		@Override
+		Binding create(String payload) {
+			return new BindingB(payload);
+		}
+	}
+
+	public static class ParserC extends TestParser {
+
+		public ParserC() {
+			super(BindingC.class);
+		}
+
+		@Override
+		Binding create(String payload) {
+			return new BindingC(payload);
+		}
+	}
+
+	public static class ParserD extends TestParser {
+
+		public ParserD() {
+			super(BindingD.class);
+		}
+
+		@Override
+		Binding create(String payload) {
+			return new BindingD(payload);
+		}
+	}
+
+	public static abstract class TestGenerator extends AbstractGenerator {
+
+		TestGenerator(Class<? extends Binding> binding) {
+			supportedIDataTypes.add(binding);
+		}
+
+		public InputStream generateStream(IData data, String mimeType, String schema) throws IOException {
+			return new ByteArrayInputStream(((Binding) data).getPayload().getBytes("UTF-8"));
+		}
+	}
+
+	public static class GeneratorA extends TestGenerator {
+
+		public GeneratorA() {
+			super(BindingA.class);
+		}
+	}
+
+	public static class GeneratorB extends TestGenerator {
+
+		public GeneratorB() {
+			super(BindingB.class);
+		}
+	}
+
+	public static class GeneratorC extends TestGenerator {
+
+		public GeneratorC() {
+			super(BindingC.class);
+		}
+	}
+}
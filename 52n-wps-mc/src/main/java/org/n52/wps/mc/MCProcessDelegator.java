@@ -53,9 +53,9 @@ import org.n52.wps.io.data.binding.literal.LiteralDoubleBinding;
 import org.n52.wps.io.data.binding.literal.LiteralFloatBinding;
 import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
 import org.n52.wps.io.data.binding.literal.LiteralStringBinding;
-import org.n52.wps.server.IAlgorithm;
+import org.n52.wps.server.IDelegatingAlgorithm;
 
-public class MCProcessDelegator implements IAlgorithm {
+public class MCProcessDelegator implements IDelegatingAlgorithm {
 
 	private final String identifier;
 	private List<String> errors;
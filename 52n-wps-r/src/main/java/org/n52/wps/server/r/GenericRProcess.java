@@ -44,6 +44,7 @@ import net.opengis.wps.x100.ProcessDescriptionType;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.server.AbstractObservableAlgorithm;
 import org.n52.wps.server.ExceptionReport;
+import org.n52.wps.server.IDelegatingAlgorithm;
 import org.n52.wps.server.r.metadata.RAnnotationParser;
 import org.n52.wps.server.r.metadata.RProcessDescriptionCreator;
 import org.n52.wps.server.r.syntax.RAnnotation;
@@ -59,7 +60,7 @@ import org.rosuda.REngine.Rserve.RserveException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class GenericRProcess extends AbstractObservableAlgorithm {
+public class GenericRProcess extends AbstractObservableAlgorithm implements IDelegatingAlgorithm {
 
     private static Logger log = LoggerFactory.getLogger(GenericRProcess.class);
 
@@ -28,10 +28,15 @@
  */
 package org.n52.wps.server;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.UUID;
 
 import javax.servlet.ServletConfig;
@@ -41,9 +46,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.n52.wps.server.database.DatabaseFactory;
 import org.n52.wps.server.database.IDatabase;
+import org.n52.wps.server.database.ResultMetadata;
 import org.n52.wps.commons.MIMEUtil;
 import org.n52.wps.commons.XMLUtil;
 import org.slf4j.Logger;
@@ -57,6 +64,12 @@ public class RetrieveResultServlet extends HttpServlet {
     public final static String SERVLET_PATH = "RetrieveResultServlet";
     // in future parameterize
     private final boolean indentXML = false;
+    private static final long[] RANGE_NOT_SATISFIABLE = new long[0];
+    // request attributes of the Tomcat sendfile support
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
     
     private final int uuid_length = 36;
 
@@ -88,23 +101,46 @@ public class RetrieveResultServlet extends HttpServlet {
 
         	if(!isIDValid(id)){
         		errorResponse("id parameter not valid", response);
+        		return;
         	}
         	
-            IDatabase db = DatabaseFactory.getDatabase();
-            String mimeType = db.getMimeTypeForStoreResponse(id);
-            long contentLength = db.getContentLengthForStoreResponse(id);
+            IDatabase db = getDatabase();
+            ResultMetadata metadata = db.getMetadataForStoreResponse(id);
+            String mimeType = metadata == null ? null : metadata.getMimeType();
+            long contentLength = metadata == null ? -1 : metadata.getContentLength();
             
             InputStream inputStream = null;
             OutputStream outputStream = null;
             try {
-                inputStream = db.lookupResponse(id);
-
-                if (inputStream == null) {
+                if (metadata == null) {
                     errorResponse("id " + id + " is unknown to server", response);
                 } else if (mimeType == null) {
                     errorResponse("Unable to determine mime-type for id " + id, response);
                 } else {
                     String suffix = MIMEUtil.getSuffixFromMIMEType(mimeType).toLowerCase();
+                    String encoding = metadata.getEncoding();
+                    File file = metadata.getFile();
+                    long[] range = "xml".equals(suffix) || contentLength < 0 ? null : parseRange(request, metadata);
+                    // stored compressed content is passed through as is
+                    boolean encoded = !"xml".equals(suffix) && file != null && encoding != null && range == null
+                            && isEncodingAccepted(request, encoding);
+                    String eTag = getETag(metadata, "xml".equals(suffix), encoded);
+                    if (eTag != null) {
+                        response.setHeader("ETag", eTag);
+                    }
+                    if (encoding != null && !"xml".equals(suffix)) {
+                        response.addHeader("Vary", "Accept-Encoding");
+                    }
+                    if ("xml".equals(suffix)) {
+                        // need these to work around aggressive IE 8 caching.
+                        response.addHeader("Cache-Control", "no-cache, no-store");
+                        response.addHeader("Pragma", "no-cache");
+                        response.addHeader("Expires", "-1");
+                    }
+                    if (isNotModified(request, metadata, eTag, "xml".equals(suffix))) {
+                        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        return;
+                    }
 
                     // if attachment parameter unset, default to false for mime-type of 'xml' and true for everything else.
 					boolean useAttachment = (StringUtils.isEmpty(attachment) && !"xml".equals(suffix)) || Boolean.parseBoolean(attachment);
@@ -121,12 +157,13 @@ public class RetrieveResultServlet extends HttpServlet {
 
                     if ("xml".equals(suffix)) {
 
-                        // NOTE:  We don't set "Content-Length" header, xml may be modified
+                        inputStream = db.lookupResponse(id);
+                        if (inputStream == null) {
+                            errorResponse("id " + id + " is unknown to server", response);
+                            return;
+                        }
 
-                        // need these to work around aggressive IE 8 caching.
-                        response.addHeader("Cache-Control", "no-cache, no-store");
-                        response.addHeader("Pragma", "no-cache");
-                        response.addHeader("Expires", "-1");
+                        // NOTE:  We don't set "Content-Length" header, xml may be modified
 
                         try {
                             outputStream = response.getOutputStream();
@@ -136,20 +173,56 @@ public class RetrieveResultServlet extends HttpServlet {
                         copyResponseAsXML(inputStream, outputStream, useAttachment || indentXML, id);
                     } else {
 
+                        if (metadata.getCreated() > 0) {
+                            response.setDateHeader("Last-Modified", metadata.getCreated());
+                        }
                         if (contentLength > -1) {
-                            // Can't use response.setContentLength(...) as it accepts an int (max of 2^31 - 1) ?!
-                            // response.setContentLength(contentLength);
-                            response.setHeader("Content-Length", Long.toString(contentLength));
+                            response.setHeader("Accept-Ranges", "bytes");
+                            if (range == RANGE_NOT_SATISFIABLE) {
+                                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                                response.setHeader("Content-Range", "bytes */" + contentLength);
+                                return;
+                            }
                         } else {
                             LOGGER.warn("Content-Length unknown for response to id {}", id);
                         }
+                        long start = range == null ? 0 : range[0];
+                        long length = range == null ? contentLength : range[1] - range[0] + 1;
+                        if (range != null) {
+                            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + contentLength);
+                        }
 
-                        try {
-                            outputStream = response.getOutputStream();
-                        } catch (IOException e) {
-                            throw new IOException("Error obtaining output stream for response", e);
+                        if (encoded) {
+                            // serve the stored compressed file as is
+                            response.setHeader("Content-Encoding", encoding);
+                            response.setHeader("Content-Length", Long.toString(file.length()));
+                            sendFile(request, response, file, 0, file.length(), id);
+                        } else if (file != null && encoding == null && length > -1) {
+                            response.setHeader("Content-Length", Long.toString(length));
+                            sendFile(request, response, file, start, length, id);
+                        } else {
+                            inputStream = db.lookupResponse(id);
+                            if (inputStream == null) {
+                                errorResponse("id " + id + " is unknown to server", response);
+                                return;
+                            }
+                            if (length > -1) {
+                                // Can't use response.setContentLength(...) as it accepts an int (max of 2^31 - 1) ?!
+                                // response.setContentLength(contentLength);
+                                response.setHeader("Content-Length", Long.toString(length));
+                            }
+                            if (range != null) {
+                                IOUtils.skipFully(inputStream, start);
+                                inputStream = new BoundedInputStream(inputStream, length);
+                            }
+                            try {
+                                outputStream = response.getOutputStream();
+                            } catch (IOException e) {
+                                throw new IOException("Error obtaining output stream for response", e);
+                            }
+                            copyResponseStream(inputStream, outputStream, id, length);
                         }
-                        copyResponseStream(inputStream, outputStream, id, contentLength);
                     }
                 }
             } catch (Exception e) {
@@ -161,6 +234,186 @@ public class RetrieveResultServlet extends HttpServlet {
         }
     }
 
+    /**
+     * The stored content and its compressed form are different
+     * representations, so the compressed one is tagged with its content-coding.
+     * XML is re-serialized, so it is only weakly equal to the stored content.
+     * 
+     * @return the entity tag of the served representation, <code>null</code>
+     *         if unknown
+     */
+    protected String getETag(ResultMetadata metadata, boolean xml, boolean encoded) {
+        String eTag = metadata.getETag();
+        if (eTag == null) {
+            return null;
+        }
+        if (encoded) {
+            return eTag.substring(0, eTag.length() - 1) + "-" + metadata.getEncoding() + "\"";
+        }
+        return xml ? "W/" + eTag : eTag;
+    }
+
+    /**
+     * @return the database of the stored results
+     */
+    protected IDatabase getDatabase() {
+        return DatabaseFactory.getDatabase();
+    }
+
+    /**
+     * @param eTag
+     *        the entity tag of the served representation
+     * @param xml
+     *        whether the XML response is served, which changes with status
+     *        updates, so only its entity tag is compared
+     * @return <code>true</code> if the client already has the served
+     *         representation
+     */
+    protected boolean isNotModified(HttpServletRequest request, ResultMetadata metadata, String eTag, boolean xml) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (eTag == null) {
+                return false;
+            }
+            // weak comparison
+            String opaqueTag = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if ("*".equals(candidate) || opaqueTag.equals(candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (xml) {
+            return false;
+        }
+        // stored complex values do not change after their creation
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        return ifModifiedSince > -1 && metadata.getCreated() > 0
+                && metadata.getCreated() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Parses a single byte range, multiple ranges are served as the whole
+     * content.
+     * 
+     * @return the first and last byte of the range, <code>null</code> for the
+     *         whole content or {@link #RANGE_NOT_SATISFIABLE}
+     */
+    protected long[] parseRange(HttpServletRequest request, ResultMetadata metadata) {
+        String range = request.getHeader("Range");
+        if (range == null || !range.startsWith("bytes=")) {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if ( !ifRange.equals(metadata.getETag())) {
+                    return null;
+                }
+            } else {
+                long ifRangeDate = getDateHeader(request, "If-Range");
+                if (ifRangeDate < 0 || metadata.getCreated() / 1000 != ifRangeDate / 1000) {
+                    return null;
+                }
+            }
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') > -1) {
+            return null;
+        }
+        long contentLength = metadata.getContentLength();
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1).trim());
+                if (suffixLength <= 0 || contentLength == 0) {
+                    return RANGE_NOT_SATISFIABLE;
+                }
+                first = Math.max(0, contentLength - suffixLength);
+                last = contentLength - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash).trim());
+                last = dash == spec.length() - 1 ? contentLength - 1
+                                                 : Math.min(Long.parseLong(spec.substring(dash + 1).trim()), contentLength - 1);
+                if (first >= contentLength || last < first) {
+                    return RANGE_NOT_SATISFIABLE;
+                }
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    protected boolean isEncodingAccepted(HttpServletRequest request, String encoding) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.trim().split(";");
+            if (encoding.equalsIgnoreCase(parameters[0].trim())) {
+                return parameters.length < 2 || !parameters[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a range of a file to the response, using the sendfile support of
+     * the container if available.
+     */
+    protected void sendFile(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            File file,
+            long start,
+            long length,
+            String id) throws IOException {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, Long.valueOf(start));
+            request.setAttribute(SENDFILE_END, Long.valueOf(start + length));
+            LOGGER.info("{} bytes of {} handed to container in response to id {}", new Object[] { length, file.getName(), id });
+            return;
+        }
+        FileInputStream fileInputStream = new FileInputStream(file);
+        long position = start;
+        try {
+            FileChannel fileChannel = fileInputStream.getChannel();
+            WritableByteChannel responseChannel = Channels.newChannel(response.getOutputStream());
+            long end = start + length;
+            while (position < end) {
+                long transferred = fileChannel.transferTo(position, end - position, responseChannel);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        } catch (IOException e) {
+            throw new IOException(String.format("Error writing response to output stream for id %s, %d of %d bytes written",
+                                                id, position - start, length), e);
+        } finally {
+            IOUtils.closeQuietly(fileInputStream);
+        }
+        LOGGER.info("{} bytes written in response to id {}", position - start, id);
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
     protected void errorResponse(String error, HttpServletResponse response) throws IOException {
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -0,0 +1,170 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.handler;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes requests for algorithms that mostly wait for remote services or
+ * external processes (see {@link org.n52.wps.server.IDelegatingAlgorithm}).
+ * These requests do not occupy the threads of the {@link RequestExecutor},
+ * which remain available for algorithms computing within the JVM.
+ * 
+ * On a JVM supporting virtual threads every request runs on its own virtual
+ * thread, otherwise on a pool of platform threads with a small stack. In both
+ * cases at most <code>maxConcurrentRequests</code> requests run at a time,
+ * further requests wait for a free slot.
+ */
+public class IORequestExecutor extends AbstractExecutorService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IORequestExecutor.class);
+
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 200;
+	public static final int KEEP_ALIVE_SECONDS = 60;
+	public static final int MAX_QUEUED_TASKS = 1000;
+	// waiting threads need little stack
+	public static final long THREAD_STACK_SIZE = 256 * 1024;
+
+	private final ExecutorService delegate;
+	private final Semaphore permits;
+
+	/**
+	 * Create an IORequestExecutor.
+	 * 
+	 * @param maxConcurrentRequests the maximum number of requests running at a time
+	 * @param useVirtualThreads use virtual threads if supported by the JVM
+	 */
+	public IORequestExecutor(int maxConcurrentRequests, boolean useVirtualThreads) {
+		ExecutorService virtualThreadExecutor = useVirtualThreads ? createVirtualThreadExecutor() : null;
+		if (virtualThreadExecutor != null) {
+			LOGGER.info("Executing delegating algorithms on virtual threads, at most {} at a time", maxConcurrentRequests);
+			this.delegate = virtualThreadExecutor;
+		} else {
+			LOGGER.info("Executing delegating algorithms on up to {} platform threads", maxConcurrentRequests);
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(
+					maxConcurrentRequests, maxConcurrentRequests,
+					KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS),
+					new SmallStackThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+			this.delegate = executor;
+		}
+		this.permits = new Semaphore(maxConcurrentRequests, true);
+	}
+
+	/**
+	 * @return <code>Executors.newVirtualThreadPerTaskExecutor()</code> or
+	 *         <code>null</code> if the JVM does not support virtual threads
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			LOGGER.debug("Virtual threads are not supported by this JVM");
+		} catch (Exception e) {
+			LOGGER.warn("Unable to create virtual thread executor", e);
+		}
+		return null;
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		delegate.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					if (command instanceof Future) {
+						((Future<?>) command).cancel(false);
+					}
+					return;
+				}
+				try {
+					command.run();
+				} finally {
+					permits.release();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	private static class SmallStackThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(null, r, "IORequestExecutor-" + count.incrementAndGet(), THREAD_STACK_SIZE);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -43,7 +44,12 @@ import org.apache.commons.collections.map.CaseInsensitiveMap;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.n52.wps.ServerDocument.Server;
+import org.n52.wps.commons.PropertyUtil;
+import org.n52.wps.commons.WPSConfig;
 import org.n52.wps.server.ExceptionReport;
+import org.n52.wps.server.IAlgorithm;
+import org.n52.wps.server.IDelegatingAlgorithm;
 import org.n52.wps.server.WebProcessingService;
 import org.n52.wps.server.request.CapabilitiesRequest;
 import org.n52.wps.server.request.DescribeProcessRequest;
@@ -73,6 +79,13 @@ public class RequestHandler {
 	/** Computation timeout in seconds */
 	protected static RequestExecutor pool = new RequestExecutor();
 
+	/** Executes the requests of algorithms waiting for remote services or external processes */
+	private static ExecutorService ioPool;
+
+	private static final String KEY_ROOT = "org.n52.wps.server";
+	private static final String KEY_IO_MAX_CONCURRENT_REQUESTS = "execution.io.maxConcurrentRequests";
+	private static final String KEY_IO_VIRTUAL_THREADS = "execution.io.virtualThreads";
+
 	protected OutputStream os;
 
 	private static Logger LOGGER = LoggerFactory.getLogger(RequestHandler.class);
@@ -296,13 +309,13 @@ public class RequestHandler {
 					InputStream is = resp.getAsStream();
 					IOUtils.copy(is, os);
 					is.close();
-                    pool.submit(execReq);
+                    getExecutor(execReq).submit(execReq);
 					return;
 				}
 				try {
 					// retrieve status with timeout enabled
 					try {
-						resp = pool.submit(execReq).get();
+						resp = getExecutor(execReq).submit(execReq).get();
 					}
 					catch (ExecutionException ee) {
 						LOGGER.warn("exception while handling ExecuteRequest.");
@@ -339,9 +352,7 @@ public class RequestHandler {
 						throw new ExceptionReport("Problem with handling threads in RequestHandler", ExceptionReport.NO_APPLICABLE_CODE);
 					}
 					if(!execReq.isStoreResponse()) {
-						InputStream is = resp.getAsStream();
-						IOUtils.copy(is, os);
-						is.close();
+						resp.save(os);
 						LOGGER.info("Served ExecuteRequest.");
 					}
 				}
@@ -372,6 +383,40 @@ public class RequestHandler {
 		}
 	}
 	
+	/**
+	 * Selects the executor for a request. Algorithms delegating to remote
+	 * services or external processes run on the {@link IORequestExecutor},
+	 * all others on the {@link RequestExecutor}.
+	 * 
+	 * @param req the request to execute
+	 * @return the executor
+	 */
+	protected ExecutorService getExecutor(ExecuteRequest req) {
+		IAlgorithm algorithm;
+		try {
+			algorithm = req.getAlgorithm();
+		} catch (RuntimeException e) {
+			// reported by the request once it is executed
+			LOGGER.debug("Unable to look up algorithm {}", req.getAlgorithmIdentifier(), e);
+			return pool;
+		}
+		if (algorithm instanceof IDelegatingAlgorithm) {
+			return getIOExecutor();
+		}
+		return pool;
+	}
+
+	private static synchronized ExecutorService getIOExecutor() {
+		if (ioPool == null) {
+			Server server = WPSConfig.getInstance().getWPSConfig().getServer();
+			PropertyUtil propertyUtil = new PropertyUtil(server.getPropertyArray(), KEY_ROOT);
+			ioPool = new IORequestExecutor(
+					(int) propertyUtil.extractLong(KEY_IO_MAX_CONCURRENT_REQUESTS, IORequestExecutor.DEFAULT_MAX_CONCURRENT_REQUESTS),
+					propertyUtil.extractBoolean(KEY_IO_VIRTUAL_THREADS, true));
+		}
+		return ioPool;
+	}
+
 	protected void setResponseMimeType(ExecuteRequest req) {
 		if(req.isRawData()){
 			responseMimeType = req.getExecuteResponseBuilder().getMimeType();
@@ -38,8 +38,11 @@ import java.math.BigInteger;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -68,17 +71,23 @@ import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
 import org.n52.wps.commons.context.ExecutionContext;
 import org.n52.wps.commons.context.ExecutionContextFactory;
+import org.n52.wps.commons.context.TempFileManager;
 import org.n52.wps.io.data.IComplexData;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.server.AbstractTransactionalAlgorithm;
 import org.n52.wps.server.ExceptionReport;
 import org.n52.wps.server.IAlgorithm;
 import org.n52.wps.server.RepositoryManager;
+import org.n52.wps.server.database.DatabaseBatch;
 import org.n52.wps.server.database.DatabaseFactory;
+import org.n52.wps.server.database.IDatabase;
+import org.n52.wps.server.database.ImmediateDatabaseBatch;
 import org.n52.wps.server.observerpattern.IObserver;
 import org.n52.wps.server.observerpattern.ISubject;
+import org.n52.wps.server.request.ExecutionDeduplicator.SharedExecution;
 import org.n52.wps.server.response.ExecuteResponse;
 import org.n52.wps.server.response.ExecuteResponseBuilder;
+import org.n52.wps.server.response.ResultCache;
 import org.n52.wps.server.response.Response;
 import org.n52.wps.util.XMLBeansHelper;
 import org.slf4j.Logger;
@@ -94,6 +103,14 @@ public class ExecuteRequest extends Request implements IObserver {
 	private static Logger LOGGER = LoggerFactory.getLogger(ExecuteRequest.class);
 	private ExecuteDocument execDom;
 	private Map<String, IData> returnResults;
+	// parsed inputs, disposed with the results as an output may be an input
+	private Map<String, List<IData>> inputData;
+	private IAlgorithm algorithm;
+	private SharedExecution sharedExecution;
+	// the temporary files were handed to the shared execution with the results
+	private volatile boolean tempFilesShared;
+	private ResultCache.Writer resultCacheWriter;
+	private volatile ExecutionContext executionContext;
 	private ExecuteResponseBuilder execRespType;
 	
 	
@@ -635,7 +652,7 @@ public class ExecuteRequest extends Request implements IObserver {
 	 */
 	public Response call() throws ExceptionReport {
         IAlgorithm algorithm = null;
-        Map<String, List<IData>> inputMap = null;
+        boolean completed = false;
 		try {
 			ExecutionContext context;
 			if (getExecute().isSetResponseForm()) {
@@ -646,6 +663,7 @@ public class ExecuteRequest extends Request implements IObserver {
 			else {
 				context = new ExecutionContext();
 			}
+			executionContext = context;
 	
 				// register so that any function that calls ExecuteContextFactory.getContext() gets the instance registered with this thread
 			ExecutionContextFactory.registerContext(context);
@@ -654,23 +672,7 @@ public class ExecuteRequest extends Request implements IObserver {
             
 			updateStatusStarted();
             
-			// parse the input
-			InputType[] inputs = new InputType[0];
-			if( getExecute().getDataInputs()!=null){
-				inputs = getExecute().getDataInputs().getInputArray();
-			}
-			InputHandler parser = new InputHandler.Builder(inputs, getAlgorithmIdentifier()).build();
-			
-			// we got so far:
-			// get the algorithm, and run it with the clients input
-		
-			/*
-			 * IAlgorithm algorithm =
-			 * RepositoryManager.getInstance().getAlgorithm(getAlgorithmIdentifier());
-			 * returnResults = algorithm.run((Map)parser.getParsedInputLayers(),
-			 * (Map)parser.getParsedInputParameters());
-			 */
-			algorithm = RepositoryManager.getInstance().getAlgorithm(getAlgorithmIdentifier());
+			algorithm = getAlgorithm();
 			
 			if(algorithm instanceof ISubject){
 				ISubject subject = (ISubject) algorithm;
@@ -678,21 +680,95 @@ public class ExecuteRequest extends Request implements IObserver {
 				
 			}
 			
-			if(algorithm instanceof AbstractTransactionalAlgorithm){
-				returnResults = ((AbstractTransactionalAlgorithm)algorithm).run(execDom);
+			// results of deterministic processes may already be cached
+			ResultCache resultCache = ResultCache.getInstance();
+			String cacheKey = null;
+			Map<String, IData> cachedResults = null;
+			if (resultCache.isCacheable(algorithm, execDom)) {
+				cacheKey = ResultCache.createKey(execDom, algorithm.getDescription().getProcessVersion());
+				cachedResults = resultCache.lookup(cacheKey);
+			}
+			
+			// identical executions of deterministic processes share their results
+			SharedExecution shared = null;
+			ExecutionDeduplicator deduplicator = ExecutionDeduplicator.getInstance();
+			if (cachedResults == null && deduplicator.isShareable(algorithm, execDom)) {
+				String key = ExecutionDeduplicator.createKey(execDom, algorithm.getDescription().getProcessVersion());
+				shared = deduplicator.join(key);
+				sharedExecution = shared;
+			}
+			
+			List<String> errorList;
+			if (cachedResults != null) {
+				returnResults = cachedResults;
+				errorList = null;
+			} else if (shared == null || shared.claim()) {
+				try {
+					// parse the input
+					InputType[] inputs = new InputType[0];
+					if( getExecute().getDataInputs()!=null){
+						inputs = getExecute().getDataInputs().getInputArray();
+					}
+					InputHandler parser = new InputHandler.Builder(inputs, getAlgorithmIdentifier()).build();
+					
+					// we got so far:
+					// run the algorithm with the clients input
+					if(algorithm instanceof AbstractTransactionalAlgorithm){
+						returnResults = ((AbstractTransactionalAlgorithm)algorithm).run(execDom);
+					} else {
+						inputData = parser.getParsedInputData();
+						returnResults = algorithm.run(inputData);
+					}
+					errorList = algorithm.getErrors();
+				} catch (Throwable e) {
+					if (shared != null) {
+						shared.fail(e);
+					}
+					throw e;
+				}
+				if (cacheKey != null && (errorList == null || errorList.isEmpty())) {
+					// started before the results are shared, so identical requests
+					// wait for the recorded outputs instead of generating them again
+					resultCacheWriter = resultCache.newWriter(cacheKey);
+				}
+				if (shared != null) {
+					// the results may be backed by temporary files of this request,
+					// identical requests still use them after this one is done
+					shared.complete(returnResults, errorList, context.getTempFileManager());
+					tempFilesShared = true;
+				}
 			} else {
-				inputMap = parser.getParsedInputData();
-				returnResults = algorithm.run(inputMap);
-			} 
+				LOGGER.info("Sharing results of identical execution {}", shared.getKey());
+				returnResults = shared.await();
+				errorList = shared.getErrors();
+				if (cacheKey != null && (errorList == null || errorList.isEmpty())) {
+					cachedResults = resultCache.awaitLookup(cacheKey);
+					if (cachedResults != null) {
+						// the outputs recorded by the first request are served as stored
+						returnResults = cachedResults;
+						synchronized (this) {
+							sharedExecution = null;
+						}
+						shared.release();
+					} else {
+						resultCacheWriter = resultCache.newWriter(cacheKey);
+					}
+				}
+			}
 
-            List<String> errorList = algorithm.getErrors();
             if (errorList != null && !errorList.isEmpty()) {
                 String errorMessage = errorList.get(0);
                 LOGGER.error("Error reported while handling ExecuteRequest for " + getAlgorithmIdentifier() + ": " + errorMessage);
                 updateStatusError(errorMessage);
             } else {
+                // outputs are generated into the cache by updateStatusSuccess(),
+                // raw data while ExecuteResponse.save(..) writes it
                 updateStatusSuccess();
+                if (resultCacheWriter != null && !(isRawData() && getExecuteResponseBuilder().hasStreamedOutputs())) {
+                    resultCacheWriter.commit(returnResults);
+                }
             }
+            completed = true;
 		} catch(Throwable e) {
             String errorMessage = null;
             if (algorithm != null && algorithm.getErrors() != null && !algorithm.getErrors().isEmpty()) {
@@ -721,21 +797,10 @@ public class ExecuteRequest extends Request implements IObserver {
             if (algorithm instanceof ISubject) {
                 ((ISubject)algorithm).removeObserver(this);
             }
-            if (inputMap != null) {
-                for(List<IData> l : inputMap.values()) {
-                    for (IData d : l) {
-                        if (d instanceof IComplexData) {
-                            ((IComplexData)d).dispose();
-                        }
-                    }
-                }
-            }
-            if (returnResults != null) {
-                for (IData d : returnResults.values()) {
-                    if (d instanceof IComplexData) {
-                        ((IComplexData)d).dispose();
-                    }
-                }
+            // streamed outputs are generated while the response is written,
+            // the results and inputs are disposed by ExecuteResponse.save(..) then
+            if (!completed || !getExecuteResponseBuilder().hasStreamedOutputs()) {
+                disposeAttachedResults();
             }
 		}
 		
@@ -757,6 +822,19 @@ public class ExecuteRequest extends Request implements IObserver {
 		return null;
 	}
 	
+	/**
+	 * Gets the instance of the algorithm the client requested, the instance is
+	 * created on first access.
+	 * 
+	 * @return The algorithm or <code>null</code> if it is unknown
+	 */
+	public synchronized IAlgorithm getAlgorithm() {
+		if (algorithm == null) {
+			algorithm = RepositoryManager.getInstance().getAlgorithm(getAlgorithmIdentifier());
+		}
+		return algorithm;
+	}
+
 	/**
 	 * Gets the Execute that is associated with this Request
 	 * 
@@ -770,6 +848,86 @@ public class ExecuteRequest extends Request implements IObserver {
 		return returnResults;
 	}
 
+	/**
+	 * @return the writer the outputs are generated into while the results of a
+	 *         cacheable execution are recorded, <code>null</code> otherwise
+	 */
+	public ResultCache.Writer getResultCacheWriter() {
+		return resultCacheWriter != null && resultCacheWriter.isOpen() ? resultCacheWriter : null;
+	}
+
+	/**
+	 * @return the context of the execution, <code>null</code> if it has not
+	 *         been started yet
+	 */
+	public ExecutionContext getExecutionContext() {
+		return executionContext;
+	}
+
+	/**
+	 * Makes the outputs generated into the result cache while the response was
+	 * written visible to identical requests.
+	 */
+	public void commitResultCache() {
+		if (resultCacheWriter != null) {
+			resultCacheWriter.commit(returnResults);
+		}
+	}
+
+	/**
+	 * Disposes the complex data inputs and results of the algorithm and deletes
+	 * the temporary files written while handling the request. Inputs that are
+	 * returned as a result are disposed as a result only. The results and
+	 * temporary files of an execution shared with identical requests are
+	 * released to the shared execution instead.
+	 */
+	public void disposeAttachedResults() {
+		if (resultCacheWriter != null) {
+			// discards outputs that have not been committed
+			resultCacheWriter.abort();
+			resultCacheWriter.dispose();
+		}
+		SharedExecution shared;
+		Map<String, List<IData>> inputs;
+		synchronized (this) {
+			shared = sharedExecution;
+			sharedExecution = null;
+			inputs = inputData;
+			inputData = null;
+		}
+		if (inputs != null) {
+			Set<IData> results = Collections.newSetFromMap(new IdentityHashMap<IData, Boolean>());
+			if (returnResults != null) {
+				results.addAll(returnResults.values());
+			}
+			for (List<IData> l : inputs.values()) {
+				for (IData d : l) {
+					if (d instanceof IComplexData && !results.contains(d)) {
+						((IComplexData)d).dispose();
+					}
+				}
+			}
+		}
+		if (shared != null) {
+			// results are disposed once all requests sharing them are done
+			shared.release();
+		} else if (returnResults != null) {
+			for (IData d : returnResults.values()) {
+				if (d instanceof IComplexData) {
+					((IComplexData)d).dispose();
+				}
+			}
+		}
+		ExecutionContext context = executionContext;
+		if (context != null && !tempFilesShared) {
+			TempFileManager tempFiles = context.getTempFileManager();
+			if (tempFiles.cleanup()) {
+				LOGGER.info("Request {} removed {} temporary files ({} bytes), {} files could not be removed",
+						getUniqueId(), tempFiles.getDeletedFiles(), tempFiles.getDeletedBytes(), tempFiles.getFailedFiles());
+			}
+		}
+	}
+
 	public boolean isStoreResponse() {
 		if (execDom.getExecute().getResponseForm() == null) {
 			return false;
@@ -854,22 +1012,28 @@ public class ExecuteRequest extends Request implements IObserver {
 	
 	private void updateStatus(StatusType status) {
 		getExecuteResponseBuilder().setStatus(status);
+		// outputs stored as reference are committed together with the final
+		// response, status updates are stored at once
+		IDatabase database = DatabaseFactory.getDatabase();
+		DatabaseBatch batch = status.isSetProcessSucceeded() ? database.beginBatch() : new ImmediateDatabaseBatch(database);
         try {
-            getExecuteResponseBuilder().update();
+            getExecuteResponseBuilder().update(batch);
             if (isStoreResponse()) {
                 ExecuteResponse executeResponse = new ExecuteResponse(this);
                 InputStream is = null;
                 try {
                     is = executeResponse.getAsStream();
-                    DatabaseFactory.getDatabase().storeResponse(
-                            getUniqueId().toString(), is);
+                    batch.storeResponse(getUniqueId().toString(), is);
                 } finally {
                     IOUtils.closeQuietly(is);
                 }
             }
+            batch.commit();
         } catch (ExceptionReport e) {
             LOGGER.error("Update of process status failed.", e);
             throw new RuntimeException(e);
+        } finally {
+            batch.close();
         }
 	}
     
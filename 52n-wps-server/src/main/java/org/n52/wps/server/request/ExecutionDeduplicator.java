@@ -0,0 +1,405 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.request;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.opengis.wps.x100.ExecuteDocument;
+import net.opengis.wps.x100.ExecuteDocument.Execute;
+import net.opengis.wps.x100.InputType;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.xmlbeans.XmlOptions;
+import org.n52.wps.ServerDocument.Server;
+import org.n52.wps.commons.PropertyUtil;
+import org.n52.wps.commons.WPSConfig;
+import org.n52.wps.commons.context.TempFileManager;
+import org.n52.wps.io.data.IComplexData;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.server.AbstractDescriptorAlgorithm;
+import org.n52.wps.server.AbstractTransactionalAlgorithm;
+import org.n52.wps.server.ExceptionReport;
+import org.n52.wps.server.IAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Lets concurrent identical executions of deterministic processes share a
+ * single computation.
+ * 
+ * Executions are keyed by a hash of the process identifier, the process
+ * version and the data inputs of the Execute request. The first request for a
+ * key runs the process, identical requests arriving while it is running wait
+ * for and reuse its results. Successful results are kept for a short time so
+ * that near-simultaneous repeats are answered without running the process
+ * again. The results are reference counted and disposed once the last request
+ * (and the cache) released them, together with the temporary files of the
+ * request that computed them.
+ * 
+ * Only processes declaring themselves deterministic (see
+ * {@link org.n52.wps.algorithm.annotation.Algorithm#deterministic()}) take part,
+ * executions with inputs given by reference are never shared.
+ */
+public class ExecutionDeduplicator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionDeduplicator.class);
+
+    private static final String KEY_ROOT = "org.n52.wps.server";
+    private static final String KEY_ENABLED = "deduplication.enabled";
+    private static final String KEY_TTL = "deduplication.ttl";
+    private static final String KEY_SIZE = "deduplication.size";
+
+    private static final boolean DEFAULT_ENABLED = true;
+    private static final long DEFAULT_TTL = 1000 * 10; // PT10S
+    private static final long DEFAULT_SIZE = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ExecutionDeduplicator instance;
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, SharedExecution> inFlight;
+    private final Cache<String, SharedExecution> recent;
+
+    ExecutionDeduplicator(boolean enabled, long ttl, long size) {
+        this.enabled = enabled;
+        this.inFlight = new ConcurrentHashMap<String, SharedExecution>();
+        if (ttl > 0 && size > 0) {
+            this.recent = CacheBuilder.newBuilder()
+                    .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                    .maximumSize(size)
+                    .removalListener(new RemovalListener<String, SharedExecution>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<String, SharedExecution> notification) {
+                            notification.getValue().release();
+                        }
+                    })
+                    .build();
+        } else {
+            this.recent = null;
+        }
+    }
+
+    public static synchronized ExecutionDeduplicator getInstance() {
+        if (instance == null) {
+            Server server = WPSConfig.getInstance().getWPSConfig().getServer();
+            PropertyUtil propertyUtil = new PropertyUtil(server.getPropertyArray(), KEY_ROOT);
+            instance = new ExecutionDeduplicator(
+                    propertyUtil.extractBoolean(KEY_ENABLED, DEFAULT_ENABLED),
+                    propertyUtil.extractPeriodAsMillis(KEY_TTL, DEFAULT_TTL),
+                    propertyUtil.extractLong(KEY_SIZE, DEFAULT_SIZE));
+        }
+        return instance;
+    }
+
+    /**
+     * @param algorithm
+     *        the algorithm to be executed
+     * @param execDom
+     *        the Execute request
+     * @return <code>true</code> if the execution may be shared
+     */
+    public boolean isShareable(IAlgorithm algorithm, ExecuteDocument execDom) {
+        return enabled && isDeterministic(algorithm) && !hasReferenceInputs(execDom);
+    }
+
+    /**
+     * @param algorithm
+     *        the algorithm to be executed
+     * @return <code>true</code> if the algorithm declares that its results
+     *         only depend on its inputs
+     */
+    public static boolean isDeterministic(IAlgorithm algorithm) {
+        return algorithm instanceof AbstractDescriptorAlgorithm &&
+                !(algorithm instanceof AbstractTransactionalAlgorithm) &&
+                ((AbstractDescriptorAlgorithm) algorithm).isDeterministic();
+    }
+
+    /**
+     * Only the href of an input given by reference contributes to the key of
+     * an execution, not the content it resolves to. That content may change
+     * between requests, so such executions must neither be shared nor cached.
+     * 
+     * @param execDom
+     *        the Execute request
+     * @return <code>true</code> if any data input is given by reference
+     */
+    public static boolean hasReferenceInputs(ExecuteDocument execDom) {
+        if (execDom.getExecute().getDataInputs() == null) {
+            return false;
+        }
+        for (InputType input : execDom.getExecute().getDataInputs().getInputArray()) {
+            if (input.isSetReference()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the execution shared by all requests with the given key. The
+     * caller holds a reference to the returned execution and has to
+     * {@link SharedExecution#release() release} it once the results are no
+     * longer needed.
+     * 
+     * @param key
+     *        the key as created by {@link #createKey(ExecuteDocument, String)}
+     * @return the shared execution
+     */
+    public SharedExecution join(String key) {
+        while (true) {
+            if (recent != null) {
+                SharedExecution cached = recent.getIfPresent(key);
+                if (cached != null && cached.retain()) {
+                    LOGGER.debug("Reusing recent results of execution {}", key);
+                    return cached;
+                }
+            }
+            SharedExecution created = new SharedExecution(key);
+            SharedExecution existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                return created;
+            }
+            if (existing.retain()) {
+                LOGGER.debug("Joining running execution {}", key);
+                return existing;
+            }
+            // completed and released while we were looking, try again
+            inFlight.remove(key, existing);
+        }
+    }
+
+    private void completed(SharedExecution execution) {
+        inFlight.remove(execution.key, execution);
+        if (recent != null && execution.isSuccessful() && execution.retain()) {
+            recent.put(execution.key, execution);
+        }
+    }
+
+    /**
+     * Creates the key of an execution. Only the process identifier, the given
+     * process version and the data inputs contribute to the key, the inputs
+     * are ordered by their identifier (keeping the order of repeated inputs).
+     * Inputs given by reference contribute their href only, see
+     * {@link #hasReferenceInputs(ExecuteDocument)}.
+     * 
+     * @param execDom
+     *        the Execute request
+     * @param version
+     *        the version of the process, may be <code>null</code>
+     * @return the hex encoded SHA-256 hash identifying the execution
+     * @throws ExceptionReport
+     *         if the key could not be computed
+     */
+    public static String createKey(ExecuteDocument execDom, String version) throws ExceptionReport {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ExceptionReport("Unable to compute execution key", ExceptionReport.NO_APPLICABLE_CODE, e);
+        }
+        Execute execute = execDom.getExecute();
+        digest.update(String.valueOf(execute.getIdentifier().getStringValue()).getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(version).getBytes(UTF_8));
+
+        List<InputType> inputs = new ArrayList<InputType>();
+        if (execute.getDataInputs() != null) {
+            inputs.addAll(Arrays.asList(execute.getDataInputs().getInputArray()));
+        }
+        // stable sort, the order of repeated inputs is significant
+        Collections.sort(inputs, new Comparator<InputType>() {
+            @Override
+            public int compare(InputType o1, InputType o2) {
+                return o1.getIdentifier().getStringValue().compareTo(o2.getIdentifier().getStringValue());
+            }
+        });
+
+        XmlOptions options = new XmlOptions()
+                .setSaveOuter()
+                .setSaveNoXmlDecl()
+                .setSaveAggressiveNamespaces()
+                .setCharacterEncoding(UTF_8.name());
+        OutputStream os = new DigestOutputStream(new NullOutputStream(), digest);
+        try {
+            for (InputType input : inputs) {
+                digest.update((byte) 0);
+                input.save(os, options);
+            }
+        } catch (IOException e) {
+            throw new ExceptionReport("Unable to compute execution key", ExceptionReport.NO_APPLICABLE_CODE, e);
+        }
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * The state of an execution shared between requests.
+     */
+    public class SharedExecution {
+
+        private final String key;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int references = 1;
+        private volatile Map<String, IData> results;
+        private volatile List<String> errors;
+        private volatile Throwable failure;
+        private volatile TempFileManager tempFiles;
+
+        private SharedExecution(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Claims the computation, the first caller has to run the process and
+         * to report its outcome with {@link #complete(Map, List)} or
+         * {@link #fail(Throwable)}. All other callers {@link #await()} it.
+         * 
+         * @return <code>true</code> if the caller has to run the process
+         */
+        public boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Reports the results of the computation.
+         * 
+         * @param tempFiles
+         *        the temporary files of the computing request that may back the
+         *        results, they are removed after the last reference has been
+         *        released, may be <code>null</code>
+         */
+        public void complete(Map<String, IData> results, List<String> errors, TempFileManager tempFiles) {
+            this.results = results;
+            this.errors = errors;
+            this.tempFiles = tempFiles;
+            done.countDown();
+            completed(this);
+        }
+
+        public void fail(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+            completed(this);
+        }
+
+        /**
+         * Waits for the computation to complete.
+         * 
+         * @return the results of the process
+         * @throws ExceptionReport
+         *         if the computation failed or waiting was interrupted
+         */
+        public Map<String, IData> await() throws ExceptionReport {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExceptionReport("Interrupted while waiting for shared execution", ExceptionReport.NO_APPLICABLE_CODE, e);
+            }
+            if (failure instanceof ExceptionReport) {
+                throw (ExceptionReport) failure;
+            } else if (failure != null) {
+                throw new ExceptionReport("Error while executing the shared process execution", ExceptionReport.NO_APPLICABLE_CODE, failure);
+            }
+            return results;
+        }
+
+        /**
+         * @return the errors reported by the process, only valid after
+         *         {@link #await()} returned
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        private boolean isSuccessful() {
+            return failure == null && results != null && (errors == null || errors.isEmpty());
+        }
+
+        private synchronized boolean retain() {
+            if (references == 0) {
+                return false;
+            }
+            references++;
+            return true;
+        }
+
+        /**
+         * Releases a reference to the results, the results are disposed and the
+         * temporary files of the computing request are removed after the last
+         * reference has been released.
+         */
+        public void release() {
+            synchronized (this) {
+                if (references == 0 || --references > 0) {
+                    return;
+                }
+            }
+            if (results != null) {
+                LOGGER.debug("Disposing results of shared execution {}", key);
+                for (IData d : results.values()) {
+                    if (d instanceof IComplexData) {
+                        ((IComplexData) d).dispose();
+                    }
+                }
+            }
+            if (tempFiles != null && tempFiles.cleanup()) {
+                LOGGER.info("Shared execution {} removed {} temporary files ({} bytes), {} files could not be removed",
+                        new Object[] { key, tempFiles.getDeletedFiles(), tempFiles.getDeletedBytes(), tempFiles.getFailedFiles() });
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.response;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.n52.wps.io.data.IComplexData;
+
+/**
+ * Complex output that has already been generated into the
+ * {@link ResultCache}. The data is served as stored, no generator is involved.
+ */
+public class CachedComplexData implements IComplexData {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final transient ResultCache.Entry entry;
+    private final transient AtomicBoolean disposed = new AtomicBoolean();
+
+    CachedComplexData(File file, ResultCache.Entry entry) {
+        this.file = file;
+        this.entry = entry;
+    }
+
+    @Override
+    public File getPayload() {
+        return file;
+    }
+
+    @Override
+    public Class<?> getSupportedClass() {
+        return File.class;
+    }
+
+    /**
+     * @return the generated data, not base64 encoded
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public void dispose() {
+        if (entry != null && disposed.compareAndSet(false, true)) {
+            entry.release();
+        }
+    }
+}
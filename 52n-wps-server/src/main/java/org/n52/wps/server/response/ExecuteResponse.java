@@ -29,6 +29,10 @@
 package org.n52.wps.server.response;
 
 import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.n52.wps.commons.context.ExecutionContext;
+import org.n52.wps.commons.context.ExecutionContextFactory;
 import org.n52.wps.server.ExceptionReport;
 import org.n52.wps.server.request.ExecuteRequest;
 
@@ -46,6 +50,32 @@ public class ExecuteResponse extends Response {
 		return this.builder.getAsStream();
 	}
 	
+    @Override
+	public void save(OutputStream os) throws ExceptionReport{
+		ExecuteRequest executeRequest = (ExecuteRequest)this.request;
+		boolean streamed = this.builder.hasStreamedOutputs();
+		ExecutionContext context = executeRequest.getExecutionContext();
+		if (streamed && context != null) {
+			// temporary files of the generators are removed with the request
+			ExecutionContextFactory.registerContext(context);
+		}
+		try {
+			this.builder.save(os);
+			if (streamed) {
+				// raw data is recorded in the result cache while it is written
+				executeRequest.commitResultCache();
+			}
+		} finally {
+			if (streamed) {
+				if (context != null) {
+					ExecutionContextFactory.unregisterContext();
+				}
+				// the results were kept until the streamed outputs were generated
+				executeRequest.disposeAttachedResults();
+			}
+		}
+	}
+	
 	public ExecuteResponseBuilder getExecuteResponseBuilder(){
 		return builder;
 	}
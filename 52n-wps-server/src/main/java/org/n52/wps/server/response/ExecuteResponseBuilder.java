@@ -28,11 +28,23 @@
  */
 package org.n52.wps.server.response;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import net.opengis.ows.x11.DomainMetadataType;
 import net.opengis.ows.x11.LanguageStringType;
@@ -45,6 +57,8 @@ import net.opengis.wps.x100.OutputDescriptionType;
 import net.opengis.wps.x100.ProcessDescriptionType;
 import net.opengis.wps.x100.StatusType;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.xmlbeans.XmlCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +70,7 @@ import org.n52.wps.server.CapabilitiesConfiguration;
 import org.n52.wps.server.ExceptionReport;
 import org.n52.wps.server.RepositoryManager;
 import org.n52.wps.server.WebProcessingService;
+import org.n52.wps.server.database.DatabaseBatch;
 import org.n52.wps.server.database.DatabaseFactory;
 import org.n52.wps.server.request.ExecuteRequest;
 import org.n52.wps.server.request.Request;
@@ -71,6 +86,9 @@ import org.n52.wps.util.XMLBeansHelper;
  */
 public class ExecuteResponseBuilder {
 
+	private static final QName PROCESS_OUTPUTS = new QName(XMLBeansHelper.NS_WPS_1_0_0, "ProcessOutputs");
+	private static final QName COMPLEX_DATA = new QName(XMLBeansHelper.NS_WPS_1_0_0, "ComplexData");
+
 	private String identifier;
 	private DataInputsType dataInputs;
 	//private DocumentOutputDefinitionType[] outputDefs;
@@ -80,6 +98,8 @@ public class ExecuteResponseBuilder {
 	private ProcessDescriptionType description;
 	private static Logger LOGGER = LoggerFactory.getLogger(ExecuteResponseBuilder.class);
 	private Calendar creationTime;
+	// inline complex outputs that are generated while the response is written, in document order
+	private List<OutputDataItem> streamedOutputs = new ArrayList<OutputDataItem>();
 
 	public ExecuteResponseBuilder(ExecuteRequest request) throws ExceptionReport{
 		this.request = request;
@@ -107,6 +127,20 @@ public class ExecuteResponseBuilder {
 	}
 
 	public void update() throws ExceptionReport {
+		DatabaseBatch batch = DatabaseFactory.getDatabase().beginBatch();
+		try {
+			update(batch);
+			batch.commit();
+		} finally {
+			batch.close();
+		}
+	}
+
+	/**
+	 * Updates the response, outputs requested as reference are stored with the
+	 * given batch, so they can be committed together with the response.
+	 */
+	public void update(DatabaseBatch batch) throws ExceptionReport {
 		// copying the request parameters to the response
 		ExecuteResponse responseElem = doc.getExecuteResponse();
 
@@ -119,6 +153,7 @@ public class ExecuteResponseBuilder {
 				responseElem.setDataInputs(dataInputs);
 			}
 			responseElem.addNewProcessOutputs();
+			streamedOutputs.clear();
 			// has the client specified the outputs?
 			if (request.getExecute().isSetResponseForm()) {
 				// Get the outputdescriptions from the algorithm
@@ -132,7 +167,7 @@ public class ExecuteResponseBuilder {
 						String encoding = ExecuteResponseBuilder.getEncoding(desc, rawDataOutput);
 						String schema = ExecuteResponseBuilder.getSchema(desc, rawDataOutput);
 						String responseMimeType = getMimeType(rawDataOutput);
-						generateComplexDataOutput(id, false, true, schema, responseMimeType, encoding, null);
+						generateComplexDataOutput(id, false, true, schema, responseMimeType, encoding, null, batch);
 					}
 
 					else if (desc.isSetLiteralOutput()) {
@@ -162,7 +197,7 @@ public class ExecuteResponseBuilder {
 						String mimeType = getMimeType(definition);
 						String schema = ExecuteResponseBuilder.getSchema(desc, definition);
 						String encoding = ExecuteResponseBuilder.getEncoding(desc, definition);
-						generateComplexDataOutput(responseID, documentDef.getAsReference(), false,  schema, mimeType, encoding, desc.getTitle());
+						generateComplexDataOutput(responseID, documentDef.getAsReference(), false,  schema, mimeType, encoding, desc.getTitle(), batch);
 					}
 					else if (desc.isSetLiteralOutput()) {
 						String mimeType = null;
@@ -197,7 +232,7 @@ public class ExecuteResponseBuilder {
 						String schema = d[i].getComplexOutput().getDefault().getFormat().getSchema();
 						String encoding = d[i].getComplexOutput().getDefault().getFormat().getEncoding();
 						String mimeType = d[i].getComplexOutput().getDefault().getFormat().getMimeType();
-						generateComplexDataOutput(d[i].getIdentifier().getStringValue(), false, false, schema, mimeType, encoding, d[i].getTitle());
+						generateComplexDataOutput(d[i].getIdentifier().getStringValue(), false, false, schema, mimeType, encoding, d[i].getTitle(), batch);
 					}
 					else if(d[i].isSetLiteralOutput()) {
 						generateLiteralDataOutput(d[i].getIdentifier().getStringValue(), doc, false, d[i].getLiteralOutput().getDataType().getReference(), null, null, null, d[i].getTitle());
@@ -316,15 +351,27 @@ public class ExecuteResponseBuilder {
 		return mimeType;
 	}
 
-	private void generateComplexDataOutput(String responseID, boolean asReference, boolean rawData, String schema, String mimeType, String encoding, LanguageStringType title) throws ExceptionReport{
+	private void generateComplexDataOutput(String responseID, boolean asReference, boolean rawData, String schema, String mimeType, String encoding, LanguageStringType title, DatabaseBatch batch) throws ExceptionReport{
 		IData obj = request.getAttachedResult().get(responseID);
+		// results of cacheable executions are generated into the result cache
+		ResultCache.Writer cacheWriter = request.getResultCacheWriter();
 		if(rawData) {
 			rawDataHandler = new RawData(obj, responseID, schema, encoding, mimeType, this.identifier, description);
+			if (cacheWriter != null) {
+				rawDataHandler.cacheComplexData(cacheWriter);
+			}
 		}
 		else {
 			OutputDataItem handler = new OutputDataItem(obj, responseID, schema, encoding, mimeType, title, this.identifier, description);
+			if (cacheWriter != null) {
+				handler.cacheComplexData(cacheWriter);
+			}
 			if(asReference) {
-				handler.updateResponseAsReference(doc, (request.getUniqueId()).toString(),mimeType);
+				handler.updateResponseAsReference(doc, (request.getUniqueId()).toString(),mimeType, batch);
+			}
+			else if(isStreamedResponse()) {
+				handler.prepareResponseForStreamedComplexData(doc);
+				streamedOutputs.add(handler);
 			}
 			else {
 				handler.updateResponseForInlineComplexData(doc);
@@ -363,6 +410,11 @@ public class ExecuteResponseBuilder {
 			String statusLocation = DatabaseFactory.getDatabase().generateRetrieveResultURL(id);
 			doc.getExecuteResponse().setStatusLocation(statusLocation);
 		}
+		if(!streamedOutputs.isEmpty()) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			writeStreamedResponse(buffer);
+			return new ByteArrayInputStream(buffer.toByteArray());
+		}
 		try {
 			return doc.newInputStream(XMLBeansHelper.getXmlOptions());
 		}
@@ -371,6 +423,122 @@ public class ExecuteResponseBuilder {
 		}
 	}
 
+	/**
+	 * Writes the response to the given stream. Raw data outputs are written
+	 * while they are generated. Inline complex outputs of synchronous response
+	 * documents are not buffered in the XmlBeans document, they are generated
+	 * into spool files before the envelope is written, so a failing generator
+	 * still results in a complete exception report.
+	 *
+	 * @param os the stream to write to, usually the stream of the client
+	 * @throws ExceptionReport
+	 */
+	public void save(OutputStream os) throws ExceptionReport {
+		if(request.isRawData() && rawDataHandler != null) {
+			rawDataHandler.save(os);
+			return;
+		}
+		if(streamedOutputs.isEmpty()) {
+			InputStream is = getAsStream();
+			try {
+				IOUtils.copy(is, os);
+			} catch (IOException e) {
+				throw new ExceptionReport("Could not read from response stream.", ExceptionReport.NO_APPLICABLE_CODE, e);
+			} finally {
+				IOUtils.closeQuietly(is);
+			}
+			return;
+		}
+		writeStreamedResponse(os);
+	}
+
+	/**
+	 * @return true, if the complex outputs of this response are generated
+	 *         when the response is written
+	 */
+	public boolean hasStreamedOutputs() {
+		return !streamedOutputs.isEmpty() || (request.isRawData() && rawDataHandler != null);
+	}
+
+	private boolean isStreamedResponse() {
+		return !request.isStoreResponse() && !request.isRawData();
+	}
+
+	/*
+	 * The envelope is small once the inline complex outputs are left empty, so
+	 * it is serialized by XmlBeans and copied event by event. When an empty
+	 * ComplexData element of the process outputs is reached, the next output is
+	 * generated directly into it. Nothing is buffered, so a generator failure
+	 * after the first byte has been written leaves the client with a truncated
+	 * response; the status cannot be changed once it has been sent and the
+	 * failure is only reported through the log and the thrown ExceptionReport.
+	 */
+	private void writeStreamedResponse(OutputStream os) throws ExceptionReport {
+		XMLStreamReader reader = null;
+		XMLStreamWriter writer = null;
+		try {
+			ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+			doc.save(envelope, XMLBeansHelper.getXmlOptions());
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(envelope.toByteArray()));
+			writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+
+			Iterator<OutputDataItem> pending = streamedOutputs.iterator();
+			// > 0 while inside the ProcessOutputs element
+			int outputsDepth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (outputsDepth > 0) {
+						outputsDepth++;
+					} else if (PROCESS_OUTPUTS.equals(reader.getName())) {
+						outputsDepth = 1;
+					}
+					if (outputsDepth > 0 && COMPLEX_DATA.equals(reader.getName()) && pending.hasNext()) {
+						XMLStreamCopier.copyStartElement(reader, writer);
+						XMLStreamCopier.skipElement(reader);
+						pending.next().writeInlineComplexData(writer);
+						writer.writeEndElement();
+						outputsDepth--;
+						continue;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && outputsDepth > 0) {
+					outputsDepth--;
+				}
+				XMLStreamCopier.copyEvent(reader, writer);
+			}
+			writer.writeEndDocument();
+			writer.flush();
+		} catch (IOException e) {
+			throw new ExceptionReport("Could not write the execute response.", ExceptionReport.NO_APPLICABLE_CODE, e);
+		} catch (XMLStreamException e) {
+			throw new ExceptionReport("Could not write the execute response.", ExceptionReport.NO_APPLICABLE_CODE, e);
+		} finally {
+			closeQuietly(reader);
+			closeQuietly(writer);
+		}
+	}
+
+	private static void closeQuietly(XMLStreamReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				LOGGER.debug("Could not close XMLStreamReader", e);
+			}
+		}
+	}
+
+	private static void closeQuietly(XMLStreamWriter writer) {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (XMLStreamException e) {
+				LOGGER.debug("Could not close XMLStreamWriter", e);
+			}
+		}
+	}
+
 	public void setStatus(StatusType status) {
 		//workaround, should be generated either at the creation of the document or when the process has been finished.
 		status.setCreationTime(creationTime);
@@ -30,11 +30,18 @@ package org.n52.wps.server.response;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import net.opengis.ows.x11.BoundingBoxType;
 import net.opengis.ows.x11.CodeType;
@@ -56,14 +63,14 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
 import org.n52.wps.io.BasicXMLTypeFactory;
-import org.n52.wps.io.IOHandler;
 import org.n52.wps.io.data.IBBOXData;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.io.data.binding.literal.AbstractLiteralDataBinding;
 import org.n52.wps.server.ExceptionReport;
+import org.n52.wps.server.database.DatabaseBatch;
 import org.n52.wps.server.database.DatabaseFactory;
-import org.n52.wps.server.database.IDatabase;
 
+import com.google.common.base.Charsets;
 import com.google.common.primitives.Doubles;
 
 /*
@@ -118,19 +125,7 @@ public class OutputDataItem extends ResponseData {
 			//
 			// in case encoding is
 			//
-			InputStream stream = null;
-			if (encoding == null || encoding.equals("") || encoding.equalsIgnoreCase(IOHandler.DEFAULT_ENCODING)){
-				stream = generator.generateStream(super.obj, mimeType, schema);
-			}
-
-			// in case encoding is base64 create a new text node
-			// and parse the generator's result into it
-			else if (encoding.equalsIgnoreCase(IOHandler.ENCODING_BASE64)){
-				stream = generator.generateBase64Stream(super.obj, mimeType, schema);
-			}
-			else {
-				throw new ExceptionReport("Unable to generate encoding " + encoding, ExceptionReport.NO_APPLICABLE_CODE);
-			}
+			InputStream stream = generateStream();
 			complexData = output.addNewData().addNewComplexData();
 			if(mimeType.contains("xml") || mimeType.contains("XML")){
 				complexData.set(XmlObject.Factory.parse(stream));
@@ -141,7 +136,7 @@ public class OutputDataItem extends ResponseData {
 				ByteArrayOutputStream baos = new ByteArrayOutputStream();
 				IOUtils.copy(stream, baos);
 				stream.close();
-				String text = baos.toString();
+				String text = baos.toString(getTextCharset().name());
 				baos.close();
 				Node dataNode = document.createTextNode(text);
 				complexData.set(XmlObject.Factory.parse(dataNode));
@@ -175,6 +170,81 @@ public class OutputDataItem extends ResponseData {
 		}
 	}
 
+	/**
+	 * Adds the output element for inline complex data without generating its
+	 * content. The content is generated and written directly to the client by
+	 * {@link #writeInlineComplexData(XMLStreamWriter)} once the response is
+	 * streamed.
+	 *
+	 * @param res
+	 * @throws ExceptionReport
+	 */
+	public void prepareResponseForStreamedComplexData(ExecuteResponseDocument res) throws ExceptionReport {
+		OutputDataType output = prepareOutput(res);
+		prepareGenerator();
+		ComplexDataType complexData = output.addNewData().addNewComplexData();
+		if (schema != null) {
+			complexData.setSchema(schema);
+		}
+		if (encoding != null) {
+			complexData.setEncoding(encoding);
+		}
+		if (mimeType != null) {
+			complexData.setMimeType(mimeType);
+		}
+	}
+
+	/**
+	 * Generates the complex data and writes it as content of the current
+	 * element of <code>writer</code>. XML output is embedded as markup, any
+	 * other output (including base64) as text.
+	 *
+	 * @param writer
+	 * @throws ExceptionReport
+	 */
+	public void writeInlineComplexData(XMLStreamWriter writer) throws ExceptionReport {
+		InputStream stream = null;
+		try {
+			stream = generateStream();
+			if(mimeType.contains("xml") || mimeType.contains("XML")){
+				XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(stream);
+				try {
+					XMLStreamCopier.copyFragment(reader, writer);
+				} finally {
+					reader.close();
+				}
+			}else{
+				Reader reader = new InputStreamReader(stream, getTextCharset());
+				char[] buffer = new char[8192];
+				int read;
+				while ((read = reader.read(buffer)) != -1) {
+					writer.writeCharacters(buffer, 0, read);
+				}
+			}
+		} catch(RuntimeException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new ExceptionReport("Could not create Inline Complex Data from the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+		} catch (IOException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new ExceptionReport("Could not create Inline Complex Data from the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+		} catch (XMLStreamException e) {
+			LOGGER.error(e.getMessage(), e);
+			throw new ExceptionReport("Could not create Inline Complex Data from the process result. Check encoding (base64 for inline binary data or UTF-8 for XML based data)", ExceptionReport.NO_APPLICABLE_CODE, e);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+	}
+
+	/*
+	 * Base64 is ASCII, any other non-XML output is only accepted as UTF-8.
+	 */
+	private Charset getTextCharset() throws ExceptionReport {
+		if (isBase64Encoded()) {
+			return Charsets.US_ASCII;
+		}
+		return Charsets.UTF_8;
+	}
+
 	public void updateResponseForLiteralData(ExecuteResponseDocument res, String dataTypeReference){
 		OutputDataType output = prepareOutput(res);
 		String processValue = BasicXMLTypeFactory.getStringRepresentation(dataTypeReference, obj);
@@ -192,6 +262,19 @@ public class OutputDataItem extends ResponseData {
 	}
 
 	public void updateResponseAsReference(ExecuteResponseDocument res, String reqID, String mimeType) throws ExceptionReport {
+		DatabaseBatch batch = DatabaseFactory.getDatabase().beginBatch();
+		try {
+			updateResponseAsReference(res, reqID, mimeType, batch);
+			batch.commit();
+		} finally {
+			batch.close();
+		}
+	}
+
+	/**
+	 * Stores the output with the given batch and references it in the response.
+	 */
+	public void updateResponseAsReference(ExecuteResponseDocument res, String reqID, String mimeType, DatabaseBatch batch) throws ExceptionReport {
 		prepareGenerator();
 		OutputDataType output = prepareOutput(res);
 		InputStream stream;
@@ -206,29 +289,21 @@ public class OutputDataItem extends ResponseData {
 		if (mimeType != null) {
 			outReference.setMimeType(mimeType);
 		}
-		IDatabase db = DatabaseFactory.getDatabase();
 		String storeID = reqID + "" + id;
 
 		try {
-			if (encoding == null || encoding.equals("") || encoding.equalsIgnoreCase(IOHandler.DEFAULT_ENCODING)){
-				stream = generator.generateStream(super.obj, mimeType, schema);
-			}
-
-			// in case encoding is base64
-			else if (encoding.equalsIgnoreCase(IOHandler.ENCODING_BASE64)){
-				stream = generator.generateBase64Stream(super.obj, mimeType, schema);
-			}
-
-			else {
-				throw new ExceptionReport("Unable to generate encoding " + encoding, ExceptionReport.NO_APPLICABLE_CODE);
-			}
+			stream = generateStream();
+		}
+		catch (RuntimeException e){
+			LOGGER.error(e.getMessage(), e);
+			throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
 		}
 		catch (IOException e){
 			LOGGER.error(e.getMessage(), e);
 			throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
 		}
 
-		String storeReference = db.storeComplexValue(storeID, stream, COMPLEX_DATA_TYPE, mimeType);
+		String storeReference = batch.storeComplexValue(storeID, stream, COMPLEX_DATA_TYPE, mimeType);
 		storeReference = storeReference.replace("#", "%23");
 		outReference.setHref(storeReference);
 		// MSS:  05-02-2009 changed default output type to text/xml to be certain that the calling application doesn't
@@ -31,10 +31,13 @@ package org.n52.wps.server.response;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import net.opengis.wps.x100.ProcessDescriptionType;
 
-import org.n52.wps.io.IOHandler;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.n52.wps.io.data.IBBOXData;
 import org.n52.wps.io.data.IComplexData;
 import org.n52.wps.io.data.IData;
@@ -53,6 +56,9 @@ import com.google.common.primitives.Doubles;
 public class RawData extends ResponseData {
     public static final Joiner SPACE_JOINER = Joiner.on(" ");
 
+    // complex data is generated into the result cache while it is saved
+    private ResultCache.Writer cacheWriter;
+
 	/**
 	 * @param obj
 	 * @param id
@@ -100,17 +106,72 @@ public class RawData extends ResponseData {
                 return new ByteArrayInputStream(builder.toString().getBytes(Charsets.UTF_8));
             }
             //complexdata
-            if(encoding == null || "".equals(encoding) || encoding.equalsIgnoreCase(IOHandler.DEFAULT_ENCODING)){
-                return generator.generateStream(obj, mimeType, schema);
+            if (cacheWriter != null) {
+                super.cacheComplexData(cacheWriter);
+                cacheWriter = null;
             }
-            else if(encoding.equalsIgnoreCase(IOHandler.ENCODING_BASE64)){
-                return generator.generateBase64Stream(obj, mimeType, schema);
+            return generateStream();
+        } catch (IOException e) {
+            throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+        } catch (RuntimeException e) {
+            throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+        }
+    }
+
+    /**
+     * Remembers the writer of the result cache entry, the complex data is
+     * generated into the entry while it is written by {@link #save(OutputStream)}.
+     */
+    @Override
+    public void cacheComplexData(ResultCache.Writer writer) throws ExceptionReport {
+        cacheWriter = writer;
+    }
 
+    /**
+     * Writes the raw data to the given stream. Complex data of generators that
+     * implement {@link org.n52.wps.io.IStreamingGenerator} is written while it
+     * is generated, without a temporary file in between.
+     *
+     * @param os the stream to write to, usually the stream of the client
+     * @throws ExceptionReport
+     */
+    public void save(OutputStream os) throws ExceptionReport {
+        if (cacheWriter != null && obj instanceof IComplexData && !(obj instanceof CachedComplexData)) {
+            ResultCache.Writer writer = cacheWriter;
+            cacheWriter = null;
+            OutputStream copy = isBase64Encoded() ? new Base64OutputStream(new CloseShieldOutputStream(os), true) : os;
+            try {
+                obj = writer.write(id, generator, obj, mimeType, schema, copy);
+                if (copy != os) {
+                    // writes the end of the base64 encoding
+                    copy.close();
+                }
+            } catch (IOException e) {
+                throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+            } catch (RuntimeException e) {
+                throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+            }
+            return;
+        }
+        if (!(obj instanceof IComplexData) || obj instanceof CachedComplexData) {
+            InputStream is = getAsStream();
+            try {
+                IOUtils.copy(is, os);
+            } catch (IOException e) {
+                throw new ExceptionReport("Could not read from response stream.", ExceptionReport.NO_APPLICABLE_CODE, e);
+            } finally {
+                IOUtils.closeQuietly(is);
             }
+            return;
+        }
+        try {
+            org.n52.wps.io.IOUtils.generate(generator, obj, os, mimeType, schema, isBase64Encoded());
         } catch (IOException e) {
             throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+        } catch (RuntimeException e) {
+            // generators that do not declare their failures
+            throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
         }
-        throw new ExceptionReport("Could not determine encoding. Use default (=not set) or base64", ExceptionReport.NO_APPLICABLE_CODE);
     }
 
     private StringBuilder appendAttr(StringBuilder builder, String key, Object value) {
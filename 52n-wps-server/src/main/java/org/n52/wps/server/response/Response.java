@@ -28,9 +28,12 @@
  */
 package org.n52.wps.server.response;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.UUID;
 
+import org.apache.commons.io.IOUtils;
 import org.n52.wps.server.ExceptionReport;
 import org.n52.wps.server.request.Request;
 
@@ -53,6 +56,21 @@ abstract public class Response {
 	
 	public abstract InputStream getAsStream() throws ExceptionReport;
 	
+	/**
+	 * Writes this response to the given stream. Subclasses may override this
+	 * to write without creating an intermediate stream.
+	 */
+	public void save(OutputStream os) throws ExceptionReport {
+		InputStream is = getAsStream();
+		try {
+			IOUtils.copy(is, os);
+		} catch (IOException e) {
+			throw new ExceptionReport("Could not read from response stream.", ExceptionReport.NO_APPLICABLE_CODE, e);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+	
 	public Request getRequest(){
 		return request;
 	}
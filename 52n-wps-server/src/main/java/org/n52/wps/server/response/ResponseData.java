@@ -28,6 +28,8 @@
  */
 package org.n52.wps.server.response;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,10 +37,13 @@ import net.opengis.wps.x100.ComplexDataDescriptionType;
 import net.opengis.wps.x100.OutputDescriptionType;
 import net.opengis.wps.x100.ProcessDescriptionType;
 
+import org.apache.commons.codec.binary.Base64InputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.n52.wps.io.GeneratorFactory;
 import org.n52.wps.io.IGenerator;
+import org.n52.wps.io.IOHandler;
+import org.n52.wps.io.data.IComplexData;
 import org.n52.wps.io.data.IData;
 import org.n52.wps.server.ExceptionReport;
 import org.n52.wps.server.RepositoryManager;
@@ -339,6 +344,10 @@ public abstract class ResponseData {
 	}
 
 	protected void prepareGenerator() throws ExceptionReport {
+		if (obj instanceof CachedComplexData) {
+			// already generated
+			return;
+		}
 		Class<?> algorithmOutput = RepositoryManager.getInstance().getOutputDataTypeForAlgorithm(this.algorithmIdentifier, id);
 		
 		LOGGER.debug("Looking for matching Generator: schema: {}, mimeType {}, encoding: {}", schema, mimeType, encoding);
@@ -347,12 +356,66 @@ public abstract class ResponseData {
 		this.generator =  factory.getGenerator(this.schema, this.mimeType, this.encoding, algorithmOutput);
 		
 		if(this.generator != null){ 
-			LOGGER.info("Using generator " + generator.getClass().getName() + " for Schema: " + schema);
+			LOGGER.debug("Using generator {} for schema: {}", generator, schema);
 		}
 		if(this.generator == null) {
 			throw new ExceptionReport("Could not find an appropriate generator based on given mimetype/schema/encoding for output", ExceptionReport.NO_APPLICABLE_CODE);
 		}
 	}
+
+	/**
+	 * Generates the complex data into a result cache entry, the data is served
+	 * from the entry afterwards.
+	 *
+	 * @param writer the writer of the result cache entry
+	 * @throws ExceptionReport
+	 */
+	public void cacheComplexData(ResultCache.Writer writer) throws ExceptionReport {
+		if (!(obj instanceof IComplexData) || obj instanceof CachedComplexData) {
+			return;
+		}
+		if (generator == null) {
+			prepareGenerator();
+		}
+		try {
+			obj = writer.write(id, generator, obj, mimeType, schema);
+		} catch (IOException e) {
+			throw new ExceptionReport("Error while generating Complex Data out of the process result", ExceptionReport.NO_APPLICABLE_CODE, e);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the complex data is requested base64
+	 *         encoded, <code>false</code> for the default encoding
+	 * @throws ExceptionReport if the encoding is not supported
+	 */
+	protected boolean isBase64Encoded() throws ExceptionReport {
+		if (encoding == null || encoding.equals("") || encoding.equalsIgnoreCase(IOHandler.DEFAULT_ENCODING)){
+			return false;
+		}
+		else if (encoding.equalsIgnoreCase(IOHandler.ENCODING_BASE64)){
+			return true;
+		}
+		throw new ExceptionReport("Unable to generate encoding " + encoding, ExceptionReport.NO_APPLICABLE_CODE);
+	}
+
+	/**
+	 * Generates the complex data in the requested encoding.
+	 *
+	 * @return the generated data
+	 * @throws IOException
+	 * @throws ExceptionReport if the encoding is not supported
+	 */
+	protected InputStream generateStream() throws IOException, ExceptionReport {
+		boolean base64 = isBase64Encoded();
+		if (obj instanceof CachedComplexData) {
+			InputStream stream = ((CachedComplexData) obj).openStream();
+			return base64 ? new Base64InputStream(stream, true) : stream;
+		}
+		return base64 ?
+				generator.generateBase64Stream(obj, mimeType, schema) :
+				generator.generateStream(obj, mimeType, schema);
+	}
 	
 }
 
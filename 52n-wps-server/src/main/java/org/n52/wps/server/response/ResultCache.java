@@ -0,0 +1,585 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import net.opengis.wps.x100.DocumentOutputDefinitionType;
+import net.opengis.wps.x100.ExecuteDocument;
+import net.opengis.wps.x100.OutputDefinitionType;
+import net.opengis.wps.x100.ResponseFormType;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.n52.wps.ServerDocument.Server;
+import org.n52.wps.commons.PropertyUtil;
+import org.n52.wps.commons.WPSConfig;
+import org.n52.wps.io.IGenerator;
+import org.n52.wps.io.data.IComplexData;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.server.ExceptionReport;
+import org.n52.wps.server.IAlgorithm;
+import org.n52.wps.server.request.ExecutionDeduplicator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Disk cache for the results of deterministic processes.
+ * 
+ * An entry holds the generated complex outputs and the literal and bounding box
+ * outputs of one execution. Entries are keyed by the execution (process,
+ * version and data inputs, see
+ * {@link ExecutionDeduplicator#createKey(ExecuteDocument, String)}) and the
+ * requested outputs, so a repeated request is answered from the entry without
+ * parsing its inputs, running the process or generating its outputs. The cache
+ * is bounded by size (least recently used entries are evicted first) and by
+ * the age of its entries. Executions with inputs given by reference are not
+ * cached (see {@link ExecutionDeduplicator#hasReferenceInputs(ExecuteDocument)}).
+ * 
+ * Complex outputs of a cacheable execution are generated into the entry and
+ * served from there as reference or inline output, raw data is written to the
+ * client while it is generated into the entry. Only one request records the
+ * entry of a key, identical requests wait for it instead of generating the
+ * same outputs again (see {@link #awaitLookup(String)}).
+ */
+public class ResultCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultCache.class);
+
+    private static final String KEY_ROOT = "org.n52.wps.server";
+    private static final String KEY_ENABLED = "resultcache.enabled";
+    private static final String KEY_PATH = "resultcache.path";
+    private static final String KEY_SIZE = "resultcache.size";
+    private static final String KEY_TTL = "resultcache.ttl";
+
+    private static final boolean DEFAULT_ENABLED = true;
+    // entries are deserialized when read, so they must not live in a shared
+    // directory like java.io.tmpdir
+    private static final String DEFAULT_PATH =
+            Joiner.on(File.separator).join(
+                System.getProperty("user.home", "."),
+                ".52n-wps",
+                "ResultCache");
+    private static final long DEFAULT_SIZE = 1024 * 1024 * 256; // 256MB
+    private static final long DEFAULT_TTL = 1000 * 60 * 60 * 24; // P1D
+
+    private static final String FILE_RESULTS = "results";
+    private static final String SUFFIX_TEMP = ".tmp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ResultCache instance;
+
+    private final boolean enabled;
+    private final File baseDirectory;
+    private final long maximumSize;
+    private final long ttl;
+
+    // access ordered, eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries;
+    // keys of the entries currently recorded by a writer
+    private final Set<String> recording = new HashSet<String>();
+    private long size;
+
+    ResultCache(boolean enabled, File baseDirectory, long maximumSize, long ttl) {
+        this.enabled = enabled && isPrivate(baseDirectory);
+        this.baseDirectory = baseDirectory;
+        this.maximumSize = maximumSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        if (this.enabled) {
+            LOGGER.info("Using \"{}\" as base directory for the result cache", baseDirectory);
+            load();
+        }
+    }
+
+    public static synchronized ResultCache getInstance() {
+        if (instance == null) {
+            Server server = WPSConfig.getInstance().getWPSConfig().getServer();
+            PropertyUtil propertyUtil = new PropertyUtil(server.getPropertyArray(), KEY_ROOT);
+            instance = new ResultCache(
+                    propertyUtil.extractBoolean(KEY_ENABLED, DEFAULT_ENABLED),
+                    new File(propertyUtil.extractString(KEY_PATH, DEFAULT_PATH)),
+                    propertyUtil.extractLong(KEY_SIZE, DEFAULT_SIZE),
+                    propertyUtil.extractPeriodAsMillis(KEY_TTL, DEFAULT_TTL));
+        }
+        return instance;
+    }
+
+    /**
+     * Creates the base directory accessible by its owner only. An existing
+     * directory other users may write to is rejected, they could plant
+     * entries that are deserialized when read.
+     * 
+     * @return <code>true</code> if the directory may be used
+     */
+    private static boolean isPrivate(File baseDirectory) {
+        Path path = baseDirectory.toPath();
+        try {
+            if (!baseDirectory.exists()) {
+                Files.createDirectories(path);
+                if (Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                    Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwx------"));
+                }
+            }
+            if (Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+                if (permissions.contains(PosixFilePermission.GROUP_WRITE) ||
+                        permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    LOGGER.warn("Result cache directory \"{}\" is writable by other users, disabling the result cache", baseDirectory);
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to prepare result cache directory \"{}\", disabling the result cache", baseDirectory, e);
+            return false;
+        }
+    }
+
+    /**
+     * @param algorithm
+     *        the algorithm to be executed
+     * @param execDom
+     *        the Execute request
+     * @return <code>true</code> if the results of the execution may be cached
+     */
+    public boolean isCacheable(IAlgorithm algorithm, ExecuteDocument execDom) {
+        return enabled && ExecutionDeduplicator.isDeterministic(algorithm) &&
+                !ExecutionDeduplicator.hasReferenceInputs(execDom);
+    }
+
+    /**
+     * Creates the key of a cache entry from the execution and the requested
+     * outputs. Status, lineage and store flags of the response form do not
+     * contribute to the key.
+     * 
+     * @param execDom
+     *        the Execute request
+     * @param version
+     *        the version of the process
+     * @return the hex encoded SHA-256 hash identifying the entry
+     * @throws ExceptionReport
+     *         if the key could not be computed
+     */
+    public static String createKey(ExecuteDocument execDom, String version) throws ExceptionReport {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ExceptionReport("Unable to compute result cache key", ExceptionReport.NO_APPLICABLE_CODE, e);
+        }
+        update(digest, ExecutionDeduplicator.createKey(execDom, version));
+        ResponseFormType responseForm = execDom.getExecute().getResponseForm();
+        if (responseForm != null) {
+            if (responseForm.isSetRawDataOutput()) {
+                update(digest, "raw");
+                update(digest, responseForm.getRawDataOutput());
+            } else if (responseForm.isSetResponseDocument()) {
+                for (DocumentOutputDefinitionType output : responseForm.getResponseDocument().getOutputArray()) {
+                    update(digest, output.getAsReference() ? "reference" : "inline");
+                    update(digest, output);
+                }
+            }
+        }
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+    private static void update(MessageDigest digest, OutputDefinitionType output) {
+        update(digest, output.getIdentifier().getStringValue());
+        update(digest, output.getMimeType());
+        update(digest, output.getSchema());
+        update(digest, output.getEncoding());
+        update(digest, output.getUom());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(String.valueOf(value).getBytes(UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Looks up the results of an execution. Complex outputs are returned as
+     * {@link CachedComplexData} which have to be disposed once they are served.
+     * 
+     * @param key
+     *        the key as created by {@link #createKey(ExecuteDocument, String)}
+     * @return the results or <code>null</code> if not cached
+     */
+    public Map<String, IData> lookup(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(entry)) {
+                evict(key);
+                return null;
+            }
+            // keeps the entry while the results are read
+            entry.retain();
+        }
+        try {
+            Map<String, IData> results = entry.read();
+            LOGGER.info("Serving results of execution {} from result cache", key);
+            return results;
+        } catch (Exception e) {
+            LOGGER.warn("Unable to read result cache entry {}, evicting", key, e);
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    evict(key);
+                }
+            }
+            return null;
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Looks up the results of an execution, waiting while another request
+     * records them.
+     * 
+     * @param key
+     *        the key as created by {@link #createKey(ExecuteDocument, String)}
+     * @return the results or <code>null</code> if not cached
+     * @throws ExceptionReport
+     *         if interrupted while waiting
+     */
+    public Map<String, IData> awaitLookup(String key) throws ExceptionReport {
+        synchronized (this) {
+            while (recording.contains(key)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ExceptionReport("Interrupted while waiting for cached results", ExceptionReport.NO_APPLICABLE_CODE, e);
+                }
+            }
+        }
+        return lookup(key);
+    }
+
+    /**
+     * Starts recording the results of an execution.
+     * 
+     * @param key
+     *        the key as created by {@link #createKey(ExecuteDocument, String)}
+     * @return the writer the complex outputs are generated into,
+     *         <code>null</code> if another request is recording them
+     */
+    public synchronized Writer newWriter(String key) {
+        if (!recording.add(key)) {
+            return null;
+        }
+        File directory = new File(baseDirectory, key + "-" + UUID.randomUUID());
+        directory.mkdirs();
+        return new Writer(new Entry(key, directory));
+    }
+
+    private synchronized void recorded(String key) {
+        recording.remove(key);
+        notifyAll();
+    }
+
+    private synchronized void commit(Entry entry) {
+        Entry existing = entries.get(entry.key);
+        if (existing != null && !isExpired(existing)) {
+            // an identical execution finished first
+            entry.release();
+            return;
+        }
+        if (existing != null) {
+            evict(entry.key);
+        }
+        entries.put(entry.key, entry);
+        size += entry.size;
+        LOGGER.debug("Cached results of execution {} ({} bytes)", entry.key, entry.size);
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (size <= maximumSize && !isExpired(eldest)) {
+                break;
+            }
+            iterator.remove();
+            size -= eldest.size;
+            eldest.release();
+        }
+    }
+
+    private void evict(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+            entry.release();
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.created > ttl;
+    }
+
+    private synchronized void load() {
+        File[] directories = baseDirectory.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            File results = new File(directory, FILE_RESULTS);
+            int separator = directory.getName().indexOf('-');
+            if (!directory.isDirectory() || separator < 0 || !results.exists()) {
+                FileUtils.deleteQuietly(directory);
+                continue;
+            }
+            Entry entry = new Entry(directory.getName().substring(0, separator), directory);
+            entry.created = results.lastModified();
+            entry.size = FileUtils.sizeOfDirectory(directory);
+            Entry existing = entries.get(entry.key);
+            if (isExpired(entry) || (existing != null && existing.created >= entry.created)) {
+                entry.release();
+                continue;
+            }
+            if (existing != null) {
+                evict(entry.key);
+            }
+            entries.put(entry.key, entry);
+            size += entry.size;
+        }
+        LOGGER.info("Loaded {} result cache entries ({} bytes)", entries.size(), size);
+    }
+
+    /**
+     * Records the results of an execution. The entry becomes visible to
+     * lookups once it is committed. The complex data generated into the entry
+     * has to be disposed by {@link #dispose()} once it is served.
+     */
+    public class Writer {
+
+        private final Entry entry;
+        private final HashMap<String, String> complexOutputs = new HashMap<String, String>();
+        private final List<CachedComplexData> written = new ArrayList<CachedComplexData>();
+        private boolean open = true;
+
+        private Writer(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return <code>true</code> until the entry is committed or aborted
+         */
+        public synchronized boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Generates complex data into the entry.
+         * 
+         * @return the generated data, read from the entry
+         * @throws IOException
+         *         if the data could not be generated
+         */
+        public CachedComplexData write(String id, IGenerator generator, IData data, String mimeType, String schema) throws IOException {
+            return write(id, generator, data, mimeType, schema, null);
+        }
+
+        /**
+         * Generates complex data into the entry and writes it to
+         * <code>copy</code> while it is generated.
+         * 
+         * @param copy
+         *        the stream to write the data to as well, it is not closed
+         * @return the generated data, read from the entry
+         * @throws IOException
+         *         if the data could not be generated
+         */
+        public synchronized CachedComplexData write(String id, IGenerator generator, IData data, String mimeType, String schema,
+                OutputStream copy) throws IOException {
+            if (!open) {
+                throw new IllegalStateException("Result cache entry " + entry.key + " is closed");
+            }
+            String name = "output-" + complexOutputs.size();
+            File file = new File(entry.directory, name);
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            if (copy != null) {
+                os = new TeeOutputStream(os, new CloseShieldOutputStream(copy));
+            }
+            try {
+                org.n52.wps.io.IOUtils.generate(generator, data, os, mimeType, schema, false);
+            } finally {
+                os.close();
+            }
+            complexOutputs.put(id, name);
+            entry.retain();
+            CachedComplexData cachedData = new CachedComplexData(file, entry);
+            written.add(cachedData);
+            return cachedData;
+        }
+
+        /**
+         * Makes the entry visible to lookups.
+         * 
+         * @param results
+         *        the results of the execution, the literal and bounding box
+         *        outputs are stored with the entry
+         */
+        public synchronized void commit(Map<String, IData> results) {
+            if (!open) {
+                return;
+            }
+            HashMap<String, IData> outputs = new HashMap<String, IData>();
+            for (Map.Entry<String, IData> result : results.entrySet()) {
+                if (!(result.getValue() instanceof IComplexData)) {
+                    outputs.put(result.getKey(), result.getValue());
+                }
+            }
+            File temp = new File(entry.directory, FILE_RESULTS + SUFFIX_TEMP);
+            ObjectOutputStream oos = null;
+            try {
+                oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                oos.writeObject(outputs);
+                oos.writeObject(complexOutputs);
+                oos.close();
+                if (!temp.renameTo(new File(entry.directory, FILE_RESULTS))) {
+                    throw new IOException("Unable to rename " + temp);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Unable to cache results of execution {}", entry.key, e);
+                IOUtils.closeQuietly(oos);
+                abort();
+                return;
+            }
+            open = false;
+            entry.created = System.currentTimeMillis();
+            entry.size = FileUtils.sizeOfDirectory(entry.directory);
+            ResultCache.this.commit(entry);
+            recorded(entry.key);
+        }
+
+        /**
+         * Discards the entry.
+         */
+        public synchronized void abort() {
+            if (open) {
+                open = false;
+                entry.release();
+                recorded(entry.key);
+            }
+        }
+
+        /**
+         * Disposes the complex data generated into the entry.
+         */
+        public synchronized void dispose() {
+            for (CachedComplexData cachedData : written) {
+                cachedData.dispose();
+            }
+        }
+    }
+
+    /**
+     * Directory of a cache entry, deleted once it has been evicted and all of
+     * its complex data has been disposed.
+     */
+    static class Entry {
+
+        private final String key;
+        private final File directory;
+        private int references = 1;
+        private volatile long created;
+        private volatile long size;
+
+        private Entry(String key, File directory) {
+            this.key = key;
+            this.directory = directory;
+        }
+
+        private synchronized void retain() {
+            references++;
+        }
+
+        synchronized void release() {
+            if (--references == 0) {
+                LOGGER.debug("Deleting result cache entry {}", directory);
+                FileUtils.deleteQuietly(directory);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, IData> read() throws IOException, ClassNotFoundException {
+            Map<String, IData> outputs;
+            Map<String, String> complexOutputs;
+            InputStream is = new BufferedInputStream(new FileInputStream(new File(directory, FILE_RESULTS)));
+            try {
+                ObjectInputStream ois = new ObjectInputStream(is);
+                outputs = (Map<String, IData>) ois.readObject();
+                complexOutputs = (Map<String, String>) ois.readObject();
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+            Map<String, IData> results = new HashMap<String, IData>(outputs);
+            for (Map.Entry<String, String> complexOutput : complexOutputs.entrySet()) {
+                retain();
+                results.put(complexOutput.getKey(), new CachedComplexData(new File(directory, complexOutput.getValue()), this));
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.response;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Copies StAX events from a reader to a writer. Used to write the execute
+ * response envelope and embedded generator output without building an
+ * intermediate XmlBeans tree.
+ */
+final class XMLStreamCopier {
+
+    private XMLStreamCopier() {
+    }
+
+    /**
+     * Copies all remaining events of <code>reader</code> as a fragment, i.e.
+     * without the document start and end events.
+     */
+    static void copyFragment(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        while (reader.hasNext()) {
+            reader.next();
+            copyEvent(reader, writer);
+        }
+    }
+
+    /**
+     * Copies the current event of <code>reader</code>. Document start/end and
+     * DTD events are skipped, so the result can be nested in another
+     * document.
+     */
+    static void copyEvent(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+            copyStartElement(reader, writer);
+            break;
+        case XMLStreamConstants.END_ELEMENT:
+            writer.writeEndElement();
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+            writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            break;
+        case XMLStreamConstants.CDATA:
+            writer.writeCData(reader.getText());
+            break;
+        case XMLStreamConstants.COMMENT:
+            writer.writeComment(reader.getText());
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+            break;
+        case XMLStreamConstants.ENTITY_REFERENCE:
+            writer.writeEntityRef(reader.getLocalName());
+            break;
+        default:
+            // START_DOCUMENT, END_DOCUMENT, DTD
+            break;
+        }
+    }
+
+    /**
+     * Writes the start tag of the current element including its namespace
+     * declarations and attributes.
+     */
+    static void copyStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        String prefix = reader.getPrefix();
+        String namespace = reader.getNamespaceURI();
+        if (namespace == null) {
+            writer.writeStartElement(reader.getLocalName());
+        } else {
+            writer.writeStartElement(prefix == null ? "" : prefix, reader.getLocalName(), namespace);
+        }
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String nsPrefix = reader.getNamespacePrefix(i);
+            if (nsPrefix == null || nsPrefix.isEmpty()) {
+                writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+            } else {
+                writer.writeNamespace(nsPrefix, reader.getNamespaceURI(i));
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attrNamespace = reader.getAttributeNamespace(i);
+            if (attrNamespace == null || attrNamespace.isEmpty()) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                writer.writeAttribute(reader.getAttributePrefix(i), attrNamespace,
+                        reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    /**
+     * Advances <code>reader</code>, which must be positioned on a start
+     * element, to its matching end element.
+     */
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.wps.server.database.IDatabase;
+import org.n52.wps.server.database.ResultMetadata;
+
+import com.google.common.base.Charsets;
+
+public class RetrieveResultServletTest {
+
+    static final String CONTENT = "0123456789";
+    static final String CHECKSUM = "0123abcd";
+    static final long CREATED = 1400000000000L;
+
+    String id;
+    ResultMetadata metadata;
+    byte[] content;
+    Map<String, String> requestHeaders;
+    Map<String, String> responseHeaders;
+    int status;
+    ByteArrayOutputStream body;
+    File file;
+
+    @Before
+    public void setUp() {
+        id = UUID.randomUUID().toString();
+        content = CONTENT.getBytes(Charsets.UTF_8);
+        metadata = new ResultMetadata("text/plain", content.length, content.length, null, CREATED, CHECKSUM);
+        requestHeaders = new HashMap<String, String>();
+        responseHeaders = new HashMap<String, String>();
+        status = HttpServletResponse.SC_OK;
+        body = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @Test
+    public void testWholeContentIsServedWithLengthAndETag() throws Exception {
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals(CONTENT, body());
+        assertEquals("10", responseHeaders.get("Content-Length"));
+        assertEquals("\"" + CHECKSUM + "\"", responseHeaders.get("ETag"));
+        assertEquals("bytes", responseHeaders.get("Accept-Ranges"));
+    }
+
+    @Test
+    public void testSuffixRange() throws Exception {
+        requestHeaders.put("Range", "bytes=-3");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+        assertEquals("bytes 7-9/10", responseHeaders.get("Content-Range"));
+        assertEquals("3", responseHeaders.get("Content-Length"));
+        assertEquals("789", body());
+    }
+
+    @Test
+    public void testSuffixRangeLongerThanContent() throws Exception {
+        requestHeaders.put("Range", "bytes=-20");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+        assertEquals("bytes 0-9/10", responseHeaders.get("Content-Range"));
+        assertEquals(CONTENT, body());
+    }
+
+    @Test
+    public void testRangeIsLimitedToContent() throws Exception {
+        requestHeaders.put("Range", "bytes=8-100");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+        assertEquals("bytes 8-9/10", responseHeaders.get("Content-Range"));
+        assertEquals("89", body());
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws Exception {
+        requestHeaders.put("Range", "bytes=10-");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, status);
+        assertEquals("bytes */10", responseHeaders.get("Content-Range"));
+        assertEquals("", body());
+    }
+
+    @Test
+    public void testUnsatisfiableSuffixRange() throws Exception {
+        requestHeaders.put("Range", "bytes=-0");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, status);
+    }
+
+    @Test
+    public void testIfRangeMatchServesRange() throws Exception {
+        requestHeaders.put("Range", "bytes=0-1");
+        requestHeaders.put("If-Range", "\"" + CHECKSUM + "\"");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, status);
+        assertEquals("01", body());
+    }
+
+    @Test
+    public void testIfRangeMismatchServesWholeContent() throws Exception {
+        requestHeaders.put("Range", "bytes=0-1");
+        requestHeaders.put("If-Range", "\"other\"");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertNull(responseHeaders.get("Content-Range"));
+        assertEquals(CONTENT, body());
+    }
+
+    @Test
+    public void testIfRangeWithWeakTagServesWholeContent() throws Exception {
+        requestHeaders.put("Range", "bytes=0-1");
+        requestHeaders.put("If-Range", "W/\"" + CHECKSUM + "\"");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals(CONTENT, body());
+    }
+
+    @Test
+    public void testIfNoneMatchWithWeakTag() throws Exception {
+        requestHeaders.put("If-None-Match", "\"other\", W/\"" + CHECKSUM + "\"");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+        assertEquals("\"" + CHECKSUM + "\"", responseHeaders.get("ETag"));
+        assertEquals("", body());
+    }
+
+    @Test
+    public void testIfNoneMatchMismatchServesContent() throws Exception {
+        requestHeaders.put("If-None-Match", "\"other\"");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals(CONTENT, body());
+    }
+
+    @Test
+    public void testIfModifiedSinceOfStoredValue() throws Exception {
+        requestHeaders.put("If-Modified-Since", Long.toString(CREATED + 1000));
+        retrieve();
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+    }
+
+    @Test
+    public void testXmlIgnoresIfModifiedSince() throws Exception {
+        content = "<Status/>".getBytes(Charsets.UTF_8);
+        metadata = new ResultMetadata("text/xml", content.length, content.length, null, CREATED, null);
+        requestHeaders.put("If-Modified-Since", Long.toString(CREATED + 1000));
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertNull(responseHeaders.get("Last-Modified"));
+        assertTrue(body().contains("Status"));
+    }
+
+    @Test
+    public void testXmlNotModifiedKeepsNoCacheHeaders() throws Exception {
+        content = "<Status/>".getBytes(Charsets.UTF_8);
+        metadata = new ResultMetadata("text/xml", content.length, content.length, null, CREATED, CHECKSUM);
+        requestHeaders.put("If-None-Match", "W/\"" + CHECKSUM + "\"");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+        assertEquals("W/\"" + CHECKSUM + "\"", responseHeaders.get("ETag"));
+        assertEquals("no-cache, no-store", responseHeaders.get("Cache-Control"));
+    }
+
+    @Test
+    public void testGzipPassThroughETag() throws Exception {
+        byte[] compressed = storeCompressed();
+        requestHeaders.put("Accept-Encoding", "deflate, gzip");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+        assertEquals("\"" + CHECKSUM + "-gzip\"", responseHeaders.get("ETag"));
+        assertEquals(Integer.toString(compressed.length), responseHeaders.get("Content-Length"));
+        assertEquals("Accept-Encoding", responseHeaders.get("Vary"));
+        assertArrayEquals(compressed, body.toByteArray());
+    }
+
+    @Test
+    public void testGzipPassThroughIsNotMatchedByIdentityETag() throws Exception {
+        storeCompressed();
+        requestHeaders.put("Accept-Encoding", "gzip");
+        requestHeaders.put("If-None-Match", "\"" + CHECKSUM + "\"");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals("gzip", responseHeaders.get("Content-Encoding"));
+    }
+
+    @Test
+    public void testGzipNotAcceptedIsDecoded() throws Exception {
+        storeCompressed();
+        requestHeaders.put("Accept-Encoding", "gzip;q=0");
+        retrieve();
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertFalse(responseHeaders.containsKey("Content-Encoding"));
+        assertEquals("\"" + CHECKSUM + "\"", responseHeaders.get("ETag"));
+        assertEquals(CONTENT, body());
+    }
+
+    private byte[] storeCompressed() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream outputStream = new GZIPOutputStream(compressed);
+        outputStream.write(content);
+        outputStream.close();
+        file = File.createTempFile("wps-result", ".gz");
+        FileUtils.writeByteArrayToFile(file, compressed.toByteArray());
+        metadata = new ResultMetadata("text/plain", compressed.size(), content.length, "gzip", CREATED, CHECKSUM).withFile(file);
+        return compressed.toByteArray();
+    }
+
+    private String body() {
+        return new String(body.toByteArray(), Charsets.UTF_8);
+    }
+
+    private void retrieve() throws Exception {
+        RetrieveResultServlet servlet = new RetrieveResultServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected IDatabase getDatabase() {
+                return createDatabase();
+            }
+        };
+        servlet.doGet(createRequest(), createResponse());
+    }
+
+    private IDatabase createDatabase() {
+        return (IDatabase) Proxy.newProxyInstance(IDatabase.class.getClassLoader(),
+                                                  new Class< ? >[] {IDatabase.class},
+                                                  new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getMetadataForStoreResponse")) {
+                    return id.equals(args[0]) ? metadata : null;
+                }
+                if (method.getName().equals("lookupResponse")) {
+                    return id.equals(args[0]) ? new ByteArrayInputStream(content) : null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private HttpServletRequest createRequest() {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                                                           new Class< ? >[] {HttpServletRequest.class},
+                                                           new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getParameter")) {
+                    return "id".equals(args[0]) ? id : null;
+                }
+                if (method.getName().equals("getHeader")) {
+                    return requestHeaders.get(args[0]);
+                }
+                if (method.getName().equals("getDateHeader")) {
+                    String value = requestHeaders.get(args[0]);
+                    if (value == null) {
+                        return -1L;
+                    }
+                    try {
+                        return Long.valueOf(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(value);
+                    }
+                }
+                if (method.getName().equals("getAttribute")) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private HttpServletResponse createResponse() {
+        final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+        };
+        return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+                                                            new Class< ? >[] {HttpServletResponse.class},
+                                                            new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("setHeader") || name.equals("addHeader") || name.equals("setDateHeader")) {
+                    responseHeaders.put((String) args[0], String.valueOf(args[1]));
+                } else if (name.equals("setStatus")) {
+                    status = (Integer) args[0];
+                } else if (name.equals("getOutputStream")) {
+                    return outputStream;
+                } else if (name.equals("getWriter")) {
+                    return new PrintWriter(body);
+                } else if (!name.equals("setContentType")) {
+                    throw new UnsupportedOperationException(name);
+                }
+                return null;
+            }
+        });
+    }
+}
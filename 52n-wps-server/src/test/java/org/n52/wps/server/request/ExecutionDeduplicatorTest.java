@@ -0,0 +1,197 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import net.opengis.wps.x100.DataInputsType;
+import net.opengis.wps.x100.ExecuteDocument;
+import net.opengis.wps.x100.ExecuteDocument.Execute;
+import net.opengis.wps.x100.InputType;
+
+import org.junit.Test;
+import org.n52.wps.commons.context.TempFileManager;
+import org.n52.wps.io.data.IComplexData;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.server.ExceptionReport;
+import org.n52.wps.server.request.ExecutionDeduplicator.SharedExecution;
+
+public class ExecutionDeduplicatorTest {
+
+    @Test
+    public void testKeyIgnoresInputOrder() throws ExceptionReport {
+        String key1 = ExecutionDeduplicator.createKey(createExecute("a", "1", "b", "2"), "1.0.0");
+        String key2 = ExecutionDeduplicator.createKey(createExecute("b", "2", "a", "1"), "1.0.0");
+        assertEquals(key1, key2);
+    }
+
+    @Test
+    public void testKeyDependsOnValuesAndVersion() throws ExceptionReport {
+        String key = ExecutionDeduplicator.createKey(createExecute("a", "1", "b", "2"), "1.0.0");
+        assertFalse(key.equals(ExecutionDeduplicator.createKey(createExecute("a", "1", "b", "3"), "1.0.0")));
+        assertFalse(key.equals(ExecutionDeduplicator.createKey(createExecute("a", "1", "b", "2"), "1.0.1")));
+        // order of repeated inputs is significant
+        assertFalse(ExecutionDeduplicator.createKey(createExecute("a", "1", "a", "2"), "1.0.0").equals(
+                ExecutionDeduplicator.createKey(createExecute("a", "2", "a", "1"), "1.0.0")));
+    }
+
+    @Test
+    public void testConcurrentExecutionsShareResults() throws ExceptionReport {
+        ExecutionDeduplicator deduplicator = new ExecutionDeduplicator(true, 0, 0);
+        SharedExecution first = deduplicator.join("key");
+        SharedExecution second = deduplicator.join("key");
+        assertSame(first, second);
+        assertTrue(first.claim());
+        assertFalse(second.claim());
+
+        DisposableData data = new DisposableData();
+        first.complete(Collections.<String, IData>singletonMap("out", data), null, null);
+        Map<String, IData> results = second.await();
+        assertSame(data, results.get("out"));
+
+        first.release();
+        assertFalse(data.disposed);
+        second.release();
+        assertTrue(data.disposed);
+
+        // nothing is kept without a ttl
+        assertNotSame(first, deduplicator.join("key"));
+    }
+
+    @Test
+    public void testRecentResultsAreReused() throws ExceptionReport {
+        ExecutionDeduplicator deduplicator = new ExecutionDeduplicator(true, 60 * 1000, 4);
+        SharedExecution first = deduplicator.join("key");
+        assertTrue(first.claim());
+        DisposableData data = new DisposableData();
+        first.complete(Collections.<String, IData>singletonMap("out", data), null, null);
+        first.release();
+        assertFalse(data.disposed);
+
+        SharedExecution repeated = deduplicator.join("key");
+        assertSame(first, repeated);
+        assertFalse(repeated.claim());
+        assertSame(data, repeated.await().get("out"));
+        repeated.release();
+        assertFalse(data.disposed);
+    }
+
+    @Test
+    public void testTempFilesAreRemovedWithSharedResults() throws ExceptionReport, IOException {
+        ExecutionDeduplicator deduplicator = new ExecutionDeduplicator(true, 0, 0);
+        SharedExecution first = deduplicator.join("key");
+        SharedExecution second = deduplicator.join("key");
+        assertTrue(first.claim());
+
+        TempFileManager tempFiles = new TempFileManager();
+        File file = tempFiles.register(File.createTempFile("shared", ".tmp"));
+        DisposableData data = new DisposableData();
+        first.complete(Collections.<String, IData>singletonMap("out", data), null, tempFiles);
+        assertSame(data, second.await().get("out"));
+
+        // the computing request is done while the other one still uses the results
+        first.release();
+        assertTrue(file.exists());
+        second.release();
+        assertTrue(data.disposed);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testFailuresAreNotReused() {
+        ExecutionDeduplicator deduplicator = new ExecutionDeduplicator(true, 60 * 1000, 4);
+        SharedExecution first = deduplicator.join("key");
+        SharedExecution second = deduplicator.join("key");
+        assertTrue(first.claim());
+        first.fail(new RuntimeException("failed"));
+        try {
+            second.await();
+            assertTrue("ExceptionReport expected", false);
+        } catch (ExceptionReport e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+        first.release();
+        second.release();
+        assertNotSame(first, deduplicator.join("key"));
+    }
+
+    @Test
+    public void testReferenceInputsAreDetected() {
+        assertFalse(ExecutionDeduplicator.hasReferenceInputs(createExecute("a", "1")));
+        ExecuteDocument document = createExecute("a", "1");
+        InputType input = document.getExecute().getDataInputs().addNewInput();
+        input.addNewIdentifier().setStringValue("b");
+        input.addNewReference().setHref("http://localhost/data.xml");
+        assertTrue(ExecutionDeduplicator.hasReferenceInputs(document));
+    }
+
+    private static ExecuteDocument createExecute(String... identifiersAndValues) {
+        ExecuteDocument document = ExecuteDocument.Factory.newInstance();
+        Execute execute = document.addNewExecute();
+        execute.addNewIdentifier().setStringValue("org.n52.wps.test.Process");
+        DataInputsType dataInputs = execute.addNewDataInputs();
+        for (int i = 0; i < identifiersAndValues.length; i += 2) {
+            InputType input = dataInputs.addNewInput();
+            input.addNewIdentifier().setStringValue(identifiersAndValues[i]);
+            input.addNewData().addNewLiteralData().setStringValue(identifiersAndValues[i + 1]);
+        }
+        return document;
+    }
+
+    private static class DisposableData implements IComplexData {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean disposed;
+
+        @Override
+        public Object getPayload() {
+            return null;
+        }
+
+        @Override
+        public Class<?> getSupportedClass() {
+            return Object.class;
+        }
+
+        @Override
+        public void dispose() {
+            disposed = true;
+        }
+    }
+}
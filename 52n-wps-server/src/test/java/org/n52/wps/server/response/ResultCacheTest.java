@@ -0,0 +1,196 @@
+/**
+ * ﻿Copyright (C) 2007 - 2014 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *       • Apache License, version 2.0
+ *       • Apache Software License, version 1.0
+ *       • GNU Lesser General Public License, version 3
+ *       • Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *       • Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.wps.server.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Map;
+
+import net.opengis.wps.x100.DocumentOutputDefinitionType;
+import net.opengis.wps.x100.ExecuteDocument;
+import net.opengis.wps.x100.ExecuteDocument.Execute;
+import net.opengis.wps.x100.InputType;
+import net.opengis.wps.x100.ResponseDocumentType;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.data.binding.literal.LiteralStringBinding;
+import org.n52.wps.server.ExceptionReport;
+
+public class ResultCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("ResultCacheTest", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testCommittedResultsAreFound() {
+        ResultCache cache = new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertNull(cache.lookup("key"));
+        commit(cache, "key", "value");
+
+        Map<String, IData> results = cache.lookup("key");
+        assertNotNull(results);
+        assertEquals("value", results.get("out").getPayload());
+    }
+
+    @Test
+    public void testAbortedResultsAreDiscarded() {
+        ResultCache cache = new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE);
+        cache.newWriter("key").abort();
+        assertNull(cache.lookup("key"));
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testResultsSurviveRestart() {
+        commit(new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE), "key", "value");
+        ResultCache cache = new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals("value", cache.lookup("key").get("out").getPayload());
+    }
+
+    @Test
+    public void testSharedDirectoryIsRejected() throws IOException {
+        commit(new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE), "key", "value");
+        Path path = directory.toPath();
+        Assume.assumeTrue(Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class));
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertNull(new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE).lookup("key"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultsAreEvicted() {
+        commit(new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE), "size", "value1");
+        long entrySize = FileUtils.sizeOfDirectory(directory);
+        FileUtils.deleteQuietly(directory);
+
+        ResultCache cache = new ResultCache(true, directory, entrySize * 2, Long.MAX_VALUE);
+        commit(cache, "key1", "value1");
+        commit(cache, "key2", "value2");
+        assertNotNull(cache.lookup("key1"));
+        commit(cache, "key3", "value3");
+        assertNotNull(cache.lookup("key1"));
+        assertNull(cache.lookup("key2"));
+        assertNotNull(cache.lookup("key3"));
+    }
+
+    @Test
+    public void testExpiredResultsAreEvicted() throws InterruptedException {
+        ResultCache cache = new ResultCache(true, directory, Long.MAX_VALUE, 10);
+        commit(cache, "key", "value");
+        Thread.sleep(50);
+        assertNull(cache.lookup("key"));
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testResultsAreRecordedOnce() throws ExceptionReport {
+        ResultCache cache = new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE);
+        ResultCache.Writer writer = cache.newWriter("key");
+        assertNull(cache.newWriter("key"));
+        writer.abort();
+        assertNull(cache.awaitLookup("key"));
+        commit(cache, "key", "value");
+        assertEquals("value", cache.awaitLookup("key").get("out").getPayload());
+    }
+
+    @Test
+    public void testLookupWaitsForRecordedResults() throws Exception {
+        final ResultCache cache = new ResultCache(true, directory, Long.MAX_VALUE, Long.MAX_VALUE);
+        final ResultCache.Writer writer = cache.newWriter("key");
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                writer.commit(Collections.<String, IData>singletonMap("out", new LiteralStringBinding("value")));
+            }
+        };
+        thread.start();
+        Map<String, IData> results = cache.awaitLookup("key");
+        thread.join();
+        assertNotNull(results);
+        assertEquals("value", results.get("out").getPayload());
+    }
+
+    @Test
+    public void testKeyDependsOnRequestedOutputs() throws ExceptionReport {
+        String key = ResultCache.createKey(createExecute("text/xml", false), "1.0.0");
+        assertEquals(key, ResultCache.createKey(createExecute("text/xml", true), "1.0.0"));
+        assertFalse(key.equals(ResultCache.createKey(createExecute("application/json", false), "1.0.0")));
+    }
+
+    private static void commit(ResultCache cache, String key, String value) {
+        ResultCache.Writer writer = cache.newWriter(key);
+        writer.commit(Collections.<String, IData>singletonMap("out", new LiteralStringBinding(value)));
+        writer.dispose();
+    }
+
+    private static ExecuteDocument createExecute(String mimeType, boolean status) {
+        ExecuteDocument document = ExecuteDocument.Factory.newInstance();
+        Execute execute = document.addNewExecute();
+        execute.addNewIdentifier().setStringValue("org.n52.wps.test.Process");
+        InputType input = execute.addNewDataInputs().addNewInput();
+        input.addNewIdentifier().setStringValue("in");
+        input.addNewData().addNewLiteralData().setStringValue("value");
+        ResponseDocumentType responseDocument = execute.addNewResponseForm().addNewResponseDocument();
+        responseDocument.setStatus(status);
+        DocumentOutputDefinitionType output = responseDocument.addNewOutput();
+        output.addNewIdentifier().setStringValue("out");
+        output.setMimeType(mimeType);
+        return document;
+    }
+}